@@ -31,6 +31,7 @@ import java.util.WeakHashMap;
 import com.berniecode.ogre.enginelib.ClientEngine;
 import com.berniecode.ogre.enginelib.Entity;
 import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.Property;
 import com.berniecode.ogre.enginelib.UnsafeAccess;
 
 /**
@@ -90,6 +91,14 @@ public class ClientFacade {
 		return result;
 	}
 
+	/**
+	 * @return the number of instances of the specified type currently in the object graph. This
+	 *         does not create any facades.
+	 */
+	public int getEntityCount(Class<?> entityClass) {
+		return clientEngine.getEntityCount(getClassForEntityType(entityClass));
+	}
+
 	/**
 	 * @return a specific instance by type and id
 	 */
@@ -99,6 +108,119 @@ public class ClientFacade {
 		return getFacadeForEntity(entityClass, entity);
 	}
 
+	/**
+	 * Index a property of the specified class so that it can be searched with
+	 * {@link #getEntitiesByProperty(Class, String, Object)}.
+	 * 
+	 * @param propertyName the name of the property in the type domain, e.g. "foo_bar" for the
+	 *            getter method "getFooBar()"
+	 * 
+	 * @see ClientEngine#addHashIndex(Property)
+	 */
+	public void addIndex(Class<?> entityClass, String propertyName) {
+		clientEngine.addHashIndex(getProperty(entityClass, propertyName));
+	}
+
+	/**
+	 * @return the instances of the specified type whose value for an indexed property is equal to
+	 *         {@code value}. For reference properties, the value may be another facade object.
+	 * 
+	 * @see ClientEngine#getEntitiesByPropertyValue(Property, Object)
+	 */
+	public <T> List<T> getEntitiesByProperty(Class<T> entityClass, String propertyName, Object value) {
+		Property property = getProperty(entityClass, propertyName);
+		if (value instanceof EntityProxy) {
+			value = ((EntityProxy) value).getProxiedEntity();
+		}
+		return getFacadesForEntities(entityClass, clientEngine.getEntitiesByPropertyValue(property, value));
+	}
+
+	/**
+	 * Index a numeric or string property of the specified class so that it can be queried with
+	 * {@link #getEntitiesInRange(Class, String, Object, Object)} and
+	 * {@link #getTopEntities(Class, String, int)}.
+	 * 
+	 * @see ClientEngine#addSortedIndex(Property)
+	 */
+	public void addSortedIndex(Class<?> entityClass, String propertyName) {
+		clientEngine.addSortedIndex(getProperty(entityClass, propertyName));
+	}
+
+	/**
+	 * @return the instances of the specified type whose value for a sorted property is between
+	 *         {@code min} and {@code max} inclusive, in ascending order
+	 * 
+	 * @see ClientEngine#getEntitiesInRange(Property, Object, Object)
+	 */
+	public <T> List<T> getEntitiesInRange(Class<T> entityClass, String propertyName, Object min, Object max) {
+		Property property = getProperty(entityClass, propertyName);
+		return getFacadesForEntities(entityClass, clientEngine.getEntitiesInRange(property, min, max));
+	}
+
+	/**
+	 * @return up to {@code count} instances of the specified type with the highest values for a
+	 *         sorted property, in descending order
+	 * 
+	 * @see ClientEngine#getTopEntities(Property, int)
+	 */
+	public <T> List<T> getTopEntities(Class<T> entityClass, String propertyName, int count) {
+		Property property = getProperty(entityClass, propertyName);
+		return getFacadesForEntities(entityClass, clientEngine.getTopEntities(property, count));
+	}
+
+	/**
+	 * @return the position of a facade object when its type is sorted in ascending order of a
+	 *         sorted property, or -1 if it is no longer in the object graph
+	 * 
+	 * @see ClientEngine#getRank(Property, Entity)
+	 */
+	public int getRank(Object object, String propertyName) {
+		if (!(object instanceof EntityProxy)) {
+			throw new ClientFacadeException(object + " is not a facade created by " + this);
+		}
+		Entity entity = ((EntityProxy) object).getProxiedEntity();
+		return clientEngine.getRank(getProperty(entity.getEntityType(), propertyName), entity);
+	}
+
+	/**
+	 * Index the position of instances of the specified class, given by two numeric properties, so
+	 * that they can be queried with
+	 * {@link #getEntitiesInRectangle(Class, String, String, double, double, double, double)} and
+	 * {@link #getNearestEntities(Class, String, String, double, double, int)}.
+	 * 
+	 * @see ClientEngine#addSpatialIndex(Property, Property, double)
+	 */
+	public void addSpatialIndex(Class<?> entityClass, String xPropertyName, String yPropertyName, double cellSize) {
+		clientEngine.addSpatialIndex(getProperty(entityClass, xPropertyName), getProperty(entityClass, yPropertyName),
+				cellSize);
+	}
+
+	/**
+	 * @return the instances of the specified type positioned within a rectangle
+	 * 
+	 * @see ClientEngine#getEntitiesInRectangle(Property, Property, double, double, double, double)
+	 */
+	public <T> List<T> getEntitiesInRectangle(Class<T> entityClass, String xPropertyName, String yPropertyName,
+			double minX, double minY, double maxX, double maxY) {
+		Property xProperty = getProperty(entityClass, xPropertyName);
+		Property yProperty = getProperty(entityClass, yPropertyName);
+		return getFacadesForEntities(entityClass, clientEngine.getEntitiesInRectangle(xProperty, yProperty, minX,
+				minY, maxX, maxY));
+	}
+
+	/**
+	 * @return up to {@code count} instances of the specified type closest to a point, nearest
+	 *         first
+	 * 
+	 * @see ClientEngine#getNearestEntities(Property, Property, double, double, int)
+	 */
+	public <T> List<T> getNearestEntities(Class<T> entityClass, String xPropertyName, String yPropertyName,
+			double x, double y, int count) {
+		Property xProperty = getProperty(entityClass, xPropertyName);
+		Property yProperty = getProperty(entityClass, yPropertyName);
+		return getFacadesForEntities(entityClass, clientEngine.getNearestEntities(xProperty, yProperty, x, y, count));
+	}
+
 	//
 	// PRIVATE MACHINERY
 	//
@@ -111,6 +233,26 @@ public class ClientFacade {
 		return entityType;
 	}
 
+	private Property getProperty(Class<?> entityClass, String propertyName) {
+		return getProperty(getClassForEntityType(entityClass), propertyName);
+	}
+
+	private Property getProperty(EntityType entityType, String propertyName) {
+		Property property = entityType.getPropertyByName(propertyName);
+		if (property == null) {
+			throw new ClientFacadeException(entityType + " does not contain a property called '" + propertyName + "'");
+		}
+		return property;
+	}
+
+	private <T> List<T> getFacadesForEntities(Class<T> entityClass, Entity[] entities) {
+		List<T> result = new ArrayList<T>();
+		for (Entity entity : entities) {
+			result.add(getFacadeForEntity(entityClass, entity));
+		}
+		return result;
+	}
+
 	private <T> T getFacadeForEntity(Class<T> entityClass, Entity entity) {
 		T object = entityClass.cast(entityToObject.get(entity));
 		if (object != null) {
@@ -0,0 +1,208 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.client;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+
+import com.berniecode.ogre.EDRDeserialiser;
+import com.berniecode.ogre.EDRSerialiser;
+import com.berniecode.ogre.enginelib.GraphCache;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.enginelib.TypeDomain;
+import com.berniecode.ogre.enginelib.platformhooks.OgreException;
+import com.berniecode.ogre.wireformat.OgreWireFormatDeserialiser;
+import com.berniecode.ogre.wireformat.OgreWireFormatSerialiser;
+
+/**
+ * A {@link GraphCache} that keeps a snapshot of an object graph in a file.
+ * 
+ * <p>
+ * The file has a header stamped with a fingerprint of the type domain, the object graph id, and
+ * the data version scheme and data version of the snapshot, followed by the snapshot in the OGRE
+ * wire format. A snapshot is only loaded if its header matches the type domain and object graph
+ * being loaded, so a cache written by a client with a different version of the type domain is
+ * ignored rather than misread. Snapshots are written to a temporary file which then replaces the
+ * cache file, so a client that dies while writing leaves the previous snapshot intact.
+ * 
+ * @author Bernie Sumption
+ */
+public class FileGraphCache implements GraphCache {
+
+	private static final byte[] FILE_HEADER = new byte[] { 'O', 'G', 'R', 'E', 'c', '1' };
+
+	private final File file;
+	private final EDRSerialiser serialiser;
+	private final EDRDeserialiser deserialiser;
+
+	/**
+	 * Create a cache that stores snapshots in a file in the OGRE wire format
+	 */
+	public FileGraphCache(File file) {
+		this(file, new OgreWireFormatSerialiser(), new OgreWireFormatDeserialiser());
+	}
+
+	/**
+	 * Create a cache that stores snapshots in a file using a custom serialiser and deserialiser
+	 */
+	public FileGraphCache(File file, EDRSerialiser serialiser, EDRDeserialiser deserialiser) {
+		this.file = file;
+		this.serialiser = serialiser;
+		this.deserialiser = deserialiser;
+	}
+
+	/**
+	 * @return the file that snapshots are stored in
+	 */
+	public File getFile() {
+		return file;
+	}
+
+	@Override
+	public GraphUpdate loadSnapshot(TypeDomain typeDomain, String objectGraphId) {
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+			try {
+				return loadSnapshot(in, typeDomain, objectGraphId);
+			} finally {
+				in.close();
+			}
+		} catch (EOFException e) {
+			OgreLog.warn("FileGraphCache: ignoring " + file + " because it is truncated");
+		} catch (IOException e) {
+			OgreLog.warn("FileGraphCache: could not read " + file + ": " + e.getMessage());
+		} catch (OgreException e) {
+			OgreLog.warn("FileGraphCache: ignoring " + file + " because it is corrupt: " + e.getMessage());
+		}
+		return null;
+	}
+
+	@Override
+	public void storeSnapshot(GraphUpdate snapshot) {
+		byte[] fingerprint = getFingerprint(snapshot.getTypeDomain());
+		byte[] payload = serialiser.serialiseGraphUpdate(snapshot);
+		File temp = new File(file.getPath() + ".tmp");
+		try {
+			byte[] objectGraphId = snapshot.getObjectGraphId().getBytes("UTF-8");
+			FileOutputStream fos = new FileOutputStream(temp);
+			try {
+				DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+				out.write(FILE_HEADER);
+				out.writeInt(fingerprint.length);
+				out.write(fingerprint);
+				out.writeInt(objectGraphId.length);
+				out.write(objectGraphId);
+				out.writeInt(snapshot.getDataVersionScheme());
+				out.writeInt(snapshot.getDataVersion());
+				out.writeInt(payload.length);
+				out.write(payload);
+				out.flush();
+				fos.getFD().sync();
+			} finally {
+				fos.close();
+			}
+		} catch (IOException e) {
+			throw new OgreException("Could not write graph cache " + temp, e);
+		}
+		// renameTo won't replace an existing file on all platforms
+		if (!temp.renameTo(file) && !(file.delete() && temp.renameTo(file))) {
+			throw new OgreException("Could not replace graph cache " + file + " with " + temp);
+		}
+		OgreLog.info("FileGraphCache: stored data version " + snapshot.getDataVersion() + " of "
+				+ snapshot.getObjectGraphId() + " in " + file);
+	}
+
+	//
+	// PRIVATE MACHINERY
+	//
+
+	/**
+	 * Read the header of a cache file, and the snapshot that follows it if the header matches
+	 * 
+	 * @return the snapshot, or null if the header doesn't match
+	 */
+	private GraphUpdate loadSnapshot(DataInputStream in, TypeDomain typeDomain, String objectGraphId)
+			throws IOException {
+		if (!Arrays.equals(readBytes(in, FILE_HEADER.length), FILE_HEADER)) {
+			OgreLog.warn("FileGraphCache: ignoring " + file + " because it is not a graph cache file");
+			return null;
+		}
+		if (!Arrays.equals(readBytes(in, in.readInt()), getFingerprint(typeDomain))) {
+			OgreLog.info("FileGraphCache: ignoring " + file + " because it was stored with a different type domain");
+			return null;
+		}
+		if (!new String(readBytes(in, in.readInt()), "UTF-8").equals(objectGraphId)) {
+			OgreLog.info("FileGraphCache: ignoring " + file + " because it holds a different object graph");
+			return null;
+		}
+		int dataVersionScheme = in.readInt();
+		int dataVersion = in.readInt();
+		GraphUpdate snapshot = deserialiser.deserialiseGraphUpdate(readBytes(in, in.readInt()), typeDomain);
+		if (snapshot.getDataVersionScheme() != dataVersionScheme || snapshot.getDataVersion() != dataVersion) {
+			OgreLog.warn("FileGraphCache: ignoring " + file + " because its header does not match the snapshot "
+					+ "it contains");
+			return null;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Read a length-prefixed field, checking the length against the bytes left in the file before
+	 * allocating anything
+	 * 
+	 * @throws EOFException if the file is too short to hold the field
+	 */
+	private static byte[] readBytes(DataInputStream in, int length) throws IOException {
+		if (length < 0 || length > in.available()) {
+			throw new EOFException();
+		}
+		byte[] bytes = new byte[length];
+		in.readFully(bytes);
+		return bytes;
+	}
+
+	/**
+	 * @return a hash of the serialised form of a type domain, which changes if any entity type or
+	 *         property is added, removed, renamed or retyped
+	 */
+	private byte[] getFingerprint(TypeDomain typeDomain) {
+		try {
+			return MessageDigest.getInstance("SHA-1").digest(serialiser.serialiseTypeDomain(typeDomain));
+		} catch (NoSuchAlgorithmException e) {
+			throw new OgreException("SHA-1 is not available", e);
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.client;
+
+import java.util.Timer;
+import java.util.TimerTask;
+
+import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.enginelib.platformhooks.ClientMetrics;
+import com.berniecode.ogre.enginelib.platformhooks.MetricsSink;
+
+/**
+ * Periodically pushes the metrics in a {@link ClientMetrics} registry to a {@link MetricsSink} on a
+ * background thread, for monitoring systems that expect to be sent metrics rather than poll for
+ * them over JMX.
+ * 
+ * @author Bernie Sumption
+ */
+public class MetricsReporter {
+
+	private final ClientMetrics metrics;
+	private final MetricsSink sink;
+	private Timer timer;
+
+	public MetricsReporter(ClientMetrics metrics, MetricsSink sink) {
+		this.metrics = metrics;
+		this.sink = sink;
+	}
+
+	/**
+	 * Start reporting the metrics every {@code periodMillis} milliseconds. This method has no effect
+	 * if the reporter has already been started.
+	 */
+	public synchronized void start(long periodMillis) {
+		if (timer != null) {
+			return;
+		}
+		timer = new Timer("MetricsReporter", true);
+		timer.scheduleAtFixedRate(new TimerTask() {
+			@Override
+			public void run() {
+				try {
+					metrics.report(sink);
+				} catch (RuntimeException e) {
+					// if this was thrown out of the timer thread, reporting would stop for good
+					OgreLog.error("MetricsReporter: could not report metrics: {}", e);
+				}
+			}
+		}, periodMillis, periodMillis);
+	}
+
+	/**
+	 * Stop reporting the metrics
+	 */
+	public synchronized void stop() {
+		if (timer != null) {
+			timer.cancel();
+			timer = null;
+		}
+	}
+
+}
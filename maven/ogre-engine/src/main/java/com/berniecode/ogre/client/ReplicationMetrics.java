@@ -0,0 +1,211 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.client;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.berniecode.ogre.enginelib.ClientEngine;
+import com.berniecode.ogre.enginelib.platformhooks.ClientMetrics;
+import com.berniecode.ogre.enginelib.platformhooks.OgreException;
+
+/**
+ * Exposes a {@link ClientMetrics} registry as a JMX MBean, so that the replication of an object
+ * graph can be monitored with standard JMX tools, and alerts raised on clients that fall behind.
+ * 
+ * <p>
+ * The simplest way to use this class is to call {@link #register(ClientEngine)} after giving the
+ * engine a {@link ClientMetrics} registry. The MBean is registered with the platform MBean server
+ * under the name "com.berniecode.ogre:type=ReplicationMetrics,name=<i>typeDomainId/objectGraphId</i>".
+ * 
+ * @author Bernie Sumption
+ */
+public class ReplicationMetrics implements ReplicationMetricsMBean {
+
+	public static final String DOMAIN = "com.berniecode.ogre";
+
+	private final ClientMetrics metrics;
+
+	public ReplicationMetrics(ClientMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Register the metrics registry of a {@link ClientEngine} with the platform MBean server
+	 * 
+	 * @return the name that the MBean was registered under
+	 * @throws OgreException if the engine has no metrics registry, or the MBean could not be
+	 *             registered
+	 */
+	public static ObjectName register(ClientEngine engine) {
+		if (engine.getMetrics() == null) {
+			throw new OgreException(engine + " has no metrics registry");
+		}
+		return register(engine.getMetrics(), engine.getTypeDomainId() + "/" + engine.getObjectGraphId());
+	}
+
+	/**
+	 * Register a metrics registry with the platform MBean server
+	 * 
+	 * @param name identifies the replicated object graph in the MBean's name
+	 * @return the name that the MBean was registered under
+	 * @throws OgreException if the MBean could not be registered
+	 */
+	public static ObjectName register(ClientMetrics metrics, String name) {
+		try {
+			ObjectName objectName = getObjectName(name);
+			ManagementFactory.getPlatformMBeanServer().registerMBean(new ReplicationMetrics(metrics), objectName);
+			return objectName;
+		} catch (JMException e) {
+			throw new OgreException("Could not register metrics MBean '" + name + "'", e);
+		}
+	}
+
+	/**
+	 * Remove an MBean registered by one of the register() methods from the platform MBean server.
+	 * This method has no effect if no such MBean is registered.
+	 */
+	public static void unregister(ObjectName objectName) {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			if (server.isRegistered(objectName)) {
+				server.unregisterMBean(objectName);
+			}
+		} catch (JMException e) {
+			throw new OgreException("Could not unregister metrics MBean " + objectName, e);
+		}
+	}
+
+	/**
+	 * @return the name under which the metrics for a replicated object graph are registered
+	 */
+	public static ObjectName getObjectName(String name) {
+		try {
+			return new ObjectName(DOMAIN + ":type=ReplicationMetrics,name=" + ObjectName.quote(name));
+		} catch (JMException e) {
+			throw new OgreException("Invalid metrics MBean name '" + name + "'", e);
+		}
+	}
+
+	public long getUpdatesApplied() {
+		return metrics.getUpdatesApplied();
+	}
+
+	public double getUpdatesPerSecond() {
+		return metrics.getUpdatesPerSecond();
+	}
+
+	public long getApplyLatencyCount() {
+		return metrics.getApplyLatency().getCount();
+	}
+
+	public double getApplyLatencyMean() {
+		return metrics.getApplyLatency().getMeanMicros();
+	}
+
+	public double getApplyLatencyMax() {
+		return metrics.getApplyLatency().getMaxMicros();
+	}
+
+	public long getApplyLatency50thPercentile() {
+		return metrics.getApplyLatency().getPercentileMicros(50);
+	}
+
+	public long getApplyLatency99thPercentile() {
+		return metrics.getApplyLatency().getPercentileMicros(99);
+	}
+
+	public long getApplyLatency999thPercentile() {
+		return metrics.getApplyLatency().getPercentileMicros(99.9);
+	}
+
+	public long getEntitiesCreated() {
+		return metrics.getEntitiesCreated();
+	}
+
+	public long getEntitiesUpdated() {
+		return metrics.getEntitiesUpdated();
+	}
+
+	public long getEntitiesDeleted() {
+		return metrics.getEntitiesDeleted();
+	}
+
+	public int getLastEntitiesCreated() {
+		return metrics.getLastEntitiesCreated();
+	}
+
+	public int getLastEntitiesUpdated() {
+		return metrics.getLastEntitiesUpdated();
+	}
+
+	public int getLastEntitiesDeleted() {
+		return metrics.getLastEntitiesDeleted();
+	}
+
+	public long getMessagesReceived() {
+		return metrics.getMessagesReceived();
+	}
+
+	public long getBytesReceived() {
+		return metrics.getBytesReceived();
+	}
+
+	public double getDecodeLatencyMean() {
+		return metrics.getDecodeLatency().getMeanMicros();
+	}
+
+	public double getDecodeLatencyMax() {
+		return metrics.getDecodeLatency().getMaxMicros();
+	}
+
+	public long getDecodeLatency99thPercentile() {
+		return metrics.getDecodeLatency().getPercentileMicros(99);
+	}
+
+	public long getVersionGaps() {
+		return metrics.getVersionGaps();
+	}
+
+	public long getMissingVersions() {
+		return metrics.getMissingVersions();
+	}
+
+	public long getObjectGraphReloads() {
+		return metrics.getObjectGraphReloads();
+	}
+
+	public int getAppliedDataVersion() {
+		return metrics.getAppliedDataVersion();
+	}
+
+	public int getReceivedDataVersion() {
+		return metrics.getReceivedDataVersion();
+	}
+
+	public int getDataVersionLag() {
+		return metrics.getDataVersionLag();
+	}
+
+}
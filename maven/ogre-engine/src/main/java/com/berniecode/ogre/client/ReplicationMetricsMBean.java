@@ -0,0 +1,80 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.client;
+
+/**
+ * The JMX management interface of {@link ReplicationMetrics}. Latencies are in microseconds.
+ * 
+ * @author Bernie Sumption
+ */
+public interface ReplicationMetricsMBean {
+
+	long getUpdatesApplied();
+
+	double getUpdatesPerSecond();
+
+	long getApplyLatencyCount();
+
+	double getApplyLatencyMean();
+
+	double getApplyLatencyMax();
+
+	long getApplyLatency50thPercentile();
+
+	long getApplyLatency99thPercentile();
+
+	long getApplyLatency999thPercentile();
+
+	long getEntitiesCreated();
+
+	long getEntitiesUpdated();
+
+	long getEntitiesDeleted();
+
+	int getLastEntitiesCreated();
+
+	int getLastEntitiesUpdated();
+
+	int getLastEntitiesDeleted();
+
+	long getMessagesReceived();
+
+	long getBytesReceived();
+
+	double getDecodeLatencyMean();
+
+	double getDecodeLatencyMax();
+
+	long getDecodeLatency99thPercentile();
+
+	long getVersionGaps();
+
+	long getMissingVersions();
+
+	long getObjectGraphReloads();
+
+	int getAppliedDataVersion();
+
+	int getReceivedDataVersion();
+
+	int getDataVersionLag();
+
+}
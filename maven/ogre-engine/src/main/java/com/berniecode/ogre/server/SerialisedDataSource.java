@@ -20,7 +20,10 @@
 
 package com.berniecode.ogre.server;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
 import java.util.Set;
 
 import com.berniecode.ogre.EDRSerialiser;
@@ -46,8 +49,14 @@ public class SerialisedDataSource extends InitialisingBean {
 
 	// private Object[] CHANGE_LOCK = new Object();
 
+	/**
+	 * The default number of recent graph updates retained for clients that have missed them
+	 */
+	public static final int DEFAULT_HISTORY_SIZE = 100;
+
 	private DataSource dataSource;
 	private EDRSerialiser serialiser;
+	private int historySize = DEFAULT_HISTORY_SIZE;
 
 	//
 	// CONFIGURATION AND INITIALISATION
@@ -89,6 +98,16 @@ public class SerialisedDataSource extends InitialisingBean {
 		this.serialiser = serialiser;
 	}
 
+	/**
+	 * Set the number of recent graph updates to retain, so that clients that have missed some can
+	 * request them again with {@link #getSerialisedGraphUpdates(int, int, int)}. If no value is
+	 * provided, {@link #DEFAULT_HISTORY_SIZE} is used.
+	 */
+	public void setHistorySize(int historySize) {
+		requireInitialised(false, "setHistorySize()");
+		this.historySize = historySize;
+	}
+
 	@Override
 	protected void doInitialise() {
 		requireNotNull(dataSource, "dataSource");
@@ -122,6 +141,9 @@ public class SerialisedDataSource extends InitialisingBean {
 
 	Set<Listener> listeners = new HashSet<Listener>();
 
+	// the most recent serialised graph updates, oldest first
+	private final LinkedList<HistoryEntry> history = new LinkedList<HistoryEntry>();
+
 	private final Object SNAPSHOT_CACHE_LOCK = new Object();
 
 	public byte[] getTypeDomain() {
@@ -144,6 +166,65 @@ public class SerialisedDataSource extends InitialisingBean {
 		}
 	}
 
+	/**
+	 * @return recent serialised graph updates with data versions from <code>fromDataVersion</code>
+	 *         to <code>toDataVersion</code> inclusive, in order, or null if any of them are no longer
+	 *         retained or belong to a different data version scheme
+	 */
+	public byte[][] getSerialisedGraphUpdates(int dataVersionScheme, int fromDataVersion, int toDataVersion) {
+		if (toDataVersion < fromDataVersion) {
+			return null;
+		}
+		// the range comes from the network, so check it against the history before allocating. The
+		// width is computed as a long because to - from + 1 overflows an int for extreme ranges
+		long width = (long) toDataVersion - fromDataVersion + 1;
+		byte[][] result;
+		synchronized (history) {
+			if (width > history.size()) {
+				return null;
+			}
+			result = new byte[(int) width][];
+			for (HistoryEntry entry : history) {
+				if (entry.dataVersionScheme == dataVersionScheme && entry.dataVersion >= fromDataVersion
+						&& entry.dataVersion <= toDataVersion) {
+					result[entry.dataVersion - fromDataVersion] = entry.message;
+				}
+			}
+		}
+		for (int i = 0; i < result.length; i++) {
+			if (result[i] == null) {
+				return null;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return recent serialised graph updates from the one with data version
+	 *         <code>fromDataVersion</code> to the most recent inclusive, in order, or null if the
+	 *         update with that data version is no longer retained, or if any later update belongs to
+	 *         a different data version scheme
+	 */
+	public byte[][] getSerialisedGraphUpdatesFrom(int dataVersionScheme, int fromDataVersion) {
+		List<byte[]> result = null;
+		synchronized (history) {
+			for (HistoryEntry entry : history) {
+				if (result == null) {
+					if (entry.dataVersionScheme == dataVersionScheme && entry.dataVersion == fromDataVersion) {
+						result = new ArrayList<byte[]>();
+						result.add(entry.message);
+					}
+				} else if (entry.dataVersionScheme == dataVersionScheme
+						&& entry.dataVersion == fromDataVersion + result.size()) {
+					result.add(entry.message);
+				} else {
+					return null;
+				}
+			}
+		}
+		return result == null ? null : result.toArray(new byte[result.size()][]);
+	}
+
 	/**
 	 * Add a listener to be notified about graph updates. If the listener has already been added,
 	 * there is no effect
@@ -174,7 +255,7 @@ public class SerialisedDataSource extends InitialisingBean {
 	}
 
 	private void doAcceptGraphUpdate(GraphUpdate graphUpdate) {
-		OgreLog.info("SerialisedDataSource: broadcasting graph update " + graphUpdate);
+		OgreLog.info("SerialisedDataSource: broadcasting graph update {}", graphUpdate);
 		if (OgreLog.isDebugEnabled()) {
 			OgreLog.debug(EDRDescriber.describeGraphUpdate(graphUpdate));
 		}
@@ -186,9 +267,29 @@ public class SerialisedDataSource extends InitialisingBean {
 			copy = new HashSet<Listener>(listeners);
 		}
 		byte[] update = serialiser.serialiseGraphUpdate(graphUpdate);
+		if (historySize > 0) {
+			synchronized (history) {
+				history.add(new HistoryEntry(graphUpdate.getDataVersionScheme(), graphUpdate.getDataVersion(), update));
+				while (history.size() > historySize) {
+					history.removeFirst();
+				}
+			}
+		}
 		for (Listener listener : copy) {
 			listener.acceptSerialisedGraphUpdate(update);
 		}
 	}
 
+	private static class HistoryEntry {
+		final int dataVersionScheme;
+		final int dataVersion;
+		final byte[] message;
+
+		HistoryEntry(int dataVersionScheme, int dataVersion, byte[] message) {
+			this.dataVersionScheme = dataVersionScheme;
+			this.dataVersion = dataVersion;
+			this.message = message;
+		}
+	}
+
 }
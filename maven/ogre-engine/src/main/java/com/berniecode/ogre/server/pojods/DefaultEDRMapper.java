@@ -29,6 +29,7 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.berniecode.ogre.InitialisingBean;
 import com.berniecode.ogre.Utils;
@@ -302,7 +303,8 @@ public class DefaultEDRMapper extends InitialisingBean implements EDRMapper {
 		return new EntityValue(entityType, getIdForObject(entityObject), values);
 	}
 
-	Map<Class<?>, EntityType> entityTypeForObjectCache = new HashMap<Class<?>, EntityType>();
+	// concurrent, since PojoDataSource may map objects on several threads
+	Map<Class<?>, EntityType> entityTypeForObjectCache = new ConcurrentHashMap<Class<?>, EntityType>();
 
 	/**
 	 * Get the {@link EntityType} for an object
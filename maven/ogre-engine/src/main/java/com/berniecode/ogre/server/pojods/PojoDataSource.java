@@ -23,11 +23,17 @@ package com.berniecode.ogre.server.pojods;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
 
 import com.berniecode.ogre.InitialisingBean;
 import com.berniecode.ogre.enginelib.DataSource;
@@ -40,8 +46,12 @@ import com.berniecode.ogre.enginelib.EntityValue;
 import com.berniecode.ogre.enginelib.GraphUpdate;
 import com.berniecode.ogre.enginelib.GraphUpdateListener;
 import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.ReferenceProperty;
 import com.berniecode.ogre.enginelib.TypeDomain;
 import com.berniecode.ogre.enginelib.UnsafeAccess;
+import com.berniecode.ogre.enginelib.platformhooks.OgreException;
+import com.berniecode.ogre.enginelib.platformhooks.ValueUtils;
 import com.berniecode.ogre.server.EDRMapper;
 import com.berniecode.ogre.server.IdMapper;
 
@@ -62,18 +72,41 @@ import com.berniecode.ogre.server.IdMapper;
  * proportion to both the size of the object graph, and the frequency of calls to
  * {@link #setEntityObjects(Object...)}.
  * 
+ * <p>
+ * If you know which objects have changed, you can instead report them with
+ * {@link #add(Object...)}, {@link #markDirty(Object...)} and {@link #remove(Object...)}, which only
+ * examine the objects passed to them, so their cost depends on the number of changes rather than
+ * the size of the object graph.
+ * 
+ * <p>
+ * On a multi-core server, {@link #setParallelism(int)} spreads the work of mapping and diffing the
+ * objects passed to {@link #setEntityObjects(Object...)} across several threads. The graph updates
+ * produced are identical to those produced on a single thread. Call {@link #close()} to stop the
+ * threads when the data source is no longer needed.
+ * 
  * @author Bernie Sumption
  */
 public class PojoDataSource extends InitialisingBean implements DataSource {
 
+	// setEntityObjects() only uses the executor for levels of the object graph with this many objects
+	private static final int MIN_PARALLEL_COUNT = 256;
+	// levels are split into more chunks than there are threads, so that uneven chunks even out
+	private static final int CHUNKS_PER_THREAD = 4;
+
 	private EDRMapper edrMapper;
 	private String objectGraphId;
 	private GraphUpdateListener graphUpdateListener;
 	private int dataVersion;
 	private int dataVersionScheme;
 
+	private int parallelism = 1;
+
 	private TypeDomain typeDomain;
 	private Map<EntityType, Map<Long, EntityValue>> entities;
+	// for each entity, the entities that refer to it. This is built by the first call to remove(),
+	// kept up to date by the incremental methods and discarded by setEntityObjects()
+	private Map<EntityKey, Set<EntityKey>> referrers;
+	private ExecutorService executor;
 
 	//
 	// INITIALISATION
@@ -92,6 +125,19 @@ public class PojoDataSource extends InitialisingBean implements DataSource {
 		for (EntityType entityType : UnsafeAccess.getEntityTypes(typeDomain)) {
 			entities.put(entityType, new HashMap<Long, EntityValue>());
 		}
+		referrers = null;
+
+		// a subclass may initialise more than once, so stop the threads of any previous executor
+		close();
+		if (parallelism > 1) {
+			executor = Executors.newFixedThreadPool(parallelism, new ThreadFactory() {
+				public Thread newThread(Runnable r) {
+					Thread thread = new Thread(r, "PojoDataSource mapper");
+					thread.setDaemon(true);
+					return thread;
+				}
+			});
+		}
 
 		if (OgreLog.isDebugEnabled()) {
 			OgreLog.debug("PojoDataSource created new type domain:\n" + EDRDescriber.describeTypeDomain(typeDomain));
@@ -114,6 +160,23 @@ public class PojoDataSource extends InitialisingBean implements DataSource {
 		this.objectGraphId = objectGraphId;
 	}
 
+	/**
+	 * The number of threads used to map and diff objects in
+	 * {@link #setEntityObjects(Object...)}. The default, 1, does all the work on the calling
+	 * thread. The {@link EDRMapper} must be safe to call from several threads at once if this is
+	 * greater than 1, as {@link DefaultEDRMapper} is.
+	 * 
+	 * <p>
+	 * Must be called before initialise();
+	 */
+	public void setParallelism(int parallelism) {
+		requireInitialised(false, "setParallelism()");
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("parallelism must be at least 1");
+		}
+		this.parallelism = parallelism;
+	}
+
 	//
 	// DataSource INTERFACE IMPLEMENTATION
 	//
@@ -170,9 +233,191 @@ public class PojoDataSource extends InitialisingBean implements DataSource {
 	public synchronized void setEntityObjects(Object... roots) throws ValueMappingException {
 		requireInitialised(true, "setEntityObjects()");
 
-		Set<Object> entityObjects = new LinkedHashSet<Object>();
+		Set<Object> entityObjects = flatten(roots);
 
-		// flatten arrays and collections
+		// the mapped entities, which replace the current ones once every object has been mapped
+		Map<EntityType, Map<Long, EntityValue>> newEntities = new HashMap<EntityType, Map<Long, EntityValue>>();
+		for (Map.Entry<EntityType, Map<Long, EntityValue>> entry : entities.entrySet()) {
+			newEntities.put(entry.getKey(), new HashMap<Long, EntityValue>(entry.getValue().size() * 4 / 3 + 1));
+		}
+
+		List<EntityValue> completeEntities = new ArrayList<EntityValue>();
+		List<EntityDiff> entityDiffs = new ArrayList<EntityDiff>();
+		if (executor == null) {
+			// map each object in a single pass over a worklist that starts with the roots and grows
+			// as related objects are found. entityObjects holds every object ever queued, so each
+			// object is mapped once and the worklist is in breadth first order.
+			List<Object> worklist = new ArrayList<Object>(entityObjects);
+			for (int i = 0; i < worklist.size(); i++) {
+				Object entityObject = worklist.get(i);
+				addMappedEntity(mapEntity(entityObject), newEntities, completeEntities, entityDiffs);
+				for (Object related : edrMapper.getRelatedObjects(entityObject)) {
+					if (entityObjects.add(related)) {
+						worklist.add(related);
+					}
+				}
+			}
+		} else {
+			mapInParallel(entityObjects, newEntities, completeEntities, entityDiffs);
+		}
+
+		// any current entity that was not mapped is no longer in the object graph. Entity types are
+		// visited in type domain order, so that the order of the deletes is repeatable.
+		List<EntityReference> entityDeletes = new ArrayList<EntityReference>();
+		for (EntityType entityType : UnsafeAccess.getEntityTypes(typeDomain)) {
+			Map<Long, EntityValue> mapped = newEntities.get(entityType);
+			for (EntityValue oldEntity : entities.get(entityType).values()) {
+				if (!mapped.containsKey(oldEntity.getEntityId())) {
+					entityDeletes.add(oldEntity);
+				}
+			}
+		}
+		entities = newEntities;
+		referrers = null;
+
+		publishUpdate(completeEntities, entityDiffs, entityDeletes);
+	}
+
+	/**
+	 * Add objects to the object graph, along with any objects that they directly or indirectly
+	 * reference that are not already part of it. Objects that are already part of the object graph
+	 * are checked for modifications, as if passed to {@link #markDirty(Object...)}.
+	 * 
+	 * <p>
+	 * Each argument can either be an object, or an array of objects, or a java.util.Collection of
+	 * objects. Only the objects passed in and any new objects that they reference are examined, so
+	 * unlike {@link #setEntityObjects(Object...)}, the cost of this method does not depend on the
+	 * size of the object graph.
+	 * 
+	 * <p>
+	 * {@link #initialise()} must be called before this method can be used
+	 * 
+	 * @throws ValueMappingException if there is a problem mapping one of the entity objects to an
+	 *             {@link Entity}
+	 */
+	public synchronized void add(Object... objects) throws ValueMappingException {
+		requireInitialised(true, "add()");
+		publishChanges(flatten(objects));
+	}
+
+	/**
+	 * Check objects in the object graph for modifications, and publish any changes found. Objects
+	 * that they now reference that are not already part of the object graph are added to it, and
+	 * objects passed in that are not part of the object graph are added as if passed to
+	 * {@link #add(Object...)}.
+	 * 
+	 * <p>
+	 * Each argument can either be an object, or an array of objects, or a java.util.Collection of
+	 * objects. Only the objects passed in are checked, so the caller must pass in every object that
+	 * has changed. Objects that are no longer referenced are <strong>not</strong> removed from the
+	 * object graph - use {@link #remove(Object...)} to remove them.
+	 * 
+	 * <p>
+	 * {@link #initialise()} must be called before this method can be used
+	 * 
+	 * @throws ValueMappingException if there is a problem mapping one of the entity objects to an
+	 *             {@link Entity}
+	 */
+	public synchronized void markDirty(Object... objects) throws ValueMappingException {
+		requireInitialised(true, "markDirty()");
+		publishChanges(flatten(objects));
+	}
+
+	/**
+	 * Remove objects from the object graph. Objects that are not part of the object graph are
+	 * ignored. Objects referenced by the removed objects are not removed.
+	 * 
+	 * <p>
+	 * References to a removed object from objects that remain in the object graph are set to null
+	 * in the same graph update. Those objects should still be passed to {@link #markDirty(Object...)}
+	 * once their references have been changed, since marking one dirty while it still refers to a
+	 * removed object adds that object back.
+	 * 
+	 * <p>
+	 * Each argument can either be an object, or an array of objects, or a java.util.Collection of
+	 * objects. The first call after {@link #setEntityObjects(Object...)} indexes the references in
+	 * the whole object graph, after which the cost depends on the number of objects removed and the
+	 * number of objects that refer to them.
+	 * 
+	 * <p>
+	 * {@link #initialise()} must be called before this method can be used
+	 */
+	public synchronized void remove(Object... objects) {
+		requireInitialised(true, "remove()");
+		if (referrers == null) {
+			indexAllReferences();
+		}
+		List<EntityReference> entityDeletes = new ArrayList<EntityReference>();
+		Set<EntityKey> removedKeys = new HashSet<EntityKey>();
+		for (Object entityObject : flatten(objects)) {
+			if (!edrMapper.objectHasId(entityObject)) {
+				continue;
+			}
+			EntityType entityType = edrMapper.getEntityTypeForObject(entityObject);
+			EntityValue removed = entities.get(entityType).remove(edrMapper.getIdForObject(entityObject));
+			if (removed != null) {
+				entityDeletes.add(removed);
+				removedKeys.add(new EntityKey(removed));
+				unindexReferences(removed);
+			}
+		}
+
+		// the remaining entities that refer to a removed entity
+		Set<EntityKey> affected = new LinkedHashSet<EntityKey>();
+		for (EntityReference removed : entityDeletes) {
+			Set<EntityKey> removedReferrers = referrers.remove(new EntityKey(removed));
+			if (removedReferrers != null) {
+				affected.addAll(removedReferrers);
+			}
+		}
+		List<EntityDiff> entityDiffs = new ArrayList<EntityDiff>();
+		for (EntityKey referrer : affected) {
+			Map<Long, EntityValue> entitiesOfType = entities.get(referrer.entityType);
+			EntityValue existing = entitiesOfType.get(referrer.entityId);
+			EntityValue updated = nullReferencesTo(existing, removedKeys);
+			entitiesOfType.put(referrer.entityId, updated);
+			entityDiffs.add(EntityDiff.build(existing, updated));
+		}
+
+		publishUpdate(new ArrayList<EntityValue>(), entityDiffs, entityDeletes);
+	}
+
+	/**
+	 * Stop the threads that map objects in parallel, if {@link #setParallelism(int)} started any.
+	 * The data source can still be used afterwards, and does all the work on the calling thread.
+	 */
+	public synchronized void close() {
+		if (executor != null) {
+			executor.shutdown();
+			executor = null;
+		}
+	}
+
+	/**
+	 * Check whether an object is currently part of the object graph
+	 */
+	public boolean containsEntityObject(Object entityObject) {
+		return edrMapper.objectHasId(entityObject);
+	}
+
+	/**
+	 * Return the ID for an object. Dependng on the {@link IdMapper} used, this may actually cause a
+	 * new ID to be assigned to the object.
+	 */
+	public long getIdForObject(Object entityObject) {
+		return edrMapper.getIdForObject(entityObject);
+	}
+
+	//
+	// PRIVATE MACHINERY
+	//
+
+	/**
+	 * @return the objects passed to one of the public methods, with arrays and collections
+	 *         replaced by their contents
+	 */
+	private Set<Object> flatten(Object[] roots) {
+		Set<Object> entityObjects = new LinkedHashSet<Object>();
 		for (Object root : roots) {
 			if (root == null) {
 				continue;
@@ -188,83 +433,325 @@ public class PojoDataSource extends InitialisingBean implements DataSource {
 				entityObjects.add(root);
 			}
 		}
+		return entityObjects;
+	}
+
+	/**
+	 * Map an object and diff it against the entity currently stored for it. This only reads the
+	 * stored entities, so may be called from several threads at once.
+	 */
+	private MappedEntity mapEntity(Object entityObject) {
+		EntityValue newEntity = edrMapper.createEntityValue(entityObject);
+		EntityValue existingEntity = entities.get(newEntity.getEntityType()).get(newEntity.getEntityId());
+		if (existingEntity == null) {
+			return new MappedEntity(newEntity, null, null);
+		}
+		return new MappedEntity(newEntity, existingEntity, EntityDiff.build(existingEntity, newEntity));
+	}
+
+	private void addMappedEntity(MappedEntity mapped, Map<EntityType, Map<Long, EntityValue>> newEntities,
+			List<EntityValue> completeEntities, List<EntityDiff> entityDiffs) {
+		if (mapped.existing == null) {
+			completeEntities.add(mapped.value);
+		} else if (mapped.diff != null) {
+			OgreLog.info("PojoDataSource: detected change on {}", mapped.existing);
+			entityDiffs.add(mapped.diff);
+		}
+		newEntities.get(mapped.value.getEntityType()).put(mapped.value.getEntityId(), mapped.value);
+	}
 
-		// iteratively grow the set of entity objects to include any objects referenced by any other
-		// objects in the set. This algorithm depends on the behaviour of LinkedHashSet.addAll() -
-		// that objects already in the set are ignored, and new objects are added at the end of the
-		// list
-		{
-			int processedUpTo = -1;
-			while (entityObjects.size() - 1 > processedUpTo) {
-				int currentIndex = 0;
-				List<Object> toAdd = new ArrayList<Object>();
-				for (Object entityObject : entityObjects) {
-					if (currentIndex > processedUpTo) {
-						toAdd.addAll(edrMapper.getRelatedObjects(entityObject));
-						processedUpTo = currentIndex;
+	/**
+	 * Map the objects reachable from a set of roots using the executor, with the same result as the
+	 * single threaded worklist in {@link #setEntityObjects(Object...)}.
+	 * 
+	 * <p>
+	 * The objects are processed a level at a time, in breadth first order. For each level, the
+	 * related objects are found in parallel, then IDs are assigned on this thread in the order that
+	 * the single threaded pass would assign them, so that IDs don't depend on the timing of the
+	 * worker threads. Then the objects are mapped and diffed in parallel, and the results are merged
+	 * in order on this thread.
+	 */
+	private void mapInParallel(Set<Object> entityObjects, Map<EntityType, Map<Long, EntityValue>> newEntities,
+			List<EntityValue> completeEntities, List<EntityDiff> entityDiffs) {
+		List<Object> level = new ArrayList<Object>(entityObjects);
+		while (!level.isEmpty()) {
+			final List<Object> current = level;
+			final List<?>[] related = new List<?>[current.size()];
+			runInParallel(current.size(), new RangeTask() {
+				public void run(int from, int to) {
+					for (int i = from; i < to; i++) {
+						related[i] = edrMapper.getRelatedObjects(current.get(i));
+					}
+				}
+			});
+
+			// createEntityValue() assigns IDs to an object's references and then to the object
+			List<Object> next = new ArrayList<Object>();
+			for (int i = 0; i < related.length; i++) {
+				for (Object relatedObject : related[i]) {
+					if (relatedObject != null) {
+						edrMapper.getIdForObject(relatedObject);
+					}
+				}
+				edrMapper.getIdForObject(current.get(i));
+				for (Object relatedObject : related[i]) {
+					if (entityObjects.add(relatedObject)) {
+						next.add(relatedObject);
 					}
-					currentIndex++;
 				}
-				entityObjects.addAll(toAdd);
+			}
+
+			final MappedEntity[] mapped = new MappedEntity[current.size()];
+			runInParallel(current.size(), new RangeTask() {
+				public void run(int from, int to) {
+					for (int i = from; i < to; i++) {
+						mapped[i] = mapEntity(current.get(i));
+					}
+				}
+			});
+			for (int i = 0; i < mapped.length; i++) {
+				addMappedEntity(mapped[i], newEntities, completeEntities, entityDiffs);
+			}
+
+			level = next;
+		}
+	}
+
+	/**
+	 * Split the range 0 to count into chunks and run a task on each chunk using the executor,
+	 * returning when every chunk is complete. Small ranges are run on this thread, since handing
+	 * them to other threads would cost more than it saves.
+	 * 
+	 * @throws ValueMappingException or any other runtime exception thrown by the task
+	 */
+	private void runInParallel(int count, final RangeTask task) {
+		if (count < MIN_PARALLEL_COUNT) {
+			task.run(0, count);
+			return;
+		}
+		int chunkCount = Math.min(parallelism * CHUNKS_PER_THREAD, count / (MIN_PARALLEL_COUNT / 2));
+		List<Future<?>> futures = new ArrayList<Future<?>>(chunkCount);
+		for (int chunk = 0; chunk < chunkCount; chunk++) {
+			final int from = (int) ((long) count * chunk / chunkCount);
+			final int to = (int) ((long) count * (chunk + 1) / chunkCount);
+			futures.add(executor.submit(new Runnable() {
+				public void run() {
+					task.run(from, to);
+				}
+			}));
+		}
+		try {
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (InterruptedException e) {
+			for (Future<?> future : futures) {
+				future.cancel(true);
+			}
+			Thread.currentThread().interrupt();
+			throw new OgreException("Interrupted while mapping entity objects", e);
+		} catch (ExecutionException e) {
+			for (Future<?> future : futures) {
+				future.cancel(true);
+			}
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			if (e.getCause() instanceof Error) {
+				throw (Error) e.getCause();
+			}
+			throw new OgreException("Could not map entity objects", e.getCause());
+		}
+	}
+
+	/**
+	 * Remap a set of changed objects and publish the differences between them and the stored
+	 * entities, following references only to objects that are not yet part of the object graph.
+	 * Every object is mapped before any stored entity is replaced, so that if one of them can't be
+	 * mapped, the stored entities still match what has been published.
+	 */
+	private void publishChanges(Set<Object> changed) {
+		List<MappedEntity> staged = new ArrayList<MappedEntity>();
+
+		// objects are appended to the worklist as new related objects are found
+		List<Object> worklist = new ArrayList<Object>(changed);
+		Set<Object> queued = new HashSet<Object>(changed);
+		for (int i = 0; i < worklist.size(); i++) {
+			Object entityObject = worklist.get(i);
+			staged.add(mapEntity(entityObject));
+			for (Object related : edrMapper.getRelatedObjects(entityObject)) {
+				if (!queued.contains(related) && !isInObjectGraph(related)) {
+					queued.add(related);
+					worklist.add(related);
+				}
 			}
 		}
 
 		List<EntityValue> completeEntities = new ArrayList<EntityValue>();
 		List<EntityDiff> entityDiffs = new ArrayList<EntityDiff>();
-		List<EntityReference> entityDeletes = new ArrayList<EntityReference>();
-		List<EntityValue> newEntities = new ArrayList<EntityValue>();
-		for (Object entityObject : entityObjects) {
-			EntityValue newEntity = edrMapper.createEntityValue(entityObject);
-			EntityValue existingEntity = entities.get(newEntity.getEntityType()).get(newEntity.getEntityId());
-			if (existingEntity == null) {
-				completeEntities.add(newEntity);
-			} else {
-				EntityDiff diff = EntityDiff.build(existingEntity, newEntity);
-				if (diff != null) {
-					if (OgreLog.isInfoEnabled()) {
-						OgreLog.info("PojoDataSource: detected change on " + existingEntity);
-					}
-					entityDiffs.add(diff);
+		for (MappedEntity mapped : staged) {
+			addMappedEntity(mapped, entities, completeEntities, entityDiffs);
+			if (referrers != null && (mapped.existing == null || mapped.diff != null)) {
+				if (mapped.existing != null) {
+					unindexReferences(mapped.existing);
 				}
+				indexReferences(mapped.value);
 			}
-			entities.get(newEntity.getEntityType()).put(newEntity.getEntityId(), newEntity);
-			newEntities.add(newEntity);
 		}
 
-		for (EntityValue oldEntity : getAllEntities()) {
-			if (!newEntities.contains(oldEntity)) {
-				entities.get(oldEntity.getEntityType()).remove(oldEntity.getEntityId());
-				entityDeletes.add(oldEntity);
-			}
+		publishUpdate(completeEntities, entityDiffs, new ArrayList<EntityReference>());
+	}
+
+	private boolean isInObjectGraph(Object entityObject) {
+		if (!edrMapper.objectHasId(entityObject)) {
+			return false;
 		}
+		EntityType entityType = edrMapper.getEntityTypeForObject(entityObject);
+		return entities.get(entityType).containsKey(edrMapper.getIdForObject(entityObject));
+	}
 
-		// send updates if required
-		if (completeEntities.size() > 0 || entityDiffs.size() > 0 || entityDeletes.size() > 0) {
+	/**
+	 * Build the referrer index from the stored entities
+	 */
+	private void indexAllReferences() {
+		referrers = new HashMap<EntityKey, Set<EntityKey>>();
+		for (Map<Long, EntityValue> entitiesOfType : entities.values()) {
+			for (EntityValue entity : entitiesOfType.values()) {
+				indexReferences(entity);
+			}
+		}
+	}
 
-			dataVersion++;
+	private void indexReferences(EntityValue entity) {
+		EntityType entityType = entity.getEntityType();
+		for (int i = 0; i < entityType.getPropertyCount(); i++) {
+			EntityKey target = getReferenceTarget(entity, entityType.getProperty(i));
+			if (target != null) {
+				Set<EntityKey> targetReferrers = referrers.get(target);
+				if (targetReferrers == null) {
+					targetReferrers = new LinkedHashSet<EntityKey>();
+					referrers.put(target, targetReferrers);
+				}
+				targetReferrers.add(new EntityKey(entity));
+			}
+		}
+	}
 
-			if (graphUpdateListener != null) {
-				GraphUpdate update = new GraphUpdate(typeDomain, objectGraphId, dataVersion, dataVersionScheme,
-						completeEntities.toArray(new EntityValue[0]), entityDiffs.toArray(new EntityDiff[0]),
-						entityDeletes.toArray(new EntityReference[0]));
-				graphUpdateListener.acceptGraphUpdate(update);
+	private void unindexReferences(EntityValue entity) {
+		EntityType entityType = entity.getEntityType();
+		for (int i = 0; i < entityType.getPropertyCount(); i++) {
+			EntityKey target = getReferenceTarget(entity, entityType.getProperty(i));
+			Set<EntityKey> targetReferrers = target == null ? null : referrers.get(target);
+			if (targetReferrers != null) {
+				targetReferrers.remove(new EntityKey(entity));
+				if (targetReferrers.isEmpty()) {
+					referrers.remove(target);
+				}
 			}
 		}
 	}
 
 	/**
-	 * Check whether an object is currently part of the object graph
+	 * @return the entity that a property refers to, or null if it is not a reference or is null
 	 */
-	public boolean containsEntityObject(Object entityObject) {
-		return edrMapper.objectHasId(entityObject);
+	private EntityKey getReferenceTarget(EntityValue entity, Property property) {
+		if (!(property instanceof ReferenceProperty)) {
+			return null;
+		}
+		Object value = entity.getRawPropertyValue(property);
+		if (value == null) {
+			return null;
+		}
+		return new EntityKey(((ReferenceProperty) property).getReferenceType(), ValueUtils.objectToId(value));
 	}
 
 	/**
-	 * Return the ID for an object. Dependng on the {@link IdMapper} used, this may actually cause a
-	 * new ID to be assigned to the object.
+	 * @return a copy of an entity with its references to any of a set of entities set to null
 	 */
-	public long getIdForObject(Object entityObject) {
-		return edrMapper.getIdForObject(entityObject);
+	private EntityValue nullReferencesTo(EntityValue entity, Set<EntityKey> targets) {
+		EntityType entityType = entity.getEntityType();
+		Object[] values = new Object[entityType.getPropertyCount()];
+		for (int i = 0; i < values.length; i++) {
+			Property property = entityType.getProperty(i);
+			EntityKey target = getReferenceTarget(entity, property);
+			values[i] = target != null && targets.contains(target) ? null : entity.getRawPropertyValue(property);
+		}
+		return new EntityValue(entityType, entity.getEntityId(), values);
+	}
+
+	/**
+	 * Increment the data version and send a graph update to the listener, if there are any changes
+	 */
+	private void publishUpdate(List<EntityValue> completeEntities, List<EntityDiff> entityDiffs,
+			List<EntityReference> entityDeletes) {
+		if (completeEntities.isEmpty() && entityDiffs.isEmpty() && entityDeletes.isEmpty()) {
+			return;
+		}
+
+		dataVersion++;
+
+		if (graphUpdateListener != null) {
+			GraphUpdate update = new GraphUpdate(typeDomain, objectGraphId, dataVersion, dataVersionScheme,
+					completeEntities.toArray(new EntityValue[0]), entityDiffs.toArray(new EntityDiff[0]),
+					entityDeletes.toArray(new EntityReference[0]));
+			graphUpdateListener.acceptGraphUpdate(update);
+		}
+	}
+
+	/**
+	 * A section of work done on the executor, over a range of indices
+	 */
+	private interface RangeTask {
+		void run(int from, int to);
+	}
+
+	/**
+	 * The result of mapping an object. existing is null if the object is new to the object graph,
+	 * and diff is null if the object is new or unchanged.
+	 */
+	private static class MappedEntity {
+
+		final EntityValue value;
+		final EntityValue existing;
+		final EntityDiff diff;
+
+		MappedEntity(EntityValue value, EntityValue existing, EntityDiff diff) {
+			this.value = value;
+			this.existing = existing;
+			this.diff = diff;
+		}
+	}
+
+	/**
+	 * Identifies an entity by type and ID, for use as a map key
+	 */
+	private static class EntityKey {
+
+		final EntityType entityType;
+		final long entityId;
+
+		EntityKey(EntityReference entity) {
+			this(entity.getEntityType(), entity.getEntityId());
+		}
+
+		EntityKey(EntityType entityType, long entityId) {
+			this.entityType = entityType;
+			this.entityId = entityId;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (!(obj instanceof EntityKey)) {
+				return false;
+			}
+			EntityKey other = (EntityKey) obj;
+			return entityType == other.entityType && entityId == other.entityId;
+		}
+
+		@Override
+		public int hashCode() {
+			return entityType.hashCode() * 31 + (int) (entityId ^ (entityId >>> 32));
+		}
 	}
 
 	private List<EntityValue> getAllEntities() {
@@ -0,0 +1,276 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.tcpbridge;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+import com.berniecode.ogre.EDRDeserialiser;
+import com.berniecode.ogre.enginelib.ClientEngine;
+import com.berniecode.ogre.enginelib.EDRDescriber;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.GraphUpdateBatchListener;
+import com.berniecode.ogre.enginelib.GraphUpdateListener;
+import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.enginelib.TypeDomain;
+import com.berniecode.ogre.enginelib.platformhooks.ClientMetrics;
+
+/**
+ * Decodes and applies serialised graph update messages on two worker threads, so that the thread
+ * reading messages from the network is never held up by a slow {@link GraphUpdateListener}.
+ * 
+ * <p>
+ * Messages passed to {@link #put(byte[])} are queued for a decode thread, which deserialises them
+ * and queues the resulting {@link GraphUpdate}s for an apply thread, which passes them to the
+ * listener in the order that the messages were received. Both queues are bounded: when a queue is
+ * full the stage feeding it blocks until there is room, so a client that can't keep up eventually
+ * stops reading from the network instead of running out of memory.
+ * 
+ * <p>
+ * If the listener is a {@link GraphUpdateBatchListener}, all the updates waiting in the queue are
+ * passed to it at once, which allows a {@link ClientEngine} in catch-up mode to squash them
+ * together.
+ * 
+ * @author Bernie Sumption
+ */
+public class GraphUpdatePipeline {
+
+	// marks the end of the stream of messages in both queues
+	private static final byte[] END_OF_MESSAGES = new byte[0];
+	private final GraphUpdate endOfUpdates;
+
+	private final TypeDomain typeDomain;
+	private final EDRDeserialiser deserialiser;
+	private final GraphUpdateListener listener;
+	private final int capacity;
+
+	private final BlockingQueue<byte[]> messages;
+	private final BlockingQueue<GraphUpdate> updates;
+
+	private final Thread decodeThread = new DecodeThread();
+	private final Thread applyThread = new ApplyThread();
+
+	private volatile int maxMessageQueueDepth;
+	private volatile int maxUpdateQueueDepth;
+	private volatile long appliedUpdateCount;
+	private volatile ClientMetrics metrics;
+
+	/**
+	 * @param capacity the maximum number of items held in each of the message and update queues
+	 */
+	public GraphUpdatePipeline(TypeDomain typeDomain, EDRDeserialiser deserialiser, GraphUpdateListener listener,
+			int capacity) {
+		if (capacity < 1) {
+			throw new IllegalArgumentException("capacity must be at least 1");
+		}
+		this.typeDomain = typeDomain;
+		this.deserialiser = deserialiser;
+		this.listener = listener;
+		this.capacity = capacity;
+		messages = new ArrayBlockingQueue<byte[]>(capacity);
+		updates = new ArrayBlockingQueue<GraphUpdate>(capacity);
+		endOfUpdates = new GraphUpdate(typeDomain, null, 0, 0, null, null, null);
+	}
+
+	/**
+	 * Set a {@link ClientMetrics} registry to record the time taken to decode each message and the
+	 * data version of each decoded update, or null to stop recording them. This may be changed at
+	 * any time.
+	 */
+	public void setMetrics(ClientMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * Start the decode and apply threads
+	 */
+	public void start() {
+		decodeThread.start();
+		applyThread.start();
+	}
+
+	/**
+	 * Queue a serialised graph update for decoding, blocking while the message queue is full
+	 */
+	public void put(byte[] message) throws InterruptedException {
+		messages.put(message);
+		maxMessageQueueDepth = Math.max(maxMessageQueueDepth, messages.size());
+	}
+
+	/**
+	 * Signal that there are no more messages. Messages that have already been queued will still be
+	 * decoded and applied, after which the worker threads exit.
+	 */
+	public void finish() throws InterruptedException {
+		messages.put(END_OF_MESSAGES);
+	}
+
+	/**
+	 * Wait for the worker threads to exit after {@link #finish()} has been called
+	 */
+	public void join() throws InterruptedException {
+		decodeThread.join();
+		applyThread.join();
+	}
+
+	/**
+	 * @return the maximum number of items held in each queue
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * @return the number of messages waiting to be decoded
+	 */
+	public int getMessageQueueDepth() {
+		return messages.size();
+	}
+
+	/**
+	 * @return the number of decoded {@link GraphUpdate}s waiting to be applied
+	 */
+	public int getUpdateQueueDepth() {
+		return updates.size();
+	}
+
+	/**
+	 * @return the highest number of messages that have been waiting to be decoded at one time
+	 */
+	public int getMaxMessageQueueDepth() {
+		return maxMessageQueueDepth;
+	}
+
+	/**
+	 * @return the highest number of decoded {@link GraphUpdate}s that have been waiting to be
+	 *         applied at one time
+	 */
+	public int getMaxUpdateQueueDepth() {
+		return maxUpdateQueueDepth;
+	}
+
+	/**
+	 * @return the number of {@link GraphUpdate}s that have been passed to the listener
+	 */
+	public long getAppliedUpdateCount() {
+		return appliedUpdateCount;
+	}
+
+	//
+	// INTERNAL MACHINERY
+	//
+
+	private class DecodeThread extends Thread {
+
+		public DecodeThread() {
+			super("GraphUpdatePipeline decoder");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (true) {
+					byte[] message = messages.take();
+					if (message == END_OF_MESSAGES) {
+						updates.put(endOfUpdates);
+						return;
+					}
+					GraphUpdate update;
+					ClientMetrics currentMetrics = metrics;
+					long start = currentMetrics == null ? 0 : ClientMetrics.now();
+					try {
+						update = deserialiser.deserialiseGraphUpdate(message, typeDomain);
+					} catch (RuntimeException e) {
+						OgreLog.error("GraphUpdatePipeline: could not decode message: " + e.getMessage());
+						continue;
+					}
+					if (currentMetrics != null) {
+						currentMetrics.recordDecode(start);
+						currentMetrics.recordUpdateReceived(update);
+					}
+					updates.put(update);
+					maxUpdateQueueDepth = Math.max(maxUpdateQueueDepth, updates.size());
+				}
+			} catch (InterruptedException e) {
+				OgreLog.info("GraphUpdatePipeline: decode thread interrupted");
+			}
+		}
+	}
+
+	private class ApplyThread extends Thread {
+
+		public ApplyThread() {
+			super("GraphUpdatePipeline applier");
+			setDaemon(true);
+		}
+
+		@Override
+		public void run() {
+			List<GraphUpdate> batch = new ArrayList<GraphUpdate>();
+			try {
+				while (true) {
+					batch.add(updates.take());
+					if (listener instanceof GraphUpdateBatchListener) {
+						updates.drainTo(batch);
+					}
+					int end = batch.indexOf(endOfUpdates);
+					if (end != -1) {
+						apply(batch.subList(0, end));
+						return;
+					}
+					apply(batch);
+					batch.clear();
+				}
+			} catch (InterruptedException e) {
+				OgreLog.info("GraphUpdatePipeline: apply thread interrupted");
+			}
+		}
+
+		private void apply(List<GraphUpdate> batch) {
+			if (batch.isEmpty()) {
+				return;
+			}
+			if (OgreLog.isDebugEnabled()) {
+				OgreLog.debug("GraphUpdatePipeline: applying " + batch.size() + " updates (" + messages.size()
+						+ " messages and " + updates.size() + " updates queued)");
+				for (GraphUpdate update : batch) {
+					OgreLog.debug(EDRDescriber.describeGraphUpdate(update));
+				}
+			}
+			try {
+				if (batch.size() == 1) {
+					listener.acceptGraphUpdate(batch.get(0));
+				} else {
+					((GraphUpdateBatchListener) listener).acceptGraphUpdates(batch.toArray(new GraphUpdate[batch
+							.size()]));
+				}
+			} catch (RuntimeException e) {
+				// if this thread died the queues would fill up and block the reader forever
+				OgreLog.error("GraphUpdatePipeline: could not apply update: " + e.getMessage());
+			}
+			appliedUpdateCount += batch.size();
+		}
+	}
+
+}
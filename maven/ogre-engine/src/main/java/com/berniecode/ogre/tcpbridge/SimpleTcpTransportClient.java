@@ -20,20 +20,25 @@
 
 package com.berniecode.ogre.tcpbridge;
 
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.InetAddress;
 import java.net.Socket;
 import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
 
 import com.berniecode.ogre.EDRDeserialiser;
 import com.berniecode.ogre.InitialisingBean;
-import com.berniecode.ogre.enginelib.ClientTransportAdapter;
 import com.berniecode.ogre.enginelib.EDRDescriber;
 import com.berniecode.ogre.enginelib.GraphUpdate;
 import com.berniecode.ogre.enginelib.GraphUpdateListener;
 import com.berniecode.ogre.enginelib.OgreLog;
 import com.berniecode.ogre.enginelib.TypeDomain;
+import com.berniecode.ogre.enginelib.WarmStartTransportAdapter;
+import com.berniecode.ogre.enginelib.platformhooks.ClientMetrics;
 import com.berniecode.ogre.enginelib.platformhooks.NoSuchThingException;
 import com.berniecode.ogre.enginelib.platformhooks.OgreException;
 import com.berniecode.ogre.wireformat.Envelope;
@@ -44,11 +49,15 @@ import com.berniecode.ogre.wireformat.OgreWireFormatDeserialiser;
  * 
  * @author Bernie Sumption
  */
-public class SimpleTcpTransportClient extends InitialisingBean implements ClientTransportAdapter {
+public class SimpleTcpTransportClient extends InitialisingBean implements WarmStartTransportAdapter {
 
 	private InetAddress host;
 	private Integer port;
 	private EDRDeserialiser deserialiser;
+	private int pipelineCapacity;
+
+	private volatile GraphUpdatePipeline pipeline;
+	private volatile ClientMetrics metrics;
 
 	/**
 	 * Create a {@link SimpleTcpTransportClient} with the specified host and port, and initialise it
@@ -109,6 +118,65 @@ public class SimpleTcpTransportClient extends InitialisingBean implements Client
 		this.deserialiser = deserialiser;
 	}
 
+	/**
+	 * If greater than zero, graph updates received by {@link #subscribeToGraphUpdates} are decoded
+	 * and applied on separate threads through a {@link GraphUpdatePipeline} whose queues hold this
+	 * many items, so that reading from the network continues while earlier updates are applied.
+	 * The default, zero, reads, decodes and applies each update in turn on a single thread.
+	 */
+	public void setPipelineCapacity(int pipelineCapacity) {
+		requireInitialised(false, "setPipelineCapacity()");
+		this.pipelineCapacity = pipelineCapacity;
+	}
+
+	/**
+	 * Set a {@link ClientMetrics} registry to record the size of each message received and the time
+	 * taken to decode it, or null to stop recording them. This is usually the same registry as the
+	 * one given to the {@link com.berniecode.ogre.enginelib.ClientEngine} that this client feeds, so
+	 * that the registry can compare the data versions received with those applied. This may be
+	 * changed at any time.
+	 */
+	public void setMetrics(ClientMetrics metrics) {
+		this.metrics = metrics;
+		GraphUpdatePipeline current = pipeline;
+		if (current != null) {
+			current.setMetrics(metrics);
+		}
+	}
+
+	/**
+	 * @return the {@link ClientMetrics} registry used by this client, or null if there is none
+	 */
+	public ClientMetrics getMetrics() {
+		return metrics;
+	}
+
+	/**
+	 * @return the number of received messages waiting to be decoded, or 0 if this client is not
+	 *         using a pipeline
+	 */
+	public int getMessageQueueDepth() {
+		GraphUpdatePipeline current = pipeline;
+		return current == null ? 0 : current.getMessageQueueDepth();
+	}
+
+	/**
+	 * @return the number of decoded graph updates waiting to be applied, or 0 if this client is not
+	 *         using a pipeline
+	 */
+	public int getUpdateQueueDepth() {
+		GraphUpdatePipeline current = pipeline;
+		return current == null ? 0 : current.getUpdateQueueDepth();
+	}
+
+	/**
+	 * @return the pipeline used to decode and apply graph updates, or null if this client is not
+	 *         subscribed or is not configured to use a pipeline
+	 */
+	public GraphUpdatePipeline getPipeline() {
+		return pipeline;
+	}
+
 	/**
 	 * Load the type domain that the {@link SimpleTcpTransportServer} provides. Since
 	 * {@link SimpleTcpTransportServer} only exposes a single type domain, the argument is ignored
@@ -127,7 +195,59 @@ public class SimpleTcpTransportClient extends InitialisingBean implements Client
 	@Override
 	public GraphUpdate loadObjectGraph(TypeDomain typeDomain, String objectGraphId) throws NoSuchThingException {
 		byte[] message = doEnvelopedRequest(RequestType.CODE_OBJECT_GRAPH);
-		return deserialiser.deserialiseGraphUpdate(message, typeDomain);
+		return decodeGraphUpdate(message, typeDomain);
+	}
+
+	/**
+	 * Load recent graph updates from the {@link SimpleTcpTransportServer}. Since
+	 * {@link SimpleTcpTransportServer} only exposes a single object graph, the object graph id is
+	 * ignored
+	 */
+	@Override
+	public GraphUpdate[] loadGraphUpdates(TypeDomain typeDomain, String objectGraphId, int dataVersionScheme,
+			int fromDataVersion, int toDataVersion) {
+		ByteArrayOutputStream request = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(request);
+		try {
+			dos.write(RequestType.CODE_GRAPH_UPDATES);
+			dos.writeInt(dataVersionScheme);
+			dos.writeInt(fromDataVersion);
+			dos.writeInt(toDataVersion);
+			return doGraphUpdatesRequest(request.toByteArray(), typeDomain);
+		} catch (IOException e) {
+			OgreLog.error("SimpleTcpTransportClient: could not load graph updates: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Load the graph updates published since a data version from the
+	 * {@link SimpleTcpTransportServer}. Since {@link SimpleTcpTransportServer} only exposes a single
+	 * object graph, the object graph id is ignored
+	 */
+	@Override
+	public GraphUpdate[] loadGraphUpdatesSince(TypeDomain typeDomain, String objectGraphId, int dataVersionScheme,
+			int dataVersion) {
+		ByteArrayOutputStream request = new ByteArrayOutputStream();
+		DataOutputStream dos = new DataOutputStream(request);
+		try {
+			dos.write(RequestType.CODE_GRAPH_UPDATES_FROM);
+			dos.writeInt(dataVersionScheme);
+			dos.writeInt(dataVersion);
+			// the server starts with the update the client already has, so that an empty response
+			// can only mean that the updates are unavailable
+			GraphUpdate[] updates = doGraphUpdatesRequest(request.toByteArray(), typeDomain);
+			if (updates == null || updates[0].getDataVersionScheme() != dataVersionScheme
+					|| updates[0].getDataVersion() != dataVersion) {
+				return null;
+			}
+			GraphUpdate[] since = new GraphUpdate[updates.length - 1];
+			System.arraycopy(updates, 1, since, 0, since.length);
+			return since;
+		} catch (IOException e) {
+			OgreLog.error("SimpleTcpTransportClient: could not load graph updates: " + e.getMessage());
+			return null;
+		}
 	}
 
 	/**
@@ -161,6 +281,45 @@ public class SimpleTcpTransportClient extends InitialisingBean implements Client
 		}
 	}
 
+	/**
+	 * Send a request for graph updates and read every update in the response
+	 * 
+	 * @return the updates, or null if the server sent none
+	 */
+	private GraphUpdate[] doGraphUpdatesRequest(byte[] request, TypeDomain typeDomain) throws IOException {
+		List<GraphUpdate> updates = new ArrayList<GraphUpdate>();
+		Socket socket = null;
+		try {
+			socket = new Socket(host, port);
+			socket.getOutputStream().write(request);
+			InputStream inputStream = socket.getInputStream();
+			byte[] message;
+			while ((message = Envelope.readEnvelopedBytes(inputStream)) != null) {
+				updates.add(decodeGraphUpdate(message, typeDomain));
+			}
+		} finally {
+			if (socket != null) {
+				socket.close();
+			}
+		}
+		return updates.isEmpty() ? null : updates.toArray(new GraphUpdate[updates.size()]);
+	}
+
+	/**
+	 * Deserialise a graph update, recording its size and decode time if metrics are enabled
+	 */
+	private GraphUpdate decodeGraphUpdate(byte[] message, TypeDomain typeDomain) {
+		ClientMetrics currentMetrics = metrics;
+		if (currentMetrics == null) {
+			return deserialiser.deserialiseGraphUpdate(message, typeDomain);
+		}
+		currentMetrics.recordMessageReceived(message.length);
+		long start = ClientMetrics.now();
+		GraphUpdate update = deserialiser.deserialiseGraphUpdate(message, typeDomain);
+		currentMetrics.recordDecode(start);
+		return update;
+	}
+
 	private class SubscribeThread extends Thread {
 
 		private final TypeDomain typeDomain;
@@ -179,6 +338,13 @@ public class SimpleTcpTransportClient extends InitialisingBean implements Client
 					socket = new Socket(host, port);
 					InputStream inputStream = socket.getInputStream();
 					socket.getOutputStream().write(RequestType.CODE_SUBSCRIBE);
+					GraphUpdatePipeline currentPipeline = null;
+					if (pipelineCapacity > 0) {
+						currentPipeline = new GraphUpdatePipeline(typeDomain, deserialiser, listener, pipelineCapacity);
+						currentPipeline.setMetrics(metrics);
+						currentPipeline.start();
+						pipeline = currentPipeline;
+					}
 					while (true) {
 						try {
 							byte[] message = Envelope.readEnvelopedBytes(inputStream);
@@ -186,9 +352,20 @@ public class SimpleTcpTransportClient extends InitialisingBean implements Client
 								if (OgreLog.isInfoEnabled()) {
 									OgreLog.info("SimpleTcpTransportClient: connection from server closed");
 								}
+								if (currentPipeline != null) {
+									currentPipeline.finish();
+								}
 								return;
 							}
-							GraphUpdate update = deserialiser.deserialiseGraphUpdate(message, typeDomain);
+							if (currentPipeline != null) {
+								ClientMetrics currentMetrics = metrics;
+								if (currentMetrics != null) {
+									currentMetrics.recordMessageReceived(message.length);
+								}
+								currentPipeline.put(message);
+								continue;
+							}
+							GraphUpdate update = decodeGraphUpdate(message, typeDomain);
 							if (OgreLog.isDebugEnabled()) {
 								OgreLog.debug("SimpleTcpTransportClient: received new update message: "
 										+ EDRDescriber.describeGraphUpdate(update));
@@ -198,6 +375,8 @@ public class SimpleTcpTransportClient extends InitialisingBean implements Client
 							OgreLog.error("Could not read data: " + e.getMessage());
 						}
 					}
+				} catch (InterruptedException e) {
+					OgreLog.info("SimpleTcpTransportClient: subscription interrupted");
 				} finally {
 					if (socket != null) {
 						socket.close();
@@ -68,6 +68,14 @@ import com.berniecode.ogre.wireformat.Envelope;
  * <li>If the line is 0x03 then the server will keep the connection open, sending a diff-style
  * GraphUpdateMessage every time data source's object graph changes. The connection will remain open
  * until it is closed by the client or the server quits
+ * <li>If the line is 0x04 then it must be followed by three big-endian 32 bit integers: a data
+ * version scheme, and the first and last data versions of a range of recent graph updates. The
+ * server sends each update in the range as a diff-style GraphUpdateMessage then closes the
+ * connection, or closes the connection without sending anything if it no longer has all of them.
+ * <li>If the line is 0x05 then it must be followed by two big-endian 32 bit integers: a data version
+ * scheme and a data version. The server sends the update with that data version and every later
+ * update as diff-style GraphUpdateMessages then closes the connection, or closes the connection
+ * without sending anything if it no longer has all of them.
  * </ul>
  * 
  * @author Bernie Sumption
@@ -262,7 +270,7 @@ public class SimpleTcpTransportServer extends InitialisingBean implements Serial
 			OgreLog.error("Exception while accepting a connection: " + e.getMessage());
 			return;
 		}
-		OgreLog.info("SimpleTcpTransportServer: accepted " + socketChannel);
+		OgreLog.info("SimpleTcpTransportServer: accepted {}", socketChannel);
 	}
 
 	private void readFromSocket(SelectionKey key) {
@@ -309,6 +317,36 @@ public class SimpleTcpTransportServer extends InitialisingBean implements Serial
 		case RequestType.CODE_SUBSCRIBE:
 			response = new Response(RequestType.SUBSCRIBE);
 			break;
+		case RequestType.CODE_GRAPH_UPDATES:
+			if (numRead < 13) {
+				closeConnection(key);
+				OgreLog.error("Incomplete request for graph updates: " + numRead + " bytes");
+				return;
+			}
+			response = new Response(RequestType.GRAPH_UPDATES);
+			byte[][] updates = dataSource.getSerialisedGraphUpdates(readBuffer.getInt(1), readBuffer.getInt(5),
+					readBuffer.getInt(9));
+			if (updates != null) {
+				for (byte[] update : updates) {
+					response.addDataToSend(Envelope.wrapInEnvelope(update, Envelope.OBJECT_GRAPH_MESSAGE_PAYLOAD));
+				}
+			}
+			break;
+		case RequestType.CODE_GRAPH_UPDATES_FROM:
+			if (numRead < 9) {
+				closeConnection(key);
+				OgreLog.error("Incomplete request for graph updates: " + numRead + " bytes");
+				return;
+			}
+			response = new Response(RequestType.GRAPH_UPDATES_FROM);
+			byte[][] recentUpdates = dataSource.getSerialisedGraphUpdatesFrom(readBuffer.getInt(1), readBuffer
+					.getInt(5));
+			if (recentUpdates != null) {
+				for (byte[] update : recentUpdates) {
+					response.addDataToSend(Envelope.wrapInEnvelope(update, Envelope.OBJECT_GRAPH_MESSAGE_PAYLOAD));
+				}
+			}
+			break;
 		default:
 			closeConnection(key);
 			OgreLog.error("Invalid request byte: " + requestByte);
@@ -371,11 +409,13 @@ public class SimpleTcpTransportServer extends InitialisingBean implements Serial
 }
 
 enum RequestType {
-	TYPE_DOMAIN, OBJECT_GRAPH, SUBSCRIBE;
+	TYPE_DOMAIN, OBJECT_GRAPH, SUBSCRIBE, GRAPH_UPDATES, GRAPH_UPDATES_FROM;
 
 	public static final int CODE_TYPE_DOMAIN = 1;
 	public static final int CODE_OBJECT_GRAPH = 2;
 	public static final int CODE_SUBSCRIBE = 3;
+	public static final int CODE_GRAPH_UPDATES = 4;
+	public static final int CODE_GRAPH_UPDATES_FROM = 5;
 }
 
 class Response {
@@ -0,0 +1,226 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.wireformat;
+
+import java.io.IOException;
+
+import com.berniecode.ogre.enginelib.EncodedPropertyValues;
+import com.berniecode.ogre.enginelib.EntityReference;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.RawPropertyValueSet;
+import com.berniecode.ogre.enginelib.TypeDomain;
+import com.berniecode.ogre.enginelib.platformhooks.OgreException;
+import com.berniecode.ogre.wireformat.V1GraphUpdate.EntityValueMessage;
+import com.berniecode.ogre.wireformat.V1GraphUpdate.EntityValueMessage.PropertyValueMessage;
+import com.google.protobuf.CodedInputStream;
+import com.google.protobuf.ExtensionRegistryLite;
+import com.google.protobuf.WireFormat;
+
+/**
+ * The value of a created entity, held as the encoded EntityValueMessage it was received in. Each
+ * property value is decoded when it is requested.
+ * 
+ * <p>
+ * The type and ID of the entity are decoded when the EncodedEntityValue is created. At the same
+ * time, the number of property values is checked, and each property value is checked to hold a
+ * single field of the right type for its property, without decoding it. Values that pass these
+ * checks decode without error, so an invalid value causes the graph update to be rejected rather
+ * than an exception when the value is first read. The position of each property value in the
+ * message is found the first time a value is decoded.
+ * 
+ * @author Bernie Sumption
+ */
+class EncodedEntityValue implements EncodedPropertyValues {
+
+	private final EntityType entityType;
+	private final long entityId;
+	private final byte[] encoded;
+
+	// the position in encoded of the length prefix of each PropertyValueMessage, calculated on
+	// first use
+	private volatile int[] positions;
+
+	/**
+	 * Retain a copy of the EntityValueMessage occupying {@code length} bytes of {@code message},
+	 * starting at {@code offset}
+	 */
+	EncodedEntityValue(byte[] message, int offset, int length, TypeDomain typeDomain) throws IOException {
+		encoded = new byte[length];
+		System.arraycopy(message, offset, encoded, 0, length);
+		int entityTypeIndex = -1;
+		long id = -1;
+		int propertyValueCount = 0;
+		CodedInputStream input = CodedInputStream.newInstance(encoded);
+		while (true) {
+			int tag = input.readTag();
+			if (tag == 0) {
+				break;
+			}
+			int field = WireFormat.getTagFieldNumber(tag);
+			if (field == EntityValueMessage.ENTITYTYPEINDEX_FIELD_NUMBER) {
+				entityTypeIndex = input.readInt32();
+			} else if (field == EntityValueMessage.ENTITYID_FIELD_NUMBER) {
+				id = input.readInt64();
+			} else {
+				if (isPropertyValue(tag)) {
+					propertyValueCount++;
+				}
+				input.skipField(tag);
+			}
+		}
+		if (entityTypeIndex == -1 || id == -1) {
+			throw new OgreException(
+					"Invalid graph update: EntityValueMessage must have an entityTypeIndex and entityId");
+		}
+		entityType = typeDomain.getEntityType(entityTypeIndex);
+		entityId = id;
+		if (propertyValueCount != entityType.getPropertyCount()) {
+			throw new OgreException("Invalid graph update: complete-style EntityValueMessages must "
+					+ "have the same number of properties as the corresponding EntityType. " + entityType + " has "
+					+ entityType.getPropertyCount() + ", the message has " + propertyValueCount);
+		}
+		checkPropertyValues();
+	}
+
+	/**
+	 * @see EntityReference#getEntityType()
+	 */
+	public EntityType getEntityType() {
+		return entityType;
+	}
+
+	/**
+	 * @see EntityReference#getEntityId()
+	 */
+	public long getEntityId() {
+		return entityId;
+	}
+
+	/**
+	 * @see RawPropertyValueSet#getRawPropertyValue(Property)
+	 */
+	public Object getRawPropertyValue(Property property) {
+		int position = getPositions()[property.getPropertyIndex()];
+		PropertyValueMessage.Builder builder = PropertyValueMessage.newBuilder();
+		try {
+			CodedInputStream input = CodedInputStream.newInstance(encoded, position, encoded.length - position);
+			input.readMessage(builder, ExtensionRegistryLite.getEmptyRegistry());
+		} catch (IOException e) {
+			throw new OgreException("The retained value for " + this + " is not a valid Protocol Buffers message", e);
+		}
+		PropertyValueMessage pvm = builder.build();
+		if (pvm.hasPropertyIndex()) {
+			throw new OgreException(
+					"Invalid graph update: complete-style PropertyValueMessage should not have a propertyIndex");
+		}
+		return OgreWireFormatDeserialiser.convertPropertyValue(pvm, entityType, property, false);
+	}
+
+	public String toString() {
+		return "encoded value for " + getEntityType() + "#" + getEntityId();
+	}
+
+	//
+	// PRIVATE MACHINERY
+	//
+
+	private int[] getPositions() {
+		int[] result = positions;
+		if (result != null) {
+			return result;
+		}
+		result = new int[entityType.getPropertyCount()];
+		int count = 0;
+		try {
+			CodedInputStream input = CodedInputStream.newInstance(encoded);
+			while (true) {
+				int tag = input.readTag();
+				if (tag == 0) {
+					break;
+				}
+				if (isPropertyValue(tag)) {
+					result[count++] = input.getTotalBytesRead();
+				}
+				input.skipField(tag);
+			}
+		} catch (IOException e) {
+			throw new OgreException("The retained value for " + this + " is not a valid Protocol Buffers message", e);
+		}
+		positions = result;
+		return result;
+	}
+
+	/**
+	 * Check the field present in each PropertyValueMessage against its property, skipping over
+	 * the value itself
+	 */
+	private void checkPropertyValues() throws IOException {
+		CodedInputStream input = CodedInputStream.newInstance(encoded);
+		int propertyIndex = 0;
+		while (true) {
+			int tag = input.readTag();
+			if (tag == 0) {
+				break;
+			}
+			if (isPropertyValue(tag)) {
+				int limit = input.pushLimit(input.readRawVarint32());
+				checkPropertyValue(input, entityType.getProperty(propertyIndex++));
+				input.popLimit(limit);
+			} else {
+				input.skipField(tag);
+			}
+		}
+	}
+
+	private void checkPropertyValue(CodedInputStream input, Property property) throws IOException {
+		int fieldCount = 0;
+		int field = 0;
+		while (true) {
+			int tag = input.readTag();
+			if (tag == 0) {
+				break;
+			}
+			fieldCount++;
+			field = WireFormat.getTagFieldNumber(tag);
+			input.skipField(tag);
+		}
+		if (fieldCount != 1 || field == PropertyValueMessage.PROPERTYINDEX_FIELD_NUMBER) {
+			throw new OgreException("Invalid graph update: complete-style PropertyValueMessage for " + entityType
+					+ "." + property.getName() + " must have exactly one value and no propertyIndex");
+		}
+		if (field == PropertyValueMessage.NULLVALUE_FIELD_NUMBER) {
+			if (!property.isNullable()) {
+				throw new OgreException("Invalid graph update: the property " + entityType.getName() + "."
+						+ property.getName() + " doesn't allow null values.");
+			}
+		} else if (field != OgreWireFormatDeserialiser.getValueFieldNumber(property)) {
+			throw new OgreException("Invalid graph update: the property " + entityType.getName() + "."
+					+ property.getName() + " doesn't have the right type of value.");
+		}
+	}
+
+	private static boolean isPropertyValue(int tag) {
+		return WireFormat.getTagFieldNumber(tag) == EntityValueMessage.PROPERTYVALUES_FIELD_NUMBER
+				&& (tag & 7) == OgreWireFormatDeserialiser.WIRETYPE_LENGTH_DELIMITED;
+	}
+
+}
@@ -20,10 +20,14 @@
 
 package com.berniecode.ogre.wireformat;
 
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
 import com.berniecode.ogre.EDRDeserialiser;
+import com.berniecode.ogre.enginelib.EncodedPropertyValues;
+import com.berniecode.ogre.enginelib.Entity;
 import com.berniecode.ogre.enginelib.EntityDiff;
 import com.berniecode.ogre.enginelib.EntityReference;
 import com.berniecode.ogre.enginelib.EntityReferenceImpl;
@@ -43,7 +47,9 @@ import com.berniecode.ogre.wireformat.V1TypeDomain.EntityTypeMessage;
 import com.berniecode.ogre.wireformat.V1TypeDomain.PropertyMessage;
 import com.berniecode.ogre.wireformat.V1TypeDomain.PropertyMessage.Type;
 import com.berniecode.ogre.wireformat.V1TypeDomain.TypeDomainMessage;
+import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.InvalidProtocolBufferException;
+import com.google.protobuf.WireFormat;
 
 /**
  * Converts Entity Data Representation objects to and from OGRE's binary protocol buffers based wire
@@ -59,6 +65,28 @@ public class OgreWireFormatDeserialiser implements EDRDeserialiser {
 	// both of which are themselves commented
 	//
 
+	static final int WIRETYPE_LENGTH_DELIMITED = 2;
+
+	private boolean lazyDecoding = false;
+
+	/**
+	 * If true, the property values of entities created by a graph update are not decoded when the
+	 * update is deserialised. Instead, each entity's encoded values are retained, and each value is
+	 * decoded the first time it is read from the {@link Entity} that the update creates. This makes
+	 * loading large snapshots faster and, for entities with many properties that are rarely read,
+	 * reduces memory use. The default is false.
+	 * 
+	 * <p>
+	 * Each encoded value is still checked to hold a value of the right type for its property, or
+	 * an allowed null, when the update is deserialised, so invalid values cause the update to be
+	 * rejected as they would if it were decoded eagerly.
+	 * 
+	 * @see EncodedPropertyValues
+	 */
+	public void setLazyDecoding(boolean lazyDecoding) {
+		this.lazyDecoding = lazyDecoding;
+	}
+
 	/**
 	 * @see EDRDeserialiser#deserialiseTypeDomain(byte[])
 	 */
@@ -117,6 +145,9 @@ public class OgreWireFormatDeserialiser implements EDRDeserialiser {
 
 	@Override
 	public GraphUpdate deserialiseGraphUpdate(byte[] message, TypeDomain typeDomain) {
+		if (lazyDecoding) {
+			return deserialiseGraphUpdateLazily(message, typeDomain);
+		}
 		GraphUpdateMessage gum;
 		try {
 			gum = GraphUpdateMessage.parseFrom(message);
@@ -130,6 +161,46 @@ public class OgreWireFormatDeserialiser implements EDRDeserialiser {
 				getEntityValues(gum, typeDomain), getEntityDiffs(gum, typeDomain), getEntityDeletes(gum, typeDomain));
 	}
 
+	/**
+	 * Split the entityCreates out of a GraphUpdateMessage without decoding them, and parse the rest
+	 * of the message normally
+	 */
+	private GraphUpdate deserialiseGraphUpdateLazily(byte[] message, TypeDomain typeDomain) {
+		GraphUpdateMessage gum;
+		List<EncodedEntityValue> creates = new ArrayList<EncodedEntityValue>();
+		try {
+			ByteArrayOutputStream rest = new ByteArrayOutputStream();
+			CodedInputStream input = CodedInputStream.newInstance(message);
+			while (true) {
+				int start = input.getTotalBytesRead();
+				int tag = input.readTag();
+				if (tag == 0) {
+					break;
+				}
+				if (WireFormat.getTagFieldNumber(tag) == GraphUpdateMessage.ENTITYCREATES_FIELD_NUMBER
+						&& (tag & 7) == WIRETYPE_LENGTH_DELIMITED) {
+					int length = input.readRawVarint32();
+					int offset = input.getTotalBytesRead();
+					creates.add(new EncodedEntityValue(message, offset, length, typeDomain));
+					input.skipRawBytes(length);
+				} else {
+					input.skipField(tag);
+					rest.write(message, start, input.getTotalBytesRead() - start);
+				}
+			}
+			gum = GraphUpdateMessage.parseFrom(rest.toByteArray());
+		} catch (IOException e) {
+			throw new OgreException("The supplied byte array is not a valid Protocol Buffers message", e);
+		}
+		if (OgreLog.isDebugEnabled()) {
+			OgreLog.debug("Deserialised GraphUpdateMessage with " + creates.size()
+					+ " lazily decoded entityCreates: " + gum);
+		}
+		return new GraphUpdate(typeDomain, gum.getObjectGraphId(), gum.getDataVersion(), gum.getDataVersionScheme(),
+				creates.toArray(new EncodedEntityValue[0]), getEntityDiffs(gum, typeDomain), getEntityDeletes(gum,
+						typeDomain));
+	}
+
 	private EntityValue[] getEntityValues(GraphUpdateMessage gum, TypeDomain typeDomain) {
 		List<EntityValue> entities = new ArrayList<EntityValue>();
 		for (EntityValueMessage evm : gum.getEntityCreatesList()) {
@@ -166,55 +237,86 @@ public class OgreWireFormatDeserialiser implements EDRDeserialiser {
 			}
 			Property property = entityType.getProperty(propertyIndex);
 
-			int expectedFieldCount = diffStyle ? 2 : 1; // diff-style EntityValueMessages have both
-														// propertyIndex and value
-			if (pvm.getAllFields().size() != expectedFieldCount) {
-				throw new OgreException("Invalid graph update: PropertyValueMessage must have exactly one value. "
-						+ "This message for " + entityType.getName() + "." + property.getName() + " has "
-						+ pvm.getAllFields().size() + " fields");
-			}
+			values[propertyIndex] = convertPropertyValue(pvm, entityType, property, diffStyle);
+		}
+		return values;
+	}
 
-			Object value;
-			if (pvm.hasNullValue()) {
-				value = null;
-				if (!property.isNullable()) {
-					throw new OgreException("Invalid graph update: the property " + entityType.getName() + "."
-							+ property.getName() + " doesn't allow null values.");
-				}
-			} else {
-				switch (property.getTypeCode()) {
-				case Property.TYPECODE_INT32:
+	static Object convertPropertyValue(PropertyValueMessage pvm, EntityType entityType, Property property,
+			boolean diffStyle) {
+		int expectedFieldCount = diffStyle ? 2 : 1; // diff-style EntityValueMessages have both
+													// propertyIndex and value
+		if (pvm.getAllFields().size() != expectedFieldCount) {
+			throw new OgreException("Invalid graph update: PropertyValueMessage must have exactly one value. "
+					+ "This message for " + entityType.getName() + "." + property.getName() + " has "
+					+ pvm.getAllFields().size() + " fields");
+		}
+
+		Object value;
+		if (pvm.hasNullValue()) {
+			value = null;
+			if (!property.isNullable()) {
+				throw new OgreException("Invalid graph update: the property " + entityType.getName() + "."
+						+ property.getName() + " doesn't allow null values.");
+			}
+		} else {
+			switch (getValueFieldNumber(property)) {
+			case PropertyValueMessage.INTVALUE_FIELD_NUMBER:
+				if (!pvm.hasIntValue()) {
+					value = null;
+				} else if (property.getTypeCode() == Property.TYPECODE_INT32) {
 					value = (int) pvm.getIntValue();
-					break;
-				case Property.TYPECODE_INT64:
+				} else {
 					value = pvm.getIntValue();
-					break;
-				case Property.TYPECODE_FLOAT:
-					value = pvm.getFloatValue();
-					break;
-				case Property.TYPECODE_DOUBLE:
-					value = pvm.getDoubleValue();
-					break;
-				case Property.TYPECODE_STRING:
-					value = pvm.getStringValue();
-					break;
-				case Property.TYPECODE_BYTES:
-					value = pvm.getBytesValue().toByteArray();
-					break;
-				case Property.TYPECODE_REFERENCE:
-					value = pvm.getIdValue();
-					break;
-				default:
-					value = null;
-				}
-				if (value == null) {
-					throw new OgreException("Invalid graph update: the property " + entityType.getName() + "."
-							+ property.getName() + " doesn't have the right type of value.");
 				}
+				break;
+			case PropertyValueMessage.FLOATVALUE_FIELD_NUMBER:
+				value = pvm.hasFloatValue() ? pvm.getFloatValue() : null;
+				break;
+			case PropertyValueMessage.DOUBLEVALUE_FIELD_NUMBER:
+				value = pvm.hasDoubleValue() ? pvm.getDoubleValue() : null;
+				break;
+			case PropertyValueMessage.STRINGVALUE_FIELD_NUMBER:
+				value = pvm.hasStringValue() ? pvm.getStringValue() : null;
+				break;
+			case PropertyValueMessage.BYTESVALUE_FIELD_NUMBER:
+				value = pvm.hasBytesValue() ? pvm.getBytesValue().toByteArray() : null;
+				break;
+			case PropertyValueMessage.IDVALUE_FIELD_NUMBER:
+				value = pvm.hasIdValue() ? pvm.getIdValue() : null;
+				break;
+			default:
+				value = null;
+			}
+			if (value == null) {
+				throw new OgreException("Invalid graph update: the property " + entityType.getName() + "."
+						+ property.getName() + " doesn't have the right type of value.");
 			}
-			values[propertyIndex] = value;
 		}
-		return values;
+		return value;
+	}
+
+	/**
+	 * @return the number of the PropertyValueMessage field that holds non-null values of a property
+	 */
+	static int getValueFieldNumber(Property property) {
+		switch (property.getTypeCode()) {
+		case Property.TYPECODE_INT32:
+		case Property.TYPECODE_INT64:
+			return PropertyValueMessage.INTVALUE_FIELD_NUMBER;
+		case Property.TYPECODE_FLOAT:
+			return PropertyValueMessage.FLOATVALUE_FIELD_NUMBER;
+		case Property.TYPECODE_DOUBLE:
+			return PropertyValueMessage.DOUBLEVALUE_FIELD_NUMBER;
+		case Property.TYPECODE_STRING:
+			return PropertyValueMessage.STRINGVALUE_FIELD_NUMBER;
+		case Property.TYPECODE_BYTES:
+			return PropertyValueMessage.BYTESVALUE_FIELD_NUMBER;
+		case Property.TYPECODE_REFERENCE:
+			return PropertyValueMessage.IDVALUE_FIELD_NUMBER;
+		default:
+			return -1;
+		}
 	}
 
 	private EntityDiff[] getEntityDiffs(GraphUpdateMessage gum, TypeDomain typeDomain) {
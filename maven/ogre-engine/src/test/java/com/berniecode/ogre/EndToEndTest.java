@@ -20,10 +20,23 @@
 
 package com.berniecode.ogre;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+
 import com.berniecode.ogre.enginelib.ClientEngine;
 import com.berniecode.ogre.enginelib.EDRDescriber;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.GraphUpdateListener;
 import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.enginelib.PartialRawPropertyValueSet;
+import com.berniecode.ogre.enginelib.RawPropertyValueSet;
 import com.berniecode.ogre.enginelib.platformhooks.NoSuchThingException;
+import com.berniecode.ogre.server.pojods.DefaultEDRMapper;
+import com.berniecode.ogre.server.pojods.PojoDataSource;
+import com.berniecode.ogre.server.pojods.ValueMappingException;
 
 /**
  * Tests of the OGRE system in its most common configuration running from the server data source
@@ -172,6 +185,245 @@ public class EndToEndTest extends EntityClassWithAllFieldsTestCase {
 		assertClientEngineState("ObjectGraph TypeDomain/TestObjectGraph", clientEngine);
 	}
 
+	public void testSharedReferences() throws Exception {
+		ClientEngine clientEngine = createClientEngine();
+
+		// an object referenced by several others is only mapped once
+		EntityElementImpl shared = new EntityElementImpl("shared");
+		initialEntityObject.setEntityElement(shared);
+		EntityClassWithAllFieldsImpl other = new EntityClassWithAllFieldsImpl(15, 16, 17L, 18L, "other", 19.0F, 20.0F,
+				21.0, 22.0, byteArray(4, 5, 6), shared);
+		dataSource.setEntityObjects(Arrays.asList(initialEntityObject, other), shared);
+
+		assertEquals(2, transport.getMessageCount());
+		assertEquals(2, transport.getLastGraphUpdate().getEntityCreates().length);
+		assertEquals(1, transport.getLastGraphUpdate().getEntityDeletes().length);
+
+		// the shared object is removed once nothing references it
+		EntityElementImpl replacement = new EntityElementImpl("replacement");
+		initialEntityObject.setEntityElement(replacement);
+		other.setEntityElement(replacement);
+		dataSource.setEntityObjects(initialEntityObject, other);
+
+		assertEquals(3, transport.getMessageCount());
+		assertGraphUpdateState("GraphUpdate for object graph TypeDomain/TestObjectGraph" + "  complete values:"
+				+ "    value for EntityElement#3" + "      name=replacement" + "  partial values:"
+				+ "    partial value for EntityClassWithAllFields#1" + "      entity_element=EntityElement#3"
+				+ "    partial value for EntityClassWithAllFields#2" + "      entity_element=EntityElement#3"
+				+ "  deleted entities:" + "    delete EntityElement#2", transport.getLastGraphUpdate(), typeDomain);
+		assertEquals(3, clientEngine.getEntityCount());
+	}
+
+	public void testIncrementalChangesPropagated() throws Exception {
+		ClientEngine clientEngine = createClientEngine();
+
+		// changes to a dirty object propagated, including newly referenced objects
+		EntityElement oldElement = initialEntityObject.getEntityElement();
+		initialEntityObject.setString("Fizzle");
+		initialEntityObject.setNullableInt(null);
+		initialEntityObject.setEntityElement(new EntityElementImpl("lala"));
+		dataSource.markDirty(initialEntityObject);
+
+		assertEquals(2, transport.getMessageCount());
+		assertGraphUpdateState("GraphUpdate for object graph TypeDomain/TestObjectGraph" + "  complete values:"
+				+ "    value for EntityElement#2" + "      name=lala" + "  partial values:"
+				+ "    partial value for EntityClassWithAllFields#1" + "      entity_element=EntityElement#2"
+				+ "      nullable_int=null" + "      string=Fizzle", transport.getLastGraphUpdate(), typeDomain);
+
+		// objects that are no longer referenced are only removed on request
+		dataSource.remove(oldElement, new EntityElementImpl("never added"));
+
+		assertEquals(3, transport.getMessageCount());
+		assertGraphUpdateState("GraphUpdate for object graph TypeDomain/TestObjectGraph" + "  deleted entities:"
+				+ "    delete EntityElement#1", transport.getLastGraphUpdate(), typeDomain);
+
+		// new objects propagated
+		EntityClassWithAllFieldsImpl newEntityObject = new EntityClassWithAllFieldsImpl(15, 16, 17L, 18L, "my bizzle",
+				19.0F, 20.0F, 21.0, 22.0, byteArray(4, 5, 6), new EntityElementImpl("Bye!"));
+		dataSource.add(newEntityObject);
+
+		assertEquals(4, transport.getMessageCount());
+		assertGraphUpdateState("GraphUpdate for object graph TypeDomain/TestObjectGraph" + "  complete values:"
+				+ "    value for EntityClassWithAllFields#2" + "      bytes=4,5,6"
+				+ "      entity_element=EntityElement#3" + "      non_nullable_double=21.0"
+				+ "      non_nullable_float=19.0" + "      non_nullable_int=15" + "      non_nullable_long=17"
+				+ "      nullable_double=22.0" + "      nullable_float=20.0" + "      nullable_int=16"
+				+ "      nullable_long=18" + "      string=my bizzle" + "    value for EntityElement#3"
+				+ "      name=Bye!", transport.getLastGraphUpdate(), typeDomain);
+
+		// non-changes don't create extra graph updates
+		dataSource.markDirty(newEntityObject, initialEntityObject);
+		assertEquals(4, transport.getMessageCount());
+
+		// removes propagated
+		dataSource.remove(Arrays.asList(initialEntityObject, initialEntityObject.getEntityElement()));
+
+		assertEquals(5, transport.getMessageCount());
+		assertGraphUpdateState("GraphUpdate for object graph TypeDomain/TestObjectGraph" + "  deleted entities:"
+				+ "    delete EntityClassWithAllFields#1" + "    delete EntityElement#2",
+				transport.getLastGraphUpdate(), typeDomain);
+
+		// the result is the same as setting the remaining objects in one go
+		assertClientEngineState("ObjectGraph TypeDomain/TestObjectGraph" + "  Entity EntityClassWithAllFields#2"
+				+ "    bytes=4,5,6" + "    entity_element=EntityElement#3" + "    non_nullable_double=21.0"
+				+ "    non_nullable_float=19.0" + "    non_nullable_int=15" + "    non_nullable_long=17"
+				+ "    nullable_double=22.0" + "    nullable_float=20.0" + "    nullable_int=16"
+				+ "    nullable_long=18" + "    string=my bizzle" + "  Entity EntityElement#3" + "    name=Bye!",
+				clientEngine);
+		dataSource.setEntityObjects(newEntityObject);
+		assertEquals(5, transport.getMessageCount());
+	}
+
+	public void testRemoveNullsReferences() throws Exception {
+		ClientEngine clientEngine = createClientEngine();
+
+		// removing an object that is still referenced nulls the reference in the same update
+		dataSource.remove(initialEntityObject.getEntityElement());
+
+		assertEquals(2, transport.getMessageCount());
+		assertGraphUpdateState("GraphUpdate for object graph TypeDomain/TestObjectGraph" + "  partial values:"
+				+ "    partial value for EntityClassWithAllFields#1" + "      entity_element=null"
+				+ "  deleted entities:" + "    delete EntityElement#1", transport.getLastGraphUpdate(), typeDomain);
+
+		// references added after the first remove are tracked too
+		initialEntityObject.setEntityElement(new EntityElementImpl("lala"));
+		dataSource.markDirty(initialEntityObject);
+		dataSource.remove(initialEntityObject.getEntityElement());
+
+		assertEquals(4, transport.getMessageCount());
+		assertGraphUpdateState("GraphUpdate for object graph TypeDomain/TestObjectGraph" + "  partial values:"
+				+ "    partial value for EntityClassWithAllFields#1" + "      entity_element=null"
+				+ "  deleted entities:" + "    delete EntityElement#2", transport.getLastGraphUpdate(), typeDomain);
+
+		// a snapshot taken afterwards only refers to entities that exist
+		String expected = "ObjectGraph TypeDomain/TestObjectGraph" + "  Entity EntityClassWithAllFields#1"
+				+ "    bytes=1,2,3" + "    entity_element=null" + "    non_nullable_double=11.0"
+				+ "    non_nullable_float=9.0" + "    non_nullable_int=5" + "    non_nullable_long=7"
+				+ "    nullable_double=12.0" + "    nullable_float=10.0" + "    nullable_int=6"
+				+ "    nullable_long=8" + "    string=Shizzle";
+		assertClientEngineState(expected, clientEngine);
+		assertClientEngineState(expected, createClientEngine());
+	}
+
+	public void testFailedIncrementalChangeNotStored() throws Exception {
+		ClientEngine clientEngine = createClientEngine();
+
+		// the first object maps, but the second can't, so nothing should be stored or published
+		initialEntityObject.setString("Fizzle");
+		try {
+			dataSource.markDirty(initialEntityObject, "not an entity");
+			fail("markDirty() should fail if an object can't be mapped");
+		} catch (ValueMappingException e) {
+		}
+		assertEquals(1, transport.getMessageCount());
+
+		// so the change is detected and published when the object is next checked
+		dataSource.markDirty(initialEntityObject);
+		assertEquals(2, transport.getMessageCount());
+		assertGraphUpdateState("GraphUpdate for object graph TypeDomain/TestObjectGraph" + "  partial values:"
+				+ "    partial value for EntityClassWithAllFields#1" + "      string=Fizzle",
+				transport.getLastGraphUpdate(), typeDomain);
+		EntityType entityType = clientEngine.getTypeDomain().getEntityType(0);
+		assertEquals("Fizzle", clientEngine.getEntityByTypeAndId(entityType, 1).getPropertyValue(
+				entityType.getPropertyByName("string")));
+	}
+
+	public void testParallelMappingMatchesSequential() throws Exception {
+		List<String> sequential = recordGraphUpdates(1);
+		List<String> parallel = recordGraphUpdates(4);
+		assertEquals(3, sequential.size());
+		assertEquals(sequential, parallel);
+
+		// exceptions thrown on worker threads are rethrown
+		PojoDataSource parallelSource = createDataSource(4);
+		List<Object> objects = new ArrayList<Object>(createObjects(500));
+		objects.add("not an entity");
+		try {
+			parallelSource.setEntityObjects(objects);
+			fail("setEntityObjects() should fail if an object can't be mapped");
+		} catch (ValueMappingException e) {
+		}
+		parallelSource.close();
+	}
+
+	public void testCloseStopsMapperThreads() throws Exception {
+		Set<Thread> existing = Thread.getAllStackTraces().keySet();
+		PojoDataSource source = createDataSource(4);
+		source.setEntityObjects(createObjects(1000));
+		List<Thread> mappers = new ArrayList<Thread>();
+		for (Thread thread : Thread.getAllStackTraces().keySet()) {
+			if (!existing.contains(thread) && thread.getName().equals("PojoDataSource mapper")) {
+				mappers.add(thread);
+			}
+		}
+		assertFalse(mappers.isEmpty());
+
+		source.close();
+		for (Thread mapper : mappers) {
+			mapper.join(5000);
+			assertFalse(mapper.isAlive());
+		}
+
+		// a closed data source does the work on the calling thread
+		source.setEntityObjects(createObjects(300));
+		// 300 objects, and the 200 elements that they share in threes
+		assertEquals(500, source.createSnapshot().getEntityCreates().length);
+	}
+
+	/**
+	 * Create a graph of objects, some of which share an element, change and remove some of them,
+	 * and return a description of each graph update published, including the order of its values
+	 */
+	private List<String> recordGraphUpdates(int parallelism) {
+		final List<String> descriptions = new ArrayList<String>();
+		PojoDataSource source = createDataSource(parallelism);
+		source.setGraphUpdateListener(new GraphUpdateListener() {
+			public void acceptGraphUpdate(GraphUpdate update) {
+				StringBuilder description = new StringBuilder(EDRDescriber.describeGraphUpdate(update));
+				for (RawPropertyValueSet value : update.getEntityCreates()) {
+					description.append(" ").append(value);
+				}
+				for (PartialRawPropertyValueSet value : update.getEntityUpdates()) {
+					description.append(" ").append(value);
+				}
+				descriptions.add(description.toString());
+			}
+		});
+
+		List<EntityClassWithAllFieldsImpl> objects = createObjects(1000);
+		source.setEntityObjects(objects);
+		for (int i = 0; i < objects.size(); i += 7) {
+			objects.get(i).setString("changed " + i);
+			objects.get(i).setEntityElement(new EntityElementImpl("replaced " + i));
+		}
+		source.setEntityObjects(objects);
+		source.setEntityObjects(objects.subList(0, objects.size() / 2));
+		source.close();
+		return descriptions;
+	}
+
+	private List<EntityClassWithAllFieldsImpl> createObjects(int count) {
+		List<EntityClassWithAllFieldsImpl> objects = new ArrayList<EntityClassWithAllFieldsImpl>();
+		EntityElementImpl element = null;
+		for (int i = 0; i < count; i++) {
+			if (i % 3 != 2) {
+				element = new EntityElementImpl("element " + i);
+			}
+			objects.add(new EntityClassWithAllFieldsImpl(i, i, i, (long) i, "object " + i, i, (float) i, i,
+					(double) i, byteArray(i), element));
+		}
+		return objects;
+	}
+
+	private PojoDataSource createDataSource(int parallelism) {
+		PojoDataSource source = new PojoDataSource();
+		source.setEDRMapper(new DefaultEDRMapper(TYPE_DOMAIN_ID, EntityClassWithAllFields.class, EntityElement.class));
+		source.setObjectGraphId(OBJECT_GRAPH_ID);
+		source.setParallelism(parallelism);
+		source.initialise();
+		return source;
+	}
+
 	public void testNonChangesNotPropagated() throws Exception {
 
 		// set all properties to new objects with the same value but different object identities
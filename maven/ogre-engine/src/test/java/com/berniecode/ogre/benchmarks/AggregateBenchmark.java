@@ -0,0 +1,145 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.berniecode.ogre.enginelib.Aggregate;
+import com.berniecode.ogre.enginelib.ClientEngine;
+import com.berniecode.ogre.enginelib.ClientTransportAdapter;
+import com.berniecode.ogre.enginelib.Entity;
+import com.berniecode.ogre.enginelib.EntityDiff;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.EntityValue;
+import com.berniecode.ogre.enginelib.EntityVisitor;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.GraphUpdateListener;
+import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.enginelib.PartialRawPropertyValueSet;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.RawPropertyValueSet;
+import com.berniecode.ogre.enginelib.TypeDomain;
+
+/**
+ * Compares recalculating per-group totals by rescanning every entity after each update with
+ * reading them from an incrementally maintained aggregate view
+ * 
+ * @author Bernie Sumption
+ */
+public class AggregateBenchmark {
+
+	private static final int ENTITY_COUNT = 100000;
+	private static final int GROUPS = 1000;
+	private static final int UPDATES = 200;
+	private static final int DIFFS_PER_UPDATE = 10;
+
+	private static EntityType tradeType;
+	private static Property accountProperty;
+	private static Property quantityProperty;
+	private static TypeDomain typeDomain;
+
+	public static void main(String[] args) throws Exception {
+		OgreLog.setLevel(OgreLog.LEVEL_WARN);
+
+		accountProperty = new Property("account", Property.TYPECODE_INT32, false);
+		quantityProperty = new Property("quantity", Property.TYPECODE_INT64, false);
+		tradeType = new EntityType("trade", new Property[] { accountProperty, quantityProperty });
+		typeDomain = new TypeDomain("AggregateBenchmark", new EntityType[] { tradeType });
+
+		final GraphUpdate[] updates = new GraphUpdate[UPDATES];
+		for (int i = 0; i < UPDATES; i++) {
+			PartialRawPropertyValueSet[] diffs = new PartialRawPropertyValueSet[DIFFS_PER_UPDATE];
+			for (int j = 0; j < DIFFS_PER_UPDATE; j++) {
+				long id = 1 + (i * 7919L + j * 104729L) % ENTITY_COUNT;
+				diffs[j] = new EntityDiff(tradeType, id, new Object[] { null, Long.valueOf(i + j) }, new boolean[] {
+						false, true });
+			}
+			updates[i] = new GraphUpdate(typeDomain, "graph", i + 2, 1, null, diffs, null);
+		}
+
+		Benchmarks.time(UPDATES + " updates, rescanning group totals after each", new Benchmarks.Task() {
+			public void run() throws Exception {
+				ClientEngine engine = createEngine();
+				for (int i = 0; i < UPDATES; i++) {
+					engine.acceptGraphUpdate(updates[i]);
+					final Map<Object, long[]> totals = new HashMap<Object, long[]>();
+					engine.forEachEntityOfType(tradeType, new EntityVisitor() {
+						public boolean visit(Entity entity) {
+							Object account = entity.getRawPropertyValue(accountProperty);
+							long[] total = totals.get(account);
+							if (total == null) {
+								totals.put(account, total = new long[1]);
+							}
+							total[0] += ((Long) entity.getRawPropertyValue(quantityProperty)).longValue();
+							return true;
+						}
+					});
+					Benchmarks.consume(totals);
+				}
+			}
+		});
+		Benchmarks.time(UPDATES + " updates, reading group totals from a view after each", new Benchmarks.Task() {
+			public void run() throws Exception {
+				ClientEngine engine = createEngine();
+				engine.addAggregateView(tradeType, quantityProperty, accountProperty);
+				for (int i = 0; i < UPDATES; i++) {
+					engine.acceptGraphUpdate(updates[i]);
+					Aggregate[] totals = engine.getGroupAggregates(tradeType, quantityProperty, accountProperty);
+					Benchmarks.consume(totals);
+				}
+			}
+		});
+		Benchmarks.time("load only, for comparison", new Benchmarks.Task() {
+			public void run() throws Exception {
+				createEngine();
+			}
+		});
+	}
+
+	private static ClientEngine createEngine() throws Exception {
+		RawPropertyValueSet[] values = new RawPropertyValueSet[ENTITY_COUNT];
+		for (int i = 0; i < ENTITY_COUNT; i++) {
+			values[i] = new EntityValue(tradeType, i + 1, new Object[] { Integer.valueOf(i % GROUPS),
+					Long.valueOf(i % 100) });
+		}
+		final GraphUpdate snapshot = new GraphUpdate(typeDomain, "graph", 1, 1, values, null, null);
+		ClientEngine engine = new ClientEngine();
+		engine.setTypeDomainId(typeDomain.getTypeDomainId());
+		engine.setObjectGraphId("graph");
+		engine.setTransportAdapter(new ClientTransportAdapter() {
+			public TypeDomain loadTypeDomain(String typeDomainId) {
+				return typeDomain;
+			}
+
+			public GraphUpdate loadObjectGraph(TypeDomain typeDomain, String objectGraphId) {
+				return snapshot;
+			}
+
+			public void subscribeToGraphUpdates(TypeDomain typeDomain, String objectGraphId,
+					GraphUpdateListener listener) {
+			}
+		});
+		engine.initialise();
+		return engine;
+	}
+
+}
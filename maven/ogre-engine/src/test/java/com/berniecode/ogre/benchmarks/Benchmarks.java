@@ -0,0 +1,90 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.benchmarks;
+
+import java.util.Arrays;
+
+/**
+ * Minimal timing support for the benchmarks in this package. Benchmarks are run by hand from their
+ * main() methods - they're not unit tests, and the test runner ignores them.
+ * 
+ * @author Bernie Sumption
+ */
+public class Benchmarks {
+
+	private static final int WARMUP_RUNS = 3;
+	private static final int MEASURED_RUNS = 7;
+
+	private Benchmarks() {
+	}
+
+	/**
+	 * A piece of code to be timed
+	 */
+	public static interface Task {
+		void run() throws Exception;
+	}
+
+	/**
+	 * Run a task a few times to warm up the JIT, then print and return the median wall clock time
+	 * of several more runs, in milliseconds
+	 */
+	public static double time(String description, Task task) throws Exception {
+		for (int i = 0; i < WARMUP_RUNS; i++) {
+			task.run();
+		}
+		double[] times = new double[MEASURED_RUNS];
+		for (int i = 0; i < MEASURED_RUNS; i++) {
+			long start = System.nanoTime();
+			task.run();
+			times[i] = (System.nanoTime() - start) / 1e6;
+		}
+		Arrays.sort(times);
+		double median = times[MEASURED_RUNS / 2];
+		System.out.println(String.format("%-60s %10.2f ms", description, median));
+		return median;
+	}
+
+	/**
+	 * @return the number of bytes of heap in use after a best-effort garbage collection
+	 */
+	public static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 4; i++) {
+			System.gc();
+			try {
+				Thread.sleep(50);
+			} catch (InterruptedException e) {
+			}
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Stop the JIT from eliminating a computation whose result is otherwise unused
+	 */
+	public static void consume(Object o) {
+		sink = o;
+	}
+
+	static Object sink;
+
+}
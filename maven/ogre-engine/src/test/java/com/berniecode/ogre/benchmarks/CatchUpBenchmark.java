@@ -0,0 +1,120 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.benchmarks;
+
+import com.berniecode.ogre.enginelib.ClientEngine;
+import com.berniecode.ogre.enginelib.ClientTransportAdapter;
+import com.berniecode.ogre.enginelib.EntityDiff;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.EntityValue;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.GraphUpdateListener;
+import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.enginelib.PartialRawPropertyValueSet;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.RawPropertyValueSet;
+import com.berniecode.ogre.enginelib.TypeDomain;
+
+/**
+ * Measures the time taken by a {@link ClientEngine} to catch up with a backlog of updates that
+ * repeatedly change the same small set of entities, applying them one at a time and squashed
+ * together in catch-up mode
+ * 
+ * @author Bernie Sumption
+ */
+public class CatchUpBenchmark {
+
+	private static final int ENTITY_COUNT = 10000;
+	private static final int HOT_ENTITY_COUNT = 1000;
+	private static final int BACKLOG = 100000;
+	private static final int DIFFS_PER_UPDATE = 20;
+
+	private static EntityType quoteType;
+	private static TypeDomain typeDomain;
+
+	public static void main(String[] args) throws Exception {
+		OgreLog.setLevel(OgreLog.LEVEL_WARN);
+
+		quoteType = new EntityType("quote", new Property[] { new Property("bid", Property.TYPECODE_DOUBLE, false),
+				new Property("ask", Property.TYPECODE_DOUBLE, false) });
+		typeDomain = new TypeDomain("CatchUpBenchmark", new EntityType[] { quoteType });
+
+		final GraphUpdate[] backlog = new GraphUpdate[BACKLOG];
+		for (int i = 0; i < BACKLOG; i++) {
+			PartialRawPropertyValueSet[] diffs = new PartialRawPropertyValueSet[DIFFS_PER_UPDATE];
+			for (int j = 0; j < DIFFS_PER_UPDATE; j++) {
+				long id = 1 + (i * 7919L + j * 104729L) % HOT_ENTITY_COUNT;
+				diffs[j] = new EntityDiff(quoteType, id, new Object[] { Double.valueOf(i), Double.valueOf(i + 1) },
+						new boolean[] { true, true });
+			}
+			backlog[i] = new GraphUpdate(typeDomain, "graph", i + 2, 1, null, diffs, null);
+		}
+
+		// the engine is rebuilt for each run, so time that separately
+		Benchmarks.time("load " + ENTITY_COUNT + " entities", new Benchmarks.Task() {
+			public void run() throws Exception {
+				createEngine();
+			}
+		});
+		Benchmarks.time("load, then apply one at a time: " + BACKLOG + " updates", new Benchmarks.Task() {
+			public void run() throws Exception {
+				ClientEngine engine = createEngine();
+				for (int i = 0; i < BACKLOG; i++) {
+					engine.acceptGraphUpdate(backlog[i]);
+				}
+			}
+		});
+		Benchmarks.time("load, then apply in catch-up mode: " + BACKLOG + " updates", new Benchmarks.Task() {
+			public void run() throws Exception {
+				ClientEngine engine = createEngine();
+				engine.setCatchUpMode(true);
+				engine.acceptGraphUpdates(backlog);
+			}
+		});
+	}
+
+	private static ClientEngine createEngine() throws Exception {
+		RawPropertyValueSet[] values = new RawPropertyValueSet[ENTITY_COUNT];
+		for (int i = 0; i < ENTITY_COUNT; i++) {
+			values[i] = new EntityValue(quoteType, i + 1, new Object[] { Double.valueOf(0), Double.valueOf(0) });
+		}
+		final GraphUpdate snapshot = new GraphUpdate(typeDomain, "graph", 1, 1, values, null, null);
+		ClientEngine engine = new ClientEngine();
+		engine.setTypeDomainId(typeDomain.getTypeDomainId());
+		engine.setObjectGraphId("graph");
+		engine.setTransportAdapter(new ClientTransportAdapter() {
+			public TypeDomain loadTypeDomain(String typeDomainId) {
+				return typeDomain;
+			}
+
+			public GraphUpdate loadObjectGraph(TypeDomain typeDomain, String objectGraphId) {
+				return snapshot;
+			}
+
+			public void subscribeToGraphUpdates(TypeDomain typeDomain, String objectGraphId,
+					GraphUpdateListener listener) {
+			}
+		});
+		engine.initialise();
+		return engine;
+	}
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.benchmarks;
+
+import com.berniecode.ogre.enginelib.ClientEngine;
+import com.berniecode.ogre.enginelib.ClientTransportAdapter;
+import com.berniecode.ogre.enginelib.EntityReference;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.EntityValue;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.GraphUpdateListener;
+import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.enginelib.PartialRawPropertyValueSet;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.RawPropertyValueSet;
+import com.berniecode.ogre.enginelib.ReferenceProperty;
+import com.berniecode.ogre.enginelib.TypeDomain;
+
+/**
+ * Measures how the time taken by a {@link ClientEngine} to load its initial snapshot scales with
+ * the size of the object graph. Half of the references in the snapshot point forwards to entities
+ * later in the same update, which is the case that has to be resolved against the staged entities
+ * rather than the existing store. The time per entity should stay roughly flat as the snapshot
+ * grows. Each size is loaded with references resolved eagerly, then with lazy references, which
+ * defer resolving and indexing them until they are read or the next update arrives.
+ * 
+ * @author Bernie Sumption
+ */
+public class ClientEngineLoadBenchmark {
+
+	private static final int[] SIZES = { 10000, 100000, 1000000 };
+
+	public static void main(String[] args) throws Exception {
+		OgreLog.setLevel(OgreLog.LEVEL_WARN);
+
+		final EntityType nodeType = new EntityType("node", new Property[] {
+				new Property("name", Property.TYPECODE_STRING, false),
+				new Property("weight", Property.TYPECODE_INT64, false), new ReferenceProperty("next", "node") });
+		final TypeDomain typeDomain = new TypeDomain("LoadBenchmark", new EntityType[] { nodeType });
+
+		for (int size : SIZES) {
+			RawPropertyValueSet[] values = new RawPropertyValueSet[size];
+			for (int i = 0; i < size; i++) {
+				// even entities reference a later entity, odd entities an earlier one. IDs start at 1.
+				long next = 1 + (i % 2 == 0 ? (i + size / 2) % size : i / 2);
+				values[i] = new EntityValue(nodeType, i + 1, new Object[] { "node " + i, (long) i, next });
+			}
+			final GraphUpdate snapshot = new GraphUpdate(typeDomain, "graph", 1, 1, values,
+					new PartialRawPropertyValueSet[0], new EntityReference[0]);
+
+			for (final boolean lazy : new boolean[] { false, true }) {
+				String mode = lazy ? " (lazy references)" : "";
+				double millis = Benchmarks.time("load snapshot of " + size + " entities" + mode, new Benchmarks.Task() {
+					public void run() throws Exception {
+						ClientEngine engine = new ClientEngine();
+						engine.setTypeDomainId(typeDomain.getTypeDomainId());
+						engine.setObjectGraphId("graph");
+						engine.setTransportAdapter(new SnapshotAdapter(typeDomain, snapshot));
+						engine.setLazyReferences(lazy);
+						engine.initialise();
+						Benchmarks.consume(engine);
+					}
+				});
+				System.out.println(String.format("%-60s %10.1f ns", "  per entity", millis * 1e6 / size));
+			}
+		}
+	}
+
+	private static class SnapshotAdapter implements ClientTransportAdapter {
+
+		private final TypeDomain typeDomain;
+		private final GraphUpdate snapshot;
+
+		public SnapshotAdapter(TypeDomain typeDomain, GraphUpdate snapshot) {
+			this.typeDomain = typeDomain;
+			this.snapshot = snapshot;
+		}
+
+		public TypeDomain loadTypeDomain(String typeDomainId) {
+			return typeDomain;
+		}
+
+		public GraphUpdate loadObjectGraph(TypeDomain typeDomain, String objectGraphId) {
+			return snapshot;
+		}
+
+		public void subscribeToGraphUpdates(TypeDomain typeDomain, String objectGraphId, GraphUpdateListener listener) {
+		}
+	}
+
+}
@@ -0,0 +1,156 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.benchmarks;
+
+import com.berniecode.ogre.enginelib.ClientEngine;
+import com.berniecode.ogre.enginelib.ClientTransportAdapter;
+import com.berniecode.ogre.enginelib.ColumnarEntityStore;
+import com.berniecode.ogre.enginelib.Entity;
+import com.berniecode.ogre.enginelib.EntityTable;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.EntityValue;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.GraphUpdateListener;
+import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.RawPropertyValueSet;
+import com.berniecode.ogre.enginelib.ReferenceProperty;
+import com.berniecode.ogre.enginelib.TypeDomain;
+import com.berniecode.ogre.enginelib.platformhooks.ValueColumn;
+
+/**
+ * Compares the heap used by a {@link ClientEngine}, which stores an array of boxed values per
+ * {@link Entity}, with a {@link ColumnarEntityStore} holding the same entities, and the time each
+ * takes to scan one property of every entity of a type
+ * 
+ * @author Bernie Sumption
+ */
+public class ColumnarStoreBenchmark {
+
+	private static final int TRADE_COUNT = 1000000;
+	private static final int INSTRUMENT_COUNT = 1000;
+
+	private static EntityType instrumentType;
+	private static EntityType tradeType;
+	private static Property priceProperty;
+	private static TypeDomain typeDomain;
+
+	public static void main(String[] args) throws Exception {
+		OgreLog.setLevel(OgreLog.LEVEL_WARN);
+
+		instrumentType = new EntityType("instrument", new Property[] { new Property("name",
+				Property.TYPECODE_STRING, false) });
+		tradeType = new EntityType("trade", new Property[] { new Property("quantity", Property.TYPECODE_INT32, false),
+				new Property("timestamp", Property.TYPECODE_INT64, false),
+				priceProperty = new Property("price", Property.TYPECODE_DOUBLE, false),
+				new Property("discount", Property.TYPECODE_FLOAT, true),
+				new ReferenceProperty("instrument", "instrument") });
+		typeDomain = new TypeDomain("ColumnarStoreBenchmark", new EntityType[] { instrumentType, tradeType });
+
+		// measure the engine
+		long baseline = Benchmarks.usedHeap();
+		SnapshotAdapter adapter = new SnapshotAdapter(createSnapshot());
+		final ClientEngine engine = new ClientEngine();
+		engine.setTypeDomainId(typeDomain.getTypeDomainId());
+		engine.setObjectGraphId("graph");
+		engine.setTransportAdapter(adapter);
+		engine.initialise();
+		adapter.snapshot = null;
+		long engineBytes = Benchmarks.usedHeap() - baseline;
+
+		Benchmarks.time("ClientEngine: sum price of " + TRADE_COUNT + " trades", new Benchmarks.Task() {
+			public void run() {
+				double total = 0;
+				Entity[] trades = engine.getEntitiesByType(tradeType);
+				for (int i = 0; i < trades.length; i++) {
+					total += ((Double) trades[i].getPropertyValue(priceProperty)).doubleValue();
+				}
+				Benchmarks.consume(total);
+			}
+		});
+
+		// and the columnar store
+		baseline = Benchmarks.usedHeap();
+		GraphUpdate snapshot = createSnapshot();
+		final ColumnarEntityStore store = new ColumnarEntityStore(typeDomain);
+		store.acceptGraphUpdate(snapshot);
+		snapshot = null;
+		long columnarBytes = Benchmarks.usedHeap() - baseline;
+
+		Benchmarks.time("ColumnarEntityStore: sum price of " + TRADE_COUNT + " trades", new Benchmarks.Task() {
+			public void run() {
+				double total = 0;
+				EntityTable table = store.getTable(tradeType);
+				ValueColumn prices = table.getColumn(priceProperty);
+				for (int row = 0; row < table.getRowCount(); row++) {
+					total += prices.getDouble(row);
+				}
+				Benchmarks.consume(total);
+			}
+		});
+
+		int entityCount = TRADE_COUNT + INSTRUMENT_COUNT;
+		System.out.println(String.format("%-60s %10d bytes", "ClientEngine heap per entity", engineBytes
+				/ entityCount));
+		System.out.println(String.format("%-60s %10d bytes", "ColumnarEntityStore heap per entity", columnarBytes
+				/ entityCount));
+
+		long handleBaseline = Benchmarks.usedHeap();
+		Benchmarks.consume(store.getEntitiesByType(tradeType));
+		System.out.println(String.format("%-60s %10d bytes", "  plus, once every handle has been created",
+				(Benchmarks.usedHeap() - handleBaseline) / entityCount));
+		Benchmarks.consume(engine);
+	}
+
+	private static GraphUpdate createSnapshot() {
+		RawPropertyValueSet[] values = new RawPropertyValueSet[INSTRUMENT_COUNT + TRADE_COUNT];
+		for (int i = 0; i < INSTRUMENT_COUNT; i++) {
+			values[i] = new EntityValue(instrumentType, i + 1, new Object[] { "instrument " + i });
+		}
+		for (int i = 0; i < TRADE_COUNT; i++) {
+			values[INSTRUMENT_COUNT + i] = new EntityValue(tradeType, i + 1, new Object[] {
+					Integer.valueOf(1000 + i % 5000), Long.valueOf(1300000000000L + i), Double.valueOf(i * 0.01),
+					i % 4 == 0 ? null : Float.valueOf(i % 100 / 100f), Long.valueOf(1 + i % INSTRUMENT_COUNT) });
+		}
+		return new GraphUpdate(typeDomain, "graph", 1, 1, values, null, null);
+	}
+
+	private static class SnapshotAdapter implements ClientTransportAdapter {
+
+		GraphUpdate snapshot;
+
+		public SnapshotAdapter(GraphUpdate snapshot) {
+			this.snapshot = snapshot;
+		}
+
+		public TypeDomain loadTypeDomain(String typeDomainId) {
+			return typeDomain;
+		}
+
+		public GraphUpdate loadObjectGraph(TypeDomain typeDomain, String objectGraphId) {
+			return snapshot;
+		}
+
+		public void subscribeToGraphUpdates(TypeDomain typeDomain, String objectGraphId, GraphUpdateListener listener) {
+		}
+	}
+
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.benchmarks;
+
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.berniecode.ogre.enginelib.ClientEngine;
+import com.berniecode.ogre.enginelib.ClientTransportAdapter;
+import com.berniecode.ogre.enginelib.EntityDiff;
+import com.berniecode.ogre.enginelib.EntityReference;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.EntityValue;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.GraphUpdateListener;
+import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.enginelib.PartialRawPropertyValueSet;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.RawPropertyValueSet;
+import com.berniecode.ogre.enginelib.ReferenceProperty;
+import com.berniecode.ogre.enginelib.TypeDomain;
+
+/**
+ * Measures read throughput of a {@link ClientEngine} while a writer thread applies a continuous
+ * stream of graph updates, with and without concurrent reads enabled, for an increasing number of
+ * reader threads.
+ * 
+ * <p>
+ * The object graph has a large "instrument" type with a sorted index on its volume, and a small
+ * "quote" type. Every update modifies ten quotes, modifies one instrument and creates another,
+ * and readers look up entities of both types by ID and query the sorted index. Pass the reader
+ * thread counts to test as arguments; the default is powers of two up to twice the number of
+ * available processors.
+ * 
+ * <p>
+ * It then measures the time taken to apply an update that creates or modifies a single
+ * instrument, with and without concurrent reads, as that should not depend on the number of
+ * instruments.
+ * 
+ * @author Bernie Sumption
+ */
+public class ConcurrentReadBenchmark {
+
+	private static final int INSTRUMENT_COUNT = 1000000;
+	private static final int QUOTE_COUNT = 1000;
+	private static final int DIFFS_PER_UPDATE = 10;
+	private static final long RUN_MILLIS = 2000;
+	private static final int TIMED_UPDATES = 20;
+
+	private static EntityType instrumentType;
+	private static Property volumeProperty;
+	private static EntityType quoteType;
+	private static TypeDomain typeDomain;
+
+	public static void main(String[] args) throws Exception {
+		OgreLog.setLevel(OgreLog.LEVEL_WARN);
+
+		volumeProperty = new Property("volume", Property.TYPECODE_INT64, false);
+		instrumentType = new EntityType("instrument", new Property[] {
+				new Property("name", Property.TYPECODE_STRING, false), volumeProperty });
+		quoteType = new EntityType("quote", new Property[] { new Property("price", Property.TYPECODE_DOUBLE, false),
+				new ReferenceProperty("instrument", "instrument") });
+		typeDomain = new TypeDomain("ConcurrentReadBenchmark", new EntityType[] { instrumentType, quoteType });
+
+		int[] threadCounts;
+		if (args.length > 0) {
+			threadCounts = new int[args.length];
+			for (int i = 0; i < args.length; i++) {
+				threadCounts[i] = Integer.parseInt(args[i]);
+			}
+		} else {
+			int max = Runtime.getRuntime().availableProcessors() * 2;
+			int count = 0;
+			for (int n = 1; n <= max; n *= 2) {
+				count++;
+			}
+			threadCounts = new int[count];
+			for (int i = 0, n = 1; i < count; i++, n *= 2) {
+				threadCounts[i] = n;
+			}
+		}
+
+		System.out.println(Runtime.getRuntime().availableProcessors() + " available processors");
+		for (int threads : threadCounts) {
+			run(false, threads); // warm up
+			run(false, threads);
+			run(true, threads);
+		}
+
+		timeUpdates(false);
+		timeUpdates(true);
+	}
+
+	private static void timeUpdates(final boolean concurrentReads) throws Exception {
+		final ClientEngine engine = createEngine(concurrentReads);
+		final int[] next = { 2, INSTRUMENT_COUNT + 1 }; // data version, instrument ID
+		String mode = concurrentReads ? "concurrent reads" : "synchronized";
+		double createMillis = Benchmarks.time(TIMED_UPDATES + " updates creating one instrument, " + mode,
+				new Benchmarks.Task() {
+					public void run() throws Exception {
+						for (int i = 0; i < TIMED_UPDATES; i++) {
+							int id = next[1]++;
+							engine.acceptGraphUpdate(new GraphUpdate(typeDomain, "graph", next[0]++, 1,
+									new RawPropertyValueSet[] { new EntityValue(instrumentType, id, new Object[] {
+											"instrument " + id, (long) id }) }, new PartialRawPropertyValueSet[0],
+									new EntityReference[0]));
+						}
+					}
+				});
+		double diffMillis = Benchmarks.time(TIMED_UPDATES + " updates modifying one instrument, " + mode,
+				new Benchmarks.Task() {
+					public void run() throws Exception {
+						for (int i = 0; i < TIMED_UPDATES; i++) {
+							int version = next[0]++;
+							engine.acceptGraphUpdate(new GraphUpdate(typeDomain, "graph", version, 1,
+									new RawPropertyValueSet[0], new PartialRawPropertyValueSet[] { new EntityDiff(
+											instrumentType, 1 + version % INSTRUMENT_COUNT, new Object[] { null,
+													(long) version }, new boolean[] { false, true }) },
+									new EntityReference[0]));
+						}
+					}
+				});
+		System.out.println(String.format("%-16s %10.3f ms per create %10.3f ms per diff", mode, createMillis
+				/ TIMED_UPDATES, diffMillis / TIMED_UPDATES));
+	}
+
+	private static void run(boolean concurrentReads, int readerThreads) throws Exception {
+		final ClientEngine engine = createEngine(concurrentReads);
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicLong reads = new AtomicLong();
+		final AtomicLong updates = new AtomicLong();
+		final CountDownLatch finished = new CountDownLatch(readerThreads + 1);
+
+		Thread writer = new Thread() {
+			@Override
+			public void run() {
+				Random random = new Random(0);
+				int version = 2;
+				long nextId = INSTRUMENT_COUNT + 1;
+				while (running.get()) {
+					PartialRawPropertyValueSet[] diffs = new PartialRawPropertyValueSet[DIFFS_PER_UPDATE + 1];
+					for (int i = 0; i < DIFFS_PER_UPDATE; i++) {
+						diffs[i] = new EntityDiff(quoteType, 1 + random.nextInt(QUOTE_COUNT), new Object[] {
+								random.nextDouble(), null }, new boolean[] { true, false });
+					}
+					diffs[DIFFS_PER_UPDATE] = new EntityDiff(instrumentType, 1 + random.nextInt(INSTRUMENT_COUNT),
+							new Object[] { null, (long) random.nextInt(INSTRUMENT_COUNT) }, new boolean[] { false,
+									true });
+					RawPropertyValueSet[] creates = { new EntityValue(instrumentType, nextId, new Object[] {
+							"instrument " + nextId, nextId }) };
+					nextId++;
+					engine.acceptGraphUpdate(new GraphUpdate(typeDomain, "graph", version++, 1, creates, diffs,
+							new EntityReference[0]));
+					updates.incrementAndGet();
+				}
+				finished.countDown();
+			}
+		};
+
+		Thread[] readers = new Thread[readerThreads];
+		for (int t = 0; t < readers.length; t++) {
+			final int seed = t;
+			readers[t] = new Thread() {
+				@Override
+				public void run() {
+					Random random = new Random(seed);
+					long count = 0;
+					while (running.get()) {
+						for (int i = 0; i < 100; i++) {
+							Benchmarks.consume(engine.getEntityByTypeAndId(quoteType, 1 + random.nextInt(QUOTE_COUNT)));
+							Benchmarks.consume(engine.getEntityByTypeAndId(instrumentType,
+									1 + random.nextInt(INSTRUMENT_COUNT)));
+						}
+						Benchmarks.consume(engine.getTopEntities(volumeProperty, 10));
+						count += 201;
+					}
+					reads.addAndGet(count);
+					finished.countDown();
+				}
+			};
+		}
+
+		writer.start();
+		for (Thread reader : readers) {
+			reader.start();
+		}
+		Thread.sleep(RUN_MILLIS);
+		running.set(false);
+		finished.await();
+
+		double seconds = RUN_MILLIS / 1000.0;
+		System.out.println(String.format("%-16s %2d readers %14.0f reads/s %10.0f updates/s",
+				concurrentReads ? "concurrent reads" : "synchronized", readerThreads, reads.get() / seconds, updates
+						.get()
+						/ seconds));
+	}
+
+	private static ClientEngine createEngine(boolean concurrentReads) throws Exception {
+		RawPropertyValueSet[] values = new RawPropertyValueSet[INSTRUMENT_COUNT + QUOTE_COUNT];
+		for (int i = 0; i < INSTRUMENT_COUNT; i++) {
+			values[i] = new EntityValue(instrumentType, i + 1, new Object[] { "instrument " + i, (long) i });
+		}
+		for (int i = 0; i < QUOTE_COUNT; i++) {
+			values[INSTRUMENT_COUNT + i] = new EntityValue(quoteType, i + 1, new Object[] { 1.0, (long) (i + 1) });
+		}
+		final GraphUpdate snapshot = new GraphUpdate(typeDomain, "graph", 1, 1, values,
+				new PartialRawPropertyValueSet[0], new EntityReference[0]);
+
+		ClientEngine engine = new ClientEngine();
+		engine.setTypeDomainId(typeDomain.getTypeDomainId());
+		engine.setObjectGraphId("graph");
+		engine.setConcurrentReads(concurrentReads);
+		engine.setTransportAdapter(new ClientTransportAdapter() {
+			public TypeDomain loadTypeDomain(String typeDomainId) {
+				return typeDomain;
+			}
+
+			public GraphUpdate loadObjectGraph(TypeDomain typeDomain, String objectGraphId) {
+				return snapshot;
+			}
+
+			public void subscribeToGraphUpdates(TypeDomain typeDomain, String objectGraphId,
+					GraphUpdateListener listener) {
+			}
+		});
+		engine.initialise();
+		engine.addSortedIndex(volumeProperty);
+		return engine;
+	}
+
+}
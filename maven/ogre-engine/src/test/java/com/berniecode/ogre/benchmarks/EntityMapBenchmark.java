@@ -0,0 +1,150 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.benchmarks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.berniecode.ogre.enginelib.Entity;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.TypeDomain;
+import com.berniecode.ogre.enginelib.platformhooks.EntityMap;
+
+/**
+ * Compares {@link EntityMap} with the boxed HashMap&lt;Long, Entity&gt; that it replaced
+ * 
+ * @author Bernie Sumption
+ */
+public class EntityMapBenchmark {
+
+	private static final int ENTITY_COUNT = 1000000;
+
+	public static void main(String[] args) throws Exception {
+		EntityType entityType = new EntityType("entityType", new Property[0]);
+		new TypeDomain("benchmark", new EntityType[] { entityType });
+		final Entity[] entities = new Entity[ENTITY_COUNT];
+		for (int i = 0; i < ENTITY_COUNT; i++) {
+			entities[i] = new Entity(entityType, i + 1, null);
+		}
+
+		Benchmarks.time("HashMap<Long, Entity> put " + ENTITY_COUNT, new Benchmarks.Task() {
+			public void run() {
+				Benchmarks.consume(fillBoxed(entities));
+			}
+		});
+		Benchmarks.time("EntityMap put " + ENTITY_COUNT, new Benchmarks.Task() {
+			public void run() {
+				Benchmarks.consume(fillPrimitive(entities));
+			}
+		});
+
+		final Map<Long, Entity> boxed = fillBoxed(entities);
+		final EntityMap primitive = fillPrimitive(entities);
+		Benchmarks.time("HashMap<Long, Entity> get " + ENTITY_COUNT + " in id order", new Benchmarks.Task() {
+			public void run() {
+				for (int i = 1; i <= ENTITY_COUNT; i++) {
+					Benchmarks.consume(boxed.get(Long.valueOf(i)));
+				}
+			}
+		});
+		Benchmarks.time("EntityMap get " + ENTITY_COUNT + " in id order", new Benchmarks.Task() {
+			public void run() {
+				for (int i = 1; i <= ENTITY_COUNT; i++) {
+					Benchmarks.consume(primitive.get(i));
+				}
+			}
+		});
+
+		final long[] shuffledIds = new long[ENTITY_COUNT];
+		for (int i = 0; i < ENTITY_COUNT; i++) {
+			shuffledIds[i] = i + 1;
+		}
+		Random random = new Random(0);
+		for (int i = ENTITY_COUNT - 1; i > 0; i--) {
+			int j = random.nextInt(i + 1);
+			long tmp = shuffledIds[i];
+			shuffledIds[i] = shuffledIds[j];
+			shuffledIds[j] = tmp;
+		}
+		Benchmarks.time("HashMap<Long, Entity> get " + ENTITY_COUNT + " in random order", new Benchmarks.Task() {
+			public void run() {
+				for (int i = 0; i < ENTITY_COUNT; i++) {
+					Benchmarks.consume(boxed.get(Long.valueOf(shuffledIds[i])));
+				}
+			}
+		});
+		Benchmarks.time("EntityMap get " + ENTITY_COUNT + " in random order", new Benchmarks.Task() {
+			public void run() {
+				for (int i = 0; i < ENTITY_COUNT; i++) {
+					Benchmarks.consume(primitive.get(shuffledIds[i]));
+				}
+			}
+		});
+
+		Benchmarks.time("HashMap<Long, Entity> put then remove " + ENTITY_COUNT, new Benchmarks.Task() {
+			public void run() {
+				Map<Long, Entity> map = fillBoxed(entities);
+				for (int i = 1; i <= ENTITY_COUNT; i++) {
+					map.remove(Long.valueOf(i));
+				}
+			}
+		});
+		Benchmarks.time("EntityMap put then remove " + ENTITY_COUNT, new Benchmarks.Task() {
+			public void run() {
+				EntityMap map = fillPrimitive(entities);
+				for (int i = 1; i <= ENTITY_COUNT; i++) {
+					map.remove(i);
+				}
+			}
+		});
+
+		long before = Benchmarks.usedHeap();
+		Map<Long, Entity> boxedRetained = fillBoxed(entities);
+		long boxedBytes = Benchmarks.usedHeap() - before;
+		Benchmarks.consume(boxedRetained);
+		boxedRetained = null;
+		before = Benchmarks.usedHeap();
+		EntityMap primitiveRetained = fillPrimitive(entities);
+		long primitiveBytes = Benchmarks.usedHeap() - before;
+		Benchmarks.consume(primitiveRetained);
+		System.out.println("HashMap<Long, Entity> heap per entry: " + (boxedBytes / ENTITY_COUNT) + " bytes");
+		System.out.println("EntityMap heap per entry: " + (primitiveBytes / ENTITY_COUNT) + " bytes");
+	}
+
+	private static Map<Long, Entity> fillBoxed(Entity[] entities) {
+		Map<Long, Entity> map = new HashMap<Long, Entity>();
+		for (int i = 0; i < entities.length; i++) {
+			map.put(Long.valueOf(entities[i].getEntityId()), entities[i]);
+		}
+		return map;
+	}
+
+	private static EntityMap fillPrimitive(Entity[] entities) {
+		EntityMap map = new EntityMap();
+		for (int i = 0; i < entities.length; i++) {
+			map.put(entities[i]);
+		}
+		return map;
+	}
+
+}
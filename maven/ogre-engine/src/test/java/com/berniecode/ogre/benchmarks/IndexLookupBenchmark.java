@@ -0,0 +1,151 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.benchmarks;
+
+import com.berniecode.ogre.enginelib.ClientEngine;
+import com.berniecode.ogre.enginelib.ClientTransportAdapter;
+import com.berniecode.ogre.enginelib.Entity;
+import com.berniecode.ogre.enginelib.EntityDiff;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.EntityValue;
+import com.berniecode.ogre.enginelib.EntityVisitor;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.GraphUpdateListener;
+import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.enginelib.PartialRawPropertyValueSet;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.RawPropertyValueSet;
+import com.berniecode.ogre.enginelib.TypeDomain;
+
+/**
+ * Compares finding entities by property value with a full scan and with a hash index, and
+ * measures the cost of maintaining the index while updates are applied
+ * 
+ * @author Bernie Sumption
+ */
+public class IndexLookupBenchmark {
+
+	private static final int ENTITY_COUNT = 100000;
+	private static final int DISTINCT_VALUES = 1000;
+	private static final int LOOKUPS = 1000;
+	private static final int UPDATES = 10000;
+	private static final int DIFFS_PER_UPDATE = 10;
+
+	private static EntityType orderType;
+	private static Property accountProperty;
+	private static TypeDomain typeDomain;
+
+	public static void main(String[] args) throws Exception {
+		OgreLog.setLevel(OgreLog.LEVEL_WARN);
+
+		accountProperty = new Property("account", Property.TYPECODE_INT32, false);
+		orderType = new EntityType("order", new Property[] { accountProperty,
+				new Property("quantity", Property.TYPECODE_INT64, false) });
+		typeDomain = new TypeDomain("IndexLookupBenchmark", new EntityType[] { orderType });
+
+		final GraphUpdate[] updates = new GraphUpdate[UPDATES];
+		for (int i = 0; i < UPDATES; i++) {
+			PartialRawPropertyValueSet[] diffs = new PartialRawPropertyValueSet[DIFFS_PER_UPDATE];
+			for (int j = 0; j < DIFFS_PER_UPDATE; j++) {
+				long id = 1 + (i * 7919L + j * 104729L) % ENTITY_COUNT;
+				diffs[j] = new EntityDiff(orderType, id, new Object[] { Integer.valueOf((i + j) % DISTINCT_VALUES), null },
+						new boolean[] { true, false });
+			}
+			updates[i] = new GraphUpdate(typeDomain, "graph", i + 2, 1, null, diffs, null);
+		}
+
+		final ClientEngine scanned = createEngine();
+		final ClientEngine indexed = createEngine();
+		indexed.addHashIndex(accountProperty);
+
+		Benchmarks.time(LOOKUPS + " lookups by full scan", new Benchmarks.Task() {
+			public void run() throws Exception {
+				for (int i = 0; i < LOOKUPS; i++) {
+					final Integer account = Integer.valueOf(i % DISTINCT_VALUES);
+					final int[] count = new int[1];
+					scanned.forEachEntityOfType(orderType, new EntityVisitor() {
+						public boolean visit(Entity entity) {
+							if (account.equals(entity.getRawPropertyValue(accountProperty))) {
+								count[0]++;
+							}
+							return true;
+						}
+					});
+					Benchmarks.consume(count[0]);
+				}
+			}
+		});
+		Benchmarks.time(LOOKUPS + " lookups by hash index", new Benchmarks.Task() {
+			public void run() throws Exception {
+				for (int i = 0; i < LOOKUPS; i++) {
+					Benchmarks.consume(indexed.getEntitiesByPropertyValue(accountProperty,
+							Integer.valueOf(i % DISTINCT_VALUES)).length);
+				}
+			}
+		});
+
+		Benchmarks.time("load, then apply " + UPDATES + " updates without an index", new Benchmarks.Task() {
+			public void run() throws Exception {
+				ClientEngine engine = createEngine();
+				for (int i = 0; i < UPDATES; i++) {
+					engine.acceptGraphUpdate(updates[i]);
+				}
+			}
+		});
+		Benchmarks.time("load, then apply " + UPDATES + " updates with an index", new Benchmarks.Task() {
+			public void run() throws Exception {
+				ClientEngine engine = createEngine();
+				engine.addHashIndex(accountProperty);
+				for (int i = 0; i < UPDATES; i++) {
+					engine.acceptGraphUpdate(updates[i]);
+				}
+			}
+		});
+	}
+
+	private static ClientEngine createEngine() throws Exception {
+		RawPropertyValueSet[] values = new RawPropertyValueSet[ENTITY_COUNT];
+		for (int i = 0; i < ENTITY_COUNT; i++) {
+			values[i] = new EntityValue(orderType, i + 1, new Object[] { Integer.valueOf(i % DISTINCT_VALUES),
+					Long.valueOf(i) });
+		}
+		final GraphUpdate snapshot = new GraphUpdate(typeDomain, "graph", 1, 1, values, null, null);
+		ClientEngine engine = new ClientEngine();
+		engine.setTypeDomainId(typeDomain.getTypeDomainId());
+		engine.setObjectGraphId("graph");
+		engine.setTransportAdapter(new ClientTransportAdapter() {
+			public TypeDomain loadTypeDomain(String typeDomainId) {
+				return typeDomain;
+			}
+
+			public GraphUpdate loadObjectGraph(TypeDomain typeDomain, String objectGraphId) {
+				return snapshot;
+			}
+
+			public void subscribeToGraphUpdates(TypeDomain typeDomain, String objectGraphId,
+					GraphUpdateListener listener) {
+			}
+		});
+		engine.initialise();
+		return engine;
+	}
+
+}
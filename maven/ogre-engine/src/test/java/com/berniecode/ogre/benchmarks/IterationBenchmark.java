@@ -0,0 +1,129 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.benchmarks;
+
+import java.lang.management.ManagementFactory;
+
+import com.berniecode.ogre.enginelib.ClientEngine;
+import com.berniecode.ogre.enginelib.ClientTransportAdapter;
+import com.berniecode.ogre.enginelib.Entity;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.EntityValue;
+import com.berniecode.ogre.enginelib.EntityVisitor;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.GraphUpdateListener;
+import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.RawPropertyValueSet;
+import com.berniecode.ogre.enginelib.TypeDomain;
+
+/**
+ * Compares iterating over every entity of a type with {@link ClientEngine#getEntitiesByType} and
+ * with {@link ClientEngine#forEachEntityOfType}, in time and in bytes allocated per iteration
+ * 
+ * @author Bernie Sumption
+ */
+public class IterationBenchmark {
+
+	private static final int ENTITY_COUNT = 1000000;
+	private static final int ITERATIONS = 20;
+
+	public static void main(String[] args) throws Exception {
+		OgreLog.setLevel(OgreLog.LEVEL_WARN);
+
+		final EntityType type = new EntityType("node", new Property[] { new Property("weight",
+				Property.TYPECODE_INT32, false) });
+		final TypeDomain typeDomain = new TypeDomain("IterationBenchmark", new EntityType[] { type });
+		RawPropertyValueSet[] values = new RawPropertyValueSet[ENTITY_COUNT];
+		for (int i = 0; i < ENTITY_COUNT; i++) {
+			values[i] = new EntityValue(type, i + 1, new Object[] { i });
+		}
+		final GraphUpdate snapshot = new GraphUpdate(typeDomain, "graph", 1, 1, values, null, null);
+
+		final ClientEngine engine = new ClientEngine();
+		engine.setTypeDomainId(typeDomain.getTypeDomainId());
+		engine.setObjectGraphId("graph");
+		engine.setTransportAdapter(new ClientTransportAdapter() {
+			public TypeDomain loadTypeDomain(String typeDomainId) {
+				return typeDomain;
+			}
+
+			public GraphUpdate loadObjectGraph(TypeDomain typeDomain, String objectGraphId) {
+				return snapshot;
+			}
+
+			public void subscribeToGraphUpdates(TypeDomain typeDomain, String objectGraphId,
+					GraphUpdateListener listener) {
+			}
+		});
+		engine.initialise();
+
+		final Benchmarks.Task copying = new Benchmarks.Task() {
+			public void run() {
+				for (int i = 0; i < ITERATIONS; i++) {
+					int count = 0;
+					for (Entity entity : engine.getEntitiesByType(type)) {
+						if (entity != null) {
+							count++;
+						}
+					}
+					Benchmarks.consume(count);
+				}
+			}
+		};
+		final CountingVisitor visitor = new CountingVisitor();
+		final Benchmarks.Task visiting = new Benchmarks.Task() {
+			public void run() {
+				for (int i = 0; i < ITERATIONS; i++) {
+					visitor.count = 0;
+					engine.forEachEntityOfType(type, visitor);
+					Benchmarks.consume(visitor.count);
+				}
+			}
+		};
+
+		Benchmarks.time(ITERATIONS + " x getEntitiesByType() over " + ENTITY_COUNT, copying);
+		Benchmarks.time(ITERATIONS + " x forEachEntityOfType() over " + ENTITY_COUNT, visiting);
+		System.out.println(String.format("%-60s %10d bytes", "getEntitiesByType() allocation per iteration",
+				allocatedBy(copying) / ITERATIONS));
+		System.out.println(String.format("%-60s %10d bytes", "forEachEntityOfType() allocation per iteration",
+				allocatedBy(visiting) / ITERATIONS));
+	}
+
+	private static long allocatedBy(Benchmarks.Task task) throws Exception {
+		com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory
+				.getThreadMXBean();
+		long before = threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+		task.run();
+		return threads.getThreadAllocatedBytes(Thread.currentThread().getId()) - before;
+	}
+
+	private static class CountingVisitor implements EntityVisitor {
+
+		int count;
+
+		public boolean visit(Entity entity) {
+			count++;
+			return true;
+		}
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.benchmarks;
+
+import com.berniecode.ogre.enginelib.ClientEngine;
+import com.berniecode.ogre.enginelib.ClientTransportAdapter;
+import com.berniecode.ogre.enginelib.Entity;
+import com.berniecode.ogre.enginelib.EntityReference;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.EntityValue;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.GraphUpdateListener;
+import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.enginelib.PartialRawPropertyValueSet;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.RawPropertyValueSet;
+import com.berniecode.ogre.enginelib.TypeDomain;
+import com.berniecode.ogre.wireformat.OgreWireFormatDeserialiser;
+import com.berniecode.ogre.wireformat.OgreWireFormatSerialiser;
+
+/**
+ * Compares loading a serialised snapshot of wide entities into a {@link ClientEngine} with eager
+ * and lazy decoding of property values, in both the time taken to deserialise and apply the
+ * snapshot and the heap used by the loaded engine, then measures the cost of reading one property
+ * of every entity, which for lazily decoded entities includes decoding it
+ * 
+ * @author Bernie Sumption
+ */
+public class LazyDecodingBenchmark {
+
+	private static final int ENTITY_COUNT = 50000;
+	private static final int PROPERTY_COUNT = 40;
+
+	private static EntityType wideType;
+	private static TypeDomain typeDomain;
+	private static byte[] message;
+
+	public static void main(String[] args) throws Exception {
+		OgreLog.setLevel(OgreLog.LEVEL_WARN);
+
+		Property[] properties = new Property[PROPERTY_COUNT];
+		for (int i = 0; i < PROPERTY_COUNT; i++) {
+			int typeCode = i % 2 == 0 ? Property.TYPECODE_STRING : Property.TYPECODE_DOUBLE;
+			properties[i] = new Property("property" + i, typeCode, false);
+		}
+		wideType = new EntityType("wide", properties);
+		typeDomain = new TypeDomain("LazyDecodingBenchmark", new EntityType[] { wideType });
+		message = new OgreWireFormatSerialiser().serialiseGraphUpdate(createSnapshot());
+		System.out.println(String.format("%-60s %10d bytes", "serialised snapshot", message.length));
+
+		measure(false);
+		measure(true);
+	}
+
+	private static void measure(final boolean lazy) throws Exception {
+		final String mode = lazy ? "lazy: " : "eager: ";
+		final Property property = wideType.getProperty(0);
+
+		Benchmarks.time(mode + "load snapshot of " + ENTITY_COUNT + " entities", new Benchmarks.Task() {
+			public void run() throws Exception {
+				Benchmarks.consume(load(lazy));
+			}
+		});
+
+		long baseline = Benchmarks.usedHeap();
+		ClientEngine engine = load(lazy);
+		long engineBytes = Benchmarks.usedHeap() - baseline;
+		System.out.println(String.format("%-60s %10d bytes", mode + "heap per entity", engineBytes / ENTITY_COUNT));
+
+		final Entity[][] entities = new Entity[1][];
+		Benchmarks.time(mode + "load, then read one property of every entity", new Benchmarks.Task() {
+			public void run() throws Exception {
+				entities[0] = load(lazy).getEntitiesByType(wideType);
+				for (int i = 0; i < entities[0].length; i++) {
+					Benchmarks.consume(entities[0][i].getPropertyValue(property));
+				}
+			}
+		});
+		Benchmarks.consume(engine);
+	}
+
+	private static ClientEngine load(boolean lazy) throws Exception {
+		OgreWireFormatDeserialiser deserialiser = new OgreWireFormatDeserialiser();
+		deserialiser.setLazyDecoding(lazy);
+		ClientEngine engine = new ClientEngine();
+		engine.setTypeDomainId(typeDomain.getTypeDomainId());
+		engine.setObjectGraphId("graph");
+		engine.setTransportAdapter(new SnapshotAdapter(deserialiser));
+		engine.initialise();
+		return engine;
+	}
+
+	private static GraphUpdate createSnapshot() {
+		RawPropertyValueSet[] values = new RawPropertyValueSet[ENTITY_COUNT];
+		for (int i = 0; i < ENTITY_COUNT; i++) {
+			Object[] entityValues = new Object[PROPERTY_COUNT];
+			for (int j = 0; j < PROPERTY_COUNT; j++) {
+				entityValues[j] = j % 2 == 0 ? "value " + j + " of entity " + i : Double.valueOf(i * 0.5 + j);
+			}
+			values[i] = new EntityValue(wideType, i + 1, entityValues);
+		}
+		return new GraphUpdate(typeDomain, "graph", 1, 1, values, new PartialRawPropertyValueSet[0],
+				new EntityReference[0]);
+	}
+
+	private static class SnapshotAdapter implements ClientTransportAdapter {
+
+		private final OgreWireFormatDeserialiser deserialiser;
+
+		public SnapshotAdapter(OgreWireFormatDeserialiser deserialiser) {
+			this.deserialiser = deserialiser;
+		}
+
+		public TypeDomain loadTypeDomain(String typeDomainId) {
+			return typeDomain;
+		}
+
+		public GraphUpdate loadObjectGraph(TypeDomain typeDomain, String objectGraphId) {
+			return deserialiser.deserialiseGraphUpdate(message, typeDomain);
+		}
+
+		public void subscribeToGraphUpdates(TypeDomain typeDomain, String objectGraphId, GraphUpdateListener listener) {
+		}
+	}
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.benchmarks;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import com.berniecode.ogre.enginelib.LogMessage;
+import com.berniecode.ogre.enginelib.LogWriter;
+import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.enginelib.platformhooks.AsyncLogWriter;
+
+/**
+ * Measures the cost of log statements on a hot path: first with the level disabled, comparing
+ * string concatenation with parameterised and lazy messages, then with the level enabled,
+ * comparing a writer that blocks the caller with an {@link AsyncLogWriter}
+ * 
+ * @author Bernie Sumption
+ */
+public class LoggingBenchmark {
+
+	private static final int DISABLED_CALLS = 20000000;
+	private static final int ENABLED_CALLS = 20000;
+
+	public static void main(String[] args) throws Exception {
+		OgreLog.setLogWriter(new SlowLogWriter());
+		OgreLog.setLevel(OgreLog.LEVEL_INFO);
+
+		final Long[] ids = new Long[1024];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = Long.valueOf(i * 1000003L);
+		}
+
+		timeWithGcs("debug() with concatenation, level disabled", new Benchmarks.Task() {
+			public void run() {
+				for (int i = 0; i < DISABLED_CALLS; i++) {
+					OgreLog.debug("applying graph update " + ids[i & 1023]);
+				}
+			}
+		});
+		timeWithGcs("debug() with parameters, level disabled", new Benchmarks.Task() {
+			public void run() {
+				for (int i = 0; i < DISABLED_CALLS; i++) {
+					OgreLog.debug("applying graph update {}", ids[i & 1023]);
+				}
+			}
+		});
+		final LogMessage message = new LogMessage() {
+			public String buildMessage() {
+				return "applying graph update " + ids[0];
+			}
+		};
+		timeWithGcs("debug() with a LogMessage, level disabled", new Benchmarks.Task() {
+			public void run() {
+				for (int i = 0; i < DISABLED_CALLS; i++) {
+					OgreLog.debug(message);
+				}
+			}
+		});
+
+		Benchmarks.Task enabled = new Benchmarks.Task() {
+			public void run() {
+				for (int i = 0; i < ENABLED_CALLS; i++) {
+					OgreLog.info("applying graph update {}", ids[i & 1023]);
+				}
+			}
+		};
+		Benchmarks.time("info() x " + ENABLED_CALLS + ", synchronous writer", enabled);
+		AsyncLogWriter asyncWriter = new AsyncLogWriter(new SlowLogWriter(), 65536);
+		OgreLog.setLogWriter(asyncWriter);
+		Benchmarks.time("info() x " + ENABLED_CALLS + ", AsyncLogWriter", enabled);
+		asyncWriter.close();
+	}
+
+	private static void timeWithGcs(String description, Benchmarks.Task task) throws Exception {
+		long gcsBefore = getGcCount();
+		Benchmarks.time(description, task);
+		System.out.println(String.format("%-60s %10d", "  garbage collections", getGcCount() - gcsBefore));
+	}
+
+	private static long getGcCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += gc.getCollectionCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Stands in for a writer to a console or file, which formats each message and takes a lock
+	 */
+	private static class SlowLogWriter implements LogWriter {
+
+		private final StringBuilder buffer = new StringBuilder();
+
+		public synchronized void acceptMessage(int level, String levelDescription, String message) {
+			buffer.setLength(0);
+			buffer.append(System.currentTimeMillis()).append(' ').append(levelDescription).append(": ").append(message);
+			for (int i = 0; i < buffer.length(); i++) {
+				Benchmarks.consume(Character.valueOf(buffer.charAt(i)));
+			}
+			Benchmarks.consume(buffer.toString());
+		}
+
+	}
+
+}
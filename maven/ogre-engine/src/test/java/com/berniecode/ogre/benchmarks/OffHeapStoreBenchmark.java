@@ -0,0 +1,191 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.benchmarks;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+
+import com.berniecode.ogre.enginelib.ClientEngine;
+import com.berniecode.ogre.enginelib.ClientTransportAdapter;
+import com.berniecode.ogre.enginelib.ColumnarEntityStore;
+import com.berniecode.ogre.enginelib.EntityDiff;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.EntityValue;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.GraphUpdateListener;
+import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.enginelib.PartialRawPropertyValueSet;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.RawPropertyValueSet;
+import com.berniecode.ogre.enginelib.TypeDomain;
+
+/**
+ * Compares a {@link ClientEngine}, an on-heap {@link ColumnarEntityStore} and an off-heap one
+ * holding the same large object graph: the heap each uses, the duration of a full garbage
+ * collection with it live, and the garbage collection time and worst update latency while a
+ * sustained stream of graph updates is applied to it
+ * 
+ * @author Bernie Sumption
+ */
+public class OffHeapStoreBenchmark {
+
+	private static final int TRADE_COUNT = 1000000;
+	private static final int UPDATE_COUNT = 2000;
+	private static final int DIFFS_PER_UPDATE = 500;
+
+	private static EntityType tradeType;
+	private static TypeDomain typeDomain;
+
+	public static void main(String[] args) throws Exception {
+		OgreLog.setLevel(OgreLog.LEVEL_WARN);
+
+		tradeType = new EntityType("trade", new Property[] { new Property("quantity", Property.TYPECODE_INT32, false),
+				new Property("price", Property.TYPECODE_DOUBLE, false),
+				new Property("counterparty", Property.TYPECODE_STRING, false),
+				new Property("comment", Property.TYPECODE_STRING, true) });
+		typeDomain = new TypeDomain("OffHeapStoreBenchmark", new EntityType[] { tradeType });
+
+		measure("ClientEngine", new Store() {
+			ClientEngine engine;
+
+			public void load(final GraphUpdate snapshot) throws Exception {
+				engine = new ClientEngine();
+				engine.setTypeDomainId(typeDomain.getTypeDomainId());
+				engine.setObjectGraphId("graph");
+				engine.setTransportAdapter(new ClientTransportAdapter() {
+					public TypeDomain loadTypeDomain(String typeDomainId) {
+						return typeDomain;
+					}
+
+					public GraphUpdate loadObjectGraph(TypeDomain typeDomain, String objectGraphId) {
+						return snapshot;
+					}
+
+					public void subscribeToGraphUpdates(TypeDomain typeDomain, String objectGraphId,
+							GraphUpdateListener listener) {
+					}
+				});
+				engine.initialise();
+			}
+
+			public void apply(GraphUpdate update) {
+				engine.acceptGraphUpdate(update);
+			}
+		});
+		measure("ColumnarEntityStore (on heap)", new ColumnarStore(false));
+		measure("ColumnarEntityStore (off heap)", new ColumnarStore(true));
+	}
+
+	private static interface Store {
+		void load(GraphUpdate snapshot) throws Exception;
+
+		void apply(GraphUpdate update);
+	}
+
+	private static class ColumnarStore implements Store {
+
+		private final boolean offHeap;
+		private ColumnarEntityStore store;
+
+		public ColumnarStore(boolean offHeap) {
+			this.offHeap = offHeap;
+		}
+
+		public void load(GraphUpdate snapshot) {
+			store = new ColumnarEntityStore(typeDomain, offHeap);
+			store.acceptGraphUpdate(snapshot);
+		}
+
+		public void apply(GraphUpdate update) {
+			store.acceptGraphUpdate(update);
+		}
+	}
+
+	private static void measure(String name, Store store) throws Exception {
+		long baseline = Benchmarks.usedHeap();
+		store.load(createSnapshot());
+		long heapBytes = Benchmarks.usedHeap() - baseline;
+		System.out.println(String.format("%-60s %10d bytes", name + ": heap per entity", heapBytes / TRADE_COUNT));
+
+		long start = System.nanoTime();
+		System.gc();
+		System.out.println(String.format("%-60s %10.2f ms", name + ": full collection", (System.nanoTime() - start) / 1e6));
+
+		// the updates are created up front, so that only the garbage made by applying them counts
+		GraphUpdate[] updates = new GraphUpdate[UPDATE_COUNT];
+		for (int i = 0; i < UPDATE_COUNT; i++) {
+			updates[i] = createUpdate(i);
+		}
+		long gcCount = getCollectionCount();
+		long gcTime = getCollectionTime();
+		long worst = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < UPDATE_COUNT; i++) {
+			long updateStart = System.nanoTime();
+			store.apply(updates[i]);
+			worst = Math.max(worst, System.nanoTime() - updateStart);
+		}
+		long total = System.nanoTime() - start;
+		System.out.println(String.format("%-60s %10.2f ms", name + ": apply " + UPDATE_COUNT + " updates", total / 1e6));
+		System.out.println(String.format("%-60s %10.2f ms", name + ": worst update latency", worst / 1e6));
+		System.out.println(String.format("%-60s %10d", name + ": collections during updates", getCollectionCount()
+				- gcCount));
+		System.out.println(String.format("%-60s %10d ms", name + ": collection time during updates",
+				getCollectionTime() - gcTime));
+		Benchmarks.consume(store);
+	}
+
+	private static GraphUpdate createSnapshot() {
+		RawPropertyValueSet[] values = new RawPropertyValueSet[TRADE_COUNT];
+		for (int i = 0; i < TRADE_COUNT; i++) {
+			values[i] = new EntityValue(tradeType, i + 1, new Object[] { Integer.valueOf(i % 1000),
+					Double.valueOf(i * 0.01), "counterparty " + i % 5000, i % 2 == 0 ? null : "trade " + i });
+		}
+		return new GraphUpdate(typeDomain, "graph", 1, 1, values, null, null);
+	}
+
+	private static GraphUpdate createUpdate(int sequence) {
+		PartialRawPropertyValueSet[] diffs = new PartialRawPropertyValueSet[DIFFS_PER_UPDATE];
+		for (int i = 0; i < DIFFS_PER_UPDATE; i++) {
+			long id = 1 + ((long) sequence * DIFFS_PER_UPDATE * 7 + i * 7919L) % TRADE_COUNT;
+			diffs[i] = new EntityDiff(tradeType, id, new Object[] { null, Double.valueOf(sequence + i * 0.5), null,
+					"amended " + sequence }, new boolean[] { false, true, false, true });
+		}
+		return new GraphUpdate(typeDomain, "graph", sequence + 2, 1, null, diffs, null);
+	}
+
+	private static long getCollectionCount() {
+		long count = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			count += bean.getCollectionCount();
+		}
+		return count;
+	}
+
+	private static long getCollectionTime() {
+		long time = 0;
+		for (GarbageCollectorMXBean bean : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += bean.getCollectionTime();
+		}
+		return time;
+	}
+
+}
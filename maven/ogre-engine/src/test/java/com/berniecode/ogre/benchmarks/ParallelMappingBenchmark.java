@@ -0,0 +1,95 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.berniecode.ogre.EntityClassWithAllFields;
+import com.berniecode.ogre.EntityClassWithAllFieldsImpl;
+import com.berniecode.ogre.EntityElement;
+import com.berniecode.ogre.EntityElementImpl;
+import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.server.pojods.DefaultEDRMapper;
+import com.berniecode.ogre.server.pojods.PojoDataSource;
+
+/**
+ * Measures how a full resync with {@link PojoDataSource#setEntityObjects(Object...)} scales with
+ * the number of threads given to {@link PojoDataSource#setParallelism(int)}. A tenth of the
+ * objects change between runs. The speedup is limited by the number of cores on the machine, which
+ * is printed first.
+ * 
+ * @author Bernie Sumption
+ */
+public class ParallelMappingBenchmark {
+
+	private static final int OBJECT_COUNT = 200000;
+	private static final int[] PARALLELISMS = new int[] { 1, 2, 4, 8 };
+
+	public static void main(String[] args) throws Exception {
+		OgreLog.setLevel(OgreLog.LEVEL_WARN);
+		System.out.println(Runtime.getRuntime().availableProcessors() + " cores available");
+
+		double singleThreaded = 0;
+		for (int parallelism : PARALLELISMS) {
+			final List<EntityClassWithAllFieldsImpl> objects = createObjects(OBJECT_COUNT);
+			final PojoDataSource dataSource = createDataSource(parallelism);
+			dataSource.setEntityObjects(objects);
+
+			final int[] version = new int[1];
+			double millis = Benchmarks.time("resync of " + OBJECT_COUNT * 2 + " objects, " + parallelism
+					+ " threads", new Benchmarks.Task() {
+				public void run() {
+					int run = version[0]++;
+					for (int i = run % 10; i < objects.size(); i += 10) {
+						objects.get(i).setString("change " + run);
+					}
+					dataSource.setEntityObjects(objects);
+				}
+			});
+			dataSource.close();
+			if (parallelism == 1) {
+				singleThreaded = millis;
+			}
+			System.out.println(String.format("%-60s %10.2f x", "  speedup", singleThreaded / millis));
+		}
+	}
+
+	private static PojoDataSource createDataSource(int parallelism) {
+		PojoDataSource dataSource = new PojoDataSource();
+		dataSource.setEDRMapper(new DefaultEDRMapper("ParallelMappingBenchmark", EntityClassWithAllFields.class,
+				EntityElement.class));
+		dataSource.setObjectGraphId("graph");
+		dataSource.setParallelism(parallelism);
+		dataSource.initialise();
+		return dataSource;
+	}
+
+	private static List<EntityClassWithAllFieldsImpl> createObjects(int count) {
+		List<EntityClassWithAllFieldsImpl> objects = new ArrayList<EntityClassWithAllFieldsImpl>();
+		for (int i = 0; i < count; i++) {
+			objects.add(new EntityClassWithAllFieldsImpl(i, i, i, (long) i, "object " + i, i, (float) i, i,
+					(double) i, new byte[] { (byte) i }, new EntityElementImpl("element " + i)));
+		}
+		return objects;
+	}
+
+}
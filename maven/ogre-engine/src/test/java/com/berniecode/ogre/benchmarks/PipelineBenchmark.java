@@ -0,0 +1,109 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.benchmarks;
+
+import com.berniecode.ogre.enginelib.ColumnarEntityStore;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.EntityValue;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.RawPropertyValueSet;
+import com.berniecode.ogre.enginelib.TypeDomain;
+import com.berniecode.ogre.tcpbridge.GraphUpdatePipeline;
+import com.berniecode.ogre.tcpbridge.SimpleTcpTransportClient;
+import com.berniecode.ogre.wireformat.OgreWireFormatDeserialiser;
+import com.berniecode.ogre.wireformat.OgreWireFormatSerialiser;
+
+/**
+ * Replays a burst of serialised graph updates the way {@link SimpleTcpTransportClient} handles
+ * them, inline and through a {@link GraphUpdatePipeline}, and reports how long the reading thread
+ * is kept from the network as well as the time taken to apply the whole burst
+ * 
+ * @author Bernie Sumption
+ */
+public class PipelineBenchmark {
+
+	private static final int BURST_SIZE = 200;
+	private static final int ENTITIES_PER_UPDATE = 1000;
+
+	private static EntityType tradeType;
+	private static TypeDomain typeDomain;
+	private static byte[][] messages;
+
+
+	public static void main(String[] args) throws Exception {
+		OgreLog.setLevel(OgreLog.LEVEL_WARN);
+
+		tradeType = new EntityType("trade", new Property[] { new Property("quantity", Property.TYPECODE_INT32, false),
+				new Property("price", Property.TYPECODE_DOUBLE, false),
+				new Property("counterparty", Property.TYPECODE_STRING, false) });
+		typeDomain = new TypeDomain("PipelineBenchmark", new EntityType[] { tradeType });
+
+		OgreWireFormatSerialiser serialiser = new OgreWireFormatSerialiser();
+		messages = new byte[BURST_SIZE][];
+		for (int i = 0; i < BURST_SIZE; i++) {
+			messages[i] = serialiser.serialiseGraphUpdate(createUpdate(i));
+		}
+
+		final OgreWireFormatDeserialiser deserialiser = new OgreWireFormatDeserialiser();
+
+		final long[] readTimes = new long[2];
+		Benchmarks.time("inline: apply burst of " + BURST_SIZE + " updates", new Benchmarks.Task() {
+			public void run() {
+				ColumnarEntityStore store = new ColumnarEntityStore(typeDomain);
+				long start = System.nanoTime();
+				for (int i = 0; i < BURST_SIZE; i++) {
+					store.acceptGraphUpdate(deserialiser.deserialiseGraphUpdate(messages[i], typeDomain));
+				}
+				readTimes[0] = System.nanoTime() - start;
+			}
+		});
+		Benchmarks.time("pipelined: apply burst of " + BURST_SIZE + " updates", new Benchmarks.Task() {
+			public void run() throws Exception {
+				ColumnarEntityStore store = new ColumnarEntityStore(typeDomain);
+				GraphUpdatePipeline pipeline = new GraphUpdatePipeline(typeDomain, deserialiser, store, BURST_SIZE);
+				pipeline.start();
+				long start = System.nanoTime();
+				for (int i = 0; i < BURST_SIZE; i++) {
+					pipeline.put(messages[i]);
+				}
+				readTimes[1] = System.nanoTime() - start;
+				pipeline.finish();
+				pipeline.join();
+			}
+		});
+		System.out.println(String.format("%-60s %10.2f ms", "inline: reader busy for", readTimes[0] / 1e6));
+		System.out.println(String.format("%-60s %10.2f ms", "pipelined: reader busy for", readTimes[1] / 1e6));
+		System.out.println("available processors: " + Runtime.getRuntime().availableProcessors());
+	}
+
+	private static GraphUpdate createUpdate(int sequence) {
+		RawPropertyValueSet[] values = new RawPropertyValueSet[ENTITIES_PER_UPDATE];
+		for (int i = 0; i < ENTITIES_PER_UPDATE; i++) {
+			long id = (long) sequence * ENTITIES_PER_UPDATE + i + 1;
+			values[i] = new EntityValue(tradeType, id, new Object[] { Integer.valueOf(i), Double.valueOf(id * 0.5),
+					"counterparty " + i % 50 });
+		}
+		return new GraphUpdate(typeDomain, "graph", sequence + 1, 1, values, null, null);
+	}
+
+}
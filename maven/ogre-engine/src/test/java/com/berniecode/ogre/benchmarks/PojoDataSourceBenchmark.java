@@ -0,0 +1,104 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.berniecode.ogre.EntityClassWithAllFields;
+import com.berniecode.ogre.EntityClassWithAllFieldsImpl;
+import com.berniecode.ogre.EntityElement;
+import com.berniecode.ogre.EntityElementImpl;
+import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.server.pojods.DefaultEDRMapper;
+import com.berniecode.ogre.server.pojods.PojoDataSource;
+
+/**
+ * Measures the cost of publishing a change to a single object in a {@link PojoDataSource} as the
+ * size of the object graph grows, by passing the whole object graph to
+ * {@link PojoDataSource#setEntityObjects(Object...)} and by passing just the changed object to
+ * {@link PojoDataSource#markDirty(Object...)}, then how the cost of a full resync with
+ * setEntityObjects() scales up to a million objects
+ * 
+ * @author Bernie Sumption
+ */
+public class PojoDataSourceBenchmark {
+
+	private static final int[] GRAPH_SIZES = new int[] { 1000, 2000, 4000 };
+	private static final int[] RESYNC_SIZES = new int[] { 15625, 31250, 62500, 125000, 250000, 500000 };
+
+	public static void main(String[] args) throws Exception {
+		OgreLog.setLevel(OgreLog.LEVEL_WARN);
+
+		for (int size : GRAPH_SIZES) {
+			final List<EntityClassWithAllFieldsImpl> objects = createObjects(size);
+			final PojoDataSource dataSource = createDataSource();
+			dataSource.setEntityObjects(objects);
+
+			final int[] version = new int[1];
+			Benchmarks.time("setEntityObjects(), 1 change in " + size * 2 + " entities", new Benchmarks.Task() {
+				public void run() {
+					objects.get(0).setString("change " + version[0]++);
+					dataSource.setEntityObjects(objects);
+				}
+			});
+			Benchmarks.time("markDirty(), 1 change in " + size * 2 + " entities", new Benchmarks.Task() {
+				public void run() {
+					objects.get(0).setString("change " + version[0]++);
+					dataSource.markDirty(objects.get(0));
+				}
+			});
+		}
+
+		// each object references an element, so the number of objects is twice the size given
+		for (int size : RESYNC_SIZES) {
+			final List<EntityClassWithAllFieldsImpl> objects = createObjects(size);
+			final PojoDataSource dataSource = createDataSource();
+			dataSource.setEntityObjects(objects);
+			double millis = Benchmarks.time("setEntityObjects(), full resync of " + size * 2 + " objects",
+					new Benchmarks.Task() {
+						public void run() {
+							dataSource.setEntityObjects(objects);
+						}
+					});
+			System.out.println(String.format("%-60s %10.2f ns", "  per object", millis * 1e6 / (size * 2)));
+		}
+	}
+
+	private static PojoDataSource createDataSource() {
+		PojoDataSource dataSource = new PojoDataSource();
+		dataSource.setEDRMapper(new DefaultEDRMapper("PojoDataSourceBenchmark", EntityClassWithAllFields.class,
+				EntityElement.class));
+		dataSource.setObjectGraphId("graph");
+		dataSource.initialise();
+		return dataSource;
+	}
+
+	private static List<EntityClassWithAllFieldsImpl> createObjects(int count) {
+		List<EntityClassWithAllFieldsImpl> objects = new ArrayList<EntityClassWithAllFieldsImpl>();
+		for (int i = 0; i < count; i++) {
+			objects.add(new EntityClassWithAllFieldsImpl(i, i, i, (long) i, "object " + i, i, (float) i, i,
+					(double) i, new byte[] { (byte) i }, new EntityElementImpl("element " + i)));
+		}
+		return objects;
+	}
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.benchmarks;
+
+import java.util.Random;
+
+import com.berniecode.ogre.enginelib.ClientEngine;
+import com.berniecode.ogre.enginelib.ClientTransportAdapter;
+import com.berniecode.ogre.enginelib.EntityDiff;
+import com.berniecode.ogre.enginelib.EntityReference;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.EntityValue;
+import com.berniecode.ogre.enginelib.GraphSnapshot;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.GraphUpdateListener;
+import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.enginelib.PartialRawPropertyValueSet;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.RawPropertyValueSet;
+import com.berniecode.ogre.enginelib.TypeDomain;
+
+/**
+ * Compares {@link ClientEngine#createSnapshot()}, which copies the whole graph, with
+ * {@link ClientEngine#getSnapshot()}, and measures the cost that holding snapshots adds to
+ * subsequent graph updates
+ * 
+ * @author Bernie Sumption
+ */
+public class SnapshotBenchmark {
+
+	private static final int ENTITY_COUNT = 1000000;
+	private static final int UPDATES = 1000;
+	private static final int DIFFS_PER_UPDATE = 10;
+
+	private static int dataVersion = 1;
+
+	public static void main(String[] args) throws Exception {
+		OgreLog.setLevel(OgreLog.LEVEL_WARN);
+
+		final EntityType type = new EntityType("quote", new Property[] { new Property("price",
+				Property.TYPECODE_DOUBLE, false) });
+		final TypeDomain typeDomain = new TypeDomain("SnapshotBenchmark", new EntityType[] { type });
+		RawPropertyValueSet[] values = new RawPropertyValueSet[ENTITY_COUNT];
+		for (int i = 0; i < ENTITY_COUNT; i++) {
+			values[i] = new EntityValue(type, i + 1, new Object[] { 1.0 });
+		}
+		final GraphUpdate initial = new GraphUpdate(typeDomain, "graph", dataVersion, 1, values,
+				new PartialRawPropertyValueSet[0], new EntityReference[0]);
+
+		final ClientEngine engine = new ClientEngine();
+		engine.setTypeDomainId(typeDomain.getTypeDomainId());
+		engine.setObjectGraphId("graph");
+		engine.setTransportAdapter(new ClientTransportAdapter() {
+			public TypeDomain loadTypeDomain(String typeDomainId) {
+				return typeDomain;
+			}
+
+			public GraphUpdate loadObjectGraph(TypeDomain typeDomain, String objectGraphId) {
+				return initial;
+			}
+
+			public void subscribeToGraphUpdates(TypeDomain typeDomain, String objectGraphId,
+					GraphUpdateListener listener) {
+			}
+		});
+		engine.initialise();
+
+		Benchmarks.time("createSnapshot() of " + ENTITY_COUNT + " entities", new Benchmarks.Task() {
+			public void run() {
+				Benchmarks.consume(engine.createSnapshot());
+			}
+		});
+		Benchmarks.time("getSnapshot() of " + ENTITY_COUNT + " entities, x1000", new Benchmarks.Task() {
+			public void run() {
+				for (int i = 0; i < 1000; i++) {
+					Benchmarks.consume(engine.getSnapshot());
+				}
+			}
+		});
+		Benchmarks.time("getSnapshot().toGraphUpdate()", new Benchmarks.Task() {
+			public void run() {
+				Benchmarks.consume(engine.getSnapshot().toGraphUpdate());
+			}
+		});
+
+		final Random random = new Random(0);
+		Benchmarks.time(UPDATES + " updates, no snapshots", new Benchmarks.Task() {
+			public void run() {
+				for (int i = 0; i < UPDATES; i++) {
+					engine.acceptGraphUpdate(randomUpdate(typeDomain, type, random));
+				}
+			}
+		});
+		Benchmarks.time(UPDATES + " updates, snapshot after each", new Benchmarks.Task() {
+			public void run() {
+				for (int i = 0; i < UPDATES; i++) {
+					engine.acceptGraphUpdate(randomUpdate(typeDomain, type, random));
+					Benchmarks.consume(engine.getSnapshot());
+				}
+			}
+		});
+
+		GraphSnapshot snapshot = engine.getSnapshot();
+		System.out.println(snapshot + " contains " + snapshot.getEntityCount() + " entities");
+	}
+
+	private static GraphUpdate randomUpdate(TypeDomain typeDomain, EntityType type, Random random) {
+		PartialRawPropertyValueSet[] diffs = new PartialRawPropertyValueSet[DIFFS_PER_UPDATE];
+		for (int i = 0; i < diffs.length; i++) {
+			diffs[i] = new EntityDiff(type, 1 + random.nextInt(ENTITY_COUNT), new Object[] { random.nextDouble() },
+					new boolean[] { true });
+		}
+		return new GraphUpdate(typeDomain, "graph", ++dataVersion, 1, null, diffs, null);
+	}
+
+}
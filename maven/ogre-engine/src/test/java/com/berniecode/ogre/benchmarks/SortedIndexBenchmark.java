@@ -0,0 +1,189 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.benchmarks;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.berniecode.ogre.enginelib.ClientEngine;
+import com.berniecode.ogre.enginelib.ClientTransportAdapter;
+import com.berniecode.ogre.enginelib.Entity;
+import com.berniecode.ogre.enginelib.EntityDiff;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.EntityValue;
+import com.berniecode.ogre.enginelib.EntityVisitor;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.GraphUpdateListener;
+import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.enginelib.PartialRawPropertyValueSet;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.RawPropertyValueSet;
+import com.berniecode.ogre.enginelib.TypeDomain;
+
+/**
+ * Compares top-K and range queries done with a full scan and sort against the same queries done
+ * with a sorted index, and measures the cost of maintaining the index while updates are applied
+ * 
+ * @author Bernie Sumption
+ */
+public class SortedIndexBenchmark {
+
+	private static final int ENTITY_COUNT = 100000;
+	private static final int QUERIES = 100;
+	private static final int TOP_K = 50;
+	private static final int UPDATES = 10000;
+	private static final int DIFFS_PER_UPDATE = 10;
+
+	private static EntityType playerType;
+	private static Property scoreProperty;
+	private static TypeDomain typeDomain;
+
+	public static void main(String[] args) throws Exception {
+		OgreLog.setLevel(OgreLog.LEVEL_WARN);
+
+		scoreProperty = new Property("score", Property.TYPECODE_DOUBLE, false);
+		playerType = new EntityType("player", new Property[] { scoreProperty });
+		typeDomain = new TypeDomain("SortedIndexBenchmark", new EntityType[] { playerType });
+
+		final GraphUpdate[] updates = new GraphUpdate[UPDATES];
+		for (int i = 0; i < UPDATES; i++) {
+			PartialRawPropertyValueSet[] diffs = new PartialRawPropertyValueSet[DIFFS_PER_UPDATE];
+			for (int j = 0; j < DIFFS_PER_UPDATE; j++) {
+				long id = 1 + (i * 7919L + j * 104729L) % ENTITY_COUNT;
+				diffs[j] = new EntityDiff(playerType, id, new Object[] { Double.valueOf(score(id, i + 1)) },
+						new boolean[] { true });
+			}
+			updates[i] = new GraphUpdate(typeDomain, "graph", i + 2, 1, null, diffs, null);
+		}
+
+		final ClientEngine scanned = createEngine();
+		final ClientEngine indexed = createEngine();
+		indexed.addSortedIndex(scoreProperty);
+		final Comparator<Entity> byScore = new Comparator<Entity>() {
+			public int compare(Entity a, Entity b) {
+				return ((Double) b.getRawPropertyValue(scoreProperty)).compareTo((Double) a
+						.getRawPropertyValue(scoreProperty));
+			}
+		};
+
+		Benchmarks.time(QUERIES + " top " + TOP_K + " queries by scan and sort", new Benchmarks.Task() {
+			public void run() throws Exception {
+				for (int i = 0; i < QUERIES; i++) {
+					final List<Entity> all = new ArrayList<Entity>(ENTITY_COUNT);
+					scanned.forEachEntityOfType(playerType, new EntityVisitor() {
+						public boolean visit(Entity entity) {
+							all.add(entity);
+							return true;
+						}
+					});
+					Collections.sort(all, byScore);
+					Benchmarks.consume(all.subList(0, TOP_K));
+				}
+			}
+		});
+		Benchmarks.time(QUERIES + " top " + TOP_K + " queries by sorted index", new Benchmarks.Task() {
+			public void run() throws Exception {
+				for (int i = 0; i < QUERIES; i++) {
+					Benchmarks.consume(indexed.getTopEntities(scoreProperty, TOP_K));
+				}
+			}
+		});
+		Benchmarks.time(QUERIES + " narrow range queries by scan", new Benchmarks.Task() {
+			public void run() throws Exception {
+				for (int i = 0; i < QUERIES; i++) {
+					final double min = i * 0.01;
+					final int[] count = new int[1];
+					scanned.forEachEntityOfType(playerType, new EntityVisitor() {
+						public boolean visit(Entity entity) {
+							double score = ((Double) entity.getRawPropertyValue(scoreProperty)).doubleValue();
+							if (score >= min && score <= min + 0.001) {
+								count[0]++;
+							}
+							return true;
+						}
+					});
+					Benchmarks.consume(count[0]);
+				}
+			}
+		});
+		Benchmarks.time(QUERIES + " narrow range queries by sorted index", new Benchmarks.Task() {
+			public void run() throws Exception {
+				for (int i = 0; i < QUERIES; i++) {
+					double min = i * 0.01;
+					Benchmarks.consume(indexed.getEntitiesInRange(scoreProperty, min, min + 0.001));
+				}
+			}
+		});
+
+		Benchmarks.time("load, then apply " + UPDATES + " updates without an index", new Benchmarks.Task() {
+			public void run() throws Exception {
+				ClientEngine engine = createEngine();
+				for (int i = 0; i < UPDATES; i++) {
+					engine.acceptGraphUpdate(updates[i]);
+				}
+			}
+		});
+		Benchmarks.time("load, then apply " + UPDATES + " updates with an index", new Benchmarks.Task() {
+			public void run() throws Exception {
+				ClientEngine engine = createEngine();
+				engine.addSortedIndex(scoreProperty);
+				for (int i = 0; i < UPDATES; i++) {
+					engine.acceptGraphUpdate(updates[i]);
+				}
+			}
+		});
+	}
+
+	// a pseudo-random score between 0 and 1
+	private static double score(long id, int version) {
+		long hash = (id * 2654435761L + version * 40503L) % 1000003L;
+		return hash / 1000003.0;
+	}
+
+	private static ClientEngine createEngine() throws Exception {
+		RawPropertyValueSet[] values = new RawPropertyValueSet[ENTITY_COUNT];
+		for (int i = 0; i < ENTITY_COUNT; i++) {
+			values[i] = new EntityValue(playerType, i + 1, new Object[] { Double.valueOf(score(i, 0)) });
+		}
+		final GraphUpdate snapshot = new GraphUpdate(typeDomain, "graph", 1, 1, values, null, null);
+		ClientEngine engine = new ClientEngine();
+		engine.setTypeDomainId(typeDomain.getTypeDomainId());
+		engine.setObjectGraphId("graph");
+		engine.setTransportAdapter(new ClientTransportAdapter() {
+			public TypeDomain loadTypeDomain(String typeDomainId) {
+				return typeDomain;
+			}
+
+			public GraphUpdate loadObjectGraph(TypeDomain typeDomain, String objectGraphId) {
+				return snapshot;
+			}
+
+			public void subscribeToGraphUpdates(TypeDomain typeDomain, String objectGraphId,
+					GraphUpdateListener listener) {
+			}
+		});
+		engine.initialise();
+		return engine;
+	}
+
+}
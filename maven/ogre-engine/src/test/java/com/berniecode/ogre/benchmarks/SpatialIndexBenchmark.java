@@ -0,0 +1,140 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.benchmarks;
+
+import com.berniecode.ogre.enginelib.ClientEngine;
+import com.berniecode.ogre.enginelib.ClientTransportAdapter;
+import com.berniecode.ogre.enginelib.Entity;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.EntityValue;
+import com.berniecode.ogre.enginelib.EntityVisitor;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.GraphUpdateListener;
+import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.RawPropertyValueSet;
+import com.berniecode.ogre.enginelib.TypeDomain;
+
+/**
+ * Compares finding the entities in a viewport, and the entities nearest a point, by scanning every
+ * entity and by using a spatial index
+ * 
+ * @author Bernie Sumption
+ */
+public class SpatialIndexBenchmark {
+
+	private static final int ENTITY_COUNT = 100000;
+	private static final int WORLD_SIZE = 10000;
+	private static final int VIEWPORT_SIZE = 500;
+	private static final int QUERIES = 100;
+	private static final int NEAREST = 10;
+
+	private static EntityType personType;
+	private static Property xProperty;
+	private static Property yProperty;
+	private static TypeDomain typeDomain;
+
+	public static void main(String[] args) throws Exception {
+		OgreLog.setLevel(OgreLog.LEVEL_WARN);
+
+		xProperty = new Property("x_position", Property.TYPECODE_INT32, false);
+		yProperty = new Property("y_position", Property.TYPECODE_INT32, false);
+		personType = new EntityType("person", new Property[] { xProperty, yProperty });
+		typeDomain = new TypeDomain("SpatialIndexBenchmark", new EntityType[] { personType });
+
+		final ClientEngine scanned = createEngine();
+		final ClientEngine indexed = createEngine();
+		Benchmarks.time("build spatial index over " + ENTITY_COUNT + " entities", new Benchmarks.Task() {
+			public void run() throws Exception {
+				createEngine().addSpatialIndex(xProperty, yProperty, VIEWPORT_SIZE / 4);
+			}
+		});
+		indexed.addSpatialIndex(xProperty, yProperty, VIEWPORT_SIZE / 4);
+
+		Benchmarks.time(QUERIES + " viewport queries by scan", new Benchmarks.Task() {
+			public void run() throws Exception {
+				for (int i = 0; i < QUERIES; i++) {
+					final int minX = (i * 97) % (WORLD_SIZE - VIEWPORT_SIZE);
+					final int minY = (i * 61) % (WORLD_SIZE - VIEWPORT_SIZE);
+					final int[] count = new int[1];
+					scanned.forEachEntityOfType(personType, new EntityVisitor() {
+						public boolean visit(Entity entity) {
+							int x = ((Integer) entity.getRawPropertyValue(xProperty)).intValue();
+							int y = ((Integer) entity.getRawPropertyValue(yProperty)).intValue();
+							if (x >= minX && x <= minX + VIEWPORT_SIZE && y >= minY && y <= minY + VIEWPORT_SIZE) {
+								count[0]++;
+							}
+							return true;
+						}
+					});
+					Benchmarks.consume(count[0]);
+				}
+			}
+		});
+		Benchmarks.time(QUERIES + " viewport queries by spatial index", new Benchmarks.Task() {
+			public void run() throws Exception {
+				for (int i = 0; i < QUERIES; i++) {
+					int minX = (i * 97) % (WORLD_SIZE - VIEWPORT_SIZE);
+					int minY = (i * 61) % (WORLD_SIZE - VIEWPORT_SIZE);
+					Benchmarks.consume(indexed.getEntitiesInRectangle(xProperty, yProperty, minX, minY, minX
+							+ VIEWPORT_SIZE, minY + VIEWPORT_SIZE));
+				}
+			}
+		});
+		Benchmarks.time(QUERIES + " nearest " + NEAREST + " queries by spatial index", new Benchmarks.Task() {
+			public void run() throws Exception {
+				for (int i = 0; i < QUERIES; i++) {
+					Benchmarks.consume(indexed.getNearestEntities(xProperty, yProperty, (i * 97) % WORLD_SIZE,
+							(i * 61) % WORLD_SIZE, NEAREST));
+				}
+			}
+		});
+	}
+
+	private static ClientEngine createEngine() throws Exception {
+		RawPropertyValueSet[] values = new RawPropertyValueSet[ENTITY_COUNT];
+		for (int i = 0; i < ENTITY_COUNT; i++) {
+			values[i] = new EntityValue(personType, i + 1, new Object[] {
+					Integer.valueOf((int) ((i * 2654435761L) % WORLD_SIZE)),
+					Integer.valueOf((int) ((i * 40503L + 12345) % WORLD_SIZE)) });
+		}
+		final GraphUpdate snapshot = new GraphUpdate(typeDomain, "graph", 1, 1, values, null, null);
+		ClientEngine engine = new ClientEngine();
+		engine.setTypeDomainId(typeDomain.getTypeDomainId());
+		engine.setObjectGraphId("graph");
+		engine.setTransportAdapter(new ClientTransportAdapter() {
+			public TypeDomain loadTypeDomain(String typeDomainId) {
+				return typeDomain;
+			}
+
+			public GraphUpdate loadObjectGraph(TypeDomain typeDomain, String objectGraphId) {
+				return snapshot;
+			}
+
+			public void subscribeToGraphUpdates(TypeDomain typeDomain, String objectGraphId,
+					GraphUpdateListener listener) {
+			}
+		});
+		engine.initialise();
+		return engine;
+	}
+
+}
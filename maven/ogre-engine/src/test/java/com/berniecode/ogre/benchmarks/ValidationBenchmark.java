@@ -0,0 +1,163 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.benchmarks;
+
+import java.util.Arrays;
+
+import com.berniecode.ogre.enginelib.ClientEngine;
+import com.berniecode.ogre.enginelib.ClientTransportAdapter;
+import com.berniecode.ogre.enginelib.EntityDiff;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.EntityValue;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.GraphUpdateListener;
+import com.berniecode.ogre.enginelib.OgreLog;
+import com.berniecode.ogre.enginelib.PartialRawPropertyValueSet;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.RawPropertyValueSet;
+import com.berniecode.ogre.enginelib.TypeDomain;
+import com.berniecode.ogre.enginelib.platformhooks.ValueUtils;
+
+/**
+ * Measures the cost of checking the types of property values, first in isolation and then as part
+ * of applying graph updates to a {@link ClientEngine}, with validation enabled and in trusted
+ * source mode, which skips it
+ * 
+ * @author Bernie Sumption
+ */
+public class ValidationBenchmark {
+
+	private static final int ENTITY_COUNT = 200000;
+	private static final int UPDATE_COUNT = 100;
+	private static final int DIFFS_PER_UPDATE = 2000;
+	private static final int VALIDATIONS = 10000000;
+
+	private static EntityType tradeType;
+	private static TypeDomain typeDomain;
+
+	public static void main(String[] args) throws Exception {
+		OgreLog.setLevel(OgreLog.LEVEL_WARN);
+
+		tradeType = new EntityType("trade", new Property[] { new Property("quantity", Property.TYPECODE_INT32, false),
+				new Property("book", Property.TYPECODE_INT64, false),
+				new Property("rate", Property.TYPECODE_FLOAT, false),
+				new Property("price", Property.TYPECODE_DOUBLE, false),
+				new Property("counterparty", Property.TYPECODE_STRING, true),
+				new Property("blob", Property.TYPECODE_BYTES, true) });
+		typeDomain = new TypeDomain("ValidationBenchmark", new EntityType[] { tradeType });
+
+		final Object[] values = createValues(1);
+		Benchmarks.time("validate " + VALIDATIONS + " values", new Benchmarks.Task() {
+			public void run() {
+				for (int i = 0; i < VALIDATIONS; i++) {
+					int index = i % values.length;
+					ValueUtils.validatePropertyValue(tradeType.getProperty(index), values[index]);
+				}
+			}
+		});
+
+		final GraphUpdate snapshot = createSnapshot();
+		// each mode is measured twice, alternately, since the first measurements are slowed by JIT
+		// compilation of the apply path
+		for (final boolean trusted : new boolean[] { false, true, false, true }) {
+			String mode = trusted ? " (trusted source)" : " (validated)";
+			Benchmarks.time("load snapshot of " + ENTITY_COUNT + " entities" + mode, new Benchmarks.Task() {
+				public void run() throws Exception {
+					Benchmarks.consume(createClientEngine(snapshot, trusted));
+				}
+			});
+
+			timeUpdates("apply " + UPDATE_COUNT + " updates of " + DIFFS_PER_UPDATE + " diffs" + mode,
+					createClientEngine(snapshot, trusted));
+		}
+	}
+
+	/**
+	 * Like {@link Benchmarks#time(String, Benchmarks.Task)}, but creating the updates for each run
+	 * outside the timed section, since their data versions must keep increasing across runs
+	 */
+	private static void timeUpdates(String description, ClientEngine engine) {
+		int dataVersion = 1;
+		double[] times = new double[7];
+		for (int run = -3; run < times.length; run++) {
+			GraphUpdate[] updates = new GraphUpdate[UPDATE_COUNT];
+			for (int i = 0; i < UPDATE_COUNT; i++) {
+				updates[i] = createUpdate(++dataVersion);
+			}
+			long start = System.nanoTime();
+			for (int i = 0; i < UPDATE_COUNT; i++) {
+				engine.acceptGraphUpdate(updates[i]);
+			}
+			if (run >= 0) {
+				times[run] = (System.nanoTime() - start) / 1e6;
+			}
+		}
+		Arrays.sort(times);
+		System.out.println(String.format("%-60s %10.2f ms", description, times[times.length / 2]));
+	}
+
+	private static ClientEngine createClientEngine(final GraphUpdate snapshot, boolean trusted) throws Exception {
+		ClientEngine engine = new ClientEngine();
+		engine.setTypeDomainId(typeDomain.getTypeDomainId());
+		engine.setObjectGraphId("graph");
+		engine.setTrustedSource(trusted);
+		engine.setTransportAdapter(new ClientTransportAdapter() {
+			public TypeDomain loadTypeDomain(String typeDomainId) {
+				return typeDomain;
+			}
+
+			public GraphUpdate loadObjectGraph(TypeDomain typeDomain, String objectGraphId) {
+				return snapshot;
+			}
+
+			public void subscribeToGraphUpdates(TypeDomain typeDomain, String objectGraphId,
+					GraphUpdateListener listener) {
+			}
+		});
+		engine.initialise();
+		return engine;
+	}
+
+	private static Object[] createValues(int i) {
+		return new Object[] { Integer.valueOf(i % 1000), Long.valueOf(i % 50), Float.valueOf(i * 0.5f),
+				Double.valueOf(i * 0.01), i % 3 == 0 ? null : "counterparty " + i % 5000,
+				i % 2 == 0 ? null : new byte[] { (byte) i } };
+	}
+
+	private static GraphUpdate createSnapshot() {
+		RawPropertyValueSet[] values = new RawPropertyValueSet[ENTITY_COUNT];
+		for (int i = 0; i < ENTITY_COUNT; i++) {
+			values[i] = new EntityValue(tradeType, i + 1, createValues(i));
+		}
+		return new GraphUpdate(typeDomain, "graph", 1, 1, values, null, null);
+	}
+
+	private static GraphUpdate createUpdate(int dataVersion) {
+		PartialRawPropertyValueSet[] diffs = new PartialRawPropertyValueSet[DIFFS_PER_UPDATE];
+		boolean[] updated = new boolean[] { true, false, true, true, true, false };
+		for (int i = 0; i < DIFFS_PER_UPDATE; i++) {
+			long id = 1 + ((long) dataVersion * DIFFS_PER_UPDATE + i * 7919L) % ENTITY_COUNT;
+			diffs[i] = new EntityDiff(tradeType, id, createValues(dataVersion + i), updated);
+		}
+		return new GraphUpdate(typeDomain, "graph", dataVersion, 1, null, diffs, null);
+	}
+
+}
@@ -25,9 +25,12 @@ import java.util.List;
 
 import com.berniecode.ogre.EntityClassWithAllFields;
 import com.berniecode.ogre.EntityClassWithAllFieldsTestCase;
+import com.berniecode.ogre.EntityClassWithAllFieldsImpl;
 import com.berniecode.ogre.EntityElement;
+import com.berniecode.ogre.EntityElementImpl;
 import com.berniecode.ogre.enginelib.ClientEngine;
 import com.berniecode.ogre.enginelib.Entity;
+import com.berniecode.ogre.enginelib.platformhooks.OgreException;
 
 public class ClientFacadeTest extends EntityClassWithAllFieldsTestCase {
 
@@ -76,6 +79,69 @@ public class ClientFacadeTest extends EntityClassWithAllFieldsTestCase {
 
 	}
 
+	public void testIndexedLookup() throws Exception {
+		ClientEngine clientEngine = createClientEngine();
+		ClientFacade facade = new ClientFacade(clientEngine);
+
+		facade.addIndex(EntityClassWithAllFields.class, "string");
+		facade.addIndex(EntityClassWithAllFields.class, "entity_element");
+
+		EntityClassWithAllFields entity = facade.getEntity(EntityClassWithAllFields.class, 1);
+		assertEquals(Arrays.asList(entity), facade.getEntitiesByProperty(EntityClassWithAllFields.class, "string",
+				"Shizzle"));
+		assertEquals(Arrays.asList(entity), facade.getEntitiesByProperty(EntityClassWithAllFields.class,
+				"entity_element", entity.getEntityElement()));
+		assertEquals(0, facade.getEntitiesByProperty(EntityClassWithAllFields.class, "string", "Other").size());
+
+		// the index follows graph updates
+		dataSource.setEntityObjects(new EntityClassWithAllFieldsImpl(5, 6, 7L, 8L, "Other", 9.0F, 10.0F, 11.0, 12.0,
+				byteArray(1, 2, 3), new EntityElementImpl("Hi!")));
+		assertEquals(0, facade.getEntitiesByProperty(EntityClassWithAllFields.class, "string", "Shizzle").size());
+		assertEquals(1, facade.getEntitiesByProperty(EntityClassWithAllFields.class, "string", "Other").size());
+
+		try {
+			facade.addIndex(EntityClassWithAllFields.class, "no_such_property");
+			fail("addIndex() should fail when called with a non-existent property");
+		} catch (ClientFacadeException e) {
+		}
+	}
+
+	public void testSortedLookup() throws Exception {
+		ClientEngine clientEngine = createClientEngine();
+		ClientFacade facade = new ClientFacade(clientEngine);
+
+		facade.addSortedIndex(EntityClassWithAllFields.class, "non_nullable_int");
+
+		EntityClassWithAllFields entity = facade.getEntity(EntityClassWithAllFields.class, 1);
+		assertEquals(Arrays.asList(entity), facade.getTopEntities(EntityClassWithAllFields.class, "non_nullable_int",
+				10));
+		assertEquals(Arrays.asList(entity), facade.getEntitiesInRange(EntityClassWithAllFields.class,
+				"non_nullable_int", 5, 5));
+		assertEquals(0, facade.getEntitiesInRange(EntityClassWithAllFields.class, "non_nullable_int", 6, null).size());
+		assertEquals(0, facade.getRank(entity, "non_nullable_int"));
+
+		try {
+			facade.addSortedIndex(EntityClassWithAllFields.class, "bytes");
+			fail("addSortedIndex() should fail for a property that can't be sorted");
+		} catch (OgreException e) {
+		}
+	}
+
+	public void testSpatialLookup() throws Exception {
+		ClientEngine clientEngine = createClientEngine();
+		ClientFacade facade = new ClientFacade(clientEngine);
+
+		facade.addSpatialIndex(EntityClassWithAllFields.class, "non_nullable_int", "non_nullable_double", 10);
+
+		EntityClassWithAllFields entity = facade.getEntity(EntityClassWithAllFields.class, 1);
+		assertEquals(Arrays.asList(entity), facade.getEntitiesInRectangle(EntityClassWithAllFields.class,
+				"non_nullable_int", "non_nullable_double", 0, 0, 20, 20));
+		assertEquals(0, facade.getEntitiesInRectangle(EntityClassWithAllFields.class, "non_nullable_int",
+				"non_nullable_double", 20, 20, 40, 40).size());
+		assertEquals(Arrays.asList(entity), facade.getNearestEntities(EntityClassWithAllFields.class,
+				"non_nullable_int", "non_nullable_double", 100, 100, 5));
+	}
+
 	public void testFailsOnIncorrectArguments() throws Exception {
 
 		ClientEngine clientEngine = createClientEngine();
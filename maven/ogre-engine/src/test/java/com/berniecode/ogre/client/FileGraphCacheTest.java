@@ -0,0 +1,106 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.client;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+import com.berniecode.ogre.OgreTestCase;
+import com.berniecode.ogre.enginelib.EDRDescriber;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.EntityValue;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.RawPropertyValueSet;
+import com.berniecode.ogre.enginelib.TypeDomain;
+
+public class FileGraphCacheTest extends OgreTestCase {
+
+	private TypeDomain typeDomain;
+	private GraphUpdate snapshot;
+	private File file;
+
+	@Override
+	public void doAdditionalSetup() throws Exception {
+		typeDomain = createTypeDomain(new Property("name", Property.TYPECODE_STRING, true));
+		EntityType type = typeDomain.getEntityType(0);
+		snapshot = new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, 7, 3, new RawPropertyValueSet[] {
+				new EntityValue(type, 1, new Object[] { "caf\u00e9" }), new EntityValue(type, 2, new Object[] { null }) },
+				null, null);
+		file = File.createTempFile("FileGraphCacheTest", ".cache");
+		file.delete();
+	}
+
+	@Override
+	protected void tearDown() throws Exception {
+		file.delete();
+		super.tearDown();
+	}
+
+	public void testStoreAndLoad() {
+		FileGraphCache cache = new FileGraphCache(file);
+		assertNull(cache.loadSnapshot(typeDomain, OBJECT_GRAPH_ID));
+
+		cache.storeSnapshot(snapshot);
+		assertTrue(file.exists());
+		assertFalse(new File(file.getPath() + ".tmp").exists());
+
+		GraphUpdate loaded = new FileGraphCache(file).loadSnapshot(typeDomain, OBJECT_GRAPH_ID);
+		assertEquals(3, loaded.getDataVersionScheme());
+		assertEquals(7, loaded.getDataVersion());
+		assertEquals(EDRDescriber.describeGraphUpdate(snapshot), EDRDescriber.describeGraphUpdate(loaded));
+
+		// storing again replaces the previous snapshot
+		cache.storeSnapshot(new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, 8, 3, null, null, null));
+		assertEquals(8, cache.loadSnapshot(typeDomain, OBJECT_GRAPH_ID).getDataVersion());
+	}
+
+	public void testSnapshotIsIgnoredIfTypeDomainOrObjectGraphDiffers() {
+		FileGraphCache cache = new FileGraphCache(file);
+		cache.storeSnapshot(snapshot);
+
+		TypeDomain changed = createTypeDomain(new Property("name", Property.TYPECODE_STRING, false));
+		assertNull(cache.loadSnapshot(changed, OBJECT_GRAPH_ID));
+		assertNull(cache.loadSnapshot(typeDomain, "OtherObjectGraph"));
+		assertNotNull(cache.loadSnapshot(typeDomain, OBJECT_GRAPH_ID));
+	}
+
+	public void testCorruptFileIsIgnored() throws Exception {
+		FileGraphCache cache = new FileGraphCache(file);
+		cache.storeSnapshot(snapshot);
+
+		RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 5);
+		raf.close();
+		assertNull(cache.loadSnapshot(typeDomain, OBJECT_GRAPH_ID));
+
+		FileOutputStream fos = new FileOutputStream(file);
+		fos.write("not a graph cache".getBytes("UTF-8"));
+		fos.close();
+		assertNull(cache.loadSnapshot(typeDomain, OBJECT_GRAPH_ID));
+	}
+
+	private TypeDomain createTypeDomain(Property property) {
+		return new TypeDomain(TYPE_DOMAIN_ID, new EntityType[] { new EntityType("thing", new Property[] { property }) });
+	}
+
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.client;
+
+import java.lang.management.ManagementFactory;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import com.berniecode.ogre.OgreTestCase;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.TypeDomain;
+import com.berniecode.ogre.enginelib.platformhooks.ClientMetrics;
+
+public class ReplicationMetricsTest extends OgreTestCase {
+
+	public void testRegisterMBean() throws Exception {
+		TypeDomain typeDomain = new TypeDomain(TYPE_DOMAIN_ID, new EntityType[] { new EntityType("type",
+				new Property[0]) });
+		ClientMetrics metrics = new ClientMetrics();
+		metrics.recordUpdateReceived(new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, 5, 1, null, null, null));
+		metrics.recordUpdateApplied(new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, 3, 1, null, null, null),
+				ClientMetrics.now(), 2, 0, 0);
+
+		ObjectName name = ReplicationMetrics.register(metrics, TYPE_DOMAIN_ID + "/" + OBJECT_GRAPH_ID);
+		try {
+			assertEquals(ReplicationMetrics.getObjectName(TYPE_DOMAIN_ID + "/" + OBJECT_GRAPH_ID), name);
+			MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+			assertEquals(2, server.getAttribute(name, "DataVersionLag"));
+			assertEquals(1L, server.getAttribute(name, "UpdatesApplied"));
+			assertEquals(2L, server.getAttribute(name, "EntitiesCreated"));
+		} finally {
+			ReplicationMetrics.unregister(name);
+		}
+		assertFalse(ManagementFactory.getPlatformMBeanServer().isRegistered(name));
+	}
+
+}
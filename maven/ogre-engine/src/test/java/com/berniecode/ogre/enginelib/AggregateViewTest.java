@@ -0,0 +1,193 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.berniecode.ogre.OgreTestCase;
+import com.berniecode.ogre.enginelib.platformhooks.OgreException;
+
+public class AggregateViewTest extends OgreTestCase {
+
+	private Property amountProperty;
+	private Property priceProperty;
+	private ReferenceProperty accountProperty;
+	private EntityType tradeType;
+	private EntityType accountType;
+	private TypeDomain typeDomain;
+
+	@Override
+	public void doAdditionalSetup() throws Exception {
+		tradeType = new EntityType("trade", new Property[] {
+				amountProperty = new Property("amount", Property.TYPECODE_INT64, true),
+				priceProperty = new Property("price", Property.TYPECODE_DOUBLE, false),
+				accountProperty = new ReferenceProperty("account", "account") });
+		accountType = new EntityType("account", new Property[] {});
+		typeDomain = new TypeDomain(TYPE_DOMAIN_ID, new EntityType[] { tradeType, accountType });
+	}
+
+	public void testAggregatesFollowChanges() {
+		EntityStore store = new EntityStore(typeDomain);
+		Entity account1 = new Entity(accountType, 1, new Object[0]);
+		Entity account2 = new Entity(accountType, 2, new Object[0]);
+		Entity t1 = trade(1, 10L, 1.5, account1);
+		Entity t2 = trade(2, 20L, 0.5, account1);
+		Entity t3 = trade(3, null, 3.0, account2);
+		store.putAll(new Entity[] { account1, account2, t1, t2, t3 });
+
+		AggregateView view = new AggregateView(tradeType, amountProperty, accountProperty);
+		store.addIndex(view);
+
+		assertAggregate(view.getAggregate(), 3, 2, 30, 10L, 20L);
+		assertAggregate(view.getGroupAggregate(account1), 2, 2, 30, 10L, 20L);
+		assertAggregate(view.getGroupAggregate(2L), 1, 0, 0, null, null);
+		assertEquals(2, view.getGroupAggregates().length);
+
+		// a diff moves a trade between groups, using the values it was added with
+		store.update(t2, new EntityValue(tradeType, 2, new Object[] { 5L, 0.5, 2L }), new EntityStore(typeDomain));
+		assertAggregate(view.getGroupAggregate(account1), 1, 1, 10, 10L, 10L);
+		assertAggregate(view.getGroupAggregate(account2), 2, 1, 5, 5L, 5L);
+		assertAggregate(view.getAggregate(), 3, 2, 15, 5L, 10L);
+
+		// deleting a trade removes it, and deleting an account moves its trades to the null group
+		store.removeSimilar(t1);
+		store.removeSimilar(account2);
+		assertEquals(1, view.getGroupAggregates().length);
+		assertAggregate(view.getGroupAggregates()[0], 2, 1, 5, 5L, 5L);
+		assertNull(view.getGroupAggregates()[0].getGroup());
+
+		try {
+			view.getGroupAggregate("not an id");
+			fail("AggregateView.getGroupAggregate() should fail if the group is of the wrong type");
+		} catch (OgreException e) {
+		}
+		try {
+			new AggregateView(tradeType, accountProperty, null);
+			fail("AggregateView should only aggregate numeric properties");
+		} catch (OgreException e) {
+		}
+	}
+
+	public void testAggregateViewOnClientEngine() throws Exception {
+		final GraphUpdate snapshot = new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, 1, 1, new RawPropertyValueSet[] {
+				new EntityValue(accountType, 1, new Object[0]), new EntityValue(tradeType, 1, new Object[] { 10L, 2.0, 1L }),
+				new EntityValue(tradeType, 2, new Object[] { 20L, 4.0, 1L }) }, null, null);
+		ClientEngine ce = new ClientEngine();
+		ce.setTypeDomainId(TYPE_DOMAIN_ID);
+		ce.setObjectGraphId(OBJECT_GRAPH_ID);
+		ce.setTransportAdapter(new ClientTransportAdapter() {
+			public TypeDomain loadTypeDomain(String typeDomainId) {
+				return typeDomain;
+			}
+
+			public GraphUpdate loadObjectGraph(TypeDomain typeDomain, String objectGraphId) {
+				return snapshot;
+			}
+
+			public void subscribeToGraphUpdates(TypeDomain typeDomain, String objectGraphId,
+					GraphUpdateListener listener) {
+			}
+		});
+		ce.initialise();
+		ce.addAggregateView(tradeType, priceProperty, null);
+		ce.addAggregateView(tradeType, null, null);
+
+		assertAggregate(ce.getAggregate(tradeType, priceProperty, null), 2, 2, 6.0, 2.0, 4.0);
+
+		ce.acceptGraphUpdate(new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, 2, 1,
+				new RawPropertyValueSet[] { new EntityValue(tradeType, 3, new Object[] { 1L, 8.0, 1L }) },
+				new PartialRawPropertyValueSet[] { new EntityDiff(tradeType, 1, new Object[] { null, 1.0, null },
+						new boolean[] { false, true, false }) }, new EntityReference[] { new EntityValue(tradeType, 2,
+						new Object[] { 20L, 4.0, 1L }) }));
+
+		assertAggregate(ce.getAggregate(tradeType, priceProperty, null), 2, 2, 9.0, 1.0, 8.0);
+		assertEquals(2, ce.getAggregate(tradeType, null, null).getCount());
+		try {
+			ce.getAggregate(tradeType, amountProperty, null);
+			fail("getAggregate() should fail if there is no matching view");
+		} catch (OgreException e) {
+		}
+	}
+
+	public void testAgreesWithRescanAfterRandomUpdates() {
+		EntityStore store = new EntityStore(typeDomain);
+		Entity[] accounts = new Entity[5];
+		for (int i = 0; i < accounts.length; i++) {
+			store.add(accounts[i] = new Entity(accountType, i + 1, new Object[0]));
+		}
+		AggregateView view = new AggregateView(tradeType, amountProperty, accountProperty);
+		store.addIndex(view);
+		Random random = new Random(42);
+		for (int i = 0; i < 5000; i++) {
+			long id = 1 + random.nextInt(200);
+			Long amount = random.nextInt(10) == 0 ? null : Long.valueOf(random.nextInt(1000) - 500);
+			Long account = Long.valueOf(1 + random.nextInt(accounts.length));
+			Entity existing = store.get(tradeType, id);
+			if (existing == null) {
+				store.add(trade(id, amount, 1.0, accounts[(int) account.longValue() - 1]));
+			} else if (random.nextInt(4) == 0) {
+				store.removeSimilar(existing);
+			} else {
+				store.update(existing, new EntityValue(tradeType, id, new Object[] { amount, 1.0, account }),
+						new EntityStore(typeDomain));
+			}
+		}
+
+		Map<Object, long[]> expected = new HashMap<Object, long[]>();
+		for (Entity trade : store.getEntitiesByType(tradeType)) {
+			Object account = trade.getRawPropertyValue(accountProperty);
+			long[] totals = expected.get(account);
+			if (totals == null) {
+				expected.put(account, totals = new long[] { 0, 0, Long.MAX_VALUE, Long.MIN_VALUE });
+			}
+			totals[0]++;
+			Long amount = (Long) trade.getRawPropertyValue(amountProperty);
+			if (amount != null) {
+				totals[1] += amount;
+				totals[2] = Math.min(totals[2], amount);
+				totals[3] = Math.max(totals[3], amount);
+			}
+		}
+		assertEquals(expected.size(), view.getGroupAggregates().length);
+		for (Aggregate aggregate : view.getGroupAggregates()) {
+			long[] totals = expected.get(aggregate.getGroup());
+			assertEquals(totals[0], aggregate.getCount());
+			assertEquals((double) totals[1], aggregate.getSum());
+			assertEquals(totals[2], ((Long) aggregate.getMin()).longValue());
+			assertEquals(totals[3], ((Long) aggregate.getMax()).longValue());
+		}
+	}
+
+	private Entity trade(long id, Long amount, double price, Entity account) {
+		return new Entity(tradeType, id, new Object[] { amount, price, account });
+	}
+
+	private void assertAggregate(Aggregate aggregate, int count, int valueCount, double sum, Object min, Object max) {
+		assertEquals(count, aggregate.getCount());
+		assertEquals(valueCount, aggregate.getValueCount());
+		assertEquals(sum, aggregate.getSum());
+		assertEquals(min, aggregate.getMin());
+		assertEquals(max, aggregate.getMax());
+	}
+
+}
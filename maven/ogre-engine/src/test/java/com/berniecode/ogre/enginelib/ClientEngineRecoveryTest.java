@@ -0,0 +1,316 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.berniecode.ogre.OgreTestCase;
+import com.berniecode.ogre.enginelib.platformhooks.ClientMetrics;
+import com.berniecode.ogre.enginelib.platformhooks.NoSuchThingException;
+
+public class ClientEngineRecoveryTest extends OgreTestCase {
+
+	private EntityType parentType;
+	private EntityType childType;
+	private TypeDomain typeDomain;
+
+	private MockServer server;
+	private ClientEngine ce;
+	private List<GraphUpdate> notified;
+
+	@Override
+	public void doAdditionalSetup() throws Exception {
+		parentType = new EntityType("parentType", new Property[] { new Property("num", Property.TYPECODE_STRING, false),
+				new ReferenceProperty("ref", "childType") });
+		childType = new EntityType("childType", new Property[] { new Property("name", Property.TYPECODE_STRING, true) });
+		typeDomain = new TypeDomain(TYPE_DOMAIN_ID, new EntityType[] { parentType, childType });
+
+		server = new MockServer();
+		server.snapshot = update(1, 1, new EntityValue(childType, 1, new Object[] { "dave" }), new EntityValue(
+				parentType, 1, new Object[] { "to dave", 1L }));
+
+		ce = new ClientEngine();
+		ce.setTypeDomainId(TYPE_DOMAIN_ID);
+		ce.setObjectGraphId(OBJECT_GRAPH_ID);
+		ce.setTransportAdapter(server);
+		ce.initialise();
+
+		notified = new ArrayList<GraphUpdate>();
+		ce.setGraphUpdateListener(new GraphUpdateListener() {
+			public void acceptGraphUpdate(GraphUpdate update) {
+				notified.add(update);
+			}
+		});
+	}
+
+	public void testMissedUpdatesAreRequested() {
+		server.history.add(update(1, 2, new EntityValue(childType, 2, new Object[] { "bob" })));
+		server.history.add(update(1, 3, diff(childType, 1, "david")));
+
+		ce.acceptGraphUpdate(update(1, 4, diff(childType, 2, "robert")));
+
+		assertEquals(2, server.updatesLoaded);
+		assertEquals(0, server.snapshotRequests);
+		assertEquals(3, notified.size());
+		assertEquals(4, ce.getSnapshot().getDataVersion());
+		assertClientEngineState("ObjectGraph TypeDomain/TestObjectGraph" + "  Entity parentType#1" + "    num=to dave"
+				+ "    ref=childType#1" + "  Entity childType#1" + "    name=david" + "  Entity childType#2"
+				+ "    name=robert", ce);
+	}
+
+	public void testObjectGraphIsReloadedWhenUpdatesAreUnavailable() {
+		Entity dave = ce.getEntityByTypeAndId(childType, 1);
+
+		// the server has moved on to version 3, with updates that the client never saw
+		server.snapshot = update(1, 3, new EntityValue(childType, 1, new Object[] { "david" }), new EntityValue(
+				childType, 2, new Object[] { "bob" }));
+
+		ce.acceptGraphUpdate(update(1, 4, diff(childType, 2, "robert")));
+
+		assertEquals(1, server.snapshotRequests);
+		assertEquals(4, ce.getSnapshot().getDataVersion());
+		assertClientEngineState("ObjectGraph TypeDomain/TestObjectGraph" + "  Entity childType#1" + "    name=david"
+				+ "  Entity childType#2" + "    name=robert", ce);
+
+		// existing entities are updated in place, and listeners see the reload as an update
+		assertSame(dave, ce.getEntityByTypeAndId(childType, 1));
+		assertEquals(2, notified.size());
+		assertGraphUpdateState("GraphUpdate for object graph TypeDomain/TestObjectGraph" + "  complete values:"
+				+ "    value for childType#2" + "      name=bob" + "  partial values:"
+				+ "    partial value for childType#1" + "      name=david" + "  deleted entities:"
+				+ "    delete parentType#1", notified.get(0), typeDomain);
+	}
+
+	public void testObjectGraphIsReloadedWhenSchemeChanges() {
+		server.snapshot = update(2, 7, new EntityValue(childType, 1, new Object[] { "dave" }));
+
+		ce.acceptGraphUpdate(update(2, 8, diff(childType, 1, "david")));
+
+		assertEquals(1, server.snapshotRequests);
+		assertEquals(8, ce.getSnapshot().getDataVersion());
+		assertEquals(2, ce.getSnapshot().getDataVersionScheme());
+		assertClientEngineState("ObjectGraph TypeDomain/TestObjectGraph" + "  Entity childType#1" + "    name=david",
+				ce);
+
+		// an update that the reloaded snapshot already includes is ignored
+		server.snapshot = update(3, 5, new EntityValue(childType, 1, new Object[] { "dai" }));
+		ce.acceptGraphUpdate(update(3, 5, diff(childType, 1, "ignored")));
+		assertClientEngineState("ObjectGraph TypeDomain/TestObjectGraph" + "  Entity childType#1" + "    name=dai",
+				ce);
+	}
+
+	public void testOldUpdatesAreIgnored() {
+		ce.acceptGraphUpdate(update(1, 2, diff(childType, 1, "david")));
+		ce.acceptGraphUpdate(update(1, 2, diff(childType, 1, "duplicate")));
+
+		assertEquals(0, server.snapshotRequests);
+		assertEquals(2, ce.getSnapshot().getDataVersion());
+		assertEquals("david", ce.getEntityByTypeAndId(childType, 1).getPropertyValue(childType.getProperty(0)));
+	}
+
+	public void testCatchUpBatchOverlappingAppliedVersionIsTrimmed() {
+		ce.setCatchUpMode(true);
+		ce.acceptGraphUpdate(update(1, 2, diff(childType, 1, "david")));
+
+		ce.acceptGraphUpdates(new GraphUpdate[] { update(1, 1, diff(childType, 1, "stale")),
+				update(1, 2, diff(childType, 1, "duplicate")), update(1, 3, diff(childType, 1, "dai")),
+				update(1, 4, new EntityValue(childType, 2, new Object[] { "bob" })) });
+
+		assertEquals(0, server.snapshotRequests);
+		assertEquals(0, server.updatesLoaded);
+		assertEquals(2, notified.size());
+		assertEquals(4, ce.getSnapshot().getDataVersion());
+		assertClientEngineState("ObjectGraph TypeDomain/TestObjectGraph" + "  Entity parentType#1" + "    num=to dave"
+				+ "    ref=childType#1" + "  Entity childType#1" + "    name=dai" + "  Entity childType#2"
+				+ "    name=bob", ce);
+	}
+
+	public void testWarmStartFromGraphCache() throws Exception {
+		MemoryGraphCache cache = new MemoryGraphCache();
+		createClientEngine(cache).saveGraphCache();
+		assertEquals(1, cache.snapshot.getDataVersion());
+		server.snapshotRequests = 0;
+
+		server.history.add(update(1, 2, new EntityValue(childType, 2, new Object[] { "bob" })));
+		server.history.add(update(1, 3, diff(childType, 1, "david")));
+		server.snapshot = update(1, 3, new EntityValue(childType, 1, new Object[] { "david" }), new EntityValue(
+				childType, 2, new Object[] { "bob" }), new EntityValue(parentType, 1, new Object[] { "to dave", 1L }));
+
+		ClientEngine restarted = createClientEngine(cache);
+
+		// the cached snapshot was used, and only the newer updates were loaded
+		assertEquals(0, server.snapshotRequests);
+		assertEquals(2, server.updatesLoaded);
+		assertEquals(3, restarted.getSnapshot().getDataVersion());
+		assertClientEngineState("ObjectGraph TypeDomain/TestObjectGraph" + "  Entity parentType#1" + "    num=to dave"
+				+ "    ref=childType#1" + "  Entity childType#1" + "    name=david" + "  Entity childType#2"
+				+ "    name=bob", restarted);
+	}
+
+	public void testColdStartWhenCacheIsTooOld() throws Exception {
+		MemoryGraphCache cache = new MemoryGraphCache();
+		cache.snapshot = ce.createSnapshot();
+
+		// the server no longer has update 2
+		server.history.add(update(1, 3, diff(childType, 1, "david")));
+		server.snapshot = update(1, 3, new EntityValue(childType, 1, new Object[] { "david" }));
+
+		ClientEngine restarted = createClientEngine(cache);
+
+		assertEquals(1, server.snapshotRequests);
+		assertEquals(3, restarted.getSnapshot().getDataVersion());
+		assertClientEngineState("ObjectGraph TypeDomain/TestObjectGraph" + "  Entity childType#1" + "    name=david",
+				restarted);
+	}
+
+	public void testColdStartWhenSchemeHasChanged() throws Exception {
+		MemoryGraphCache cache = new MemoryGraphCache();
+		cache.snapshot = ce.createSnapshot();
+		server.snapshot = update(2, 1, new EntityValue(childType, 1, new Object[] { "david" }));
+
+		ClientEngine restarted = createClientEngine(cache);
+
+		assertEquals(1, server.snapshotRequests);
+		assertEquals(2, restarted.getSnapshot().getDataVersionScheme());
+	}
+
+	public void testMetrics() {
+		ClientMetrics metrics = new ClientMetrics();
+		ce.setMetrics(metrics);
+
+		// a gap of two versions, recovered from the server
+		server.history.add(update(1, 2, new EntityValue(childType, 2, new Object[] { "bob" })));
+		server.history.add(update(1, 3, diff(childType, 1, "david")));
+		ce.acceptGraphUpdate(update(1, 4, diff(childType, 2, "robert")));
+
+		// a gap of two versions that can't be recovered, so the object graph is reloaded
+		server.snapshot = update(1, 6, new EntityValue(childType, 1, new Object[] { "david" }), new EntityValue(
+				childType, 2, new Object[] { "robert" }));
+		ce.acceptGraphUpdate(update(1, 7, diff(childType, 1, "dai")));
+
+		assertEquals(5, metrics.getUpdatesApplied());
+		assertEquals(5, metrics.getApplyLatency().getCount());
+		assertEquals(1, metrics.getEntitiesCreated());
+		assertEquals(3, metrics.getEntitiesUpdated());
+		assertEquals(1, metrics.getEntitiesDeleted());
+		assertEquals(0, metrics.getLastEntitiesCreated());
+		assertEquals(1, metrics.getLastEntitiesUpdated());
+		assertEquals(0, metrics.getLastEntitiesDeleted());
+		assertEquals(2, metrics.getVersionGaps());
+		assertEquals(4, metrics.getMissingVersions());
+		assertEquals(1, metrics.getObjectGraphReloads());
+		assertEquals(7, metrics.getAppliedDataVersion());
+		assertEquals(0, metrics.getDataVersionLag());
+
+		// a transport that has received updates not yet applied reports a lag
+		metrics.recordUpdateReceived(update(1, 9));
+		assertEquals(2, metrics.getDataVersionLag());
+	}
+
+	private ClientEngine createClientEngine(GraphCache cache) throws Exception {
+		ClientEngine engine = new ClientEngine();
+		engine.setTypeDomainId(TYPE_DOMAIN_ID);
+		engine.setObjectGraphId(OBJECT_GRAPH_ID);
+		engine.setTransportAdapter(server);
+		engine.setGraphCache(cache);
+		engine.initialise();
+		return engine;
+	}
+
+	private EntityDiff diff(EntityType entityType, long id, String name) {
+		return new EntityDiff(entityType, id, new Object[] { name }, new boolean[] { true });
+	}
+
+	private GraphUpdate update(int scheme, int version, RawPropertyValueSet... values) {
+		List<RawPropertyValueSet> creates = new ArrayList<RawPropertyValueSet>();
+		List<PartialRawPropertyValueSet> diffs = new ArrayList<PartialRawPropertyValueSet>();
+		for (RawPropertyValueSet value : values) {
+			if (value instanceof PartialRawPropertyValueSet) {
+				diffs.add((PartialRawPropertyValueSet) value);
+			} else {
+				creates.add(value);
+			}
+		}
+		return new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, version, scheme, creates
+				.toArray(new RawPropertyValueSet[0]), diffs.toArray(new PartialRawPropertyValueSet[0]), null);
+	}
+
+	private class MemoryGraphCache implements GraphCache {
+
+		GraphUpdate snapshot;
+
+		public GraphUpdate loadSnapshot(TypeDomain typeDomain, String objectGraphId) {
+			return snapshot;
+		}
+
+		public void storeSnapshot(GraphUpdate snapshot) {
+			this.snapshot = snapshot;
+		}
+	}
+
+	private class MockServer implements WarmStartTransportAdapter {
+
+		GraphUpdate snapshot;
+		List<GraphUpdate> history = new ArrayList<GraphUpdate>();
+		int snapshotRequests = -1; // don't count the initial load
+		int updatesLoaded;
+
+		public TypeDomain loadTypeDomain(String typeDomainId) throws NoSuchThingException {
+			return typeDomain;
+		}
+
+		public GraphUpdate loadObjectGraph(TypeDomain typeDomain, String objectGraphId) throws NoSuchThingException {
+			snapshotRequests++;
+			return snapshot;
+		}
+
+		public void subscribeToGraphUpdates(TypeDomain typeDomain, String objectGraphId, GraphUpdateListener listener) {
+		}
+
+		public GraphUpdate[] loadGraphUpdates(TypeDomain typeDomain, String objectGraphId, int dataVersionScheme,
+				int fromDataVersion, int toDataVersion) {
+			List<GraphUpdate> result = new ArrayList<GraphUpdate>();
+			for (GraphUpdate update : history) {
+				if (update.getDataVersionScheme() == dataVersionScheme && update.getDataVersion() >= fromDataVersion
+						&& update.getDataVersion() <= toDataVersion) {
+					result.add(update);
+				}
+			}
+			updatesLoaded += result.size();
+			return result.isEmpty() ? null : result.toArray(new GraphUpdate[0]);
+		}
+
+		public GraphUpdate[] loadGraphUpdatesSince(TypeDomain typeDomain, String objectGraphId,
+				int dataVersionScheme, int dataVersion) {
+			if (snapshot.getDataVersionScheme() != dataVersionScheme) {
+				return null;
+			}
+			if (snapshot.getDataVersion() == dataVersion) {
+				return new GraphUpdate[0];
+			}
+			GraphUpdate[] result = loadGraphUpdates(typeDomain, objectGraphId, dataVersionScheme, dataVersion + 1,
+					snapshot.getDataVersion());
+			return result == null || result.length != snapshot.getDataVersion() - dataVersion ? null : result;
+		}
+	}
+
+}
@@ -173,6 +173,109 @@ public class ClientEngineTest extends OgreTestCase {
 
 	}
 
+	public void testConcurrentReads() throws Exception {
+
+		ClientEngine ce = createClientEngine();
+		ce.setConcurrentReads(true);
+		ce.initialise();
+
+		try {
+			ce.setConcurrentReads(false);
+			fail("ClientEngine.setConcurrentReads should fail after ClientEngine.initialise() is called");
+		} catch (InitialisationException e) {
+		}
+
+		ce.acceptGraphUpdate(createGraphUpdate(new EntityValue(childType, 1, new Object[] { "dave" }),
+				new EntityValue(parentType, 1, new Object[] { "to dave", 1L })));
+		Entity[] before = ce.getEntitiesByType(parentType);
+		Entity dave = ce.getEntityByTypeAndId(childType, 1);
+
+		ce.acceptGraphUpdate(createGraphUpdate(new EntityValue(parentType, 2, new Object[] { "to dave also", 1L }),
+				new EntityDiff(parentType, 1, new Object[] { "still to dave", null }, new boolean[] { true, false })));
+
+		assertEquals(1, before.length);
+		assertEquals(2, ce.getEntitiesByType(parentType).length);
+		assertEquals(2, ce.getReferencesTo(dave, refProperty).length);
+		assertEquals("still to dave", ce.getEntityByTypeAndId(parentType, 1).getPropertyValue(parentName));
+		assertEquals(dataVersion, ce.createSnapshot().getDataVersion());
+
+		// the first snapshot starts recording values without disturbing readers of the published graph
+		GraphSnapshot snapshot = ce.getSnapshot();
+		assertEquals(dataVersion, snapshot.getDataVersion());
+		assertEquals("still to dave", snapshot.getEntity(parentType, 1).getRawPropertyValue(parentName));
+		assertEquals(2, ce.getEntitiesByType(parentType).length);
+
+		// a failed update is not published
+		try {
+			ce.acceptGraphUpdate(createGraphUpdate(new EntityValue(parentType, 3, new Object[] { "a", null }),
+					new EntityValue(parentType, 3, new Object[] { "b", null })));
+			fail("acceptGraphUpdate() should fail when given a GraphUpdate contains duplicate IDs");
+		} catch (InvalidGraphUpdateException e) {
+		}
+		assertEquals(2, ce.getEntitiesByType(parentType).length);
+		assertEquals(dataVersion - 1, ce.createSnapshot().getDataVersion());
+		dataVersion--;
+
+		// and changes it made to existing entities before failing are thrown away
+		try {
+			ce.acceptGraphUpdate(createGraphUpdate(new EntityDiff(parentType, 1, new Object[] { "changed", null },
+					new boolean[] { true, true }), new EntityDiff(parentType, 2, new Object[] { null, null },
+					new boolean[] { true, false })));
+			fail("acceptGraphUpdate() should fail when given a GraphUpdate has a null value for a non-nullable property");
+		} catch (InvalidGraphUpdateException e) {
+		}
+		Entity parent1 = ce.getEntityByTypeAndId(parentType, 1);
+		assertEquals("still to dave", parent1.getPropertyValue(parentName));
+		assertSame(dave, parent1.getPropertyValue(refProperty));
+		assertEquals(2, ce.getReferencesTo(dave, refProperty).length);
+		dataVersion--;
+
+		// so the next update starts from the published values
+		ce.acceptGraphUpdate(createGraphUpdate(new EntityDiff(parentType, 2, new Object[] { "to nobody", null },
+				new boolean[] { true, true })));
+		assertEquals("still to dave", parent1.getPropertyValue(parentName));
+		assertNull(ce.getEntityByTypeAndId(parentType, 2).getPropertyValue(refProperty));
+		assertEquals(1, ce.getReferencesTo(dave, refProperty).length);
+	}
+
+	public void testGetSnapshot() throws Exception {
+
+		ClientEngine ce = createClientEngine();
+		ce.initialise();
+
+		ce.acceptGraphUpdate(createGraphUpdate(new EntityValue(childType, 1, new Object[] { "dave" }),
+				new EntityValue(parentType, 2, new Object[] { "to dave", 1L }), new EntityValue(parentType, 1,
+						new Object[] { "to none", null })));
+		GraphSnapshot snapshot = ce.getSnapshot();
+
+		ce.acceptGraphUpdate(createGraphUpdate(new EntityDiff(parentType, 1, new Object[] { "changed", null },
+				new boolean[] { true, false })));
+		ce.acceptGraphUpdate(new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, ++dataVersion, 1, null, null,
+				new EntityReference[] { new EntityReferenceImpl(childType, 1) }));
+
+		// the engine has moved on
+		assertEquals("changed", ce.getEntityByTypeAndId(parentType, 1).getPropertyValue(parentName));
+		assertNull(ce.getEntityByTypeAndId(parentType, 2).getPropertyValue(refProperty));
+		assertEquals(dataVersion, ce.getSnapshot().getDataVersion());
+		assertEquals(2, ce.getSnapshot().getEntityCount());
+
+		// but the snapshot hasn't
+		assertEquals(dataVersion - 2, snapshot.getDataVersion());
+		assertEquals(3, snapshot.getEntityCount());
+		assertEquals("to none", snapshot.getEntity(parentType, 1).getRawPropertyValue(parentName));
+		assertEquals(1L, snapshot.getEntity(parentType, 2).getRawPropertyValue(refProperty));
+		assertNotNull(snapshot.getEntity(childType, 1));
+
+		EntityValue[] parents = snapshot.getEntitiesByType(parentType);
+		assertEquals(2, parents.length);
+		assertEquals(1, parents[0].getEntityId());
+		assertEquals(2, parents[1].getEntityId());
+
+		assertEqualsIgnoreWhitespace("ObjectGraph TypeDomain/TestObjectGraph" + "  Entity parentType#1"
+				+ "    num=to none" + "    ref=null" + "  Entity parentType#2" + "    num=to dave" + "    ref=childType#1"
+				+ "  Entity childType#1" + "    name=dave", EDRDescriber.describeObjectGraph(snapshot.toGraphUpdate()));
+	}
+
 	public void testBackReferences() throws Exception {
 		ClientEngine ce = createClientEngine();
 		ce.initialise();
@@ -191,6 +294,17 @@ public class ClientEngineTest extends OgreTestCase {
 		} catch (OgreException e) {
 		}
 
+		assertEquals(7, ce.getEntityCount());
+		assertEquals(5, ce.getEntityCount(parentType));
+		final int[] visited = new int[1];
+		ce.forEachEntityOfType(childType, new EntityVisitor() {
+			public boolean visit(Entity entity) {
+				visited[0]++;
+				return true;
+			}
+		});
+		assertEquals(2, visited[0]);
+
 		Entity[] references = ce.getReferencesTo(dave, refProperty);
 
 		assertNotNull(references);
@@ -199,6 +313,83 @@ public class ClientEngineTest extends OgreTestCase {
 		assertEquals(references[1].getPropertyValue(parentName), "to dave also");
 	}
 
+	public void testLazyReferences() throws Exception {
+		ClientEngine ce = createClientEngine();
+		ce.setLazyReferences(true);
+		ce.initialise();
+
+		// references forwards to entities later in the update, and to an entity that doesn't exist
+		ce.acceptGraphUpdate(createGraphUpdate(new EntityValue(parentType, 1, new Object[] { "to dave", 1L }),
+				new EntityValue(parentType, 2, new Object[] { "to nobody", 5L }), new EntityValue(parentType, 3,
+						new Object[] { "to dave also", 1L }), new EntityValue(childType, 1, new Object[] { "dave" })));
+
+		Entity dave = ce.getEntityByTypeAndId(childType, 1);
+		Entity parent1 = ce.getEntityByTypeAndId(parentType, 1);
+		Entity parent3 = ce.getEntityByTypeAndId(parentType, 3);
+		assertSame(dave, parent1.getPropertyValue(refProperty));
+		assertNull(ce.getEntityByTypeAndId(parentType, 2).getPropertyValue(refProperty));
+		assertEquals(1L, parent3.getRawPropertyValue(refProperty));
+
+		// references that are still unresolved are indexed before the next update is applied
+		ce.acceptGraphUpdate(createGraphUpdate(new EntityValue(parentType, 4, new Object[] { "to dave again", 1L })));
+		Entity parent4 = ce.getEntityByTypeAndId(parentType, 4);
+		assertEquals(3, ce.getReferencesTo(dave, refProperty).length);
+
+		// and references to deleted entities read as null
+		ce.acceptGraphUpdate(new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, ++dataVersion, 1, null, null,
+				new EntityReference[] { new EntityReferenceImpl(childType, 1) }));
+		assertNull(parent1.getPropertyValue(refProperty));
+		assertNull(parent3.getPropertyValue(refProperty));
+		assertNull(parent4.getPropertyValue(refProperty));
+	}
+
+	public void testLazyReferencesWithConcurrentReads() throws Exception {
+		ClientEngine ce = createClientEngine();
+		ce.setLazyReferences(true);
+		ce.setConcurrentReads(true);
+		ce.initialise();
+
+		ce.acceptGraphUpdate(createGraphUpdate(new EntityValue(parentType, 1, new Object[] { "to dave", 1L }),
+				new EntityValue(parentType, 2, new Object[] { "to dave also", 1L }), new EntityValue(childType, 1,
+						new Object[] { "dave" })));
+		Entity dave = ce.getEntityByTypeAndId(childType, 1);
+
+		// the references are resolved in a fork of the published store, and the fork published
+		GraphSnapshot before = ce.getSnapshot();
+		assertEquals(2, ce.getReferencesTo(dave, refProperty).length);
+		assertEquals(before.getDataVersion(), ce.getSnapshot().getDataVersion());
+
+		ce.acceptGraphUpdate(createGraphUpdate(new EntityValue(parentType, 3, new Object[] { "to dave again", 1L })));
+		assertEquals(3, ce.getReferencesTo(dave, refProperty).length);
+	}
+
+	public void testTrustedSource() throws Exception {
+		ClientEngine ce = createClientEngine();
+		ce.initialise();
+		ce.acceptGraphUpdate(createGraphUpdate(new EntityValue(parentType, 1, new Object[] { "1", null })));
+
+		// by default, values of the wrong type are rejected
+		try {
+			ce.acceptGraphUpdate(createGraphUpdate(new EntityDiff(parentType, 1, new Object[] { 2, null },
+					new boolean[] { true, false })));
+			fail("acceptGraphUpdate() should fail with a value of the wrong type");
+		} catch (InvalidGraphUpdateException e) {
+		}
+
+		// but a trusted source's values are not checked
+		ce.setTrustedSource(true);
+		ce.acceptGraphUpdate(createGraphUpdate(new EntityDiff(parentType, 1, new Object[] { 3, null }, new boolean[] {
+				true, false })));
+		assertEquals(3, ce.getEntityByTypeAndId(parentType, 1).getPropertyValue(parentType.getProperty(0)));
+
+		// references are still checked for existence
+		try {
+			ce.acceptGraphUpdate(createGraphUpdate(new EntityValue(parentType, 2, new Object[] { "2", 5L })));
+			fail("acceptGraphUpdate() should fail with a reference to an entity that does not exist");
+		} catch (InvalidGraphUpdateException e) {
+		}
+	}
+
 	private GraphUpdate createGraphUpdate(EntityReference... updates) {
 		List<RawPropertyValueSet> valueMessages = new ArrayList<RawPropertyValueSet>();
 		List<PartialRawPropertyValueSet> diffMessages = new ArrayList<PartialRawPropertyValueSet>();
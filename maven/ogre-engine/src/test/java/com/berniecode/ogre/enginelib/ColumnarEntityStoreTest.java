@@ -0,0 +1,201 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import java.util.Arrays;
+
+import com.berniecode.ogre.OgreTestCase;
+import com.berniecode.ogre.enginelib.platformhooks.InvalidGraphUpdateException;
+import com.berniecode.ogre.enginelib.platformhooks.ValueColumn;
+
+public class ColumnarEntityStoreTest extends OgreTestCase {
+
+	private EntityType parentType;
+	private EntityType childType;
+	private TypeDomain typeDomain;
+	private Property intProperty;
+	private Property nullableDoubleProperty;
+	private Property stringProperty;
+	private ReferenceProperty refProperty;
+	private int dataVersion;
+
+	@Override
+	public void doAdditionalSetup() throws Exception {
+		parentType = new EntityType("parentType", new Property[] {
+				intProperty = new Property("int", Property.TYPECODE_INT32, false),
+				nullableDoubleProperty = new Property("double", Property.TYPECODE_DOUBLE, true),
+				stringProperty = new Property("string", Property.TYPECODE_STRING, true),
+				refProperty = new ReferenceProperty("ref", "childType") });
+		childType = new EntityType("childType", new Property[] { new Property("name", Property.TYPECODE_STRING,
+				false) });
+		typeDomain = new TypeDomain(TYPE_DOMAIN_ID, new EntityType[] { parentType, childType });
+	}
+
+	public void testAddUpdateRemove() {
+		doTestAddUpdateRemove(new ColumnarEntityStore(typeDomain));
+	}
+
+	public void testAddUpdateRemoveOffHeap() {
+		doTestAddUpdateRemove(new ColumnarEntityStore(typeDomain, true));
+	}
+
+	public void testColumnScan() {
+		doTestColumnScan(new ColumnarEntityStore(typeDomain));
+	}
+
+	public void testColumnScanOffHeap() {
+		doTestColumnScan(new ColumnarEntityStore(typeDomain, true));
+	}
+
+	public void testOffHeapStringsAndBytes() {
+		Property bytesProperty = new Property("bytes", Property.TYPECODE_BYTES, true);
+		EntityType blobType = new EntityType("blobType", new Property[] {
+				new Property("name", Property.TYPECODE_STRING, false), bytesProperty });
+		TypeDomain blobDomain = new TypeDomain(TYPE_DOMAIN_ID, new EntityType[] { blobType });
+		Property nameProperty = blobType.getProperty(0);
+
+		ColumnarEntityStore store = new ColumnarEntityStore(blobDomain, true);
+		RawPropertyValueSet[] values = new RawPropertyValueSet[100];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = new EntityValue(blobType, i + 1, new Object[] { "entity " + i,
+					i % 3 == 0 ? null : new byte[] { (byte) i, 2, 3 } });
+		}
+		store.acceptGraphUpdate(new GraphUpdate(blobDomain, OBJECT_GRAPH_ID, ++dataVersion, 1, values, null, null));
+
+		// repeatedly overwriting values fills the arena with garbage, which is reclaimed
+		for (int round = 0; round < 50; round++) {
+			PartialRawPropertyValueSet[] diffs = new PartialRawPropertyValueSet[values.length];
+			for (int i = 0; i < values.length; i++) {
+				diffs[i] = new EntityDiff(blobType, i + 1, new Object[] { "caf\u00e9 " + round + " " + i, null },
+						new boolean[] { true, false });
+			}
+			store.acceptGraphUpdate(new GraphUpdate(blobDomain, OBJECT_GRAPH_ID, ++dataVersion, 1, null, diffs, null));
+		}
+		store.remove(blobType, 1);
+
+		assertEquals(99, store.getEntityCount());
+		for (int i = 1; i < values.length; i++) {
+			Entity entity = store.get(blobType, i + 1);
+			assertEquals("caf\u00e9 49 " + i, entity.getPropertyValue(nameProperty));
+			if (i % 3 == 0) {
+				assertNull(entity.getPropertyValue(bytesProperty));
+			} else {
+				assertTrue(Arrays.equals(new byte[] { (byte) i, 2, 3 }, (byte[]) entity.getPropertyValue(bytesProperty)));
+			}
+		}
+	}
+
+	private void doTestAddUpdateRemove(ColumnarEntityStore store) {
+		store.acceptGraphUpdate(createGraphUpdate(new EntityValue(childType, 1, new Object[] { "dave" }),
+				new EntityValue(parentType, 1, new Object[] { 5, 1.5, "one", 1L }), new EntityValue(parentType, 2,
+						new Object[] { 6, null, null, null })));
+
+		Entity parent1 = store.get(parentType, 1);
+		Entity parent2 = store.get(parentType, 2);
+		assertEquals(5, parent1.getPropertyValue(intProperty));
+		assertEquals(1.5, parent1.getPropertyValue(nullableDoubleProperty));
+		assertEquals("one", parent1.getPropertyValue(stringProperty));
+		assertSame(store.get(childType, 1), parent1.getPropertyValue(refProperty));
+		assertEquals(1L, parent1.getRawPropertyValue(refProperty));
+		assertNull(parent2.getPropertyValue(nullableDoubleProperty));
+		assertNull(parent2.getPropertyValue(refProperty));
+
+		// handles are stable
+		assertSame(parent1, store.get(parentType, 1));
+
+		store.acceptGraphUpdate(new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, ++dataVersion, 1, null,
+				new PartialRawPropertyValueSet[] { new EntityDiff(parentType, 2, new Object[] { 7, 2.5, null, 1L },
+						new boolean[] { true, true, false, true }) }, null));
+		assertEquals(7, parent2.getPropertyValue(intProperty));
+		assertEquals(2.5, parent2.getPropertyValue(nullableDoubleProperty));
+		assertSame(store.get(childType, 1), parent2.getPropertyValue(refProperty));
+
+		// removing parent1 moves parent2 into its row, and the handles follow
+		store.acceptGraphUpdate(new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, ++dataVersion, 1, null, null,
+				new EntityReference[] { new EntityReferenceImpl(parentType, 1),
+						new EntityReferenceImpl(childType, 1) }));
+		assertNull(store.get(parentType, 1));
+		assertNull(parent1.getPropertyValue(intProperty));
+		assertSame(parent2, store.get(parentType, 2));
+		assertEquals(7, parent2.getPropertyValue(intProperty));
+		assertEquals(0, store.getTable(parentType).getRow(2));
+
+		// references to removed entities read as null
+		assertNull(parent2.getPropertyValue(refProperty));
+		assertEquals(1, store.getEntityCount());
+	}
+
+	private void doTestColumnScan(ColumnarEntityStore store) {
+		RawPropertyValueSet[] values = new RawPropertyValueSet[1000];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = new EntityValue(parentType, i + 1, new Object[] { i, i % 2 == 0 ? null : (double) i, null,
+					null });
+		}
+		store.acceptGraphUpdate(new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, ++dataVersion, 1, values, null, null));
+
+		EntityTable table = store.getTable(parentType);
+		ValueColumn ints = table.getColumn(intProperty);
+		ValueColumn doubles = table.getColumn(nullableDoubleProperty);
+		long intTotal = 0;
+		double doubleTotal = 0;
+		int nulls = 0;
+		for (int row = 0; row < table.getRowCount(); row++) {
+			intTotal += ints.getInt(row);
+			if (doubles.isNull(row)) {
+				nulls++;
+			} else {
+				doubleTotal += doubles.getDouble(row);
+			}
+		}
+		assertEquals(999 * 1000 / 2, intTotal);
+		assertEquals(500 * 500.0, doubleTotal);
+		assertEquals(500, nulls);
+	}
+
+	public void testInvalidUpdates() {
+		ColumnarEntityStore store = new ColumnarEntityStore(typeDomain);
+		try {
+			store.acceptGraphUpdate(createGraphUpdate(new EntityValue(parentType, 1, new Object[] { 1, null, null,
+					null }), new EntityValue(parentType, 1, new Object[] { 2, null, null, null })));
+			fail("acceptGraphUpdate() should fail when given a GraphUpdate contains duplicate IDs");
+		} catch (InvalidGraphUpdateException e) {
+		}
+		try {
+			store.acceptGraphUpdate(createGraphUpdate(new EntityValue(parentType, 1, new Object[] { 1, null, null,
+					null }), new EntityValue(parentType, 2, new Object[] { null, null, null, null })));
+			fail("acceptGraphUpdate() should fail when given a GraphUpdate has a null value for a non-nullable property");
+		} catch (InvalidGraphUpdateException e) {
+		}
+		try {
+			store.acceptGraphUpdate(createGraphUpdate(new EntityValue(parentType, 1, new Object[] { "1", null, null,
+					null })));
+			fail("acceptGraphUpdate() should fail when given a GraphUpdate has a value of the wrong type");
+		} catch (InvalidGraphUpdateException e) {
+		}
+		// invalid updates are not partially applied
+		assertEquals(0, store.getEntityCount());
+	}
+
+	private GraphUpdate createGraphUpdate(RawPropertyValueSet... creates) {
+		return new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, ++dataVersion, 1, creates, null, null);
+	}
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+
+import com.berniecode.ogre.OgreTestCase;
+
+public class ContinuousQueryTest extends OgreTestCase {
+
+	private EntityType parentType;
+	private EntityType childType;
+	private Property sizeProperty;
+	private ReferenceProperty refProperty;
+	private TypeDomain typeDomain;
+
+	private ClientEngine ce;
+	private List<QueryDelta> deltas;
+	private ContinuousQueryListener recorder;
+	private EntityPredicate isLarge;
+
+	@Override
+	public void doAdditionalSetup() throws Exception {
+		parentType = new EntityType("parentType", new Property[] {
+				sizeProperty = new Property("size", Property.TYPECODE_INT32, false),
+				refProperty = new ReferenceProperty("ref", "childType") });
+		childType = new EntityType("childType", new Property[] {});
+		typeDomain = new TypeDomain(TYPE_DOMAIN_ID, new EntityType[] { parentType, childType });
+
+		final GraphUpdate snapshot = new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, 1, 1, new RawPropertyValueSet[] {
+				new EntityValue(childType, 1, new Object[0]), new EntityValue(parentType, 1, new Object[] { 5, null }),
+				new EntityValue(parentType, 2, new Object[] { 50, 1L }) }, null, null);
+		ce = new ClientEngine();
+		ce.setTypeDomainId(TYPE_DOMAIN_ID);
+		ce.setObjectGraphId(OBJECT_GRAPH_ID);
+		ce.setTransportAdapter(new ClientTransportAdapter() {
+			public TypeDomain loadTypeDomain(String typeDomainId) {
+				return typeDomain;
+			}
+
+			public GraphUpdate loadObjectGraph(TypeDomain typeDomain, String objectGraphId) {
+				return snapshot;
+			}
+
+			public void subscribeToGraphUpdates(TypeDomain typeDomain, String objectGraphId,
+					GraphUpdateListener listener) {
+			}
+		});
+		ce.initialise();
+
+		deltas = new ArrayList<QueryDelta>();
+		recorder = new ContinuousQueryListener() {
+			public void acceptQueryDelta(ContinuousQuery query, QueryDelta delta) {
+				deltas.add(delta);
+			}
+		};
+		isLarge = new EntityPredicate() {
+			public boolean matches(Entity entity) {
+				return ((Integer) entity.getRawPropertyValue(sizeProperty)).intValue() >= 10;
+			}
+		};
+	}
+
+	public void testDeltas() {
+		ContinuousQuery query = ce.addContinuousQuery(parentType, isLarge, recorder);
+		Entity parent1 = ce.getEntityByTypeAndId(parentType, 1);
+		Entity parent2 = ce.getEntityByTypeAndId(parentType, 2);
+
+		// the initial delta holds the matching entities
+		assertEquals(1, deltas.size());
+		assertNull(deltas.get(0).getGraphUpdate());
+		assertDelta(deltas.get(0), new Entity[] { parent2 }, new Entity[0], new Entity[0]);
+
+		// entities enter and leave the matching set as they are created and changed
+		GraphUpdate update = new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, 2, 1,
+				new RawPropertyValueSet[] { new EntityValue(parentType, 3, new Object[] { 30, null }) },
+				new PartialRawPropertyValueSet[] { size(1, 10), size(2, 1) }, null);
+		ce.acceptGraphUpdate(update);
+		Entity parent3 = ce.getEntityByTypeAndId(parentType, 3);
+		assertEquals(2, deltas.size());
+		assertSame(update, deltas.get(1).getGraphUpdate());
+		assertDelta(deltas.get(1), new Entity[] { parent1, parent3 }, new Entity[] { parent2 }, new Entity[0]);
+		assertEquals(new HashSet<Entity>(Arrays.asList(parent1, parent3)), new HashSet<Entity>(Arrays.asList(query
+				.getMatches())));
+
+		// changes that keep an entity in the set are reported as changes
+		ce.acceptGraphUpdate(new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, 3, 1, null,
+				new PartialRawPropertyValueSet[] { size(1, 11) }, null));
+		assertDelta(deltas.get(2), new Entity[0], new Entity[0], new Entity[] { parent1 });
+
+		// updates that don't affect the matching set produce no delta
+		ce.acceptGraphUpdate(new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, 4, 1, null,
+				new PartialRawPropertyValueSet[] { size(2, 2) }, null));
+		assertEquals(3, deltas.size());
+
+		// deleted entities are removed
+		ce.acceptGraphUpdate(new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, 5, 1, null, null,
+				new EntityReference[] { new EntityValue(parentType, 3, new Object[] { 30, null }) }));
+		assertDelta(deltas.get(3), new Entity[0], new Entity[] { parent3 }, new Entity[0]);
+		assertEquals(1, query.getMatchCount());
+
+		// after the query is closed it is no longer updated
+		query.close();
+		ce.acceptGraphUpdate(new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, 6, 1, null,
+				new PartialRawPropertyValueSet[] { size(1, 1) }, null));
+		assertEquals(4, deltas.size());
+	}
+
+	public void testNulledReferencesAreReevaluated() {
+		ContinuousQuery query = ce.addContinuousQuery(parentType, new EntityPredicate() {
+			public boolean matches(Entity entity) {
+				return entity.getRawPropertyValue(refProperty) != null;
+			}
+		}, recorder);
+		assertEquals(1, query.getMatchCount());
+
+		ce.acceptGraphUpdate(new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, 2, 1, null, null,
+				new EntityReference[] { new EntityValue(childType, 1, new Object[0]) }));
+		assertDelta(deltas.get(1), new Entity[0], new Entity[] { ce.getEntityByTypeAndId(parentType, 2) },
+				new Entity[0]);
+		assertEquals(0, query.getMatchCount());
+	}
+
+	private EntityDiff size(long id, int size) {
+		return new EntityDiff(parentType, id, new Object[] { size, null }, new boolean[] { true, false });
+	}
+
+	private void assertDelta(QueryDelta delta, Entity[] added, Entity[] removed, Entity[] changed) {
+		assertEquals(new HashSet<Entity>(Arrays.asList(added)), new HashSet<Entity>(Arrays.asList(delta.getAdded())));
+		assertEquals(new HashSet<Entity>(Arrays.asList(removed)), new HashSet<Entity>(Arrays
+				.asList(delta.getRemoved())));
+		assertEquals(new HashSet<Entity>(Arrays.asList(changed)), new HashSet<Entity>(Arrays
+				.asList(delta.getChanged())));
+	}
+
+}
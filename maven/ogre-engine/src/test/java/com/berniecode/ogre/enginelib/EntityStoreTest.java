@@ -20,6 +20,10 @@
 
 package com.berniecode.ogre.enginelib;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
 import com.berniecode.ogre.OgreTestCase;
 import com.berniecode.ogre.enginelib.platformhooks.OgreException;
 
@@ -68,4 +72,265 @@ public class EntityStoreTest extends OgreTestCase {
 		assertNull(parent.getPropertyValue(refProperty));
 	}
 
+	public void testReverseReferenceIndex() {
+
+		EntityStore entityStore = new EntityStore(typeDomain);
+
+		Entity child1 = new Entity(childType, 1, new Object[0]);
+		Entity child2 = new Entity(childType, 2, new Object[0]);
+		Entity parent1 = new Entity(parentType, 1, new Object[] { child1 });
+		Entity parent2 = new Entity(parentType, 2, new Object[] { child1 });
+		Entity parent3 = new Entity(parentType, 3, new Object[] { null });
+
+		entityStore.putAll(new Entity[] { child1, child2, parent1, parent2, parent3 });
+
+		assertReferences(entityStore.getReferencesTo(child1, refProperty), parent1, parent2);
+		assertReferences(entityStore.getReferencesTo(child2, refProperty));
+
+		// updates move entities between referrer lists
+		entityStore.update(parent2, new EntityDiff(parentType, 2, new Object[] { 2L }, new boolean[] { true }),
+				new EntityStore(typeDomain));
+		entityStore.update(parent3, new EntityValue(parentType, 3, new Object[] { 2L }), new EntityStore(typeDomain));
+		assertReferences(entityStore.getReferencesTo(child1, refProperty), parent1);
+		assertReferences(entityStore.getReferencesTo(child2, refProperty), parent2, parent3);
+
+		// removing a referrer removes it from the index
+		entityStore.removeSimilar(parent2);
+		assertReferences(entityStore.getReferencesTo(child2, refProperty), parent3);
+
+		// removing a referenced entity nulls and unindexes the references to it
+		entityStore.removeSimilar(child2);
+		assertNull(parent3.getPropertyValue(refProperty));
+		assertReferences(entityStore.getReferencesTo(child2, refProperty));
+		assertSame(child1, parent1.getPropertyValue(refProperty));
+	}
+
+	public void testReverseReferenceIndexIsForked() {
+
+		EntityStore original = new EntityStore(typeDomain);
+		Entity child1 = new Entity(childType, 1, new Object[0]);
+		Entity child2 = new Entity(childType, 2, new Object[0]);
+		Entity parent1 = new Entity(parentType, 1, new Object[] { child1 });
+		Entity parent2 = new Entity(parentType, 2, new Object[] { child1 });
+		original.putAll(new Entity[] { child1, child2, parent1, parent2 });
+
+		EntityStore fork = original.fork();
+		fork.update(parent2, new EntityValue(parentType, 2, new Object[] { 2L }), new EntityStore(typeDomain));
+		fork.removeSimilar(parent1);
+		assertReferences(fork.getReferencesTo(child1, refProperty));
+		assertReferences(fork.getReferencesTo(child2, refProperty), parent2);
+
+		// the original's index is unaffected
+		assertReferences(original.getReferencesTo(child1, refProperty), parent1, parent2);
+		assertReferences(original.getReferencesTo(child2, refProperty));
+	}
+
+	public void testFork() {
+
+		EntityStore original = new EntityStore(typeDomain);
+
+		Entity child1 = new Entity(childType, 1, new Object[0]);
+		Entity child2 = new Entity(childType, 2, new Object[0]);
+		Entity parent = new Entity(parentType, 1, new Object[] { null });
+		original.putAll(new Entity[] { child1, parent });
+
+		EntityStore fork = original.fork();
+		fork.add(child2);
+		fork.removeSimilar(parent);
+
+		// changes to the fork are not visible in the original
+		assertEquals(2, original.getEntities().length);
+		assertSame(parent, original.get(parentType, 1));
+		assertFalse(original.contains(childType, 2));
+
+		assertEquals(2, fork.getEntities().length);
+		assertNull(fork.get(parentType, 1));
+		assertSame(child2, fork.get(childType, 2));
+
+		// and changes to the original are not visible in the fork
+		original.removeSimilar(child1);
+		assertSame(child1, fork.get(childType, 1));
+	}
+
+	public void testPersistentStoreFork() {
+
+		EntityStore original = new EntityStore(typeDomain, false, true);
+		assertTrue(original.isRecordingSnapshots());
+
+		Entity child1 = new Entity(childType, 1, new Object[0]);
+		Entity child2 = new Entity(childType, 2, new Object[0]);
+		Entity parent = new Entity(parentType, 1, new Object[] { child1 });
+		original.putAll(new Entity[] { child1, parent });
+		GraphSnapshot before = original.snapshot(OBJECT_GRAPH_ID);
+
+		EntityStore fork = original.fork();
+		fork.add(child2);
+		fork.removeSimilar(parent);
+
+		assertEquals(2, original.getEntityCount());
+		assertSame(parent, original.get(parentType, 1));
+		assertFalse(original.contains(childType, 2));
+		assertEquals(Arrays.asList(child1, child2), Arrays.asList(fork.getEntitiesByType(childType)));
+		assertNull(fork.get(parentType, 1));
+		assertEquals(2, before.getEntityCount());
+		assertEquals(0, fork.snapshot(OBJECT_GRAPH_ID).getEntityCount(parentType));
+	}
+
+	public void testForksOfPublishedStoreStageChanges() {
+
+		PublishedStore published = new PublishedStore();
+		EntityStore original = new EntityStore(typeDomain, true, true);
+		Entity child1 = new Entity(childType, 1, new Object[0]);
+		Entity child2 = new Entity(childType, 2, new Object[0]);
+		Entity parent = new Entity(parentType, 1, new Object[] { child1 });
+		original.putAll(new Entity[] { child1, child2, parent });
+		published.publish(original);
+
+		// readers don't see changes made by a fork until it is published
+		EntityStore fork = original.fork();
+		fork.update(parent, new EntityValue(parentType, 1, new Object[] { 2L }), new EntityStore(typeDomain));
+		assertSame(child1, parent.getPropertyValue(refProperty));
+		assertReferences(fork.getReferencesTo(child2, refProperty), parent);
+		assertEquals(2L, fork.snapshot(OBJECT_GRAPH_ID).getEntity(parentType, 1).getRawPropertyValue(refProperty));
+		published.publish(fork);
+		assertSame(child2, parent.getPropertyValue(refProperty));
+		fork.commitStagedValues();
+		assertSame(child2, parent.getPropertyValue(refProperty));
+
+		// and never see changes that are discarded
+		EntityStore failed = fork.fork();
+		failed.removeSimilar(child2);
+		failed.discardStagedValues();
+		assertSame(child2, parent.getPropertyValue(refProperty));
+		assertReferences(fork.getReferencesTo(child2, refProperty), parent);
+	}
+
+	public void testSnapshotsRecordValuesFromTheFirstSnapshot() {
+
+		EntityStore entityStore = new EntityStore(typeDomain);
+		Entity child1 = new Entity(childType, 1, new Object[0]);
+		Entity child2 = new Entity(childType, 2, new Object[0]);
+		Entity parent = new Entity(parentType, 1, new Object[] { child1 });
+		entityStore.putAll(new Entity[] { child1, child2, parent });
+		entityStore.update(parent, new EntityValue(parentType, 1, new Object[] { 2L }), new EntityStore(typeDomain));
+		assertFalse(entityStore.isRecordingSnapshots());
+
+		// the first snapshot includes changes made before recording started
+		GraphSnapshot first = entityStore.snapshot(OBJECT_GRAPH_ID);
+		assertTrue(entityStore.isRecordingSnapshots());
+		assertEquals(3, first.getEntityCount());
+		assertEquals(2L, first.getEntity(parentType, 1).getRawPropertyValue(refProperty));
+
+		// and later changes are recorded without affecting it
+		entityStore.removeSimilar(child2);
+		GraphSnapshot second = entityStore.snapshot(OBJECT_GRAPH_ID);
+		assertEquals(2, second.getEntityCount());
+		assertNull(second.getEntity(parentType, 1).getRawPropertyValue(refProperty));
+		assertEquals(3, first.getEntityCount());
+		assertEquals(2L, first.getEntity(parentType, 1).getRawPropertyValue(refProperty));
+	}
+
+	public void testForEachAndCounts() {
+
+		EntityStore entityStore = new EntityStore(typeDomain);
+		Entity child1 = new Entity(childType, 1, new Object[0]);
+		Entity child2 = new Entity(childType, 2, new Object[0]);
+		Entity parent = new Entity(parentType, 1, new Object[] { child1 });
+		entityStore.putAll(new Entity[] { child1, child2, parent });
+
+		assertEquals(3, entityStore.getEntityCount());
+		assertEquals(2, entityStore.getEntityCount(childType));
+		assertEquals(1, entityStore.getEntityCount(parentType));
+
+		final List<Entity> visited = new ArrayList<Entity>();
+		EntityVisitor collector = new EntityVisitor() {
+			public boolean visit(Entity entity) {
+				visited.add(entity);
+				return true;
+			}
+		};
+		assertTrue(entityStore.forEachEntityOfType(childType, collector));
+		assertEquals(Arrays.asList(child1, child2), visited);
+
+		visited.clear();
+		assertTrue(entityStore.forEachEntity(collector));
+		assertEquals(Arrays.asList(entityStore.getEntities()), visited);
+
+		// returning false stops the iteration
+		visited.clear();
+		assertFalse(entityStore.forEachEntity(new EntityVisitor() {
+			public boolean visit(Entity entity) {
+				visited.add(entity);
+				return false;
+			}
+		}));
+		assertEquals(1, visited.size());
+	}
+
+	public void testHashIndex() {
+
+		EntityStore entityStore = new EntityStore(typeDomain);
+
+		Entity child1 = new Entity(childType, 1, new Object[0]);
+		Entity child2 = new Entity(childType, 2, new Object[0]);
+		Entity parent1 = new Entity(parentType, 1, new Object[] { child1 });
+		Entity parent2 = new Entity(parentType, 2, new Object[] { child1 });
+		entityStore.putAll(new Entity[] { child1, child2, parent1, parent2 });
+
+		// adding an index populates it from the existing entities
+		HashIndex index = new HashIndex(refProperty);
+		entityStore.addIndex(index);
+		assertEquals(Arrays.asList(index), Arrays.asList(entityStore.getIndexes(parentType)));
+		assertEquals(0, entityStore.getIndexes(childType).length);
+		assertReferences(index.get(child1), parent1, parent2);
+		assertReferences(index.get(1L), parent1, parent2);
+		assertReferences(index.get(child2));
+		assertEquals(2, index.count(child1));
+
+		// new entities and updates are indexed
+		Entity parent3 = new Entity(parentType, 3, new Object[] { child2 });
+		entityStore.add(parent3);
+		entityStore.update(parent2, new EntityValue(parentType, 2, new Object[] { 2L }), new EntityStore(typeDomain));
+		assertReferences(index.get(child1), parent1);
+		assertReferences(index.get(child2), parent2, parent3);
+
+		// removed entities are unindexed, and nulled references are reindexed
+		entityStore.removeSimilar(parent1);
+		entityStore.removeSimilar(child2);
+		assertReferences(index.get(child1));
+		assertReferences(index.get(null), parent2, parent3);
+
+		try {
+			index.get("not an id");
+			fail("HashIndex.get() should fail if the value is of the wrong type");
+		} catch (OgreException e) {
+		}
+	}
+
+	public void testHashIndexIsCopiedOnFork() {
+
+		EntityStore original = new EntityStore(typeDomain);
+		Entity child = new Entity(childType, 1, new Object[0]);
+		Entity parent1 = new Entity(parentType, 1, new Object[] { child });
+		original.putAll(new Entity[] { child, parent1 });
+		original.addIndex(new HashIndex(refProperty));
+
+		EntityStore fork = original.fork();
+		Entity parent2 = new Entity(parentType, 2, new Object[] { child });
+		fork.add(parent2);
+
+		HashIndex originalIndex = (HashIndex) original.getIndexes(parentType)[0];
+		HashIndex forkIndex = (HashIndex) fork.getIndexes(parentType)[0];
+		assertNotSame(originalIndex, forkIndex);
+		assertReferences(originalIndex.get(child), parent1);
+		assertReferences(forkIndex.get(child), parent1, parent2);
+	}
+
+	private void assertReferences(Entity[] actual, Entity... expected) {
+		assertEquals(expected.length, actual.length);
+		for (Entity entity : expected) {
+			assertTrue(entity + " should be in the list of references", Arrays.asList(actual).contains(entity));
+		}
+	}
+
 }
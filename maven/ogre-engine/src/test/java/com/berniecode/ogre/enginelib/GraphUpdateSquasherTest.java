@@ -0,0 +1,199 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.berniecode.ogre.OgreTestCase;
+import com.berniecode.ogre.enginelib.platformhooks.NoSuchThingException;
+
+public class GraphUpdateSquasherTest extends OgreTestCase {
+
+	private EntityType parentType;
+	private EntityType childType;
+	private TypeDomain typeDomain;
+	private int dataVersion;
+
+	@Override
+	public void doAdditionalSetup() throws Exception {
+		parentType = new EntityType("parentType", new Property[] { new Property("num", Property.TYPECODE_STRING, false),
+				new ReferenceProperty("ref", "childType") });
+		childType = new EntityType("childType", new Property[] { new Property("name", Property.TYPECODE_STRING, true) });
+		typeDomain = new TypeDomain(TYPE_DOMAIN_ID, new EntityType[] { parentType, childType });
+		dataVersion = 0;
+	}
+
+	public void testSquashMergesChanges() {
+
+		GraphUpdate squashed = createGraphUpdate(
+				new RawPropertyValueSet[] { new EntityValue(childType, 1, new Object[] { "a" }),
+						new EntityValue(parentType, 1, new Object[] { "p", 1L }) },
+				new PartialRawPropertyValueSet[] { diff(parentType, 5, new Object[] { "x", null }, true, false),
+						diff(parentType, 6, new Object[] { "y", null }, true, false) },
+				null);
+
+		squashed = squashed.compose(createGraphUpdate(
+				new RawPropertyValueSet[] { new EntityValue(childType, 2, new Object[] { "b" }) },
+				new PartialRawPropertyValueSet[] { diff(childType, 1, new Object[] { "a2" }, true),
+						diff(parentType, 5, new Object[] { null, 2L }, false, true) },
+				new EntityReference[] { new EntityReferenceImpl(parentType, 6) }));
+
+		squashed = squashed.compose(createGraphUpdate(null,
+				new PartialRawPropertyValueSet[] { diff(parentType, 1, new Object[] { null, 2L }, false, true) },
+				new EntityReference[] { new EntityReferenceImpl(childType, 2) }));
+
+		assertEquals(3, squashed.getDataVersion());
+		// child 2 was created and deleted, so it vanishes along with the references to it
+		assertGraphUpdateState("GraphUpdate for object graph TypeDomain/TestObjectGraph"
+				+ "  complete values:"
+				+ "    value for parentType#1" + "      num=p" + "      ref=null"
+				+ "    value for childType#1" + "      name=a2"
+				+ "  partial values:"
+				+ "    partial value for parentType#5" + "      num=x" + "      ref=null"
+				+ "  deleted entities:"
+				+ "    delete parentType#6", squashed, typeDomain);
+	}
+
+	public void testCantSquashRecreatedEntity() {
+
+		GraphUpdate create = createGraphUpdate(
+				new RawPropertyValueSet[] { new EntityValue(childType, 1, new Object[] { "a" }) }, null, null);
+		GraphUpdate delete = createGraphUpdate(null, null,
+				new EntityReference[] { new EntityReferenceImpl(childType, 1) });
+		GraphUpdate recreate = createGraphUpdate(
+				new RawPropertyValueSet[] { new EntityValue(childType, 1, new Object[] { "b" }) }, null, null);
+
+		GraphUpdateSquasher squasher = new GraphUpdateSquasher();
+		squasher.add(create);
+		squasher.add(delete);
+		assertFalse(squasher.canAdd(recreate));
+
+		GraphUpdate[] squashed = GraphUpdateSquasher.squash(new GraphUpdate[] { create, delete, recreate });
+		assertEquals(2, squashed.length);
+		assertEquals(0, squashed[0].getEntityCreates().length);
+		assertEquals(0, squashed[0].getEntityDeletes().length);
+		assertSame(recreate, squashed[1]);
+
+		// nor can updates be squashed out of sequence
+		squasher.clear();
+		squasher.add(create);
+		assertFalse(squasher.canAdd(recreate));
+	}
+
+	public void testCatchUpModeMatchesSequentialApplication() throws Exception {
+
+		GraphUpdate initial = createGraphUpdate(new RawPropertyValueSet[] {
+				new EntityValue(childType, 1, new Object[] { "c1" }),
+				new EntityValue(parentType, 1, new Object[] { "p1", 1L }) }, null, null);
+		List<GraphUpdate> updates = new ArrayList<GraphUpdate>();
+		List<Long> children = new ArrayList<Long>();
+		List<Long> parents = new ArrayList<Long>();
+		List<Long> deletedChildren = new ArrayList<Long>();
+		children.add(1L);
+		parents.add(1L);
+		long nextId = 2;
+		Random random = new Random(1234);
+		for (int i = 0; i < 200; i++) {
+			List<RawPropertyValueSet> creates = new ArrayList<RawPropertyValueSet>();
+			List<PartialRawPropertyValueSet> diffs = new ArrayList<PartialRawPropertyValueSet>();
+			List<EntityReference> deletes = new ArrayList<EntityReference>();
+			if (random.nextInt(4) == 0 || children.isEmpty()) {
+				// occasionally recreate a deleted entity
+				long id = random.nextInt(3) == 0 && !deletedChildren.isEmpty() ? deletedChildren.remove(0) : nextId++;
+				creates.add(new EntityValue(childType, id, new Object[] { "c" + i }));
+				children.add(id);
+			}
+			if (random.nextInt(3) == 0) {
+				long id = nextId++;
+				creates.add(new EntityValue(parentType, id, new Object[] { "p" + i, randomChild(random, children) }));
+				parents.add(id);
+			}
+			Long parent = parents.isEmpty() ? null : parents.get(random.nextInt(parents.size()));
+			if (parent != null) {
+				diffs.add(diff(parentType, parent, new Object[] { "d" + i, randomChild(random, children) }, random
+						.nextBoolean(), random.nextBoolean()));
+			}
+			if (random.nextInt(3) == 0) {
+				Long child = children.remove(random.nextInt(children.size()));
+				deletes.add(new EntityReferenceImpl(childType, child));
+				deletedChildren.add(child);
+			}
+			if (random.nextInt(8) == 0 && parents.size() > 1) {
+				deletes.add(new EntityReferenceImpl(parentType, parents.remove(random.nextInt(parents.size()))));
+			}
+			updates.add(createGraphUpdate(creates.toArray(new RawPropertyValueSet[0]), diffs
+					.toArray(new PartialRawPropertyValueSet[0]), deletes.toArray(new EntityReference[0])));
+		}
+
+		ClientEngine sequential = createClientEngine(initial);
+		for (GraphUpdate update : updates) {
+			sequential.acceptGraphUpdate(update);
+		}
+		ClientEngine catchUp = createClientEngine(initial);
+		catchUp.setCatchUpMode(true);
+		catchUp.acceptGraphUpdates(updates.toArray(new GraphUpdate[0]));
+
+		assertEquals(sequential.getSnapshot().getDataVersion(), catchUp.getSnapshot().getDataVersion());
+		assertEquals(EDRDescriber.describeObjectGraph(sequential.getSnapshot().toGraphUpdate()), EDRDescriber
+				.describeObjectGraph(catchUp.getSnapshot().toGraphUpdate()));
+		assertTrue(GraphUpdateSquasher.squash(updates.toArray(new GraphUpdate[0])).length < updates.size() / 4);
+	}
+
+	private Long randomChild(Random random, List<Long> children) {
+		if (children.isEmpty() || random.nextInt(5) == 0) {
+			return null;
+		}
+		return children.get(random.nextInt(children.size()));
+	}
+
+	private EntityDiff diff(EntityType entityType, long id, Object[] values, boolean... changed) {
+		return new EntityDiff(entityType, id, values, changed);
+	}
+
+	private GraphUpdate createGraphUpdate(RawPropertyValueSet[] creates, PartialRawPropertyValueSet[] diffs,
+			EntityReference[] deletes) {
+		return new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, ++dataVersion, 1, creates, diffs, deletes);
+	}
+
+	private ClientEngine createClientEngine(final GraphUpdate initial) throws NoSuchThingException {
+		ClientEngine ce = new ClientEngine();
+		ce.setTypeDomainId(TYPE_DOMAIN_ID);
+		ce.setObjectGraphId(OBJECT_GRAPH_ID);
+		ce.setTransportAdapter(new ClientTransportAdapter() {
+			public TypeDomain loadTypeDomain(String typeDomainId) {
+				return typeDomain;
+			}
+
+			public GraphUpdate loadObjectGraph(TypeDomain typeDomain, String objectGraphId) {
+				return initial;
+			}
+
+			public void subscribeToGraphUpdates(TypeDomain typeDomain, String objectGraphId,
+					GraphUpdateListener listener) {
+			}
+		});
+		ce.initialise();
+		return ce;
+	}
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+public class PersistentIdMapTest extends TestCase {
+
+	public void testPutGetRemove() {
+		Object edit = new Object();
+		PersistentIdMap map = new PersistentIdMap(edit);
+
+		assertNull(map.get(1));
+		assertSame(map, map.put(1, "one", edit));
+		assertSame(map, map.put(Entity.MAX_ID, "big", edit));
+		assertSame(map, map.put(-1, "negative", edit));
+		assertEquals(3, map.size());
+		assertEquals("one", map.get(1));
+		assertEquals("big", map.get(Entity.MAX_ID));
+		assertEquals("negative", map.get(-1));
+		assertNull(map.get(2));
+
+		map.put(1, "replaced", edit);
+		assertEquals(3, map.size());
+		assertEquals("replaced", map.get(1));
+
+		assertSame(map, map.remove(1, edit));
+		assertSame(map, map.remove(1, new Object())); // removing a missing entry has no effect
+		assertEquals(2, map.size());
+		assertNull(map.get(1));
+
+		// values are returned in ascending unsigned ID order
+		Object[] values = new Object[2];
+		assertEquals(2, map.getValues(values, 0));
+		assertEquals("big", values[0]);
+		assertEquals("negative", values[1]);
+	}
+
+	public void testChangesWithAnotherTokenCopy() {
+		Object edit = new Object();
+		PersistentIdMap original = new PersistentIdMap(edit);
+		for (long id = 1; id <= 1000; id++) {
+			original.put(id, "original", edit);
+		}
+
+		Object otherEdit = new Object();
+		PersistentIdMap changed = original.put(500, "changed", otherEdit);
+		changed = changed.remove(1, otherEdit);
+		assertNotSame(original, changed);
+		// further changes with the same token modify the copy in place
+		assertSame(changed, changed.put(5000, "added", otherEdit));
+
+		assertEquals(1000, changed.size());
+		assertEquals("changed", changed.get(500));
+		assertNull(changed.get(1));
+		assertEquals("added", changed.get(5000));
+
+		assertEquals(1000, original.size());
+		assertEquals("original", original.get(500));
+		assertEquals("original", original.get(1));
+		assertNull(original.get(5000));
+	}
+
+	public void testForEach() {
+		EntityType entityType = new EntityType("entityType", new Property[0]);
+		new TypeDomain("TypeDomain", new EntityType[] { entityType });
+		Object edit = new Object();
+		PersistentIdMap map = new PersistentIdMap(edit);
+		for (long id = 100; id > 0; id--) {
+			map.put(id, new Entity(entityType, id, null), edit);
+		}
+
+		final List<Long> visited = new ArrayList<Long>();
+		assertFalse(map.forEach(new EntityVisitor() {
+			public boolean visit(Entity entity) {
+				visited.add(entity.getEntityId());
+				return entity.getEntityId() < 40;
+			}
+		}));
+		assertEquals(40, visited.size());
+		for (int i = 0; i < visited.size(); i++) {
+			assertEquals(i + 1, visited.get(i).longValue());
+		}
+	}
+
+	public void testMatchesTreeMapUnderRandomOperations() {
+		Object edit = new Object();
+		PersistentIdMap map = new PersistentIdMap(edit);
+		Map<Long, Object> expected = new TreeMap<Long, Object>();
+		PersistentIdMap snapshot = null;
+		Map<Long, Object> expectedSnapshot = null;
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			long id = 1 + random.nextInt(5000);
+			if (random.nextInt(3) == 0) {
+				map = map.remove(id, edit);
+				expected.remove(id);
+			} else {
+				Object value = new Object();
+				map = map.put(id, value, edit);
+				expected.put(id, value);
+			}
+			if (i % 10000 == 0) {
+				// keep the map as it is now, and make later changes with a new token
+				snapshot = map;
+				expectedSnapshot = new TreeMap<Long, Object>(expected);
+				edit = new Object();
+			}
+		}
+		assertSameEntries(expected, map);
+		assertSameEntries(expectedSnapshot, snapshot);
+	}
+
+	private void assertSameEntries(Map<Long, Object> expected, PersistentIdMap map) {
+		assertEquals(expected.size(), map.size());
+		Object[] values = new Object[map.size()];
+		assertEquals(values.length, map.getValues(values, 0));
+		int i = 0;
+		for (Map.Entry<Long, Object> entry : expected.entrySet()) {
+			assertSame(entry.getValue(), values[i++]);
+			assertSame(entry.getValue(), map.get(entry.getKey()));
+		}
+	}
+
+}
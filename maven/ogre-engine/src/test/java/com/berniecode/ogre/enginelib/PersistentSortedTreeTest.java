@@ -0,0 +1,145 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import junit.framework.TestCase;
+
+public class PersistentSortedTreeTest extends TestCase {
+
+	public void testEntriesAreSortedByValueThenId() {
+		Object edit = new Object();
+		PersistentSortedTree tree = new PersistentSortedTree(edit);
+		assertSame(tree, tree.put(20, 1, "b", edit));
+		assertSame(tree, tree.put(10, 2, "a", edit));
+		assertSame(tree, tree.put(20, 0, "c", edit));
+		assertSame(tree, tree.put(null, 3, "null", edit));
+
+		assertEquals(4, tree.size());
+		assertPayloads(tree, "null", "a", "c", "b");
+		assertEquals(0, tree.getPosition(null, 3));
+		assertEquals(2, tree.getPosition(20, 0));
+		assertEquals(-1, tree.getPosition(10, 1));
+		assertEquals(2, tree.countBelow(20, false));
+		assertEquals(4, tree.countBelow(20, true));
+		assertNull(tree.getFirstValue());
+		assertEquals(20, tree.getLastValue());
+
+		tree.put(20, 1, "replaced", edit);
+		assertEquals(4, tree.size());
+		assertPayloads(tree, "null", "a", "c", "replaced");
+
+		assertSame(tree, tree.remove(10, 2, edit));
+		assertSame(tree, tree.remove(10, 2, new Object())); // removing a missing entry has no effect
+		assertPayloads(tree, "null", "c", "replaced");
+	}
+
+	public void testChangesWithAnotherTokenCopy() {
+		Object edit = new Object();
+		PersistentSortedTree original = new PersistentSortedTree(edit);
+		for (long id = 1; id <= 1000; id++) {
+			original.put((int) id, id, "original", edit);
+		}
+
+		Object otherEdit = new Object();
+		PersistentSortedTree changed = original.put(500, 500, "changed", otherEdit);
+		changed = changed.remove(1, 1, otherEdit);
+		assertNotSame(original, changed);
+		// further changes with the same token modify the copy in place
+		assertSame(changed, changed.put(0, 5000, "added", otherEdit));
+
+		assertEquals(1000, changed.size());
+		assertEquals(0, changed.getPosition(0, 5000));
+		assertEquals(499, changed.getPosition(500, 500));
+		assertEquals(-1, changed.getPosition(1, 1));
+
+		assertEquals(1000, original.size());
+		assertEquals(0, original.getPosition(1, 1));
+		assertEquals(-1, original.getPosition(0, 5000));
+		Object[] payloads = new Object[1];
+		original.getPayloads(499, 500, payloads);
+		assertEquals("original", payloads[0]);
+	}
+
+	public void testMatchesTreeMapUnderRandomOperations() {
+		Object edit = new Object();
+		PersistentSortedTree tree = new PersistentSortedTree(edit);
+		Map<Long, Integer> values = new TreeMap<Long, Integer>();
+		Map<Long, Object> expected = new TreeMap<Long, Object>();
+		PersistentSortedTree snapshot = null;
+		Map<Long, Object> expectedSnapshot = null;
+		Random random = new Random(42);
+		for (int i = 0; i < 100000; i++) {
+			long id = random.nextInt(5000);
+			Integer oldValue = values.remove(id);
+			if (oldValue != null) {
+				tree = tree.remove(oldValue, id, edit);
+				expected.remove(sortKey(oldValue, id));
+			}
+			if (random.nextInt(3) != 0) {
+				int value = random.nextInt(100);
+				Object payload = new Object();
+				tree = tree.put(value, id, payload, edit);
+				values.put(id, value);
+				expected.put(sortKey(value, id), payload);
+			}
+			if (i % 10000 == 0) {
+				// keep the tree as it is now, and make later changes with a new token
+				snapshot = tree;
+				expectedSnapshot = new TreeMap<Long, Object>(expected);
+				edit = new Object();
+			}
+		}
+		assertSameEntries(expected, tree);
+		assertSameEntries(expectedSnapshot, snapshot);
+	}
+
+	private long sortKey(int value, long id) {
+		return value * 10000L + id;
+	}
+
+	private void assertSameEntries(Map<Long, Object> expected, PersistentSortedTree tree) {
+		assertEquals(expected.size(), tree.size());
+		Object[] payloads = new Object[tree.size()];
+		tree.getPayloads(0, payloads.length, payloads);
+		int i = 0;
+		for (Map.Entry<Long, Object> entry : expected.entrySet()) {
+			assertSame(entry.getValue(), payloads[i]);
+			int value = (int) (entry.getKey() / 10000);
+			long id = entry.getKey() % 10000;
+			assertEquals(i, tree.getPosition(value, id));
+			i++;
+		}
+	}
+
+	private void assertPayloads(PersistentSortedTree tree, Object... expected) {
+		Object[] payloads = new Object[tree.size()];
+		tree.getPayloads(0, payloads.length, payloads);
+		assertEquals(expected.length, payloads.length);
+		for (int i = 0; i < expected.length; i++) {
+			assertEquals(expected[i], payloads[i]);
+		}
+	}
+
+}
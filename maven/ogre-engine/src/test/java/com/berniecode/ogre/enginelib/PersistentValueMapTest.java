@@ -0,0 +1,82 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import junit.framework.TestCase;
+
+public class PersistentValueMapTest extends TestCase {
+
+	public void testPutGetRemove() {
+		Object edit = new Object();
+		PersistentValueMap map = new PersistentValueMap(edit);
+
+		map.put("a string", "string", edit);
+		map.put(null, "null", edit);
+		map.put(new byte[] { 1, 2 }, "bytes", edit);
+		assertEquals(3, map.size());
+		assertEquals("string", map.get("a string"));
+		assertEquals("null", map.get(null));
+		assertEquals("bytes", map.get(new byte[] { 1, 2 }));
+		assertNull(map.get("another string"));
+
+		map.put("a string", "replaced", edit);
+		assertEquals(3, map.size());
+		assertEquals("replaced", map.get("a string"));
+
+		map.remove(null, edit);
+		map.remove("missing", edit);
+		assertEquals(2, map.size());
+		assertNull(map.get(null));
+
+		Object[] keys = new Object[2];
+		Object[] values = new Object[2];
+		assertEquals(2, map.getEntries(keys, values, 0));
+		Set<Object> valueSet = new HashSet<Object>(Arrays.asList(values));
+		assertEquals(new HashSet<Object>(Arrays.asList("replaced", "bytes")), valueSet);
+	}
+
+	public void testKeysWithTheSameHashCode() {
+		Object edit = new Object();
+		PersistentValueMap map = new PersistentValueMap(edit);
+		Long zero = 0L;
+		Long collision = 0x100000001L;
+		assertEquals(zero.hashCode(), collision.hashCode());
+
+		map.put(zero, "zero", edit);
+		map.put(collision, "collision", edit);
+		assertEquals(2, map.size());
+		assertEquals("zero", map.get(zero));
+		assertEquals("collision", map.get(collision));
+
+		// removing one entry from a chain leaves the other, and doesn't affect a copy
+		PersistentValueMap copy = map.remove(zero, new Object());
+		assertEquals(1, copy.size());
+		assertNull(copy.get(zero));
+		assertEquals("collision", copy.get(collision));
+		assertEquals(2, map.size());
+		assertEquals("zero", map.get(zero));
+	}
+
+}
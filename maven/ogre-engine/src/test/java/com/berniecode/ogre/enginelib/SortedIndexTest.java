@@ -0,0 +1,165 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import com.berniecode.ogre.OgreTestCase;
+import com.berniecode.ogre.enginelib.platformhooks.OgreException;
+
+public class SortedIndexTest extends OgreTestCase {
+
+	private Property scoreProperty;
+	private Property nameProperty;
+	private EntityType playerType;
+	private TypeDomain typeDomain;
+
+	@Override
+	public void doAdditionalSetup() throws Exception {
+		playerType = new EntityType("player", new Property[] {
+				scoreProperty = new Property("score", Property.TYPECODE_DOUBLE, true),
+				nameProperty = new Property("name", Property.TYPECODE_STRING, false),
+				new Property("avatar", Property.TYPECODE_BYTES, true) });
+		typeDomain = new TypeDomain(TYPE_DOMAIN_ID, new EntityType[] { playerType });
+	}
+
+	public void testRangeTopAndRankQueries() {
+		EntityStore store = new EntityStore(typeDomain);
+		Entity p1 = player(1, 5.0, "eve");
+		Entity p2 = player(2, 1.0, "bob");
+		Entity p3 = player(3, 5.0, "amy");
+		Entity p4 = player(4, null, "dan");
+		Entity p5 = player(5, 9.0, "cat");
+		store.putAll(new Entity[] { p1, p2, p3, p4, p5 });
+
+		SortedIndex index = new SortedIndex(scoreProperty);
+		store.addIndex(index);
+
+		// nulls sort first, and equal values are ordered by id
+		assertEntities(index.getByRank(0, 5), p4, p2, p1, p3, p5);
+		assertEntities(index.getRange(1.0, 5.0), p2, p1, p3);
+		assertEntities(index.getRange(2.0, null), p1, p3, p5);
+		assertEntities(index.getRange(null, 0.5), p4);
+		assertEntities(index.getRange(6.0, 2.0));
+		assertEquals(3, index.countRange(5.0, 9.0));
+		assertEntities(index.getLast(2), p5, p3);
+		assertEntities(index.getFirst(10), p4, p2, p1, p3, p5);
+		assertEquals(3, index.getRank(p3));
+
+		SortedIndex names = new SortedIndex(nameProperty);
+		store.addIndex(names);
+		assertEntities(names.getRange("b", "d"), p2, p5);
+
+		// updates move entities, and removed entities are unindexed
+		store.update(p5, new EntityValue(playerType, 5, new Object[] { 0.0, "cat", null }), new EntityStore(typeDomain));
+		store.removeSimilar(p1);
+		assertEntities(index.getByRank(0, 10), p4, p5, p2, p3);
+		assertEquals(-1, index.getRank(p1));
+		assertEquals(1, index.getRank(p5));
+
+		try {
+			index.getRange(Integer.valueOf(1), null);
+			fail("SortedIndex.getRange() should fail if a bound is of the wrong type");
+		} catch (OgreException e) {
+		}
+		try {
+			new SortedIndex(playerType.getPropertyByName("avatar"));
+			fail("SortedIndex should not accept byte array properties");
+		} catch (OgreException e) {
+		}
+	}
+
+	public void testSortedIndexIsCopiedOnFork() {
+		EntityStore original = new EntityStore(typeDomain);
+		Entity p1 = player(1, 1.0, "amy");
+		original.add(p1);
+		original.addIndex(new SortedIndex(scoreProperty));
+
+		EntityStore fork = original.fork();
+		Entity p2 = player(2, 2.0, "bob");
+		fork.add(p2);
+
+		assertEntities(((SortedIndex) original.getIndexes(playerType)[0]).getLast(10), p1);
+		assertEntities(((SortedIndex) fork.getIndexes(playerType)[0]).getLast(10), p2, p1);
+	}
+
+	public void testAgreesWithSortAfterRandomUpdates() {
+		EntityStore store = new EntityStore(typeDomain);
+		SortedIndex index = new SortedIndex(scoreProperty);
+		store.addIndex(index);
+		Random random = new Random(42);
+		for (int i = 0; i < 5000; i++) {
+			long id = 1 + random.nextInt(300);
+			Double score = random.nextInt(10) == 0 ? null : Double.valueOf(random.nextInt(50));
+			Entity existing = store.get(playerType, id);
+			if (existing == null) {
+				store.add(player(id, score, "p"));
+			} else if (random.nextInt(4) == 0) {
+				store.removeSimilar(existing);
+			} else {
+				store.update(existing, new EntityValue(playerType, id, new Object[] { score, "p", null }),
+						new EntityStore(typeDomain));
+			}
+		}
+
+		List<Entity> expected = new ArrayList<Entity>(Arrays.asList(store.getEntitiesByType(playerType)));
+		Collections.sort(expected, new Comparator<Entity>() {
+			public int compare(Entity a, Entity b) {
+				Double scoreA = (Double) a.getRawPropertyValue(scoreProperty);
+				Double scoreB = (Double) b.getRawPropertyValue(scoreProperty);
+				if (scoreA == null || scoreB == null) {
+					if (scoreA != scoreB) {
+						return scoreA == null ? -1 : 1;
+					}
+				} else if (!scoreA.equals(scoreB)) {
+					return scoreA.compareTo(scoreB);
+				}
+				return a.getEntityId() < b.getEntityId() ? -1 : 1;
+			}
+		});
+		assertEquals(expected, Arrays.asList(index.getByRank(0, index.size())));
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(i, index.getRank(expected.get(i)));
+		}
+		int inRange = 0;
+		for (Entity entity : expected) {
+			Double score = (Double) entity.getRawPropertyValue(scoreProperty);
+			if (score != null && score >= 10.0 && score <= 20.0) {
+				inRange++;
+			}
+		}
+		assertEquals(inRange, index.countRange(10.0, 20.0));
+	}
+
+	private Entity player(long id, Double score, String name) {
+		return new Entity(playerType, id, new Object[] { score, name, null });
+	}
+
+	private void assertEntities(Entity[] actual, Entity... expected) {
+		assertEquals(Arrays.asList(expected), Arrays.asList(actual));
+	}
+
+}
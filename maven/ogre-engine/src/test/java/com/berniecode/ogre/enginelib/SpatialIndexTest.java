@@ -0,0 +1,170 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+
+import com.berniecode.ogre.OgreTestCase;
+import com.berniecode.ogre.enginelib.platformhooks.OgreException;
+
+public class SpatialIndexTest extends OgreTestCase {
+
+	private Property xProperty;
+	private Property yProperty;
+	private EntityType pointType;
+	private TypeDomain typeDomain;
+
+	@Override
+	public void doAdditionalSetup() throws Exception {
+		pointType = new EntityType("point", new Property[] {
+				xProperty = new Property("x", Property.TYPECODE_INT32, true),
+				yProperty = new Property("y", Property.TYPECODE_DOUBLE, false),
+				new Property("label", Property.TYPECODE_STRING, true) });
+		typeDomain = new TypeDomain(TYPE_DOMAIN_ID, new EntityType[] { pointType });
+	}
+
+	public void testRectangleAndNearestQueries() {
+		EntityStore store = new EntityStore(typeDomain);
+		Entity p1 = point(1, 0, 0.0);
+		Entity p2 = point(2, 15, 5.0);
+		Entity p3 = point(3, -25, -25.0);
+		Entity p4 = point(4, null, 1.0);
+		store.putAll(new Entity[] { p1, p2, p3, p4 });
+
+		SpatialIndex index = new SpatialIndex(xProperty, yProperty, 10);
+		store.addIndex(index);
+
+		// entities with a null coordinate are not indexed
+		assertEquals(3, index.size());
+		assertSameEntities(index.getInRectangle(-1, -1, 15, 5), p1, p2);
+		assertSameEntities(index.getInRectangle(-100, -100, 100, 100), p1, p2, p3);
+		assertSameEntities(index.getInRectangle(1, 1, 14, 4));
+		assertEquals(Arrays.asList(p2, p1), Arrays.asList(index.getNearest(14, 4, 2)));
+		assertEquals(Arrays.asList(p3, p1, p2), Arrays.asList(index.getNearest(-1000, -1000, 10)));
+
+		// updates move entities between cells, and removed entities are unindexed
+		store.update(p3, new EntityValue(pointType, 3, new Object[] { 14, 6.0, null }), new EntityStore(typeDomain));
+		store.update(p4, new EntityValue(pointType, 4, new Object[] { 1, 1.0, null }), new EntityStore(typeDomain));
+		store.removeSimilar(p2);
+		assertSameEntities(index.getInRectangle(-1, -1, 15, 6), p1, p3, p4);
+		assertEquals(Arrays.asList(p3, p4), Arrays.asList(index.getNearest(15, 6, 2)));
+
+		try {
+			new SpatialIndex(xProperty, pointType.getPropertyByName("label"), 10);
+			fail("SpatialIndex should only accept numeric properties");
+		} catch (OgreException e) {
+		}
+	}
+
+	public void testSpatialIndexIsCopiedOnFork() {
+		EntityStore original = new EntityStore(typeDomain);
+		Entity p1 = point(1, 0, 0.0);
+		original.add(p1);
+		original.addIndex(new SpatialIndex(xProperty, yProperty, 10));
+
+		EntityStore fork = original.fork();
+		Entity p2 = point(2, 1, 1.0);
+		fork.add(p2);
+
+		assertSameEntities(((SpatialIndex) original.getIndexes(pointType)[0]).getInRectangle(0, 0, 5, 5), p1);
+		assertSameEntities(((SpatialIndex) fork.getIndexes(pointType)[0]).getInRectangle(0, 0, 5, 5), p1, p2);
+	}
+
+	public void testAgreesWithScanAfterRandomUpdates() {
+		EntityStore store = new EntityStore(typeDomain);
+		SpatialIndex index = new SpatialIndex(xProperty, yProperty, 7);
+		store.addIndex(index);
+		Random random = new Random(42);
+		for (int i = 0; i < 3000; i++) {
+			long id = 1 + random.nextInt(200);
+			Integer x = random.nextInt(20) == 0 ? null : Integer.valueOf(random.nextInt(200) - 100);
+			Double y = Double.valueOf(random.nextDouble() * 200 - 100);
+			Entity existing = store.get(pointType, id);
+			if (existing == null) {
+				store.add(point(id, x, y));
+			} else if (random.nextInt(4) == 0) {
+				store.removeSimilar(existing);
+			} else {
+				store.update(existing, new EntityValue(pointType, id, new Object[] { x, y, null }), new EntityStore(
+						typeDomain));
+			}
+		}
+
+		for (int i = 0; i < 50; i++) {
+			final double qx = random.nextDouble() * 300 - 150;
+			final double qy = random.nextDouble() * 300 - 150;
+			double size = random.nextDouble() * 60;
+
+			List<Entity> inRectangle = new ArrayList<Entity>();
+			List<Entity> positioned = new ArrayList<Entity>();
+			for (Entity entity : store.getEntitiesByType(pointType)) {
+				if (entity.getRawPropertyValue(xProperty) != null) {
+					positioned.add(entity);
+					if (x(entity) >= qx && x(entity) <= qx + size && y(entity) >= qy && y(entity) <= qy + size) {
+						inRectangle.add(entity);
+					}
+				}
+			}
+			assertSameEntities(index.getInRectangle(qx, qy, qx + size, qy + size), inRectangle
+					.toArray(new Entity[0]));
+
+			Collections.sort(positioned, new Comparator<Entity>() {
+				public int compare(Entity a, Entity b) {
+					int c = Double.compare(distance(a, qx, qy), distance(b, qx, qy));
+					return c != 0 ? c : (a.getEntityId() < b.getEntityId() ? -1 : 1);
+				}
+			});
+			int count = 1 + random.nextInt(10);
+			assertEquals(positioned.subList(0, Math.min(count, positioned.size())), Arrays.asList(index.getNearest(qx,
+					qy, count)));
+		}
+	}
+
+	private Entity point(long id, Integer x, Double y) {
+		return new Entity(pointType, id, new Object[] { x, y, null });
+	}
+
+	private double x(Entity entity) {
+		return ((Integer) entity.getRawPropertyValue(xProperty)).doubleValue();
+	}
+
+	private double y(Entity entity) {
+		return ((Double) entity.getRawPropertyValue(yProperty)).doubleValue();
+	}
+
+	private double distance(Entity entity, double qx, double qy) {
+		double dx = x(entity) - qx;
+		double dy = y(entity) - qy;
+		return dx * dx + dy * dy;
+	}
+
+	private void assertSameEntities(Entity[] actual, Entity... expected) {
+		assertEquals(new HashSet<Entity>(Arrays.asList(expected)), new HashSet<Entity>(Arrays.asList(actual)));
+		assertEquals(expected.length, actual.length);
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib.platformhooks;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import junit.framework.TestCase;
+
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.TypeDomain;
+
+public class ClientMetricsTest extends TestCase {
+
+	private TypeDomain typeDomain = new TypeDomain("TypeDomain", new EntityType[] { new EntityType("type",
+			new Property[0]) });
+
+	public void testLatencyHistogram() {
+		LatencyHistogram histogram = new LatencyHistogram();
+		assertEquals(0, histogram.getPercentileMicros(50));
+		assertEquals(0.0, histogram.getMeanMicros());
+
+		// 90 durations of 3us and 10 of 1000us
+		for (int i = 0; i < 90; i++) {
+			histogram.record(3000);
+		}
+		for (int i = 0; i < 10; i++) {
+			histogram.record(1000000);
+		}
+		assertEquals(100, histogram.getCount());
+		assertEquals(102.7, histogram.getMeanMicros(), 0.001);
+		assertEquals(1000.0, histogram.getMaxMicros());
+		// percentiles are reported as the upper bound of a power of two bucket
+		assertEquals(3, histogram.getPercentileMicros(50));
+		assertEquals(3, histogram.getPercentileMicros(90));
+		assertEquals(1023, histogram.getPercentileMicros(91));
+		assertEquals(1023, histogram.getPercentileMicros(100));
+
+		try {
+			histogram.getPercentileMicros(101);
+			fail("getPercentileMicros() should reject percentiles over 100");
+		} catch (OgreException e) {
+		}
+
+		histogram.reset();
+		assertEquals(0, histogram.getCount());
+		assertEquals(0, histogram.getPercentileMicros(99));
+	}
+
+	public void testDataVersionLag() {
+		ClientMetrics metrics = new ClientMetrics();
+		assertEquals(-1, metrics.getAppliedDataVersion());
+		assertEquals(-1, metrics.getReceivedDataVersion());
+		assertEquals(0, metrics.getDataVersionLag());
+
+		metrics.recordUpdateReceived(update(1, 5));
+		metrics.recordUpdateReceived(update(1, 3));
+		assertEquals(5, metrics.getReceivedDataVersion());
+		metrics.recordUpdateApplied(update(1, 2), ClientMetrics.now(), 0, 0, 0);
+		assertEquals(3, metrics.getDataVersionLag());
+
+		// versions from different schemes can't be compared
+		metrics.recordUpdateReceived(update(2, 1));
+		assertEquals(1, metrics.getReceivedDataVersion());
+		assertEquals(0, metrics.getDataVersionLag());
+		metrics.recordUpdateApplied(update(2, 1), ClientMetrics.now(), 0, 0, 0);
+		metrics.recordUpdateReceived(update(2, 4));
+		assertEquals(3, metrics.getDataVersionLag());
+	}
+
+	public void testReport() {
+		ClientMetrics metrics = new ClientMetrics();
+		metrics.recordMessageReceived(100);
+		metrics.recordMessageReceived(50);
+		metrics.recordUpdateApplied(update(1, 1), ClientMetrics.now(), 3, 2, 1);
+		metrics.recordVersionGap(4);
+
+		final Map<String, Double> reported = new LinkedHashMap<String, Double>();
+		metrics.report(new MetricsSink() {
+			public void acceptMetric(String name, double value) {
+				reported.put(name, value);
+			}
+		});
+		assertEquals(1.0, reported.get("updates.applied"));
+		assertEquals(1.0, reported.get("updates.applyMicros.count"));
+		assertEquals(3.0, reported.get("entities.created"));
+		assertEquals(2.0, reported.get("entities.updated"));
+		assertEquals(1.0, reported.get("entities.deleted"));
+		assertEquals(2.0, reported.get("messages.received"));
+		assertEquals(150.0, reported.get("messages.bytesReceived"));
+		assertEquals(1.0, reported.get("versions.gaps"));
+		assertEquals(4.0, reported.get("versions.missing"));
+		assertEquals(1.0, reported.get("versions.applied"));
+		assertTrue(reported.containsKey("messages.decodeMicros.p99"));
+		assertTrue(reported.containsKey("versions.lag"));
+	}
+
+	private GraphUpdate update(int scheme, int version) {
+		return new GraphUpdate(typeDomain, "graph", version, scheme, null, null, null);
+	}
+
+}
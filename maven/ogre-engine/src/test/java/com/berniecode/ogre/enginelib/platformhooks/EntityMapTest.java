@@ -0,0 +1,111 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib.platformhooks;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import com.berniecode.ogre.OgreTestCase;
+import com.berniecode.ogre.enginelib.Entity;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.TypeDomain;
+
+public class EntityMapTest extends OgreTestCase {
+
+	private EntityType entityType;
+
+	@Override
+	protected void doAdditionalSetup() throws Exception {
+		entityType = new EntityType("entityType", new Property[0]);
+		new TypeDomain(TYPE_DOMAIN_ID, new EntityType[] { entityType });
+	}
+
+	public void testPutGetRemove() {
+		EntityMap map = new EntityMap();
+		Entity one = new Entity(entityType, 1, null);
+		Entity two = new Entity(entityType, 2, null);
+
+		assertFalse(map.contains(1));
+		assertNull(map.get(1));
+
+		map.put(one);
+		map.put(two);
+		assertEquals(2, map.size());
+		assertTrue(map.contains(1));
+		assertSame(one, map.get(1));
+		assertSame(two, map.get(2));
+
+		Entity replacement = new Entity(entityType, 1, null);
+		map.put(replacement);
+		assertEquals(2, map.size());
+		assertSame(replacement, map.get(1));
+
+		map.remove(1);
+		map.remove(1); // removing a missing entity has no effect
+		assertEquals(1, map.size());
+		assertFalse(map.contains(1));
+		assertSame(two, map.get(2));
+		assertEquals(1, map.getEntities().length);
+	}
+
+	public void testMatchesHashMapUnderRandomOperations() {
+		EntityMap map = new EntityMap();
+		Map<Long, Entity> expected = new HashMap<Long, Entity>();
+		Random random = new Random(42);
+		for (int i = 0; i < 200000; i++) {
+			// a small ID range forces lots of collisions, replacements and deletes
+			long id = 1 + random.nextInt(5000);
+			if (random.nextInt(3) == 0) {
+				map.remove(id);
+				expected.remove(id);
+			} else {
+				Entity entity = new Entity(entityType, id, null);
+				map.put(entity);
+				expected.put(id, entity);
+			}
+		}
+		assertEquals(expected.size(), map.size());
+		for (long id = 1; id <= 5000; id++) {
+			assertSame(expected.get(id), map.get(id));
+			assertEquals(expected.containsKey(id), map.contains(id));
+		}
+		Entity[] entities = map.getEntities();
+		assertEquals(expected.size(), entities.length);
+		for (Entity entity : entities) {
+			assertSame(expected.get(entity.getEntityId()), entity);
+		}
+	}
+
+	public void testWideIdRange() {
+		EntityMap map = new EntityMap();
+		for (long id = 1; id < Entity.MAX_ID; id += Entity.MAX_ID / 1000) {
+			map.put(new Entity(entityType, id, null));
+		}
+		for (long id = 1; id < Entity.MAX_ID; id += Entity.MAX_ID / 1000) {
+			assertEquals(id, map.get(id).getEntityId());
+			map.remove(id);
+		}
+		assertEquals(0, map.size());
+	}
+
+}
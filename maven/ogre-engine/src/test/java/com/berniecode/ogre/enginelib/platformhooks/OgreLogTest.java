@@ -20,8 +20,14 @@
 
 package com.berniecode.ogre.enginelib.platformhooks;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
 import junit.framework.TestCase;
 
+import com.berniecode.ogre.enginelib.LogMessage;
 import com.berniecode.ogre.enginelib.LogWriter;
 import com.berniecode.ogre.enginelib.OgreLog;
 
@@ -108,6 +114,100 @@ public class OgreLogTest extends TestCase {
 		assertEquals("d", lastLogMessage);
 	}
 
+	public void testParameterisedAndLazyMessages() {
+		OgreLog.setLogWriter(new LogWriter() {
+			@Override
+			public void acceptMessage(int level, String levelDescription, String message) {
+				lastLogLevel = level;
+				lastLogLevelDesc = levelDescription;
+				lastLogMessage = message;
+			}
+		});
+
+		reset();
+		OgreLog.setLevel(OgreLog.LEVEL_INFO);
+		OgreLog.info("applying {} to {}", "update", Integer.valueOf(2));
+		assertEquals("applying update to 2", lastLogMessage);
+		OgreLog.warn("{} then {} then {}", null, "b");
+		assertEquals("null then b then {}", lastLogMessage);
+		OgreLog.error("{} only", "one");
+		assertEquals("one only", lastLogMessage);
+		OgreLog.info("no placeholder", "ignored");
+		assertEquals("no placeholder", lastLogMessage);
+
+		final int[] built = new int[1];
+		LogMessage message = new LogMessage() {
+			public String buildMessage() {
+				built[0]++;
+				return "built";
+			}
+		};
+		reset();
+		OgreLog.debug(message);
+		OgreLog.debug("not {}", "logged");
+		assertEquals(0, built[0]);
+		assertNoLog();
+		OgreLog.info(message);
+		assertEquals(1, built[0]);
+		assertEquals("built", lastLogMessage);
+	}
+
+	public void testAsyncLogWriter() throws Exception {
+		final List<String> written = Collections.synchronizedList(new ArrayList<String>());
+		final Object gate = new Object();
+		final boolean[] open = new boolean[] { true };
+		AsyncLogWriter writer = new AsyncLogWriter(new LogWriter() {
+			@Override
+			public void acceptMessage(int level, String levelDescription, String message) {
+				synchronized (gate) {
+					while (!open[0]) {
+						try {
+							gate.wait();
+						} catch (InterruptedException e) {
+							return;
+						}
+					}
+				}
+				written.add(levelDescription + " " + message);
+			}
+		}, 4);
+
+		// messages are written in order
+		for (int i = 0; i < 3; i++) {
+			writer.acceptMessage(OgreLog.LEVEL_INFO, "INFO", "message " + i);
+		}
+		writer.flush();
+		assertEquals(Arrays.asList("INFO message 0", "INFO message 1", "INFO message 2"), written);
+
+		// while the delegate is blocked, messages beyond the buffer's capacity are discarded
+		written.clear();
+		synchronized (gate) {
+			open[0] = false;
+		}
+		writer.acceptMessage(OgreLog.LEVEL_INFO, "INFO", "blocked");
+		while (writer.getQueuedMessageCount() > 0) {
+			Thread.sleep(1);
+		}
+		for (int i = 0; i < 6; i++) {
+			writer.acceptMessage(OgreLog.LEVEL_INFO, "INFO", "queued " + i);
+		}
+		assertEquals(4, writer.getQueuedMessageCount());
+		synchronized (gate) {
+			open[0] = true;
+			gate.notifyAll();
+		}
+		writer.flush();
+		writer.flush();
+		assertEquals(Arrays.asList("INFO blocked", "INFO queued 0", "INFO queued 1", "INFO queued 2",
+				"INFO queued 3", "WARN AsyncLogWriter: discarded 2 log messages because the buffer was full"), written);
+
+		// closing writes any queued messages, and later messages are discarded
+		writer.acceptMessage(OgreLog.LEVEL_ERROR, "ERROR", "last");
+		writer.close();
+		writer.acceptMessage(OgreLog.LEVEL_ERROR, "ERROR", "after close");
+		assertEquals("ERROR last", written.get(written.size() - 1));
+	}
+
 	private void reset() {
 		lastLogLevel = -1;
 		lastLogLevelDesc = null;
@@ -22,6 +22,12 @@ package com.berniecode.ogre.enginelib.platformhooks;
 
 import junit.framework.TestCase;
 
+import com.berniecode.ogre.enginelib.Entity;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.ReferenceProperty;
+import com.berniecode.ogre.enginelib.TypeDomain;
+
 /**
  * Cross-language operations for working with values
  * 
@@ -40,4 +46,62 @@ public class ValueUtilsTest extends TestCase {
 		assertTrue(ValueUtils.valuesAreEquivalent(new byte[] { 1, 3, 5 }, new byte[] { 1, 3, 5 }));
 	}
 
+	public void testHashValue() {
+
+		assertEquals(ValueUtils.hashValue(42L), ValueUtils.hashValue(42L));
+		assertEquals(ValueUtils.hashValue("forty two"), ValueUtils.hashValue("forty two"));
+		assertEquals(0, ValueUtils.hashValue(null));
+
+		// equivalent byte arrays have the same hash code even though they are different objects
+		assertEquals(ValueUtils.hashValue(new byte[] { 1, 3, 5 }), ValueUtils.hashValue(new byte[] { 1, 3, 5 }));
+	}
+
+	public void testCompareValues() {
+
+		assertTrue(ValueUtils.compareValues(1L, 2L) < 0);
+		assertTrue(ValueUtils.compareValues("b", "a") > 0);
+		assertEquals(0, ValueUtils.compareValues(1.5, 1.5));
+
+		// null sorts before all other values
+		assertEquals(0, ValueUtils.compareValues(null, null));
+		assertTrue(ValueUtils.compareValues(null, Long.MIN_VALUE) < 0);
+		assertTrue(ValueUtils.compareValues("", null) > 0);
+	}
+
+	public void testValidatePropertyValue() {
+		Property int32 = new Property("int32", Property.TYPECODE_INT32, false);
+		Property bytes = new Property("bytes", Property.TYPECODE_BYTES, true);
+		ReferenceProperty ref = new ReferenceProperty("ref", "child");
+		EntityType child = new EntityType("child", new Property[] {});
+		EntityType parent = new EntityType("parent", new Property[] { int32, bytes, ref });
+		new TypeDomain("TypeDomain", new EntityType[] { parent, child });
+
+		ValueUtils.validatePropertyValue(int32, 1);
+		ValueUtils.validatePropertyValue(bytes, new byte[0]);
+		ValueUtils.validatePropertyValue(bytes, null);
+		ValueUtils.validatePropertyValue(ref, new Entity(child, 1, null));
+		ValueUtils.validateRawPropertyValue(ref, 1L);
+		ValueUtils.validateRawPropertyValue(int32, 1);
+
+		assertInvalid(int32, null, false);
+		assertInvalid(int32, 1L, false);
+		assertInvalid(bytes, "bytes", false);
+		assertInvalid(ref, 1L, false);
+		assertInvalid(ref, new Entity(parent, 1, null), false);
+		assertInvalid(ref, new Entity(child, 1, null), true);
+		assertInvalid(int32, 1L, true);
+	}
+
+	private void assertInvalid(Property property, Object value, boolean raw) {
+		try {
+			if (raw) {
+				ValueUtils.validateRawPropertyValue(property, value);
+			} else {
+				ValueUtils.validatePropertyValue(property, value);
+			}
+			fail(value + " should not be a valid value for " + property);
+		} catch (InvalidGraphUpdateException e) {
+		}
+	}
+
 }
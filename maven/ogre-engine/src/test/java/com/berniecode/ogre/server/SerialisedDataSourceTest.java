@@ -0,0 +1,66 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.server;
+
+import com.berniecode.ogre.EntityClassWithAllFieldsTestCase;
+
+public class SerialisedDataSourceTest extends EntityClassWithAllFieldsTestCase {
+
+	private SerialisedDataSource serialisedDataSource;
+	private int scheme;
+
+	@Override
+	protected void doAdditionalSetup() throws Exception {
+		super.doAdditionalSetup();
+		serialisedDataSource = new SerialisedDataSource();
+		serialisedDataSource.setDataSource(dataSource);
+		serialisedDataSource.setHistorySize(3);
+		serialisedDataSource.initialise();
+		scheme = dataSource.createSnapshot().getDataVersionScheme();
+		for (int i = 0; i < 5; i++) {
+			initialEntityObject.setNonNullableInt(100 + i);
+			dataSource.setEntityObjects(initialEntityObject);
+		}
+	}
+
+	public void testRetainedUpdatesReturned() {
+		int latest = dataSource.createSnapshot().getDataVersion();
+		byte[][] updates = serialisedDataSource.getSerialisedGraphUpdates(scheme, latest - 2, latest);
+		assertNotNull(updates);
+		assertEquals(3, updates.length);
+		assertEquals(3, serialisedDataSource.getSerialisedGraphUpdatesFrom(scheme, latest - 2).length);
+	}
+
+	public void testEvictedUpdatesNotReturned() {
+		int latest = dataSource.createSnapshot().getDataVersion();
+		assertNull(serialisedDataSource.getSerialisedGraphUpdates(scheme, latest - 3, latest));
+		assertNull(serialisedDataSource.getSerialisedGraphUpdates(scheme + 1, latest, latest));
+	}
+
+	public void testOutOfRangeRequestsRejectedWithoutAllocating() {
+		// these ranges come straight from the network, and must not be used to size an array
+		assertNull(serialisedDataSource.getSerialisedGraphUpdates(scheme, 0, Integer.MAX_VALUE));
+		assertNull(serialisedDataSource.getSerialisedGraphUpdates(scheme, Integer.MIN_VALUE, Integer.MAX_VALUE));
+		assertNull(serialisedDataSource.getSerialisedGraphUpdates(scheme, -1, Integer.MAX_VALUE));
+		assertNull(serialisedDataSource.getSerialisedGraphUpdates(scheme, Integer.MAX_VALUE, Integer.MIN_VALUE));
+	}
+
+}
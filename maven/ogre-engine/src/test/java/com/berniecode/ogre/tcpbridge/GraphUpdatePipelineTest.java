@@ -0,0 +1,145 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.tcpbridge;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import com.berniecode.ogre.OgreTestCase;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.EntityValue;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.GraphUpdateListener;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.RawPropertyValueSet;
+import com.berniecode.ogre.enginelib.TypeDomain;
+import com.berniecode.ogre.wireformat.OgreWireFormatDeserialiser;
+import com.berniecode.ogre.wireformat.OgreWireFormatSerialiser;
+
+public class GraphUpdatePipelineTest extends OgreTestCase {
+
+	private TypeDomain typeDomain;
+	private EntityType entityType;
+
+	@Override
+	public void doAdditionalSetup() throws Exception {
+		entityType = new EntityType("entityType", new Property[] { new Property("value", Property.TYPECODE_INT32,
+				false) });
+		typeDomain = new TypeDomain(TYPE_DOMAIN_ID, new EntityType[] { entityType });
+	}
+
+	public void testUpdatesAreAppliedInOrder() throws Exception {
+
+		final List<Integer> versions = Collections.synchronizedList(new ArrayList<Integer>());
+		GraphUpdatePipeline pipeline = new GraphUpdatePipeline(typeDomain, new OgreWireFormatDeserialiser(),
+				new GraphUpdateListener() {
+					public void acceptGraphUpdate(GraphUpdate update) {
+						versions.add(update.getDataVersion());
+					}
+				}, 2);
+		pipeline.start();
+
+		OgreWireFormatSerialiser serialiser = new OgreWireFormatSerialiser();
+		List<Integer> expected = new ArrayList<Integer>();
+		for (int i = 1; i <= 20; i++) {
+			pipeline.put(serialiser.serialiseGraphUpdate(createUpdate(i)));
+			expected.add(i);
+		}
+		pipeline.finish();
+		pipeline.join();
+
+		assertEquals(expected, versions);
+		assertEquals(20, pipeline.getAppliedUpdateCount());
+		assertEquals(0, pipeline.getMessageQueueDepth());
+		assertEquals(0, pipeline.getUpdateQueueDepth());
+	}
+
+	public void testSlowListenerBacksUpQueues() throws Exception {
+
+		final Object lock = new Object();
+		final boolean[] released = new boolean[1];
+		GraphUpdatePipeline pipeline = new GraphUpdatePipeline(typeDomain, new OgreWireFormatDeserialiser(),
+				new GraphUpdateListener() {
+					public void acceptGraphUpdate(GraphUpdate update) {
+						synchronized (lock) {
+							while (!released[0]) {
+								try {
+									lock.wait();
+								} catch (InterruptedException e) {
+									return;
+								}
+							}
+						}
+					}
+				}, 3);
+		pipeline.start();
+
+		// one update held by the blocked listener, three decoded and waiting, one decoded and waiting
+		// for room in the update queue, and three undecoded
+		OgreWireFormatSerialiser serialiser = new OgreWireFormatSerialiser();
+		for (int i = 1; i <= 8; i++) {
+			pipeline.put(serialiser.serialiseGraphUpdate(createUpdate(i)));
+		}
+		for (int i = 0; i < 100 && pipeline.getUpdateQueueDepth() < 3; i++) {
+			Thread.sleep(10);
+		}
+		assertEquals(3, pipeline.getUpdateQueueDepth());
+		assertEquals(3, pipeline.getMessageQueueDepth());
+		assertEquals(3, pipeline.getMaxUpdateQueueDepth());
+
+		synchronized (lock) {
+			released[0] = true;
+			lock.notifyAll();
+		}
+		pipeline.finish();
+		pipeline.join();
+		assertEquals(8, pipeline.getAppliedUpdateCount());
+	}
+
+	public void testInvalidMessagesAreSkipped() throws Exception {
+
+		final List<Integer> versions = Collections.synchronizedList(new ArrayList<Integer>());
+		GraphUpdatePipeline pipeline = new GraphUpdatePipeline(typeDomain, new OgreWireFormatDeserialiser(),
+				new GraphUpdateListener() {
+					public void acceptGraphUpdate(GraphUpdate update) {
+						versions.add(update.getDataVersion());
+					}
+				}, 4);
+		pipeline.start();
+
+		OgreWireFormatSerialiser serialiser = new OgreWireFormatSerialiser();
+		pipeline.put(serialiser.serialiseGraphUpdate(createUpdate(1)));
+		pipeline.put(new byte[] { 1, 2, 3 });
+		pipeline.put(serialiser.serialiseGraphUpdate(createUpdate(2)));
+		pipeline.finish();
+		pipeline.join();
+
+		assertEquals(2, versions.size());
+		assertEquals(Integer.valueOf(2), versions.get(1));
+	}
+
+	private GraphUpdate createUpdate(int version) {
+		return new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, version, 1, new RawPropertyValueSet[] { new EntityValue(
+				entityType, version, new Object[] { version }) }, null, null);
+	}
+
+}
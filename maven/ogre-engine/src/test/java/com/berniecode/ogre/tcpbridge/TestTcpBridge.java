@@ -88,6 +88,29 @@ public class TestTcpBridge extends EntityClassWithAllFieldsTestCase {
 				listener.update, typeDomain);
 	}
 
+	public void testLoadGraphUpdates() throws Exception {
+		SimpleTcpTransportClient bridgeClient = new SimpleTcpTransportClient("localhost", 12345, null);
+
+		GraphUpdate objectGraph = bridgeClient.loadObjectGraph(typeDomain, OBJECT_GRAPH_ID);
+		int version = objectGraph.getDataVersion();
+		int scheme = objectGraph.getDataVersionScheme();
+
+		initialEntityObject.setString("first");
+		dataSource.setEntityObjects(initialEntityObject);
+		initialEntityObject.setString("second");
+		dataSource.setEntityObjects(initialEntityObject);
+
+		GraphUpdate[] updates = bridgeClient.loadGraphUpdates(typeDomain, OBJECT_GRAPH_ID, scheme, version + 1,
+				version + 2);
+		assertEquals(2, updates.length);
+		assertEquals(version + 1, updates[0].getDataVersion());
+		assertEquals(version + 2, updates[1].getDataVersion());
+
+		// updates that haven't happened yet, or from another scheme, aren't available
+		assertNull(bridgeClient.loadGraphUpdates(typeDomain, OBJECT_GRAPH_ID, scheme, version + 2, version + 3));
+		assertNull(bridgeClient.loadGraphUpdates(typeDomain, OBJECT_GRAPH_ID, scheme + 1, version + 1, version + 2));
+	}
+
 }
 
 class MockGraphUpdateListener implements GraphUpdateListener {
@@ -23,9 +23,23 @@ package com.berniecode.ogre.wireformat;
 import com.berniecode.ogre.EntityClassWithAllFieldsImpl;
 import com.berniecode.ogre.EntityClassWithAllFieldsTestCase;
 import com.berniecode.ogre.EntityElementImpl;
+import com.berniecode.ogre.enginelib.ClientEngine;
+import com.berniecode.ogre.enginelib.ClientTransportAdapter;
 import com.berniecode.ogre.enginelib.EDRDescriber;
+import com.berniecode.ogre.enginelib.Entity;
+import com.berniecode.ogre.enginelib.EntityReference;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.EntityValue;
 import com.berniecode.ogre.enginelib.GraphUpdate;
+import com.berniecode.ogre.enginelib.GraphUpdateListener;
+import com.berniecode.ogre.enginelib.PartialRawPropertyValueSet;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.RawPropertyValueSet;
 import com.berniecode.ogre.enginelib.TypeDomain;
+import com.berniecode.ogre.enginelib.platformhooks.OgreException;
+import com.berniecode.ogre.wireformat.V1GraphUpdate.EntityValueMessage;
+import com.berniecode.ogre.wireformat.V1GraphUpdate.EntityValueMessage.PropertyValueMessage;
+import com.berniecode.ogre.wireformat.V1GraphUpdate.GraphUpdateMessage;
 
 public class OgreWireFormatV1SerialiserTest extends EntityClassWithAllFieldsTestCase {
 
@@ -68,4 +82,116 @@ public class OgreWireFormatV1SerialiserTest extends EntityClassWithAllFieldsTest
 				EDRDescriber.describeGraphUpdate(deserialisedGU));
 	}
 
+	public void testLazyGraphUpdateDeserialisation() throws Exception {
+
+		GraphUpdate snapshot = dataSource.createSnapshot();
+		byte[] serialised = new OgreWireFormatSerialiser().serialiseGraphUpdate(snapshot);
+
+		OgreWireFormatDeserialiser deserialiser = new OgreWireFormatDeserialiser();
+		deserialiser.setLazyDecoding(true);
+		GraphUpdate lazySnapshot = deserialiser.deserialiseGraphUpdate(serialised, typeDomain);
+		assertEqualsIgnoreWhitespace(EDRDescriber.describeGraphUpdate(snapshot),
+				EDRDescriber.describeGraphUpdate(lazySnapshot));
+
+		// entities created from lazily decoded values have the same values as the originals. Both
+		// are compared through a client engine, which lists entities in type domain order.
+		ClientEngine ce = createClientEngine(lazySnapshot);
+		assertEqualsIgnoreWhitespace(EDRDescriber.describeObjectGraph(createClientEngine(snapshot).createSnapshot()),
+				EDRDescriber.describeObjectGraph(ce.createSnapshot()));
+	}
+
+	public void testLazyDecodingRejectsInvalidValues() throws Exception {
+
+		EntityType entityType = null;
+		for (int i = 0; i < typeDomain.getEntityTypeCount(); i++) {
+			if (typeDomain.getEntityType(i).getPropertyByName("non_nullable_int") != null) {
+				entityType = typeDomain.getEntityType(i);
+			}
+		}
+		Property nonNullable = entityType.getPropertyByName("non_nullable_int");
+		Property string = entityType.getPropertyByName("string");
+
+		// replace the entity's value in a snapshot with one that has a null non-nullable value
+		RawPropertyValueSet[] creates = dataSource.createSnapshot().getEntityCreates();
+		for (int i = 0; i < creates.length; i++) {
+			if (creates[i].getEntityType() == entityType) {
+				Object[] values = new Object[entityType.getPropertyCount()];
+				for (int j = 0; j < values.length; j++) {
+					Property property = entityType.getProperty(j);
+					values[j] = property == nonNullable ? null : creates[i].getRawPropertyValue(property);
+				}
+				creates[i] = new EntityValue(entityType, creates[i].getEntityId(), values);
+			}
+		}
+		GraphUpdate invalid = new GraphUpdate(typeDomain, OBJECT_GRAPH_ID, 1, 1, creates,
+				new PartialRawPropertyValueSet[0], new EntityReference[0]);
+		byte[] serialised = new OgreWireFormatSerialiser().serialiseGraphUpdate(invalid);
+
+		try {
+			new OgreWireFormatDeserialiser().deserialiseGraphUpdate(serialised, typeDomain);
+			fail("Eager deserialisation should reject a null value for a non-nullable property");
+		} catch (OgreException e) {
+		}
+
+		// lazy deserialisation checks each value without decoding it, so rejects the same update
+		OgreWireFormatDeserialiser deserialiser = new OgreWireFormatDeserialiser();
+		deserialiser.setLazyDecoding(true);
+		try {
+			deserialiser.deserialiseGraphUpdate(serialised, typeDomain);
+			fail("Lazy deserialisation should reject a null value for a non-nullable property");
+		} catch (OgreException e) {
+		}
+
+		// and a value of the wrong type, in both modes
+		GraphUpdateMessage gum = GraphUpdateMessage.parseFrom(new OgreWireFormatSerialiser()
+				.serialiseGraphUpdate(dataSource.createSnapshot()));
+		GraphUpdateMessage.Builder builder = gum.toBuilder();
+		for (int i = 0; i < gum.getEntityCreatesCount(); i++) {
+			EntityValueMessage evm = gum.getEntityCreates(i);
+			if (evm.getEntityTypeIndex() == entityType.getEntityTypeIndex()) {
+				builder.setEntityCreates(i, evm.toBuilder().setPropertyValues(nonNullable.getPropertyIndex(),
+						PropertyValueMessage.newBuilder().setStringValue("not an int").build()).build());
+			}
+		}
+		byte[] wrongType = builder.build().toByteArray();
+		try {
+			new OgreWireFormatDeserialiser().deserialiseGraphUpdate(wrongType, typeDomain);
+			fail("Eager deserialisation should reject a value of the wrong type");
+		} catch (OgreException e) {
+		}
+		try {
+			deserialiser.deserialiseGraphUpdate(wrongType, typeDomain);
+			fail("Lazy deserialisation should reject a value of the wrong type");
+		} catch (OgreException e) {
+		}
+
+		// while valid values are still decoded when they are read
+		ClientEngine ce = createClientEngine(deserialiser.deserialiseGraphUpdate(new OgreWireFormatSerialiser()
+				.serialiseGraphUpdate(dataSource.createSnapshot()), typeDomain));
+		Entity entity = ce.getEntitiesByType(entityType)[0];
+		assertEquals("Shizzle", entity.getPropertyValue(string));
+		assertEquals(5, entity.getPropertyValue(nonNullable));
+	}
+
+	private ClientEngine createClientEngine(final GraphUpdate snapshot) throws Exception {
+		ClientEngine ce = new ClientEngine();
+		ce.setTypeDomainId(TYPE_DOMAIN_ID);
+		ce.setObjectGraphId(OBJECT_GRAPH_ID);
+		ce.setTransportAdapter(new ClientTransportAdapter() {
+			public TypeDomain loadTypeDomain(String typeDomainId) {
+				return typeDomain;
+			}
+
+			public GraphUpdate loadObjectGraph(TypeDomain typeDomain, String objectGraphId) {
+				return snapshot;
+			}
+
+			public void subscribeToGraphUpdates(TypeDomain typeDomain, String objectGraphId,
+					GraphUpdateListener listener) {
+			}
+		});
+		ce.initialise();
+		return ce;
+	}
+
 }
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import com.berniecode.ogre.enginelib.platformhooks.ValueUtils;
+
+/**
+ * The count, sum, minimum and maximum of a property over a set of entities, as calculated by an
+ * {@link AggregateView}. Aggregates are immutable, and do not change as graph updates are applied.
+ * 
+ * @author Bernie Sumption
+ */
+public class Aggregate {
+
+	private final Object group;
+	private final int count;
+	private final int valueCount;
+	private final double sum;
+	private final Object min;
+	private final Object max;
+
+	public Aggregate(Object group, int count, int valueCount, double sum, Object min, Object max) {
+		this.group = group;
+		this.count = count;
+		this.valueCount = valueCount;
+		this.sum = sum;
+		this.min = min;
+		this.max = max;
+	}
+
+	/**
+	 * @return the raw value of the group-by property shared by the entities in this aggregate, or
+	 *         null if this is an aggregate of all entities
+	 */
+	public Object getGroup() {
+		return group;
+	}
+
+	/**
+	 * @return the number of entities
+	 */
+	public int getCount() {
+		return count;
+	}
+
+	/**
+	 * @return the number of entities with a non-null value for the aggregated property
+	 */
+	public int getValueCount() {
+		return valueCount;
+	}
+
+	/**
+	 * @return the sum of the non-null values of the aggregated property
+	 */
+	public double getSum() {
+		return sum;
+	}
+
+	/**
+	 * @return the smallest value of the aggregated property, or null if there are no values
+	 */
+	public Object getMin() {
+		return min;
+	}
+
+	/**
+	 * @return the largest value of the aggregated property, or null if there are no values
+	 */
+	public Object getMax() {
+		return max;
+	}
+
+	public String toString() {
+		return "aggregate of " + count + " entities" + (group == null ? "" : " in group " + ValueUtils.valueToString(group))
+				+ ": sum=" + sum + ", min=" + ValueUtils.valueToString(min) + ", max=" + ValueUtils.valueToString(max);
+	}
+
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+/**
+ * Running totals of the values in one group of an {@link AggregateTable}, or in the whole table
+ * 
+ * <p>
+ * Like the persistent structures that it is stored in, a group may be modified in place only by
+ * the structure that owns its token, and is otherwise copied with {@link #editable(Object)} first.
+ * 
+ * @author Bernie Sumption
+ */
+class AggregateGroup {
+
+	// the owner token of the structure that may modify this group in place
+	private final Object edit;
+
+	int count;
+	int valueCount;
+	long longSum;
+	double doubleSum;
+
+	// the distinct non-null values in this group, each with an Integer count of the entities that
+	// have it. Entries all have an ID of 0, so that they are distinguished by value alone.
+	PersistentSortedTree values;
+
+	AggregateGroup(Object edit) {
+		this.edit = edit;
+		values = new PersistentSortedTree(edit);
+	}
+
+	/**
+	 * @return this group if it is owned by {@code edit}, otherwise a copy that is
+	 */
+	AggregateGroup editable(Object edit) {
+		if (this.edit == edit) {
+			return this;
+		}
+		AggregateGroup copy = new AggregateGroup(edit);
+		copy.count = count;
+		copy.valueCount = valueCount;
+		copy.longSum = longSum;
+		copy.doubleSum = doubleSum;
+		copy.values = values;
+		return copy;
+	}
+
+	/**
+	 * Add the value of an entity, which may be null
+	 * 
+	 * @param integral true if values should be summed exactly as longs
+	 */
+	void add(Object value, boolean integral) {
+		count++;
+		if (value == null) {
+			return;
+		}
+		valueCount++;
+		if (integral) {
+			longSum += ((Number) value).longValue();
+		} else {
+			doubleSum += ((Number) value).doubleValue();
+		}
+		Integer n = (Integer) values.get(value, 0);
+		values = values.put(value, 0, Integer.valueOf(n == null ? 1 : n.intValue() + 1), edit);
+	}
+
+	/**
+	 * Remove the value of an entity, which must previously have been added
+	 * 
+	 * @param integral true if values should be summed exactly as longs
+	 */
+	void subtract(Object value, boolean integral) {
+		count--;
+		if (value == null) {
+			return;
+		}
+		valueCount--;
+		if (integral) {
+			longSum -= ((Number) value).longValue();
+		} else if (valueCount == 0) {
+			// start again from zero rather than leave a rounding error behind
+			doubleSum = 0;
+		} else {
+			doubleSum -= ((Number) value).doubleValue();
+		}
+		int n = ((Integer) values.get(value, 0)).intValue();
+		if (n == 1) {
+			values = values.remove(value, 0, edit);
+		} else {
+			values = values.put(value, 0, Integer.valueOf(n - 1), edit);
+		}
+	}
+
+}
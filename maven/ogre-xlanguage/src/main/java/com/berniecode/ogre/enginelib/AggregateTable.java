@@ -0,0 +1,187 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import com.berniecode.ogre.enginelib.platformhooks.ValueUtils;
+
+/**
+ * Running totals of a numeric value over a set of entities, split into groups, used to implement
+ * aggregate views
+ * 
+ * <p>
+ * The table remembers the group and value that each entity was added with, so that when an
+ * entity changes its old contribution can be subtracted before the new one is added. Each change
+ * costs O(log n) time, to keep the sorted values that provide the minimum and maximum. The table
+ * is built from persistent structures, so it can be copied in constant time.
+ * 
+ * @author Bernie Sumption
+ */
+class AggregateTable {
+
+	private final boolean integral;
+
+	// the owner token of the structures that this table may modify in place
+	private Object edit = new Object();
+
+	private AggregateGroup total = new AggregateGroup(edit);
+
+	// the AggregateGroup for each group that contains at least one entity
+	private PersistentValueMap groups = new PersistentValueMap(edit);
+
+	// the AggregateContribution of each entity, by ID
+	private PersistentIdMap contributions = new PersistentIdMap(edit);
+
+	/**
+	 * @param integral true if values are {@link Integer}s or {@link Long}s and should be summed
+	 *            exactly, false if they are {@link Float}s or {@link Double}s
+	 */
+	AggregateTable(boolean integral) {
+		this.integral = integral;
+	}
+
+	/**
+	 * @return a new table containing the same entries as this one. Subsequent changes to either
+	 *         table do not affect the other.
+	 */
+	AggregateTable copy() {
+		AggregateTable copy = new AggregateTable(integral);
+		copy.total = total;
+		copy.groups = groups;
+		copy.contributions = contributions;
+		edit = new Object();
+		return copy;
+	}
+
+	/**
+	 * Add an entity's value to a group, first removing any value it was previously added with
+	 * 
+	 * @param value a number, or null to count the entity without contributing a value
+	 */
+	void put(long id, Object group, Object value) {
+		AggregateContribution old = (AggregateContribution) contributions.get(id);
+		if (old != null) {
+			if (ValueUtils.valuesAreEquivalent(old.group, group) && ValueUtils.valuesAreEquivalent(old.value, value)) {
+				return;
+			}
+			subtract(old);
+		}
+		contributions = contributions.put(id, new AggregateContribution(group, value), edit);
+		AggregateGroup target = (AggregateGroup) groups.get(group);
+		AggregateGroup newTarget = target == null ? new AggregateGroup(edit) : target.editable(edit);
+		newTarget.add(value, integral);
+		if (newTarget != target) {
+			groups = groups.put(group, newTarget, edit);
+		}
+		total = total.editable(edit);
+		total.add(value, integral);
+	}
+
+	/**
+	 * Remove the value of the entity with the specified ID
+	 */
+	void remove(long id) {
+		AggregateContribution old = (AggregateContribution) contributions.get(id);
+		if (old != null) {
+			contributions = contributions.remove(id, edit);
+			subtract(old);
+		}
+	}
+
+	/**
+	 * @return the groups that currently contain at least one entity
+	 */
+	Object[] getGroups() {
+		Object[] result = new Object[groups.size()];
+		groups.getEntries(result, null, 0);
+		return result;
+	}
+
+	/**
+	 * @return the number of entities in a group, or in the whole table if {@code all} is true
+	 */
+	int count(Object group, boolean all) {
+		AggregateGroup g = getGroup(group, all);
+		return g == null ? 0 : g.count;
+	}
+
+	/**
+	 * @return the number of non-null values in a group, or in the whole table if {@code all} is
+	 *         true
+	 */
+	int valueCount(Object group, boolean all) {
+		AggregateGroup g = getGroup(group, all);
+		return g == null ? 0 : g.valueCount;
+	}
+
+	/**
+	 * @return the sum of the values in a group, or in the whole table if {@code all} is true
+	 */
+	double sum(Object group, boolean all) {
+		AggregateGroup g = getGroup(group, all);
+		if (g == null) {
+			return 0;
+		}
+		return integral ? g.longSum : g.doubleSum;
+	}
+
+	/**
+	 * @return the smallest value in a group, or in the whole table if {@code all} is true, or null
+	 *         if there are no values
+	 */
+	Object min(Object group, boolean all) {
+		AggregateGroup g = getGroup(group, all);
+		return g == null || g.valueCount == 0 ? null : g.values.getFirstValue();
+	}
+
+	/**
+	 * @return the largest value in a group, or in the whole table if {@code all} is true, or null
+	 *         if there are no values
+	 */
+	Object max(Object group, boolean all) {
+		AggregateGroup g = getGroup(group, all);
+		return g == null || g.valueCount == 0 ? null : g.values.getLastValue();
+	}
+
+	//
+	// PRIVATE MACHINERY
+	//
+
+	private void subtract(AggregateContribution old) {
+		AggregateGroup group = (AggregateGroup) groups.get(old.group);
+		AggregateGroup newGroup = group.editable(edit);
+		newGroup.subtract(old.value, integral);
+		if (newGroup.count == 0) {
+			groups = groups.remove(old.group, edit);
+		} else if (newGroup != group) {
+			groups = groups.put(old.group, newGroup, edit);
+		}
+		total = total.editable(edit);
+		total.subtract(old.value, integral);
+	}
+
+	private AggregateGroup getGroup(Object group, boolean all) {
+		if (all) {
+			return total;
+		}
+		return (AggregateGroup) groups.get(group);
+	}
+
+}
@@ -0,0 +1,182 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import com.berniecode.ogre.enginelib.platformhooks.OgreException;
+import com.berniecode.ogre.enginelib.platformhooks.ValueUtils;
+
+/**
+ * A materialised view of the count, sum, minimum and maximum of a numeric property over the
+ * entities of a type, optionally grouped by the value of another property
+ * 
+ * <p>
+ * The view is kept up to date by its {@link EntityStore} like any other {@link EntityIndex}. It
+ * remembers the values each entity contributed, so each created, changed or deleted entity costs
+ * O(log n) time rather than a rescan. Null values are counted but do not contribute to the sum,
+ * minimum or maximum. Sums of integer properties are exact, while sums of floating point
+ * properties may differ from a rescan by rounding error.
+ * 
+ * @author Bernie Sumption
+ */
+public class AggregateView extends EntityIndex {
+
+	private final EntityType entityType;
+	private final Property valueProperty;
+	private final Property groupByProperty;
+	private AggregateTable table;
+
+	/**
+	 * @param valueProperty a numeric property to aggregate, or null to only count entities
+	 * @param groupByProperty a property to group entities by, or null to aggregate all entities
+	 *            together
+	 * 
+	 * @throws OgreException if the properties do not belong to the entity type, if the value
+	 *             property is not numeric, or if the group-by property is a byte array property
+	 */
+	public AggregateView(EntityType entityType, Property valueProperty, Property groupByProperty) {
+		boolean integral = true;
+		if (valueProperty != null) {
+			requireBelongsTo(entityType, valueProperty);
+			switch (valueProperty.getTypeCode()) {
+			case Property.TYPECODE_INT32:
+			case Property.TYPECODE_INT64:
+				break;
+			case Property.TYPECODE_FLOAT:
+			case Property.TYPECODE_DOUBLE:
+				integral = false;
+				break;
+			default:
+				throw new OgreException("Can't aggregate " + valueProperty + ": only numeric properties can be aggregated");
+			}
+		}
+		if (groupByProperty != null) {
+			requireBelongsTo(entityType, groupByProperty);
+			if (groupByProperty.getTypeCode() == Property.TYPECODE_BYTES) {
+				throw new OgreException("Can't group by " + groupByProperty + ": byte array properties can't be grouped");
+			}
+		}
+		this.entityType = entityType;
+		this.valueProperty = valueProperty;
+		this.groupByProperty = groupByProperty;
+		table = new AggregateTable(integral);
+	}
+
+	public EntityType getEntityType() {
+		return entityType;
+	}
+
+	/**
+	 * @return the property being aggregated, or null if this view only counts entities
+	 */
+	public Property getValueProperty() {
+		return valueProperty;
+	}
+
+	/**
+	 * @return the property that entities are grouped by, or null if they are not grouped
+	 */
+	public Property getGroupByProperty() {
+		return groupByProperty;
+	}
+
+	/**
+	 * @return the aggregate of all entities in this view
+	 */
+	public Aggregate getAggregate() {
+		return new Aggregate(null, table.count(null, true), table.valueCount(null, true), table.sum(null, true),
+				table.min(null, true), table.max(null, true));
+	}
+
+	/**
+	 * @return the aggregate of the entities with the specified value for the group-by property.
+	 *         The value of a reference property may be given as an {@link Entity} or as an ID.
+	 * 
+	 * @throws OgreException if this view is not grouped, or the value is not of the correct type
+	 *             for the group-by property
+	 */
+	public Aggregate getGroupAggregate(Object group) {
+		if (groupByProperty == null) {
+			throw new OgreException(this + " is not grouped");
+		}
+		if (group instanceof Entity) {
+			group = ValueUtils.idToObject(((Entity) group).getEntityId());
+		}
+		ValueUtils.validateRawPropertyValue(groupByProperty, group);
+		return aggregateOf(group);
+	}
+
+	/**
+	 * @return the aggregates of each group that contains at least one entity, in no particular
+	 *         order
+	 */
+	public Aggregate[] getGroupAggregates() {
+		if (groupByProperty == null) {
+			return new Aggregate[] { getAggregate() };
+		}
+		Object[] groups = table.getGroups();
+		Aggregate[] result = new Aggregate[groups.length];
+		for (int i = 0; i < groups.length; i++) {
+			result[i] = aggregateOf(groups[i]);
+		}
+		return result;
+	}
+
+	public String toString() {
+		return "aggregate view of " + (valueProperty == null ? entityType.toString() : valueProperty.toString())
+				+ (groupByProperty == null ? "" : " grouped by " + groupByProperty);
+	}
+
+	//
+	// OGRE INTERNAL API
+	//
+
+	void update(Entity entity, Object[] values) {
+		Object group = groupByProperty == null ? null : Entity.getRawValue(values, groupByProperty);
+		Object value = valueProperty == null ? null : Entity.getRawValue(values, valueProperty);
+		table.put(entity.getEntityId(), group, value);
+	}
+
+	void remove(Entity entity) {
+		table.remove(entity.getEntityId());
+	}
+
+	EntityIndex copy() {
+		AggregateView copy = new AggregateView(entityType, valueProperty, groupByProperty);
+		copy.table = table.copy();
+		return copy;
+	}
+
+	//
+	// PRIVATE MACHINERY
+	//
+
+	private Aggregate aggregateOf(Object group) {
+		return new Aggregate(group, table.count(group, false), table.valueCount(group, false), table.sum(group,
+				false), table.min(group, false), table.max(group, false));
+	}
+
+	private static void requireBelongsTo(EntityType entityType, Property property) {
+		if (property.getEntityType() != entityType) {
+			throw new OgreException(property + " does not belong to " + entityType);
+		}
+	}
+
+}
@@ -21,6 +21,8 @@
 package com.berniecode.ogre.enginelib;
 
 import com.berniecode.ogre.enginelib.platformhooks.ArrayBuilder;
+import com.berniecode.ogre.enginelib.platformhooks.ClientMetrics;
+import com.berniecode.ogre.enginelib.platformhooks.IdIndex;
 import com.berniecode.ogre.enginelib.platformhooks.InitialisationException;
 import com.berniecode.ogre.enginelib.platformhooks.InvalidGraphUpdateException;
 import com.berniecode.ogre.enginelib.platformhooks.NoSuchThingException;
@@ -31,21 +33,50 @@ import com.berniecode.ogre.enginelib.platformhooks.OgreException;
  * frontend of the cross-language OGRE client, and will typically not be used directly but should be
  * wrapped in a suitable language-specific facade.
  * 
+ * <p>
+ * By default, reading from the engine blocks while a graph update is being applied. If concurrent
+ * reads are enabled, each graph update is instead applied to a fork of the engine's
+ * {@link EntityStore} which is then published, so readers never wait for the writer. The
+ * {@link Entity} objects are shared between versions, so a reader holding an {@link Entity} will
+ * see its property values change as updates are applied, but the fork stages its changes to them
+ * until it is published. Readers therefore see every change made by an update at the same
+ * instant, and none of the changes made by an update that fails.
+ * 
+ * <p>
+ * If an update arrives out of sequence, the engine recovers automatically. If its transport
+ * adapter is a {@link RecoverableTransportAdapter} and the server still has the missing updates,
+ * they are requested and applied first. Otherwise, or if the data version scheme has changed, the
+ * object graph is reloaded and the differences applied as a single update, so that existing
+ * {@link Entity} objects and the facades wrapping them remain valid.
+ * 
  * @author Bernie Sumption
  */
-public class ClientEngine implements GraphUpdateListener, DataSource {
+public class ClientEngine implements GraphUpdateBatchListener, DataSource {
 
 	private ClientTransportAdapter adapter;
 	private String typeDomainId;
 	private String objectGraphId;
 	private boolean initialised = false;
+	private boolean concurrentReads = false;
+	private boolean catchUpMode = false;
+	private boolean lazyReferences = false;
+	private volatile boolean trustedSource = false;
+	private GraphCache graphCache;
+	private volatile ClientMetrics metrics;
 
 	private TypeDomain typeDomain;
 
-	private EntityStore entities;
+	// when concurrent reads are enabled, the published store is never modified, and is replaced by
+	// a modified fork after each graph update
+	private final PublishedStore published = new PublishedStore();
 	private GraphUpdateListener graphUpdateListener;
 
-	private GraphUpdate lastUpdate;
+	// replaced rather than modified when queries are added or removed
+	private ContinuousQuery[] queries = new ContinuousQuery[0];
+
+	// entities created with lazy references that have not yet been resolved, or null if there are
+	// none
+	private volatile Entity[] pendingReferences;
 
 	//
 	// CONFIGURATION AND INITIALISATION
@@ -100,6 +131,148 @@ public class ClientEngine implements GraphUpdateListener, DataSource {
 		this.adapter = adapter;
 	}
 
+	/**
+	 * Enable or disable concurrent reads. When enabled, reading methods do not block while a graph
+	 * update is being applied. Each update is applied to a fork of the entity store that shares
+	 * structure with the published one, so an update costs time proportional to the changes it
+	 * makes, but lookups and changes are slower than in the default mode. Disabled by default.
+	 * 
+	 * <p>
+	 * This must be called before the engine is initialised, and can't be called again after
+	 * initialisation
+	 */
+	public void setConcurrentReads(boolean concurrentReads) {
+		requireInitialised(false, "setConcurrentReads()");
+		this.concurrentReads = concurrentReads;
+	}
+
+	/**
+	 * @return whether concurrent reads are enabled
+	 */
+	public boolean isConcurrentReads() {
+		return concurrentReads;
+	}
+
+	/**
+	 * Enable or disable catch-up mode. In catch-up mode, each run of consecutive updates passed to
+	 * {@link #acceptGraphUpdates(GraphUpdate[])} is squashed into a single update by a
+	 * {@link GraphUpdateSquasher} before it is applied, so a client that has fallen behind does work
+	 * proportional to the number of distinct entities changed rather than the number of updates.
+	 * The graph update listener is notified once with each squashed update. Updates that have
+	 * already been applied are dropped before squashing.
+	 * 
+	 * <p>
+	 * This may be changed at any time.
+	 */
+	public void setCatchUpMode(boolean catchUpMode) {
+		this.catchUpMode = catchUpMode;
+	}
+
+	/**
+	 * @return whether catch-up mode is enabled
+	 */
+	public boolean isCatchUpMode() {
+		return catchUpMode;
+	}
+
+	/**
+	 * Enable or disable lazy references. When enabled, the references of entities created by a
+	 * graph update that deletes no entities, such as the initial snapshot, are stored as IDs and
+	 * resolved the first time they are read. Applying a large snapshot then does little more than
+	 * copy values into new {@link Entity} objects. Any references still unresolved are resolved
+	 * together before the next graph update is applied, or when {@link #getReferencesTo(Entity,
+	 * ReferenceProperty)} is first called, since the reverse reference index must be complete
+	 * before then. Disabled by default.
+	 * 
+	 * <p>
+	 * Lazy references are not checked when the update is applied, so a reference to an entity
+	 * that does not exist reads as null rather than causing the update to be rejected.
+	 * 
+	 * <p>
+	 * This must be called before the engine is initialised, and can't be called again after
+	 * initialisation
+	 */
+	public void setLazyReferences(boolean lazyReferences) {
+		requireInitialised(false, "setLazyReferences()");
+		this.lazyReferences = lazyReferences;
+	}
+
+	/**
+	 * @return whether lazy references are enabled
+	 */
+	public boolean isLazyReferences() {
+		return lazyReferences;
+	}
+
+	/**
+	 * Enable or disable trusted source mode. In trusted source mode, the values in graph updates are
+	 * not checked against the types and nullability of their properties as they are applied, which
+	 * saves a type check for every value. References are still checked for existence. Disabled by
+	 * default.
+	 * 
+	 * <p>
+	 * Only enable this if the transport verifies the integrity of each message, for example with a
+	 * checksum, and every value it delivers is known to be of the correct type, as is the case for
+	 * values decoded by the OGRE wire format deserialiser from an OGRE server using the same type
+	 * domain. An invalid value applied in this mode will cause errors when it is read.
+	 * 
+	 * <p>
+	 * This may be changed at any time.
+	 */
+	public void setTrustedSource(boolean trustedSource) {
+		this.trustedSource = trustedSource;
+	}
+
+	/**
+	 * @return whether trusted source mode is enabled
+	 */
+	public boolean isTrustedSource() {
+		return trustedSource;
+	}
+
+	/**
+	 * Set a {@link GraphCache} to restore the object graph from when the engine is initialised. If
+	 * the cache holds a snapshot of the object graph and the transport adapter is a
+	 * {@link WarmStartTransportAdapter} that can supply every update published since the snapshot
+	 * was stored, the engine starts from the snapshot and applies those updates rather than
+	 * downloading the whole object graph. Otherwise the object graph is downloaded as normal. Call
+	 * {@link #saveGraphCache()} to store the object graph in the cache.
+	 * 
+	 * <p>
+	 * This must be called before the engine is initialised, and can't be called again after
+	 * initialisation
+	 */
+	public void setGraphCache(GraphCache graphCache) {
+		requireInitialised(false, "setGraphCache()");
+		this.graphCache = graphCache;
+	}
+
+	/**
+	 * @return the {@link GraphCache} used by this engine, or null if there is none
+	 */
+	public GraphCache getGraphCache() {
+		return graphCache;
+	}
+
+	/**
+	 * Set a {@link ClientMetrics} registry to record the graph updates that this engine receives and
+	 * applies, or null to stop recording metrics. The same registry can be given to the transport
+	 * adapter so that it also records the messages it receives. By default, no metrics are recorded.
+	 * 
+	 * <p>
+	 * This may be changed at any time.
+	 */
+	public void setMetrics(ClientMetrics metrics) {
+		this.metrics = metrics;
+	}
+
+	/**
+	 * @return the {@link ClientMetrics} registry used by this engine, or null if there is none
+	 */
+	public ClientMetrics getMetrics() {
+		return metrics;
+	}
+
 	/**
 	 * Initialise the client engine. All required components must have been provided.
 	 * 
@@ -120,10 +293,12 @@ public class ClientEngine implements GraphUpdateListener, DataSource {
 		if (OgreLog.isDebugEnabled()) {
 			OgreLog.debug("ClientEngine initialised with type domain: " + EDRDescriber.describeTypeDomain(typeDomain));
 		}
-		entities = new EntityStore(typeDomain);
+		published.publish(new EntityStore(typeDomain, true, concurrentReads));
 		initialised = true;
 
-		acceptGraphUpdate(adapter.loadObjectGraph(typeDomain, objectGraphId));
+		if (!restoreFromGraphCache()) {
+			acceptGraphUpdate(adapter.loadObjectGraph(typeDomain, objectGraphId));
+		}
 
 		adapter.subscribeToGraphUpdates(typeDomain, objectGraphId, this);
 
@@ -148,9 +323,83 @@ public class ClientEngine implements GraphUpdateListener, DataSource {
 	 * 
 	 * @throws InitialisationException if the client engine has not been initialised yet
 	 */
-	public synchronized Entity[] getEntitiesByType(EntityType entityType) {
+	public Entity[] getEntitiesByType(EntityType entityType) {
 		requireInitialised(true, "getEntitiesByType()");
-		return entities.getEntitiesByType(entityType);
+		if (concurrentReads) {
+			return published.get().getEntitiesByType(entityType);
+		}
+		synchronized (this) {
+			return published.get().getEntitiesByType(entityType);
+		}
+	}
+
+	/**
+	 * Pass every {@link Entity} of the specified entity type to a visitor, without copying them
+	 * into an array.
+	 * 
+	 * <p>
+	 * Unless concurrent reads are enabled, graph updates are blocked until the iteration finishes,
+	 * so the visitor should be quick. The visitor must not apply graph updates to this engine.
+	 * 
+	 * @return false if the visitor stopped the iteration, true otherwise
+	 * @throws InitialisationException if the client engine has not been initialised yet
+	 */
+	public boolean forEachEntityOfType(EntityType entityType, EntityVisitor visitor) {
+		requireInitialised(true, "forEachEntityOfType()");
+		if (concurrentReads) {
+			return published.get().forEachEntityOfType(entityType, visitor);
+		}
+		synchronized (this) {
+			return published.get().forEachEntityOfType(entityType, visitor);
+		}
+	}
+
+	/**
+	 * Pass every {@link Entity} in the object graph to a visitor, without copying them into an
+	 * array. The same restrictions apply as for
+	 * {@link #forEachEntityOfType(EntityType, EntityVisitor)}.
+	 * 
+	 * @return false if the visitor stopped the iteration, true otherwise
+	 * @throws InitialisationException if the client engine has not been initialised yet
+	 */
+	public boolean forEachEntity(EntityVisitor visitor) {
+		requireInitialised(true, "forEachEntity()");
+		if (concurrentReads) {
+			return published.get().forEachEntity(visitor);
+		}
+		synchronized (this) {
+			return published.get().forEachEntity(visitor);
+		}
+	}
+
+	/**
+	 * @return the number of entities in the object graph
+	 * 
+	 * @throws InitialisationException if the client engine has not been initialised yet
+	 */
+	public int getEntityCount() {
+		requireInitialised(true, "getEntityCount()");
+		if (concurrentReads) {
+			return published.get().getEntityCount();
+		}
+		synchronized (this) {
+			return published.get().getEntityCount();
+		}
+	}
+
+	/**
+	 * @return the number of entities of the specified entity type
+	 * 
+	 * @throws InitialisationException if the client engine has not been initialised yet
+	 */
+	public int getEntityCount(EntityType entityType) {
+		requireInitialised(true, "getEntityCount()");
+		if (concurrentReads) {
+			return published.get().getEntityCount(entityType);
+		}
+		synchronized (this) {
+			return published.get().getEntityCount(entityType);
+		}
 	}
 
 	/**
@@ -159,23 +408,51 @@ public class ClientEngine implements GraphUpdateListener, DataSource {
 	 * 
 	 * @throws InitialisationException if the client engine has not been initialised yet
 	 */
-	public synchronized Entity getEntityByTypeAndId(EntityType entityType, long id) {
+	public Entity getEntityByTypeAndId(EntityType entityType, long id) {
 		requireInitialised(true, "getEntitiesByType()");
-		return entities.get(entityType, id);
+		if (concurrentReads) {
+			return published.get().get(entityType, id);
+		}
+		synchronized (this) {
+			return published.get().get(entityType, id);
+		}
+	}
+
+	/**
+	 * @return an immutable, version-stamped view of the current state of this object graph. The
+	 *         view is unaffected by subsequent graph updates. Unless concurrent reads are enabled,
+	 *         the engine only starts recording the values that snapshots need when the first one
+	 *         is requested, so the first call takes time proportional to the size of the graph and
+	 *         later calls take constant time.
+	 * 
+	 * @throws InitialisationException if the client engine has not been initialised yet
+	 */
+	public GraphSnapshot getSnapshot() {
+		requireInitialised(true, "getSnapshot()");
+		if (concurrentReads) {
+			// the store is persistent, so it's already recording and snapshot() won't modify it
+			return published.get().snapshot(objectGraphId);
+		}
+		synchronized (this) {
+			return published.get().snapshot(objectGraphId);
+		}
 	}
 
 	/**
-	 * @return a snapshot of the state of this object graph
+	 * @return a snapshot of the state of this object graph. This copies every entity in the graph,
+	 *         and the returned entities are live and will change as graph updates are applied. Use
+	 *         {@link #getSnapshot()} for a cheap, immutable snapshot.
 	 * 
 	 * @throws InitialisationException if the client engine has not been initialised yet
 	 */
-	public synchronized GraphUpdate createSnapshot() {
+	public GraphUpdate createSnapshot() {
 		requireInitialised(true, "createSnapshot()");
-		if (lastUpdate == null) {
-			return new GraphUpdate(typeDomain, objectGraphId, 0, 0, null, null, null);
+		if (concurrentReads) {
+			return createSnapshot(published.get());
+		}
+		synchronized (this) {
+			return createSnapshot(published.get());
 		}
-		return new GraphUpdate(typeDomain, objectGraphId, lastUpdate.getDataVersion(),
-				lastUpdate.getDataVersionScheme(), entities.getEntities(), null, null);
 	}
 
 	/**
@@ -185,20 +462,358 @@ public class ClientEngine implements GraphUpdateListener, DataSource {
 	 * @throws OgreException if {@code property.getReferenceType() != entity.getEntityType()}
 	 * @throws InitialisationException if the client engine has not been initialised yet
 	 */
-	public synchronized Entity[] getReferencesTo(Entity entity, ReferenceProperty property) {
+	public Entity[] getReferencesTo(Entity entity, ReferenceProperty property) {
 		requireInitialised(true, "getReferencesTo()");
 		if (property.getReferenceType() != entity.getEntityType()) {
 			throw new OgreException(property + " does not reference the EntityType " + entity.getEntityType());
 		}
-		ArrayBuilder ab = new ArrayBuilder(Entity.class);
-		Entity[] candidates = entities.getEntitiesByType(property.getEntityType());
-		for (int i = 0; i < candidates.length; i++) {
-			Entity target = (Entity) candidates[i].getPropertyValue(property);
-			if (target == entity) {
-				ab.add(candidates[i]);
+		if (concurrentReads) {
+			if (pendingReferences != null) {
+				synchronized (this) {
+					resolvePendingReferences();
+				}
 			}
+			return published.get().getReferencesTo(entity, property);
+		}
+		synchronized (this) {
+			resolvePendingReferences();
+			return published.get().getReferencesTo(entity, property);
+		}
+	}
+
+	/**
+	 * Add a hash index on a property, so that the entities with a specific value for the property
+	 * can be found in constant time using {@link #getEntitiesByPropertyValue(Property, Object)}.
+	 * The index is populated from the current entities and kept up to date as graph updates are
+	 * applied. Adding an index to a property that is already indexed has no effect.
+	 * 
+	 * @throws InitialisationException if the client engine has not been initialised yet
+	 */
+	public synchronized void addHashIndex(Property property) {
+		requireInitialised(true, "addHashIndex()");
+		if (findHashIndex(published.get(), property) != null) {
+			return;
+		}
+		EntityStore store = concurrentReads ? published.get().fork() : published.get();
+		store.addIndex(new HashIndex(property));
+		if (concurrentReads) {
+			published.publish(store);
+		}
+	}
+
+	/**
+	 * @return the entities whose value for the specified property is equal to {@code value}. The
+	 *         value of a reference property may be given as an {@link Entity} or as an ID.
+	 * 
+	 * @throws OgreException if the property has not been indexed with
+	 *             {@link #addHashIndex(Property)}, or if the value is not of the correct type for
+	 *             the property
+	 * @throws InitialisationException if the client engine has not been initialised yet
+	 */
+	public Entity[] getEntitiesByPropertyValue(Property property, Object value) {
+		requireInitialised(true, "getEntitiesByPropertyValue()");
+		if (concurrentReads) {
+			return requireHashIndex(published.get(), property).get(value);
+		}
+		synchronized (this) {
+			return requireHashIndex(published.get(), property).get(value);
+		}
+	}
+
+	/**
+	 * @return the number of entities whose value for the specified property is equal to
+	 *         {@code value}. The same restrictions apply as for
+	 *         {@link #getEntitiesByPropertyValue(Property, Object)}.
+	 */
+	public int countEntitiesByPropertyValue(Property property, Object value) {
+		requireInitialised(true, "countEntitiesByPropertyValue()");
+		if (concurrentReads) {
+			return requireHashIndex(published.get(), property).count(value);
+		}
+		synchronized (this) {
+			return requireHashIndex(published.get(), property).count(value);
+		}
+	}
+
+	/**
+	 * Add a sorted index on a numeric or string property, so that the entities can be queried by
+	 * range, rank and top values of the property in O(log n + k) time. The index is populated from
+	 * the current entities and kept up to date as graph updates are applied. Adding an index to a
+	 * property that is already indexed has no effect.
+	 * 
+	 * @throws OgreException if the property is not a numeric or string property
+	 * @throws InitialisationException if the client engine has not been initialised yet
+	 * @see SortedIndex
+	 */
+	public synchronized void addSortedIndex(Property property) {
+		requireInitialised(true, "addSortedIndex()");
+		if (findSortedIndex(published.get(), property) != null) {
+			return;
+		}
+		SortedIndex index = new SortedIndex(property);
+		EntityStore store = concurrentReads ? published.get().fork() : published.get();
+		store.addIndex(index);
+		if (concurrentReads) {
+			published.publish(store);
+		}
+	}
+
+	/**
+	 * @return the entities whose value for the specified property is between {@code min} and
+	 *         {@code max} inclusive, in ascending order. A null bound leaves that end of the range
+	 *         open.
+	 * 
+	 * @throws OgreException if the property has not been indexed with
+	 *             {@link #addSortedIndex(Property)}, or if a bound is not of the correct type for
+	 *             the property
+	 * @throws InitialisationException if the client engine has not been initialised yet
+	 */
+	public Entity[] getEntitiesInRange(Property property, Object min, Object max) {
+		requireInitialised(true, "getEntitiesInRange()");
+		if (concurrentReads) {
+			return requireSortedIndex(published.get(), property).getRange(min, max);
+		}
+		synchronized (this) {
+			return requireSortedIndex(published.get(), property).getRange(min, max);
 		}
-		return (Entity[]) ab.buildArray();
+	}
+
+	/**
+	 * @return up to {@code count} entities with the highest values for the specified property, in
+	 *         descending order. The same restrictions apply as for
+	 *         {@link #getEntitiesInRange(Property, Object, Object)}.
+	 */
+	public Entity[] getTopEntities(Property property, int count) {
+		requireInitialised(true, "getTopEntities()");
+		if (concurrentReads) {
+			return requireSortedIndex(published.get(), property).getLast(count);
+		}
+		synchronized (this) {
+			return requireSortedIndex(published.get(), property).getLast(count);
+		}
+	}
+
+	/**
+	 * @return the entities at positions {@code from} (inclusive) to {@code to} (exclusive) when
+	 *         sorted in ascending order of the specified property. The same restrictions apply as
+	 *         for {@link #getEntitiesInRange(Property, Object, Object)}.
+	 */
+	public Entity[] getEntitiesByRank(Property property, int from, int to) {
+		requireInitialised(true, "getEntitiesByRank()");
+		if (concurrentReads) {
+			return requireSortedIndex(published.get(), property).getByRank(from, to);
+		}
+		synchronized (this) {
+			return requireSortedIndex(published.get(), property).getByRank(from, to);
+		}
+	}
+
+	/**
+	 * @return the position of an entity when sorted in ascending order of the specified property,
+	 *         starting at 0, or -1 if the entity is not in the object graph. The same restrictions
+	 *         apply as for {@link #getEntitiesInRange(Property, Object, Object)}.
+	 */
+	public int getRank(Property property, Entity entity) {
+		requireInitialised(true, "getRank()");
+		if (concurrentReads) {
+			return requireSortedIndex(published.get(), property).getRank(entity);
+		}
+		synchronized (this) {
+			return requireSortedIndex(published.get(), property).getRank(entity);
+		}
+	}
+
+	/**
+	 * Add a spatial index over two numeric properties of an entity type, so that entities can be
+	 * found by position without scanning every entity of the type. The index is populated from the
+	 * current entities and kept up to date as graph updates are applied. Adding an index to a pair
+	 * of properties that is already indexed has no effect.
+	 * 
+	 * @param cellSize the width and height of the cells in the index's grid
+	 * @throws OgreException if the properties are not numeric properties of the same entity type
+	 * @throws InitialisationException if the client engine has not been initialised yet
+	 * @see SpatialIndex
+	 */
+	public synchronized void addSpatialIndex(Property xProperty, Property yProperty, double cellSize) {
+		requireInitialised(true, "addSpatialIndex()");
+		if (findSpatialIndex(published.get(), xProperty, yProperty) != null) {
+			return;
+		}
+		SpatialIndex index = new SpatialIndex(xProperty, yProperty, cellSize);
+		EntityStore store = concurrentReads ? published.get().fork() : published.get();
+		store.addIndex(index);
+		if (concurrentReads) {
+			published.publish(store);
+		}
+	}
+
+	/**
+	 * @return the entities whose position given by the specified properties is within a
+	 *         rectangle, including its edges
+	 * 
+	 * @throws OgreException if the properties have not been indexed with
+	 *             {@link #addSpatialIndex(Property, Property, double)}
+	 * @throws InitialisationException if the client engine has not been initialised yet
+	 */
+	public Entity[] getEntitiesInRectangle(Property xProperty, Property yProperty, double minX, double minY,
+			double maxX, double maxY) {
+		requireInitialised(true, "getEntitiesInRectangle()");
+		if (concurrentReads) {
+			return requireSpatialIndex(published.get(), xProperty, yProperty).getInRectangle(minX, minY, maxX, maxY);
+		}
+		synchronized (this) {
+			return requireSpatialIndex(published.get(), xProperty, yProperty).getInRectangle(minX, minY, maxX, maxY);
+		}
+	}
+
+	/**
+	 * @return up to {@code count} entities whose position given by the specified properties is
+	 *         closest to a point, nearest first. The same restrictions apply as for
+	 *         {@link #getEntitiesInRectangle(Property, Property, double, double, double, double)}.
+	 */
+	public Entity[] getNearestEntities(Property xProperty, Property yProperty, double x, double y, int count) {
+		requireInitialised(true, "getNearestEntities()");
+		if (concurrentReads) {
+			return requireSpatialIndex(published.get(), xProperty, yProperty).getNearest(x, y, count);
+		}
+		synchronized (this) {
+			return requireSpatialIndex(published.get(), xProperty, yProperty).getNearest(x, y, count);
+		}
+	}
+
+	/**
+	 * Register a materialised aggregate view, which keeps the count, sum, minimum and maximum of a
+	 * property up to date as graph updates are applied, at a cost proportional to the number of
+	 * entities changed by each update. Adding a view that is already registered has no effect.
+	 * 
+	 * @param valueProperty a numeric property to aggregate, or null to only count entities
+	 * @param groupByProperty a property to group entities by, or null to aggregate all entities of
+	 *            the type together
+	 * @throws OgreException if the properties are not suitable, see {@link AggregateView}
+	 * @throws InitialisationException if the client engine has not been initialised yet
+	 */
+	public synchronized void addAggregateView(EntityType entityType, Property valueProperty, Property groupByProperty) {
+		requireInitialised(true, "addAggregateView()");
+		if (findAggregateView(published.get(), entityType, valueProperty, groupByProperty) != null) {
+			return;
+		}
+		AggregateView view = new AggregateView(entityType, valueProperty, groupByProperty);
+		EntityStore store = concurrentReads ? published.get().fork() : published.get();
+		store.addIndex(view);
+		if (concurrentReads) {
+			published.publish(store);
+		}
+	}
+
+	/**
+	 * @return the aggregate of a property over all entities of a type, from a view registered with
+	 *         {@link #addAggregateView(EntityType, Property, Property)}
+	 * 
+	 * @throws OgreException if there is no such view
+	 * @throws InitialisationException if the client engine has not been initialised yet
+	 */
+	public Aggregate getAggregate(EntityType entityType, Property valueProperty, Property groupByProperty) {
+		requireInitialised(true, "getAggregate()");
+		if (concurrentReads) {
+			return requireAggregateView(published.get(), entityType, valueProperty, groupByProperty).getAggregate();
+		}
+		synchronized (this) {
+			return requireAggregateView(published.get(), entityType, valueProperty, groupByProperty).getAggregate();
+		}
+	}
+
+	/**
+	 * @return the aggregate of a property over the entities of a type in one group. The value of a
+	 *         reference property may be given as an {@link Entity} or as an ID.
+	 * 
+	 * @throws OgreException if there is no such view, or if the group is not of the correct type
+	 *             for the group-by property
+	 * @throws InitialisationException if the client engine has not been initialised yet
+	 */
+	public Aggregate getGroupAggregate(EntityType entityType, Property valueProperty, Property groupByProperty,
+			Object group) {
+		requireInitialised(true, "getGroupAggregate()");
+		if (concurrentReads) {
+			return requireAggregateView(published.get(), entityType, valueProperty, groupByProperty).getGroupAggregate(group);
+		}
+		synchronized (this) {
+			return requireAggregateView(published.get(), entityType, valueProperty, groupByProperty).getGroupAggregate(group);
+		}
+	}
+
+	/**
+	 * @return the aggregate of a property for each group of entities that contains at least one
+	 *         entity. The same restrictions apply as for
+	 *         {@link #getAggregate(EntityType, Property, Property)}.
+	 */
+	public Aggregate[] getGroupAggregates(EntityType entityType, Property valueProperty, Property groupByProperty) {
+		requireInitialised(true, "getGroupAggregates()");
+		if (concurrentReads) {
+			return requireAggregateView(published.get(), entityType, valueProperty, groupByProperty).getGroupAggregates();
+		}
+		synchronized (this) {
+			return requireAggregateView(published.get(), entityType, valueProperty, groupByProperty).getGroupAggregates();
+		}
+	}
+
+	/**
+	 * Create a query that keeps track of the entities of a type that match a predicate as graph
+	 * updates are applied. The listener, if there is one, is immediately passed a delta holding the
+	 * entities that currently match as additions, and is then passed a delta after each graph update
+	 * that adds, removes or changes a matching entity.
+	 * 
+	 * <p>
+	 * The predicate is evaluated on the thread that applies graph updates, and only for entities
+	 * created, changed or deleted by each update, so it should depend only on the entity's own
+	 * property values.
+	 * 
+	 * @param listener an object to be notified of changes, or null to poll
+	 *            {@link ContinuousQuery#getMatches()} instead
+	 * @throws InitialisationException if the client engine has not been initialised yet
+	 */
+	public synchronized ContinuousQuery addContinuousQuery(EntityType entityType, EntityPredicate predicate,
+			ContinuousQueryListener listener) {
+		requireInitialised(true, "addContinuousQuery()");
+		ContinuousQuery query = new ContinuousQuery(this, entityType, predicate, listener);
+		QueryDelta initial = query.initialise(published.get().getEntitiesByType(entityType));
+		ContinuousQuery[] newQueries = new ContinuousQuery[queries.length + 1];
+		for (int i = 0; i < queries.length; i++) {
+			newQueries[i] = queries[i];
+		}
+		newQueries[queries.length] = query;
+		queries = newQueries;
+		if (listener != null) {
+			listener.acceptQueryDelta(query, initial);
+		}
+		return query;
+	}
+
+	/**
+	 * Stop updating a continuous query. This has no effect if the query has already been removed.
+	 */
+	public synchronized void removeContinuousQuery(ContinuousQuery query) {
+		ArrayBuilder remaining = new ArrayBuilder(ContinuousQuery.class);
+		for (int i = 0; i < queries.length; i++) {
+			if (queries[i] != query) {
+				remaining.add(queries[i]);
+			}
+		}
+		queries = (ContinuousQuery[]) remaining.buildArray();
+	}
+
+	/**
+	 * Store a snapshot of the object graph in the {@link GraphCache}, so that the next engine
+	 * initialised with the same cache can start from it. This serialises the whole object graph, so
+	 * call it when the application shuts down or at intervals rather than after every update.
+	 * 
+	 * @throws OgreException if no graph cache has been set
+	 */
+	public void saveGraphCache() {
+		requireInitialised(true, "saveGraphCache()");
+		if (graphCache == null) {
+			throw new OgreException("There is no graph cache. Call setGraphCache() first.");
+		}
+		graphCache.storeSnapshot(getSnapshot().toGraphUpdate());
 	}
 
 	/**
@@ -226,95 +841,545 @@ public class ClientEngine implements GraphUpdateListener, DataSource {
 		}
 	}
 
+	private HashIndex findHashIndex(EntityStore store, Property property) {
+		EntityIndex[] indexes = store.getIndexes(property.getEntityType());
+		for (int i = 0; i < indexes.length; i++) {
+			if (indexes[i] instanceof HashIndex && ((HashIndex) indexes[i]).getProperty() == property) {
+				return (HashIndex) indexes[i];
+			}
+		}
+		return null;
+	}
+
+	private HashIndex requireHashIndex(EntityStore store, Property property) {
+		HashIndex index = findHashIndex(store, property);
+		if (index == null) {
+			throw new OgreException("There is no hash index on " + property + ". Call addHashIndex() first.");
+		}
+		return index;
+	}
+
+	private SortedIndex findSortedIndex(EntityStore store, Property property) {
+		EntityIndex[] indexes = store.getIndexes(property.getEntityType());
+		for (int i = 0; i < indexes.length; i++) {
+			if (indexes[i] instanceof SortedIndex && ((SortedIndex) indexes[i]).getProperty() == property) {
+				return (SortedIndex) indexes[i];
+			}
+		}
+		return null;
+	}
+
+	private SortedIndex requireSortedIndex(EntityStore store, Property property) {
+		SortedIndex index = findSortedIndex(store, property);
+		if (index == null) {
+			throw new OgreException("There is no sorted index on " + property + ". Call addSortedIndex() first.");
+		}
+		return index;
+	}
+
+	private SpatialIndex findSpatialIndex(EntityStore store, Property xProperty, Property yProperty) {
+		EntityIndex[] indexes = store.getIndexes(xProperty.getEntityType());
+		for (int i = 0; i < indexes.length; i++) {
+			if (indexes[i] instanceof SpatialIndex && ((SpatialIndex) indexes[i]).getXProperty() == xProperty
+					&& ((SpatialIndex) indexes[i]).getYProperty() == yProperty) {
+				return (SpatialIndex) indexes[i];
+			}
+		}
+		return null;
+	}
+
+	private SpatialIndex requireSpatialIndex(EntityStore store, Property xProperty, Property yProperty) {
+		SpatialIndex index = findSpatialIndex(store, xProperty, yProperty);
+		if (index == null) {
+			throw new OgreException("There is no spatial index on " + xProperty + " and " + yProperty
+					+ ". Call addSpatialIndex() first.");
+		}
+		return index;
+	}
+
+	private AggregateView findAggregateView(EntityStore store, EntityType entityType, Property valueProperty,
+			Property groupByProperty) {
+		EntityIndex[] indexes = store.getIndexes(entityType);
+		for (int i = 0; i < indexes.length; i++) {
+			if (indexes[i] instanceof AggregateView) {
+				AggregateView view = (AggregateView) indexes[i];
+				if (view.getValueProperty() == valueProperty && view.getGroupByProperty() == groupByProperty) {
+					return view;
+				}
+			}
+		}
+		return null;
+	}
+
+	private AggregateView requireAggregateView(EntityStore store, EntityType entityType, Property valueProperty,
+			Property groupByProperty) {
+		AggregateView view = findAggregateView(store, entityType, valueProperty, groupByProperty);
+		if (view == null) {
+			throw new OgreException("There is no aggregate view of " + valueProperty + " in " + entityType
+					+ " grouped by " + groupByProperty + ". Call addAggregateView() first.");
+		}
+		return view;
+	}
+
+	private GraphUpdate createSnapshot(EntityStore store) {
+		GraphUpdate lastUpdate = store.getAppliedUpdate();
+		if (lastUpdate == null) {
+			return new GraphUpdate(typeDomain, objectGraphId, 0, 0, null, null, null);
+		}
+		return new GraphUpdate(typeDomain, objectGraphId, lastUpdate.getDataVersion(),
+				lastUpdate.getDataVersionScheme(), store.getEntities(), null, null);
+	}
+
 	/**
 	 * Apply a graph update to the object graph managed by this Client Engine
 	 */
 	public synchronized void acceptGraphUpdate(GraphUpdate update) throws InvalidGraphUpdateException {
 		requireInitialised(true, "acceptGraphUpdate()");
+		ClientMetrics currentMetrics = metrics;
+		if (currentMetrics != null) {
+			currentMetrics.recordUpdateReceived(update);
+		}
+		applyGraphUpdate(update, update.getDataVersion());
+	}
 
-		OgreLog.info("ClientEngine: applying graph update " + update);
-		if (OgreLog.isDebugEnabled()) {
-			OgreLog.debug(EDRDescriber.describeGraphUpdate(update));
+	/**
+	 * Apply a sequence of graph updates to the object graph managed by this Client Engine. In
+	 * catch-up mode the updates are squashed together first, otherwise they are applied in turn.
+	 */
+	public synchronized void acceptGraphUpdates(GraphUpdate[] updates) throws InvalidGraphUpdateException {
+		requireInitialised(true, "acceptGraphUpdates()");
+		ClientMetrics currentMetrics = metrics;
+		if (currentMetrics != null && updates.length > 0) {
+			currentMetrics.recordUpdateReceived(updates[updates.length - 1]);
 		}
+		applyGraphUpdates(updates);
+	}
+
+	public String toString() {
+		return "ClientEngine " + typeDomainId + "/" + objectGraphId;
+	}
+
+	//
+	// UPDATE MACHINERY
+	//
 
-		if (lastUpdate != null) {
-			if (lastUpdate.getDataVersionScheme() != update.getDataVersionScheme()) {
-				// TODO this should trigger a reload of the whole data set
-				OgreLog.error("ClientEngine: incompatible data version scheme in graph update. Expected "
-						+ lastUpdate.getDataVersionScheme() + " got " + update.getDataVersionScheme());
-			} else if (lastUpdate.getDataVersion() + 1 != update.getDataVersion()) {
-				// TODO this should trigger a reload of the whole data set
-				OgreLog.error("ClientEngine: incorrect data version sequence. Expected "
-						+ (lastUpdate.getDataVersion() + 1) + " got " + update.getDataVersion());
+	private void applyGraphUpdates(GraphUpdate[] updates) {
+		if (!catchUpMode) {
+			for (int i = 0; i < updates.length; i++) {
+				applyGraphUpdate(updates[i], updates[i].getDataVersion());
 			}
+			return;
 		}
-		lastUpdate = update;
-
-		// pre-build the Entities that we're going to add
-		RawPropertyValueSet[] completeValues = update.getEntityCreates();
-		Entity[] newEntities = new Entity[completeValues.length];
-		for (int i = 0; i < completeValues.length; i++) {
-			RawPropertyValueSet value = completeValues[i];
-			for (int j = 0; j < i; j++) {
-				if (value.getEntityId() == completeValues[j].getEntityId()
-						&& value.getEntityType() == completeValues[j].getEntityType()) {
-					throw new InvalidGraphUpdateException("Ignoring " + update
-							+ " message because it contains a duplicate ID: " + completeValues[j].getEntityType() + "#"
-							+ completeValues[j].getEntityId());
+		GraphUpdateSquasher squasher = new GraphUpdateSquasher();
+		for (int i = 0; i < updates.length; i++) {
+			if (!squasher.isEmpty() && !squasher.canAdd(updates[i])) {
+				applySquashedUpdates(squasher);
+			}
+			if (squasher.isEmpty()) {
+				if (isAlreadyApplied(updates[i])) {
+					continue;
+				}
+				if (!squasher.canAdd(updates[i])) {
+					// an invalid update - apply it alone to report the problem
+					applyGraphUpdate(updates[i], updates[i].getDataVersion());
+					continue;
 				}
 			}
-			if (entities.containsSimilar(value)) {
-				throw new InvalidGraphUpdateException("Ignoring " + update
-						+ " because it creates an entity that already exists in the client engine: " + value);
-			} else {
-				newEntities[i] = new Entity(value.getEntityType(), value.getEntityId(), null);
+			squasher.add(updates[i]);
+		}
+		applySquashedUpdates(squasher);
+	}
+
+	/**
+	 * @return true if an update has the same data version scheme as the last applied update, and a
+	 *         data version no later than it. Such updates are left out of a squashed run, which
+	 *         would otherwise start before the applied version and look like a gap.
+	 */
+	private boolean isAlreadyApplied(GraphUpdate update) {
+		GraphUpdate lastUpdate = published.get().getAppliedUpdate();
+		if (lastUpdate == null || lastUpdate.getDataVersionScheme() != update.getDataVersionScheme()
+				|| update.getDataVersion() > lastUpdate.getDataVersion()) {
+			return false;
+		}
+		if (OgreLog.isDebugEnabled()) {
+			OgreLog.debug("ClientEngine: ignoring " + update + " because data version " + lastUpdate.getDataVersion()
+					+ " has already been applied");
+		}
+		return true;
+	}
+
+	private void applySquashedUpdates(GraphUpdateSquasher squasher) {
+		if (squasher.isEmpty()) {
+			return;
+		}
+		GraphUpdate squashed = squasher.toGraphUpdate();
+		int firstDataVersion = squasher.getFirstUpdate().getDataVersion();
+		if (OgreLog.isInfoEnabled() && squasher.getUpdateCount() > 1) {
+			OgreLog.info("ClientEngine: squashed " + squasher.getUpdateCount() + " graph updates from version "
+					+ firstDataVersion + " into one");
+		}
+		squasher.clear();
+		applyGraphUpdate(squashed, firstDataVersion);
+	}
+
+	/**
+	 * Restore the object graph from the graph cache and apply the updates published since it was
+	 * stored, if there is a cached snapshot and the transport adapter can supply those updates
+	 * 
+	 * @return true if the object graph was restored
+	 */
+	private synchronized boolean restoreFromGraphCache() {
+		if (graphCache == null) {
+			return false;
+		}
+		GraphUpdate cached = graphCache.loadSnapshot(typeDomain, objectGraphId);
+		if (cached == null) {
+			return false;
+		}
+		if (!(adapter instanceof WarmStartTransportAdapter)) {
+			OgreLog.info("ClientEngine: ignoring the cached object graph because " + adapter
+					+ " can't load the updates published since it was stored");
+			return false;
+		}
+		GraphUpdate[] missed = ((WarmStartTransportAdapter) adapter).loadGraphUpdatesSince(typeDomain, objectGraphId,
+				cached.getDataVersionScheme(), cached.getDataVersion());
+		if (missed == null) {
+			OgreLog.info("ClientEngine: the cached object graph at data version " + cached.getDataVersion()
+					+ " is too old to catch up. Loading the object graph.");
+			return false;
+		}
+		OgreLog.info("ClientEngine: restoring the cached object graph at data version " + cached.getDataVersion()
+				+ " and applying " + missed.length + " newer graph updates");
+		try {
+			doApplyGraphUpdate(cached);
+			applyGraphUpdates(missed);
+		} catch (InvalidGraphUpdateException e) {
+			OgreLog.error("ClientEngine: could not restore the cached object graph: " + e.getMessage());
+			published.publish(new EntityStore(typeDomain, true, concurrentReads));
+			pendingReferences = null;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Apply a graph update that may be the result of squashing together several updates, the first
+	 * of which had the specified data version, first recovering any updates that have been missed
+	 */
+	private void applyGraphUpdate(GraphUpdate update, int firstDataVersion) {
+		if (recoverMissedUpdates(update, firstDataVersion)) {
+			doApplyGraphUpdate(update);
+		}
+	}
+
+	/**
+	 * Make sure that a graph update can be applied next. If there is a gap in the data version
+	 * sequence, the missing updates are requested from the server, and if that's not possible, or
+	 * if the data version scheme has changed, the object graph is reloaded.
+	 * 
+	 * @return true if the update should be applied, or false if it is out of date
+	 */
+	private boolean recoverMissedUpdates(GraphUpdate update, int firstDataVersion) {
+		GraphUpdate lastUpdate = published.get().getAppliedUpdate();
+		if (lastUpdate == null) {
+			return true;
+		}
+		if (lastUpdate.getDataVersionScheme() == update.getDataVersionScheme()) {
+			int expected = lastUpdate.getDataVersion() + 1;
+			if (firstDataVersion == expected) {
+				return true;
+			}
+			if (update.getDataVersion() < expected) {
+				OgreLog.warn("ClientEngine: ignoring " + update + " because data version "
+						+ lastUpdate.getDataVersion() + " has already been applied");
+				return false;
 			}
+			if (firstDataVersion > expected) {
+				ClientMetrics currentMetrics = metrics;
+				if (currentMetrics != null) {
+					currentMetrics.recordVersionGap(firstDataVersion - expected);
+				}
+				if (loadMissedUpdates(lastUpdate, firstDataVersion - 1)) {
+					return true;
+				}
+			}
+			OgreLog.warn("ClientEngine: incorrect data version sequence. Expected " + expected + " got "
+					+ firstDataVersion + ". Reloading the object graph.");
+		} else {
+			OgreLog.warn("ClientEngine: data version scheme has changed from " + lastUpdate.getDataVersionScheme()
+					+ " to " + update.getDataVersionScheme() + ". Reloading the object graph.");
+		}
+
+		reloadObjectGraph();
+
+		lastUpdate = published.get().getAppliedUpdate();
+		if (lastUpdate.getDataVersionScheme() != update.getDataVersionScheme()) {
+			OgreLog.warn("ClientEngine: ignoring " + update + " because it has a different data version scheme to the"
+					+ " reloaded object graph");
+			return false;
+		}
+		int expected = lastUpdate.getDataVersion() + 1;
+		if (update.getDataVersion() < expected) {
+			// the reloaded object graph already includes this update
+			return false;
 		}
-		for (int i = 0; i < newEntities.length; i++) {
-			newEntities[i].update(completeValues[i], entities, newEntities); // wire up values
+		if (firstDataVersion == expected || loadMissedUpdates(lastUpdate, firstDataVersion - 1)) {
+			return true;
 		}
-		for (int i = 0; i < newEntities.length; i++) {
-			entities.add(newEntities[i]);
+		OgreLog.error("ClientEngine: could not recover the updates between data version " + lastUpdate.getDataVersion()
+				+ " of the reloaded object graph and " + update + ". Applying it anyway.");
+		return true;
+	}
+
+	/**
+	 * Request and apply the updates that follow one that has been applied, if the transport adapter
+	 * supports it and the server still has them
+	 * 
+	 * @return true if the updates were applied
+	 */
+	private boolean loadMissedUpdates(GraphUpdate lastUpdate, int toDataVersion) {
+		if (!(adapter instanceof RecoverableTransportAdapter)) {
+			return false;
+		}
+		int scheme = lastUpdate.getDataVersionScheme();
+		int fromDataVersion = lastUpdate.getDataVersion() + 1;
+		GraphUpdate[] missed = ((RecoverableTransportAdapter) adapter).loadGraphUpdates(typeDomain, objectGraphId,
+				scheme, fromDataVersion, toDataVersion);
+		if (missed == null || missed.length != toDataVersion - fromDataVersion + 1) {
+			return false;
 		}
+		for (int i = 0; i < missed.length; i++) {
+			if (missed[i].getDataVersionScheme() != scheme || missed[i].getDataVersion() != fromDataVersion + i) {
+				return false;
+			}
+		}
+		OgreLog.info("ClientEngine: recovering " + missed.length + " missed graph updates from data version "
+				+ fromDataVersion);
+		try {
+			applyGraphUpdates(missed);
+		} catch (InvalidGraphUpdateException e) {
+			OgreLog.error("ClientEngine: could not apply missed graph updates: " + e.getMessage());
+			return false;
+		}
+		return true;
+	}
 
-		// apply entity updates
-		PartialRawPropertyValueSet[] entityUpdates = update.getEntityUpdates();
-		for (int i = 0; i < entityUpdates.length; i++) {
-			PartialRawPropertyValueSet entityUpdate = entityUpdates[i];
-			Entity target = entities.getSimilar(entityUpdate);
-			if (target == null) {
-				OgreLog.error("ClientEngine: received diff '" + entityUpdate
-						+ "' but there is no local entity of the same ID and type to apply it to");
+	/**
+	 * Load a new snapshot of the object graph and apply the differences between it and the current
+	 * state as a single graph update. Entities that exist in both are updated in place, so that the
+	 * {@link Entity} objects held by facades and readers stay valid.
+	 */
+	private void reloadObjectGraph() {
+		ClientMetrics currentMetrics = metrics;
+		if (currentMetrics != null) {
+			currentMetrics.recordObjectGraphReload();
+		}
+		GraphUpdate snapshot;
+		try {
+			snapshot = adapter.loadObjectGraph(typeDomain, objectGraphId);
+		} catch (NoSuchThingException e) {
+			throw new OgreException("Could not reload object graph " + objectGraphId, e);
+		}
+		IdIndex[] reloaded = new IdIndex[typeDomain.getEntityTypeCount()];
+		for (int i = 0; i < reloaded.length; i++) {
+			reloaded[i] = new IdIndex();
+		}
+		ArrayBuilder creates = new ArrayBuilder(RawPropertyValueSet.class);
+		ArrayBuilder diffs = new ArrayBuilder(PartialRawPropertyValueSet.class);
+		ArrayBuilder deletes = new ArrayBuilder(EntityReference.class);
+		RawPropertyValueSet[] values = snapshot.getEntityCreates();
+		for (int i = 0; i < values.length; i++) {
+			reloaded[values[i].getEntityType().getEntityTypeIndex()].put(values[i].getEntityId(), i);
+			Entity existing = published.get().getSimilar(values[i]);
+			if (existing == null) {
+				creates.add(values[i]);
 			} else {
-				if (OgreLog.isInfoEnabled()) {
-					OgreLog.info("ClientStore: updating values of " + target + " due to " + entityUpdate);
+				EntityDiff diff = EntityDiff.build(existing, values[i]);
+				if (diff != null) {
+					diffs.add(diff);
 				}
-				target.update(entityUpdate, entities, newEntities);
 			}
 		}
+		Entity[] current = published.get().getEntities();
+		for (int i = 0; i < current.length; i++) {
+			if (!reloaded[current[i].getEntityType().getEntityTypeIndex()].contains(current[i].getEntityId())) {
+				deletes.add(new EntityReferenceImpl(current[i].getEntityType(), current[i].getEntityId()));
+			}
+		}
+		doApplyGraphUpdate(new GraphUpdate(typeDomain, objectGraphId, snapshot.getDataVersion(), snapshot
+				.getDataVersionScheme(), (RawPropertyValueSet[]) creates.buildArray(),
+				(PartialRawPropertyValueSet[]) diffs.buildArray(), (EntityReference[]) deletes.buildArray()));
+	}
 
-		// apply entity deletes
-		EntityReference[] entityDeletes = update.getEntityDeletes();
-		for (int i = 0; i < entityDeletes.length; i++) {
-			EntityReference entityDelete = entityDeletes[i];
-			Entity target = entities.getSimilar(entityDelete);
-			if (target == null) {
-				OgreLog.error("ClientEngine: received delete '" + entityDelete
-						+ "' but there is no local entity of the same ID and type to apply it to");
-			} else {
-				if (OgreLog.isInfoEnabled()) {
-					OgreLog.info("ClientStore: deleting entity " + target + " due to " + entityDelete);
+	private void doApplyGraphUpdate(GraphUpdate update) {
+		ClientMetrics currentMetrics = metrics;
+		long start = currentMetrics == null ? 0 : ClientMetrics.now();
+		OgreLog.info("ClientEngine: applying graph update {}", update);
+		if (OgreLog.isDebugEnabled()) {
+			OgreLog.debug(EDRDescriber.describeGraphUpdate(update));
+		}
+
+		boolean lazy = lazyReferences && update.getEntityDeletes().length == 0;
+		boolean validate = !trustedSource;
+
+		// with concurrent reads, apply the update to a fork that readers can't see until it's complete
+		EntityStore store = concurrentReads ? published.get().fork() : published.get();
+		store.setAppliedUpdate(update);
+
+		// with concurrent reads, the changes this makes to existing entities are staged until the
+		// store is published, and thrown away if the update fails
+		Entity[] newEntities;
+		Entity[] pending;
+		int updatedCount = 0;
+		int deletedCount = 0;
+		boolean applied = false;
+		try {
+			// entities can only be removed, or referrers updated, once every reference is indexed
+			if (pendingReferences != null) {
+				store.resolveLazyReferences(pendingReferences);
+			}
+
+			// pre-build the Entities that we're going to add, staging them in a separate store so that
+			// duplicate IDs and references between new entities are found by hash lookup
+			RawPropertyValueSet[] completeValues = update.getEntityCreates();
+			newEntities = new Entity[completeValues.length];
+			EntityStore staged = new EntityStore(typeDomain, false, false);
+			for (int i = 0; i < completeValues.length; i++) {
+				RawPropertyValueSet value = completeValues[i];
+				if (staged.containsSimilar(value)) {
+					throw new InvalidGraphUpdateException("Ignoring " + update
+							+ " message because it contains a duplicate ID: " + value.getEntityType() + "#"
+							+ value.getEntityId());
+				}
+				if (store.containsSimilar(value)) {
+					throw new InvalidGraphUpdateException("Ignoring " + update
+							+ " because it creates an entity that already exists in the client engine: " + value);
+				} else {
+					newEntities[i] = new Entity(value.getEntityType(), value.getEntityId(), null);
+					staged.add(newEntities[i]);
+				}
+			}
+			for (int i = 0; i < newEntities.length; i++) {
+				newEntities[i].update(completeValues[i], store, staged, lazy, validate); // wire up values
+			}
+			for (int i = 0; i < newEntities.length; i++) {
+				store.add(newEntities[i]);
+				touchQueries(newEntities[i]);
+			}
+			pending = lazy && newEntities.length > 0 ? newEntities : null;
+			if (!concurrentReads) {
+				// the new entities are already visible, even if the rest of the update fails
+				pendingReferences = pending;
+			}
+
+			// apply entity updates
+			PartialRawPropertyValueSet[] entityUpdates = update.getEntityUpdates();
+			for (int i = 0; i < entityUpdates.length; i++) {
+				PartialRawPropertyValueSet entityUpdate = entityUpdates[i];
+				Entity target = store.getSimilar(entityUpdate);
+				if (target == null) {
+					OgreLog.error("ClientEngine: received diff '" + entityUpdate
+							+ "' but there is no local entity of the same ID and type to apply it to");
+				} else {
+					OgreLog.info("ClientStore: updating values of {} due to {}", target, entityUpdate);
+					store.update(target, entityUpdate, staged, validate);
+					touchQueries(target);
+					updatedCount++;
+				}
+			}
+
+			// apply entity deletes
+			EntityReference[] entityDeletes = update.getEntityDeletes();
+			for (int i = 0; i < entityDeletes.length; i++) {
+				EntityReference entityDelete = entityDeletes[i];
+				Entity target = store.getSimilar(entityDelete);
+				if (target == null) {
+					OgreLog.error("ClientEngine: received delete '" + entityDelete
+							+ "' but there is no local entity of the same ID and type to apply it to");
+				} else {
+					OgreLog.info("ClientStore: deleting entity {} due to {}", target, entityDelete);
+					touchQueries(target);
+					touchReferringQueries(store, target);
+					store.removeSimilar(target);
+					deletedCount++;
 				}
-				entities.removeSimilar(target);
 			}
+			applied = true;
+		} finally {
+			if (!applied) {
+				store.discardStagedValues();
+			}
+		}
+
+		if (concurrentReads) {
+			// a reader that sees the new store must also see that it has unresolved references
+			if (pending != null) {
+				pendingReferences = pending;
+			}
+			published.publish(store);
+			pendingReferences = pending;
+			store.commitStagedValues();
 		}
 
 		if (graphUpdateListener != null) {
 			graphUpdateListener.acceptGraphUpdate(update);
 		}
+
+		notifyQueries(store, update);
+
+		if (currentMetrics != null) {
+			currentMetrics.recordUpdateApplied(update, start, newEntities.length, updatedCount, deletedCount);
+		}
 	}
 
-	public String toString() {
-		return "ClientEngine " + typeDomainId + "/" + objectGraphId;
+	private void resolvePendingReferences() {
+		if (pendingReferences == null) {
+			return;
+		}
+		if (concurrentReads) {
+			// the reverse reference index of the published store must not be modified
+			EntityStore store = published.get().fork();
+			store.resolveLazyReferences(pendingReferences);
+			published.publish(store);
+		} else {
+			published.get().resolveLazyReferences(pendingReferences);
+		}
+		pendingReferences = null;
+	}
+
+	private void touchQueries(Entity entity) {
+		for (int i = 0; i < queries.length; i++) {
+			if (queries[i].getEntityType() == entity.getEntityType()) {
+				queries[i].touch(entity);
+			}
+		}
 	}
+
+	// the entities that reference a deleted entity are changed when their references are nulled
+	private void touchReferringQueries(EntityStore store, Entity deleted) {
+		for (int i = 0; i < queries.length; i++) {
+			EntityType queryType = queries[i].getEntityType();
+			for (int j = 0; j < queryType.getPropertyCount(); j++) {
+				Property property = queryType.getProperty(j);
+				if (property instanceof ReferenceProperty
+						&& ((ReferenceProperty) property).getReferenceType() == deleted.getEntityType()) {
+					Entity[] referrers = store.getReferencesTo(deleted, (ReferenceProperty) property);
+					for (int k = 0; k < referrers.length; k++) {
+						queries[i].touch(referrers[k]);
+					}
+				}
+			}
+		}
+	}
+
+	private void notifyQueries(EntityStore store, GraphUpdate update) {
+		ContinuousQuery[] current = queries;
+		for (int i = 0; i < current.length; i++) {
+			QueryDelta delta = current[i].applyTouched(store, update);
+			if (delta != null && current[i].getListener() != null) {
+				current[i].getListener().acceptQueryDelta(current[i], delta);
+			}
+		}
+	}
+
 }
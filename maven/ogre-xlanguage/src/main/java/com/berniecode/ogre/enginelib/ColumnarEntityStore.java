@@ -0,0 +1,226 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import com.berniecode.ogre.enginelib.platformhooks.IdIndex;
+import com.berniecode.ogre.enginelib.platformhooks.InvalidGraphUpdateException;
+
+/**
+ * An alternative to {@link EntityStore} that stores property values in columns, one
+ * {@link EntityTable} per entity type, rather than in an array per {@link Entity}
+ * 
+ * <p>
+ * Integer and floating point values are stored unboxed in primitive arrays, and references are
+ * stored as the ID of the referenced entity, so an entity costs a few bytes per property rather
+ * than an object, an array and a boxed value per property. {@link Entity} objects returned by this
+ * store are lightweight handles onto table rows, created when first requested. References are
+ * resolved when they are read, and a reference to an entity that is not in the store reads as null.
+ * 
+ * <p>
+ * This store can be subscribed directly to a {@link ClientTransportAdapter}, as it applies
+ * {@link GraphUpdate}s itself. It does not maintain an index of reverse references or support
+ * snapshots, and, like {@link EntityStore}, it is not thread safe.
+ * 
+ * <p>
+ * An off-heap store keeps its columns in direct buffers outside the Java heap, laid out per entity
+ * type according to the type domain, so the garbage collector never has to trace or copy the
+ * stored values however large the object graph grows. Only the row index of each table, the
+ * handles that have been requested, and values as they are read, are on the heap.
+ * 
+ * @author Bernie Sumption
+ */
+public class ColumnarEntityStore implements GraphUpdateListener {
+
+	private final TypeDomain typeDomain;
+	private final EntityTable[] tables;
+	private final boolean offHeap;
+
+	public ColumnarEntityStore(TypeDomain typeDomain) {
+		this(typeDomain, false);
+	}
+
+	/**
+	 * @param offHeap whether to store property values outside the Java heap
+	 */
+	public ColumnarEntityStore(TypeDomain typeDomain, boolean offHeap) {
+		this.typeDomain = typeDomain;
+		this.offHeap = offHeap;
+		EntityType[] entityTypes = typeDomain.getEntityTypes();
+		tables = new EntityTable[entityTypes.length];
+		for (int i = 0; i < tables.length; i++) {
+			tables[i] = new EntityTable(this, entityTypes[i], offHeap);
+		}
+	}
+
+	/**
+	 * @return the type domain of the entities in this store
+	 */
+	public TypeDomain getTypeDomain() {
+		return typeDomain;
+	}
+
+	/**
+	 * @return true if this store keeps property values outside the Java heap
+	 */
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	/**
+	 * @return the table holding the entities of a specific type
+	 */
+	public EntityTable getTable(EntityType entityType) {
+		return tables[entityType.getEntityTypeIndex()];
+	}
+
+	/**
+	 * Check whether this store contains an entity with a specified type and ID
+	 */
+	public boolean contains(EntityType entityType, long id) {
+		return getTable(entityType).getRow(id) != -1;
+	}
+
+	/**
+	 * @return a handle onto a single {@link Entity} in this store specified by type and id, or
+	 *         null if there is no such {@link Entity} in the store
+	 */
+	public Entity get(EntityType entityType, long id) {
+		EntityTable table = getTable(entityType);
+		int row = table.getRow(id);
+		return row == -1 ? null : table.getEntity(row);
+	}
+
+	/**
+	 * @return handles onto every {@link Entity} of the specified {@link EntityType} in this store.
+	 *         This creates a handle for every entity of the type - use {@link #getTable(EntityType)}
+	 *         to scan the values of a large number of entities.
+	 */
+	public Entity[] getEntitiesByType(EntityType entityType) {
+		EntityTable table = getTable(entityType);
+		Entity[] result = new Entity[table.getRowCount()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = table.getEntity(i);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the number of entities in this store
+	 */
+	public int getEntityCount() {
+		int count = 0;
+		for (int i = 0; i < tables.length; i++) {
+			count += tables[i].getRowCount();
+		}
+		return count;
+	}
+
+	/**
+	 * Add an entity to the store
+	 * 
+	 * @throws InvalidGraphUpdateException if this store already contains an entity with the same
+	 *             type and ID, or the value is not valid for its entity type
+	 */
+	public void add(RawPropertyValueSet value) throws InvalidGraphUpdateException {
+		EntityTable table = getTable(value.getEntityType());
+		if (table.getRow(value.getEntityId()) != -1) {
+			throw new InvalidGraphUpdateException("The entity " + value.getEntityType() + "#"
+					+ value.getEntityId() + " already exists in this store");
+		}
+		table.validate(value);
+		table.add(value);
+	}
+
+	/**
+	 * Update the values of an entity in the store. A {@link PartialRawPropertyValueSet} only
+	 * updates the values that it contains.
+	 * 
+	 * @throws InvalidGraphUpdateException if this store does not contain the entity, or the value
+	 *             is not valid for its entity type
+	 */
+	public void update(RawPropertyValueSet value) throws InvalidGraphUpdateException {
+		EntityTable table = getTable(value.getEntityType());
+		int row = table.getRow(value.getEntityId());
+		if (row == -1) {
+			throw new InvalidGraphUpdateException("There is no entity " + value.getEntityType() + "#"
+					+ value.getEntityId() + " in this store to update");
+		}
+		table.validate(value);
+		table.update(row, value);
+	}
+
+	/**
+	 * Remove an entity from this store. This method has no effect if no such entity exists.
+	 */
+	public void remove(EntityType entityType, long id) {
+		getTable(entityType).remove(id);
+	}
+
+	/**
+	 * Apply a {@link GraphUpdate} to this store. Every create in the update is validated before
+	 * any are applied. Diffs and deletes for entities that are not in the store are logged and
+	 * ignored, as in {@link ClientEngine}.
+	 * 
+	 * @throws InvalidGraphUpdateException if the update creates an entity that already exists, or
+	 *             contains an invalid value
+	 */
+	public void acceptGraphUpdate(GraphUpdate update) throws InvalidGraphUpdateException {
+		RawPropertyValueSet[] creates = update.getEntityCreates();
+		IdIndex[] staged = new IdIndex[tables.length];
+		for (int i = 0; i < creates.length; i++) {
+			RawPropertyValueSet value = creates[i];
+			int typeIndex = value.getEntityType().getEntityTypeIndex();
+			if (staged[typeIndex] == null) {
+				staged[typeIndex] = new IdIndex();
+			}
+			if (staged[typeIndex].contains(value.getEntityId()) || tables[typeIndex].getRow(value.getEntityId()) != -1) {
+				throw new InvalidGraphUpdateException("Ignoring " + update + " because it creates "
+						+ value.getEntityType() + "#" + value.getEntityId() + " more than once");
+			}
+			staged[typeIndex].put(value.getEntityId(), i);
+			tables[typeIndex].validate(value);
+		}
+		for (int i = 0; i < creates.length; i++) {
+			getTable(creates[i].getEntityType()).add(creates[i]);
+		}
+
+		PartialRawPropertyValueSet[] updates = update.getEntityUpdates();
+		for (int i = 0; i < updates.length; i++) {
+			if (contains(updates[i].getEntityType(), updates[i].getEntityId())) {
+				update(updates[i]);
+			} else {
+				OgreLog.error("ColumnarEntityStore: received diff '" + updates[i]
+						+ "' but there is no local entity of the same ID and type to apply it to");
+			}
+		}
+
+		EntityReference[] deletes = update.getEntityDeletes();
+		for (int i = 0; i < deletes.length; i++) {
+			if (contains(deletes[i].getEntityType(), deletes[i].getEntityId())) {
+				remove(deletes[i].getEntityType(), deletes[i].getEntityId());
+			} else {
+				OgreLog.error("ColumnarEntityStore: received delete '" + deletes[i]
+						+ "' but there is no local entity of the same ID and type to apply it to");
+			}
+		}
+	}
+
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import com.berniecode.ogre.enginelib.platformhooks.ArrayBuilder;
+import com.berniecode.ogre.enginelib.platformhooks.EntityMap;
+
+/**
+ * A query over the entities of one {@link EntityType} that stays up to date as graph updates are
+ * applied. Create one using
+ * {@link ClientEngine#addContinuousQuery(EntityType, EntityPredicate, ContinuousQueryListener)}.
+ * 
+ * <p>
+ * The query keeps the set of entities that match its predicate. When a graph update is applied,
+ * only the entities of the query's type that it creates, changes or deletes are re-evaluated, and
+ * the query's listener is passed a {@link QueryDelta} describing the entities that were added to,
+ * removed from or changed within the matching set. Entities whose references are set to null
+ * because the referenced entity was deleted count as changed.
+ * 
+ * @author Bernie Sumption
+ */
+public class ContinuousQuery {
+
+	private final ClientEngine clientEngine;
+	private final EntityType entityType;
+	private final EntityPredicate predicate;
+	private final ContinuousQueryListener listener;
+
+	private EntityMap matches = new EntityMap();
+
+	// the entities touched by the graph update currently being applied
+	private EntityMap touched = new EntityMap();
+
+	ContinuousQuery(ClientEngine clientEngine, EntityType entityType, EntityPredicate predicate,
+			ContinuousQueryListener listener) {
+		this.clientEngine = clientEngine;
+		this.entityType = entityType;
+		this.predicate = predicate;
+		this.listener = listener;
+	}
+
+	/**
+	 * @return the type of the entities that this query selects from
+	 */
+	public EntityType getEntityType() {
+		return entityType;
+	}
+
+	/**
+	 * @return the predicate that entities must satisfy to match this query
+	 */
+	public EntityPredicate getPredicate() {
+		return predicate;
+	}
+
+	/**
+	 * @return the listener notified of changes to the matching entities, or null if there is none
+	 */
+	public ContinuousQueryListener getListener() {
+		return listener;
+	}
+
+	/**
+	 * @return the entities that currently match this query
+	 */
+	public synchronized Entity[] getMatches() {
+		return matches.getEntities();
+	}
+
+	/**
+	 * @return the number of entities that currently match this query
+	 */
+	public synchronized int getMatchCount() {
+		return matches.size();
+	}
+
+	/**
+	 * Stop updating this query
+	 */
+	public void close() {
+		clientEngine.removeContinuousQuery(this);
+	}
+
+	public String toString() {
+		return "continuous query over " + entityType;
+	}
+
+	//
+	// OGRE INTERNAL API
+	//
+
+	/**
+	 * Evaluate the query against every entity of its type
+	 * 
+	 * @return a delta containing the matching entities as additions
+	 */
+	synchronized QueryDelta initialise(Entity[] entities) {
+		ArrayBuilder added = new ArrayBuilder(Entity.class);
+		for (int i = 0; i < entities.length; i++) {
+			if (predicate.matches(entities[i])) {
+				matches.put(entities[i]);
+				added.add(entities[i]);
+			}
+		}
+		return new QueryDelta(null, (Entity[]) added.buildArray(), new Entity[0], new Entity[0]);
+	}
+
+	/**
+	 * Record that an entity of this query's type is being created, changed or deleted by the graph
+	 * update being applied
+	 */
+	void touch(Entity entity) {
+		touched.put(entity);
+	}
+
+	/**
+	 * Re-evaluate the touched entities against the store that a graph update has been applied to
+	 * 
+	 * @return the resulting changes, or null if there were none
+	 */
+	synchronized QueryDelta applyTouched(EntityStore store, GraphUpdate update) {
+		if (touched.size() == 0) {
+			return null;
+		}
+		Entity[] entities = touched.getEntities();
+		touched = new EntityMap();
+		ArrayBuilder added = new ArrayBuilder(Entity.class);
+		ArrayBuilder removed = new ArrayBuilder(Entity.class);
+		ArrayBuilder changed = new ArrayBuilder(Entity.class);
+		for (int i = 0; i < entities.length; i++) {
+			Entity entity = entities[i];
+			long id = entity.getEntityId();
+			Entity previous = matches.get(id);
+			boolean isMatch = store.get(entityType, id) == entity && predicate.matches(entity);
+			if (isMatch && previous == null) {
+				matches.put(entity);
+				added.add(entity);
+			} else if (!isMatch && previous != null) {
+				matches.remove(id);
+				removed.add(previous);
+			} else if (isMatch) {
+				changed.add(entity);
+			}
+		}
+		QueryDelta delta = new QueryDelta(update, (Entity[]) added.buildArray(), (Entity[]) removed.buildArray(),
+				(Entity[]) changed.buildArray());
+		return delta.isEmpty() ? null : delta;
+	}
+
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+/**
+ * A {@link RawPropertyValueSet} that holds its values in encoded form, and decodes a value each
+ * time {@link #getRawPropertyValue(Property)} is called
+ * 
+ * <p>
+ * When an {@link Entity} is created or updated from an EncodedPropertyValues, only the values of
+ * its {@link ReferenceProperty}s are decoded immediately. The Entity retains the
+ * EncodedPropertyValues in place of each of its other values, and decodes, validates and caches
+ * them one at a time as they are first read. Implementations must therefore be immutable and
+ * safe to use from multiple threads. They should also reject invalid values when they are
+ * created, since a value that fails to decode or validate when it is read causes an exception
+ * long after the graph update that carried it was applied.
+ * 
+ * @author Bernie Sumption
+ */
+public interface EncodedPropertyValues extends RawPropertyValueSet {
+
+}
@@ -46,7 +46,16 @@ public class Entity implements EntityReference, RawPropertyValueSet {
 
 	private final EntityType entityType;
 	private final long id;
-	private final Object[] values;
+	// replaced rather than modified when the Entity is updated, so that concurrent readers see
+	// either all or none of the changes made by an update. Values that have not yet been decoded
+	// are held as the EncodedPropertyValues they came from, and are replaced in place by their
+	// decoded value when first read. References that have not yet been resolved are held as
+	// LazyReferences until ClientEngine resolves them in bulk.
+	private volatile Object[] values;
+
+	// new values staged by a fork of a published EntityStore, which replace values once the fork
+	// has been published, or null if there are none
+	private volatile StagedValues stagedValues;
 
 	/**
 	 * Constructor
@@ -55,6 +64,18 @@ public class Entity implements EntityReference, RawPropertyValueSet {
 	 * to allow circular references.
 	 */
 	public Entity(EntityType entityType, long id, Object[] initialValues) {
+		this(entityType, id);
+		this.values = new Object[entityType.getPropertyCount()];
+		if (initialValues != null) {
+			updateFromArray(initialValues);
+		}
+	}
+
+	/**
+	 * Constructor for subclasses that store their property values elsewhere, and must override
+	 * {@link #getPropertyValue(Property)} and {@link #getRawPropertyValue(Property)}
+	 */
+	Entity(EntityType entityType, long id) {
 		if (id < 1) {
 			throw new OgreException("IDs must be positive integers between 1 and 2^52");
 		}
@@ -67,10 +88,6 @@ public class Entity implements EntityReference, RawPropertyValueSet {
 		}
 		this.entityType = entityType;
 		this.id = id;
-		this.values = new Object[entityType.getPropertyCount()];
-		if (initialValues != null) {
-			updateFromArray(initialValues);
-		}
 	}
 
 	/**
@@ -98,7 +115,7 @@ public class Entity implements EntityReference, RawPropertyValueSet {
 			throw new OgreException("property " + property + " belongs to entity type " + property.getEntityType()
 					+ ", but this Entity belongs to entity type " + entityType);
 		}
-		return values[property.getPropertyIndex()];
+		return decodeValue(getPublishedValues(), property);
 	}
 
 	/**
@@ -125,47 +142,169 @@ public class Entity implements EntityReference, RawPropertyValueSet {
 	 * 
 	 * <p>
 	 * {@link Entity} references will be resolved first from the supplied {@link EntityStore}, then
-	 * from the array of entities
+	 * from the store of entities that are staged to be added
+	 */
+	void update(RawPropertyValueSet update, EntityStore store, EntityStore staged) {
+		update(update, store, staged, false);
+	}
+
+	/**
+	 * Modify this {@link Entity} with data from an {@link RawPropertyValueSet} instance, optionally
+	 * storing references as {@link LazyReference}s to be resolved when first read. Lazy references
+	 * are not checked for existence, and are not added to the reverse reference index until
+	 * {@link EntityStore#resolveLazyReferences(Entity[])} is called.
+	 */
+	void update(RawPropertyValueSet update, EntityStore store, EntityStore staged, boolean lazyReferences) {
+		update(update, store, staged, lazyReferences, true);
+	}
+
+	/**
+	 * Modify this {@link Entity} with data from an {@link RawPropertyValueSet} instance, optionally
+	 * storing references as {@link LazyReference}s, and optionally skipping the check that each
+	 * value is of the correct type for its property. Values must only be trusted if they come from
+	 * a source that guarantees their types. References are always checked for existence unless
+	 * they are lazy.
+	 */
+	void update(RawPropertyValueSet update, EntityStore store, EntityStore staged, boolean lazyReferences,
+			boolean validate) {
+		values = getUpdatedValues(update, store, staged, lazyReferences, validate);
+	}
+
+	/**
+	 * @return the values that {@link #update(RawPropertyValueSet, EntityStore, EntityStore, boolean,
+	 *         boolean)} would give this Entity, without modifying it
 	 */
-	void update(RawPropertyValueSet update, EntityStore store, Entity[] array) {
+	Object[] getUpdatedValues(RawPropertyValueSet update, EntityStore store, EntityStore staged,
+			boolean lazyReferences, boolean validate) {
 		boolean isPartial = update instanceof PartialRawPropertyValueSet;
+		boolean isEncoded = update instanceof EncodedPropertyValues;
+		Object[] currentValues = getValues();
+		Object[] newValues = new Object[currentValues.length];
+		for (int i = 0; i < currentValues.length; i++) {
+			newValues[i] = currentValues[i];
+		}
 		for (int i = 0; i < entityType.getPropertyCount(); i++) {
 			Property property = entityType.getProperty(i);
 			boolean hasUpdatedValue = true;
 			if (isPartial) {
 				hasUpdatedValue = ((PartialRawPropertyValueSet) update).hasUpdatedValue(property);
 			}
-			if (hasUpdatedValue) {
+			if (hasUpdatedValue && isEncoded && !(property instanceof ReferenceProperty)) {
+				// decoded and validated by decodeValue() when first read
+				newValues[i] = update;
+			} else if (hasUpdatedValue) {
 				Object value = update.getRawPropertyValue(property);
-				// resolve Entity references
+				// resolve Entity references, or defer resolving them until they are read
 				if (value != null && property instanceof ReferenceProperty) {
 					EntityType refType = ((ReferenceProperty) property).getReferenceType();
 					long refId = ValueUtils.objectToId(value);
-					value = getEntity(refType, refId, store, array);
+					if (lazyReferences) {
+						newValues[i] = new LazyReference(refType, refId, store, staged);
+						continue;
+					}
+					value = getEntity(refType, refId, store, staged);
 					if (value == null) {
 						throw new InvalidGraphUpdateException("Property '" + property + "' of entity type "
 								+ property.getEntityType() + " references non-existant entity " + refType + "#" + refId);
 					}
 				}
-				ValueUtils.validatePropertyValue(property, value);
-				values[i] = value;
+				if (validate) {
+					property.getValidator().validate(value);
+				}
+				newValues[i] = value;
 			}
 		}
+		return newValues;
 	}
 
-	private Object getEntity(EntityType refType, long refId, EntityStore store, Entity[] array) {
-		Entity entity = null;
-		entity = store.get(refType, refId);
+	private Object getEntity(EntityType refType, long refId, EntityStore store, EntityStore staged) {
+		Entity entity = store.get(refType, refId);
 		if (entity == null) {
-			for (int i = 0; i < array.length; i++) {
-				if (array[i].getEntityType() == refType && array[i].getEntityId() == refId) {
-					entity = array[i];
-				}
-			}
+			entity = staged.get(refType, refId);
 		}
 		return entity;
 	}
 
+	/**
+	 * @return the array holding this Entity's property values, including any values staged by a
+	 *         store that has not been published yet, so this must only be called by the thread
+	 *         modifying the store. The array is replaced rather than modified when the Entity is
+	 *         updated, and must not be modified by the caller. Values in the array may not yet
+	 *         have been decoded; read them with {@link #decodeValue(Object[], Property)}.
+	 */
+	Object[] getValues() {
+		StagedValues current = stagedValues;
+		return current == null ? values : current.values;
+	}
+
+	/**
+	 * Replace this Entity's property values. If {@code store} has been forked from a published
+	 * store, the values are staged, and only become visible to readers when {@code store} is
+	 * published.
+	 */
+	void setValues(Object[] newValues, EntityStore store) {
+		if (store.isStaging()) {
+			stagedValues = new StagedValues(newValues, store);
+		} else {
+			values = newValues;
+		}
+	}
+
+	/**
+	 * Make the staged values permanent, once the store that staged them has been published
+	 */
+	void commitStagedValues() {
+		StagedValues current = stagedValues;
+		if (current != null) {
+			// values must be replaced before stagedValues is cleared, so readers never see the old values
+			values = current.values;
+			stagedValues = null;
+		}
+	}
+
+	/**
+	 * Throw away the staged values, if the store that staged them will never be published
+	 */
+	void discardStagedValues() {
+		stagedValues = null;
+	}
+
+	/**
+	 * @return the raw value of a property in an array returned by {@link #getValues()}, decoding it
+	 *         first if necessary, with references given by ID
+	 */
+	static Object getRawValue(Object[] values, Property property) {
+		Object value = decodeValue(values, property);
+		if (value != null && property instanceof ReferenceProperty) {
+			return ValueUtils.idToObject(((Entity) value).getEntityId());
+		}
+		return value;
+	}
+
+	/**
+	 * @return the value of a property in an array returned by {@link #getValues()}, decoding it
+	 *         first if necessary
+	 * 
+	 * <p>
+	 * Decoded values are written back into the array. Since decoding the same encoded value
+	 * always produces the same result, it does not matter if several threads do this at once, or
+	 * if the array is shared with a {@link GraphSnapshot}.
+	 */
+	static Object decodeValue(Object[] values, Property property) {
+		int index = property.getPropertyIndex();
+		Object value = values[index];
+		if (value instanceof EncodedPropertyValues) {
+			value = ((EncodedPropertyValues) value).getRawPropertyValue(property);
+			property.getValidator().validate(value);
+			values[index] = value;
+		} else if (value instanceof LazyReference) {
+			// not written back, as the reference must be added to the reverse reference index
+			// when it is, by EntityStore.resolveLazyReferences()
+			value = ((LazyReference) value).getEntity();
+		}
+		return value;
+	}
+
 	/**
 	 * Modify this {@link Entity} with data from an array. Each position in the array will be
 	 * interpreted as a propertyIndex
@@ -177,32 +316,42 @@ public class Entity implements EntityReference, RawPropertyValueSet {
 							+ entityType.getPropertyCount() + ", got " + update.length + ")");
 		}
 		for (int i = 0; i < update.length; i++) {
-			ValueUtils.validatePropertyValue(entityType.getProperty(i), update[i]);
+			entityType.getProperty(i).getValidator().validate(update[i]);
 			values[i] = update[i];
 		}
 	}
 
 	/**
-	 * Set references to a specified Entity to null. This is used to maintain referential integrity
-	 * when an entity is removed from an object graph
-	 * 
-	 * <p>
-	 * The entity is located by identity, not by entityType and id
+	 * Resolve each of this Entity's {@link LazyReference}s, replacing it with the referenced
+	 * Entity. The resolved references are not added to the reverse reference index, which is the
+	 * job of the {@link EntityStore} containing this Entity.
 	 */
-	void nullReferencesTo(EntityReference entity) {
+	void resolveLazyReferences() {
 		ReferenceProperty[] properties = entityType.getReferenceProperties();
+		Object[] values = getValues();
 		for (int i = 0; i < properties.length; i++) {
-			ReferenceProperty property = properties[i];
-			Object value = values[property.getPropertyIndex()];
-			if (value == null) {
-				continue;
-			}
-			if (property.getReferenceType() == entity.getEntityType()) {
-				if (((Entity) value).getEntityId() == entity.getEntityId()) {
-					values[property.getPropertyIndex()] = null;
-				}
+			int index = properties[i].getPropertyIndex();
+			Object value = values[index];
+			if (value instanceof LazyReference) {
+				values[index] = ((LazyReference) value).getEntity();
 			}
 		}
 	}
 
+	//
+	// PRIVATE MACHINERY
+	//
+
+	/**
+	 * @return the values that readers should see: the staged values if the store that staged them
+	 *         has been published, and the committed values otherwise
+	 */
+	private Object[] getPublishedValues() {
+		StagedValues current = stagedValues;
+		if (current != null && current.store.isPublished()) {
+			return current.values;
+		}
+		return values;
+	}
+
 }
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+/**
+ * A secondary index over the entities of one {@link EntityType} in an {@link EntityStore}, kept up
+ * to date by the store as entities are added, updated and removed
+ * 
+ * <p>
+ * When the store is forked, its indexes are shared with the fork until one of them modifies an
+ * entity of the indexed type, at which point that store copies the index.
+ * 
+ * @author Bernie Sumption
+ */
+public abstract class EntityIndex {
+
+	/**
+	 * @return the type of the entities in this index
+	 */
+	public abstract EntityType getEntityType();
+
+	//
+	// OGRE INTERNAL API
+	//
+
+	/**
+	 * Add an entity to this index, or move it if its property values have changed since it was
+	 * last added
+	 * 
+	 * @param values the entity's property values in the store that this index belongs to, as
+	 *            returned by {@link Entity#getValues()}, which readers may not be able to see yet
+	 */
+	abstract void update(Entity entity, Object[] values);
+
+	/**
+	 * Remove an entity from this index
+	 */
+	abstract void remove(Entity entity);
+
+	/**
+	 * @return a new index with the same contents as this one. Subsequent changes to either index
+	 *         do not affect the other.
+	 */
+	abstract EntityIndex copy();
+
+}
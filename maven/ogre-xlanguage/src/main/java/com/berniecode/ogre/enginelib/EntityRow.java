@@ -0,0 +1,78 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import com.berniecode.ogre.enginelib.platformhooks.OgreException;
+import com.berniecode.ogre.enginelib.platformhooks.ValueUtils;
+
+/**
+ * An {@link Entity} that is a handle onto a row of an {@link EntityTable}, and reads its property
+ * values from the table's columns. Once its entity has been removed from the table, every property
+ * of the handle reads as null.
+ * 
+ * @author Bernie Sumption
+ */
+class EntityRow extends Entity {
+
+	private final EntityTable table;
+
+	// the row of the table holding this entity's values, or -1 if it has been removed
+	int row;
+
+	EntityRow(EntityTable table, long id, int row) {
+		super(table.getEntityType(), id);
+		this.table = table;
+		this.row = row;
+	}
+
+	/**
+	 * @see Entity#getPropertyValue(Property)
+	 */
+	public Object getPropertyValue(Property property) {
+		if (property.getEntityType() != getEntityType()) {
+			throw new OgreException("property " + property + " belongs to entity type " + property.getEntityType()
+					+ ", but this Entity belongs to entity type " + getEntityType());
+		}
+		if (row == -1) {
+			return null;
+		}
+		if (property instanceof ReferenceProperty) {
+			long refId = table.getColumn(property).getLong(row);
+			if (refId == 0) {
+				return null;
+			}
+			return table.getStore().get(((ReferenceProperty) property).getReferenceType(), refId);
+		}
+		return table.getColumn(property).get(row);
+	}
+
+	/**
+	 * @see RawPropertyValueSet#getRawPropertyValue(Property)
+	 */
+	public Object getRawPropertyValue(Property property) {
+		if (property instanceof ReferenceProperty) {
+			Entity target = (Entity) getPropertyValue(property);
+			return target == null ? null : ValueUtils.idToObject(target.getEntityId());
+		}
+		return getPropertyValue(property);
+	}
+
+}
@@ -27,24 +27,199 @@ import com.berniecode.ogre.enginelib.platformhooks.OgreException;
 /**
  * A big ol' sack full of {@link Entity}s belonging to a single {@link TypeDomain}
  * 
+ * <p>
+ * The store keeps a reverse index of references between the entities that it contains, so that
+ * finding or nulling the references to an entity costs time proportional to the number of actual
+ * references rather than to the size of the object graph.
+ * 
+ * <p>
+ * A store can be forked to produce a copy that can be modified without affecting the original. The
+ * per-type indexes, including the reverse reference index, are shared between the two stores until
+ * one of them modifies entities of that type, so forking is cheap, and a reader can safely use a
+ * store that is no longer being modified while a writer prepares the next version in a fork. The
+ * {@link Entity} objects themselves are always shared. Once a store has been published by a
+ * {@link PublishedStore}, its forks stage the new values of the entities they modify, and readers
+ * only see them once the fork that staged them is published in turn.
+ * 
+ * <p>
+ * By default the entities of each type are kept in an {@link EntityMap}, which is copied in full
+ * the first time a fork modifies that type. A persistent store keeps them in a
+ * {@link PersistentIdMap} instead, which shares structure with its copies, so that a fork
+ * costs time proportional to the changes made to it rather than to the size of the types it
+ * touches. This is slower to read and modify, so it is only worth it for stores that are forked
+ * for every change.
+ * 
+ * <p>
+ * Once the first snapshot has been taken, the store also records the property values of each
+ * entity in a {@link PersistentIdMap} per entity type, from which {@link #snapshot(String)}
+ * takes each subsequent immutable {@link GraphSnapshot} in constant time. Stores that are never
+ * snapshotted don't pay for recording values. A persistent store's maps already hold the values,
+ * so it is always ready to take a snapshot.
+ * 
+ * <p>
+ * Secondary indexes can be added to a store with {@link #addIndex(EntityIndex)}, and are kept up
+ * to date as entities are added, updated and removed. Like the per-type maps of entities, they are
+ * shared with forks of the store until modified.
+ * 
  * @author Bernie Sumption
  */
 public class EntityStore {
 
+	private final TypeDomain typeDomain;
+
+	// the entities of each type, or null if this is a persistent store, in which case the entities
+	// are kept in versions
 	private final EntityMap[] entityMaps;
 
+	// whether this store supports snapshots, and the entities and entity values recorded for them
+	// by type and ID, which are null until the first snapshot is taken. versions[i] and
+	// versionValues[i] always have the same IDs.
+	private final boolean snapshots;
+	private PersistentIdMap[] versions;
+	private PersistentIdMap[] versionValues;
+
+	// the owner token of the recorded maps that this store may modify in place, which is replaced
+	// whenever they are shared with a fork or a snapshot
+	private Object edit = new Object();
+
+	// shared[i] is true if entityMaps[i] may also be used by another store, and must be copied
+	// before it is modified
+	private final boolean[] shared;
+
+	// the secondary indexes for each entity type, and whether each type's indexes may also be used
+	// by another store and must be copied before they are modified
+	private final EntityIndex[][] indexes;
+	private final boolean[] indexesShared;
+
+	// the reverse reference index: referrers[i][j] records the entities of type i that reference
+	// each entity through the property with index j, and is null if that property isn't a
+	// reference. Like the secondary indexes, each type's tables are copied before they are modified
+	// if they may also be used by another store.
+	private final ReferrerTable[][] referrers;
+	private final boolean[] referrersShared;
+
+	private GraphUpdate appliedUpdate;
+
+	// the holder that publishes this store or the store it was forked from, or null if it is not
+	// published, and the entities whose values this store has staged until it is published
+	private PublishedStore publisher;
+	private Entity[] stagedEntities = new Entity[0];
+	private int stagedCount;
+
 	public EntityStore(TypeDomain typeDomain) {
-		entityMaps = new EntityMap[typeDomain.getEntityTypes().length];
-		for (int i = 0; i < entityMaps.length; i++) {
-			entityMaps[i] = new EntityMap();
+		this(typeDomain, true, false);
+	}
+
+	/**
+	 * @param snapshots whether {@link #snapshot(String)} can be used. Stores that only exist
+	 *            briefly don't need to support it.
+	 * @param persistent whether to keep entities in maps that share structure with the maps of
+	 *            forks, which makes forks that modify large entity types cheaper but all other
+	 *            operations slower. A persistent store always supports snapshots.
+	 */
+	EntityStore(TypeDomain typeDomain, boolean snapshots, boolean persistent) {
+		int typeCount = typeDomain.getEntityTypes().length;
+		this.typeDomain = typeDomain;
+		this.snapshots = snapshots || persistent;
+		shared = new boolean[typeCount];
+		indexes = new EntityIndex[typeCount][];
+		indexesShared = new boolean[typeCount];
+		referrers = new ReferrerTable[typeCount][];
+		referrersShared = new boolean[typeCount];
+		if (persistent) {
+			entityMaps = null;
+			versions = new PersistentIdMap[typeCount];
+			versionValues = new PersistentIdMap[typeCount];
+		} else {
+			entityMaps = new EntityMap[typeCount];
+		}
+		for (int i = 0; i < typeCount; i++) {
+			if (persistent) {
+				versions[i] = new PersistentIdMap(edit);
+				versionValues[i] = new PersistentIdMap(edit);
+			} else {
+				entityMaps[i] = new EntityMap();
+			}
+			indexes[i] = new EntityIndex[0];
+			EntityType entityType = typeDomain.getEntityType(i);
+			referrers[i] = new ReferrerTable[entityType.getPropertyCount()];
+			ReferenceProperty[] properties = entityType.getReferenceProperties();
+			for (int j = 0; j < properties.length; j++) {
+				referrers[i][properties[j].getPropertyIndex()] = new ReferrerTable();
+			}
+		}
+	}
+
+	private EntityStore(TypeDomain typeDomain, EntityMap[] entityMaps, boolean snapshots,
+			PersistentIdMap[] versions, PersistentIdMap[] versionValues, EntityIndex[][] indexes,
+			ReferrerTable[][] referrers, GraphUpdate appliedUpdate, PublishedStore publisher) {
+		this.typeDomain = typeDomain;
+		this.entityMaps = entityMaps;
+		this.snapshots = snapshots;
+		this.versions = versions;
+		this.versionValues = versionValues;
+		this.indexes = indexes;
+		this.referrers = referrers;
+		this.appliedUpdate = appliedUpdate;
+		this.publisher = publisher;
+		shared = new boolean[indexes.length];
+		indexesShared = new boolean[indexes.length];
+		referrersShared = new boolean[indexes.length];
+		for (int i = 0; i < indexes.length; i++) {
+			shared[i] = true;
+			indexesShared[i] = true;
+			referrersShared[i] = true;
+		}
+	}
+
+	/**
+	 * @return a new store containing the same entities as this one. Adding entities to or removing
+	 *         entities from either store does not affect the other.
+	 */
+	public EntityStore fork() {
+		EntityMap[] forkedMaps = null;
+		if (entityMaps != null) {
+			forkedMaps = new EntityMap[entityMaps.length];
+			for (int i = 0; i < entityMaps.length; i++) {
+				forkedMaps[i] = entityMaps[i];
+				shared[i] = true;
+			}
+		}
+		EntityIndex[][] forkedIndexes = new EntityIndex[indexes.length][];
+		ReferrerTable[][] forkedReferrers = new ReferrerTable[indexes.length][];
+		for (int i = 0; i < indexes.length; i++) {
+			forkedIndexes[i] = indexes[i];
+			indexesShared[i] = true;
+			forkedReferrers[i] = referrers[i];
+			referrersShared[i] = true;
 		}
+		return new EntityStore(typeDomain, forkedMaps, snapshots, shareVersions(versions),
+				shareVersions(versionValues), forkedIndexes, forkedReferrers, appliedUpdate, publisher);
+	}
+
+	/**
+	 * @return an immutable view of the entities in this store and their current property values,
+	 *         stamped with the version of the last graph update applied to this store. The first
+	 *         snapshot taken from a store that isn't persistent takes time proportional to the
+	 *         number of entities in it, and starts recording the values that later snapshots need,
+	 *         which then take constant time.
+	 * 
+	 * @throws OgreException if this store was created without support for snapshots
+	 */
+	public GraphSnapshot snapshot(String objectGraphId) {
+		if (!snapshots) {
+			throw new OgreException("This EntityStore does not support snapshots");
+		}
+		startRecordingSnapshots();
+		return new GraphSnapshot(typeDomain, objectGraphId, appliedUpdate, shareVersions(versions),
+				shareVersions(versionValues));
 	}
 
 	/**
 	 * Check whether this store contains an entity with a specified type and ID
 	 */
 	public boolean contains(EntityType entityType, long id) {
-		return entityMaps[entityType.getEntityTypeIndex()].contains(id);
+		return get(entityType, id) != null;
 	}
 
 	/**
@@ -59,6 +234,9 @@ public class EntityStore {
 	 *         no such {@link Entity} in the store
 	 */
 	public Entity get(EntityType entityType, long id) {
+		if (entityMaps == null) {
+			return (Entity) versions[entityType.getEntityTypeIndex()].get(id);
+		}
 		return entityMaps[entityType.getEntityTypeIndex()].get(id);
 	}
 
@@ -76,17 +254,17 @@ public class EntityStore {
 	public void remove(EntityType entityType, long id) {
 		Entity entityToRemove = get(entityType, id);
 		if (entityToRemove != null) {
-			entityMaps[entityType.getEntityTypeIndex()].remove(id);
-
-			// null all references to the removed entity
-			for (int i = 0; i < entityMaps.length; i++) {
-				Entity[] entities = entityMaps[i].getEntities();
-				if (entities.length > 0 && entities[0].getEntityType().isReferenceTo(entityToRemove.getEntityType())) {
-					for (int j = 0; j < entities.length; j++) {
-						entities[j].nullReferencesTo(entityToRemove);
-					}
-				}
+			if (entityMaps != null) {
+				writableMap(entityType.getEntityTypeIndex()).remove(id);
 			}
+			removeFromIndexes(entityToRemove);
+			unindexReferences(entityToRemove);
+			if (versions != null) {
+				int entityTypeIndex = entityType.getEntityTypeIndex();
+				versions[entityTypeIndex] = versions[entityTypeIndex].remove(id, edit);
+				versionValues[entityTypeIndex] = versionValues[entityTypeIndex].remove(id, edit);
+			}
+			nullReferencesTo(entityToRemove);
 		}
 	}
 
@@ -108,7 +286,12 @@ public class EntityStore {
 		if (containsSimilar(entity)) {
 			throw new OgreException("The entity " + getSimilar(entity) + " already exists in this store");
 		}
-		entityMaps[entity.getEntityType().getEntityTypeIndex()].put(entity);
+		if (entityMaps != null) {
+			writableMap(entity.getEntityType().getEntityTypeIndex()).put(entity);
+		}
+		indexReferences(entity, null);
+		recordEntity(entity);
+		updateIndexes(entity);
 	}
 
 	/**
@@ -130,8 +313,9 @@ public class EntityStore {
 	 */
 	public Entity[] getEntities() {
 		ArrayBuilder resultList = new ArrayBuilder(Entity.class);
-		for (int i = 0; i < entityMaps.length; i++) {
-			resultList.addAll(entityMaps[i].getEntities());
+		EntityType[] entityTypes = typeDomain.getEntityTypes();
+		for (int i = 0; i < entityTypes.length; i++) {
+			resultList.addAll(getEntitiesByType(entityTypes[i]));
 		}
 		return (Entity[]) resultList.buildArray();
 	}
@@ -141,7 +325,424 @@ public class EntityStore {
 	 *         list is a copy of the internal list, and is safe to modify.
 	 */
 	public Entity[] getEntitiesByType(EntityType entityType) {
-		return entityMaps[entityType.getEntityTypeIndex()].getEntities();
+		int entityTypeIndex = entityType.getEntityTypeIndex();
+		if (entityMaps == null) {
+			Entity[] result = new Entity[versions[entityTypeIndex].size()];
+			versions[entityTypeIndex].getValues(result, 0);
+			return result;
+		}
+		return entityMaps[entityTypeIndex].getEntities();
+	}
+
+	/**
+	 * Pass every {@link Entity} in this store to a visitor, without copying. The visitor must not
+	 * modify the store.
+	 * 
+	 * @return false if the visitor stopped the iteration, true otherwise
+	 */
+	public boolean forEachEntity(EntityVisitor visitor) {
+		EntityType[] entityTypes = typeDomain.getEntityTypes();
+		for (int i = 0; i < entityTypes.length; i++) {
+			if (!forEachEntityOfType(entityTypes[i], visitor)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Pass every {@link Entity} of the specified {@link EntityType} in this store to a visitor,
+	 * without copying. The visitor must not modify the store.
+	 * 
+	 * @return false if the visitor stopped the iteration, true otherwise
+	 */
+	public boolean forEachEntityOfType(EntityType entityType, EntityVisitor visitor) {
+		if (entityMaps == null) {
+			return versions[entityType.getEntityTypeIndex()].forEach(visitor);
+		}
+		return entityMaps[entityType.getEntityTypeIndex()].forEach(visitor);
+	}
+
+	/**
+	 * @return the number of entities in this store
+	 */
+	public int getEntityCount() {
+		int count = 0;
+		EntityType[] entityTypes = typeDomain.getEntityTypes();
+		for (int i = 0; i < entityTypes.length; i++) {
+			count += getEntityCount(entityTypes[i]);
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of entities of the specified {@link EntityType} in this store
+	 */
+	public int getEntityCount(EntityType entityType) {
+		if (entityMaps == null) {
+			return versions[entityType.getEntityTypeIndex()].size();
+		}
+		return entityMaps[entityType.getEntityTypeIndex()].size();
+	}
+
+	/**
+	 * @return the entities in this store that reference the specified {@link Entity} through the
+	 *         specified {@link ReferenceProperty}. The returned list is a copy of the internal list,
+	 *         and is safe to modify.
+	 */
+	public Entity[] getReferencesTo(Entity entity, ReferenceProperty property) {
+		return referrers[property.getEntityType().getEntityTypeIndex()][property.getPropertyIndex()]
+				.get(entity.getEntityId());
+	}
+
+	/**
+	 * Add a secondary index to this store, and populate it with the entities of its type that are
+	 * already in the store
+	 */
+	public void addIndex(EntityIndex index) {
+		int entityTypeIndex = index.getEntityType().getEntityTypeIndex();
+		Entity[] existing = getEntitiesByType(index.getEntityType());
+		for (int i = 0; i < existing.length; i++) {
+			index.update(existing[i], existing[i].getValues());
+		}
+		EntityIndex[] current = writableIndexes(entityTypeIndex);
+		EntityIndex[] newIndexes = new EntityIndex[current.length + 1];
+		for (int i = 0; i < current.length; i++) {
+			newIndexes[i] = current[i];
+		}
+		newIndexes[current.length] = index;
+		indexes[entityTypeIndex] = newIndexes;
+	}
+
+	/**
+	 * @return the secondary indexes over entities of the specified type. The indexes must not be
+	 *         used after this store has been modified, as they may have been replaced by copies.
+	 */
+	public EntityIndex[] getIndexes(EntityType entityType) {
+		EntityIndex[] typeIndexes = indexes[entityType.getEntityTypeIndex()];
+		EntityIndex[] result = new EntityIndex[typeIndexes.length];
+		for (int i = 0; i < typeIndexes.length; i++) {
+			result[i] = typeIndexes[i];
+		}
+		return result;
+	}
+
+	//
+	// OGRE INTERNAL API
+	//
+
+	/**
+	 * @return the most recent {@link GraphUpdate} applied to this store by a {@link ClientEngine},
+	 *         or null if no update has been applied
+	 */
+	GraphUpdate getAppliedUpdate() {
+		return appliedUpdate;
+	}
+
+	void setAppliedUpdate(GraphUpdate appliedUpdate) {
+		this.appliedUpdate = appliedUpdate;
+	}
+
+	/**
+	 * @return true if this store is recording the entity values that snapshots need, which a
+	 *         persistent store always does and any other store starts doing when the first snapshot
+	 *         is taken
+	 */
+	boolean isRecordingSnapshots() {
+		return versions != null;
+	}
+
+	/**
+	 * Start recording the entity values that snapshots need, if this store supports snapshots and
+	 * isn't already recording them. This takes time proportional to the number of entities in the
+	 * store.
+	 */
+	void startRecordingSnapshots() {
+		if (!snapshots || versions != null) {
+			return;
+		}
+		PersistentIdMap[] recorded = new PersistentIdMap[entityMaps.length];
+		PersistentIdMap[] recordedValues = new PersistentIdMap[entityMaps.length];
+		for (int i = 0; i < entityMaps.length; i++) {
+			recorded[i] = new PersistentIdMap(edit);
+			recordedValues[i] = new PersistentIdMap(edit);
+			Entity[] typeEntities = entityMaps[i].getEntities();
+			for (int j = 0; j < typeEntities.length; j++) {
+				long id = typeEntities[j].getEntityId();
+				recorded[i] = recorded[i].put(id, typeEntities[j], edit);
+				recordedValues[i] = recordedValues[i].put(id, typeEntities[j].getValues(), edit);
+			}
+		}
+		versions = recorded;
+		versionValues = recordedValues;
+	}
+
+	/**
+	 * Modify an {@link Entity} with data from an {@link RawPropertyValueSet}, keeping the reverse
+	 * reference index up to date if the entity is in this store.
+	 * 
+	 * @see Entity#update(RawPropertyValueSet, EntityStore, EntityStore)
+	 */
+	void update(Entity entity, RawPropertyValueSet update, EntityStore staged) {
+		update(entity, update, staged, true);
+	}
+
+	/**
+	 * Modify an {@link Entity} as {@link #update(Entity, RawPropertyValueSet, EntityStore)} does,
+	 * optionally skipping the check that each value is of the correct type. The entity is not
+	 * modified if the update is invalid.
+	 * 
+	 * @see Entity#update(RawPropertyValueSet, EntityStore, EntityStore, boolean, boolean)
+	 */
+	void update(Entity entity, RawPropertyValueSet update, EntityStore staged, boolean validate) {
+		Object[] oldValues = entity.getValues();
+		setValues(entity, entity.getUpdatedValues(update, this, staged, false, validate));
+		if (get(entity.getEntityType(), entity.getEntityId()) == entity) {
+			indexReferences(entity, oldValues);
+			recordValues(entity);
+			updateIndexes(entity);
+		}
+	}
+
+	void setPublisher(PublishedStore publisher) {
+		this.publisher = publisher;
+	}
+
+	/**
+	 * @return true if this store is the one currently published by its {@link PublishedStore}
+	 */
+	boolean isPublished() {
+		return publisher != null && publisher.get() == this;
+	}
+
+	/**
+	 * @return true if this store stages the values of the entities it modifies rather than
+	 *         replacing them, because it was forked from a published store and hasn't been
+	 *         published itself
+	 */
+	boolean isStaging() {
+		return publisher != null && publisher.get() != this;
+	}
+
+	/**
+	 * Make the values staged by this store permanent. This must be called after this store has
+	 * been published, and before any other store is.
+	 */
+	void commitStagedValues() {
+		for (int i = 0; i < stagedCount; i++) {
+			stagedEntities[i].commitStagedValues();
+		}
+		stagedEntities = new Entity[0];
+		stagedCount = 0;
+	}
+
+	/**
+	 * Throw away the values staged by this store, which must never be published
+	 */
+	void discardStagedValues() {
+		for (int i = 0; i < stagedCount; i++) {
+			stagedEntities[i].discardStagedValues();
+		}
+		stagedEntities = new Entity[0];
+		stagedCount = 0;
+	}
+
+	/**
+	 * Resolve the {@link LazyReference}s of some entities and add them to the reverse reference
+	 * index. Entities that are no longer in this store are skipped, and entities whose references
+	 * have already been resolved are indexed again, so it does no harm to call this more than once
+	 * with the same entities.
+	 */
+	void resolveLazyReferences(Entity[] entities) {
+		for (int i = 0; i < entities.length; i++) {
+			Entity entity = entities[i];
+			if (get(entity.getEntityType(), entity.getEntityId()) == entity) {
+				entity.resolveLazyReferences();
+				indexReferences(entity, null);
+			}
+		}
+	}
+
+	//
+	// PRIVATE MACHINERY
+	//
+
+	private EntityMap writableMap(int entityTypeIndex) {
+		if (shared[entityTypeIndex]) {
+			entityMaps[entityTypeIndex] = entityMaps[entityTypeIndex].copy();
+			shared[entityTypeIndex] = false;
+		}
+		return entityMaps[entityTypeIndex];
+	}
+
+	private ReferrerTable[] writableReferrers(int entityTypeIndex) {
+		if (referrersShared[entityTypeIndex]) {
+			ReferrerTable[] typeReferrers = referrers[entityTypeIndex];
+			ReferrerTable[] copies = new ReferrerTable[typeReferrers.length];
+			for (int i = 0; i < typeReferrers.length; i++) {
+				if (typeReferrers[i] != null) {
+					copies[i] = typeReferrers[i].copy();
+				}
+			}
+			referrers[entityTypeIndex] = copies;
+			referrersShared[entityTypeIndex] = false;
+		}
+		return referrers[entityTypeIndex];
+	}
+
+	/**
+	 * Bring the reverse reference index up to date with an entity's current references, given the
+	 * values that it had when it was last indexed, or null to index every reference. Unresolved
+	 * {@link LazyReference}s are left out of the index.
+	 */
+	private void indexReferences(Entity entity, Object[] oldValues) {
+		ReferenceProperty[] properties = entity.getEntityType().getReferenceProperties();
+		Object[] values = entity.getValues();
+		ReferrerTable[] typeReferrers = null;
+		for (int i = 0; i < properties.length; i++) {
+			int propertyIndex = properties[i].getPropertyIndex();
+			Object oldTarget = oldValues == null ? null : oldValues[propertyIndex];
+			Object target = values[propertyIndex];
+			if (oldTarget == target) {
+				continue;
+			}
+			if (typeReferrers == null) {
+				typeReferrers = writableReferrers(entity.getEntityType().getEntityTypeIndex());
+			}
+			if (oldTarget instanceof Entity) {
+				typeReferrers[propertyIndex].remove(((Entity) oldTarget).getEntityId(), entity.getEntityId());
+			}
+			if (target instanceof Entity) {
+				typeReferrers[propertyIndex].add(((Entity) target).getEntityId(), entity);
+			}
+		}
+	}
+
+	private void unindexReferences(Entity entity) {
+		ReferenceProperty[] properties = entity.getEntityType().getReferenceProperties();
+		Object[] values = entity.getValues();
+		for (int i = 0; i < properties.length; i++) {
+			int propertyIndex = properties[i].getPropertyIndex();
+			if (values[propertyIndex] instanceof Entity) {
+				long target = ((Entity) values[propertyIndex]).getEntityId();
+				writableReferrers(entity.getEntityType().getEntityTypeIndex())[propertyIndex].remove(target,
+						entity.getEntityId());
+			}
+		}
+	}
+
+	/**
+	 * Set every indexed reference to an entity that is being removed to null
+	 */
+	private void nullReferencesTo(Entity removed) {
+		EntityType[] entityTypes = typeDomain.getEntityTypes();
+		for (int i = 0; i < entityTypes.length; i++) {
+			ReferenceProperty[] properties = entityTypes[i].getReferenceProperties();
+			for (int j = 0; j < properties.length; j++) {
+				if (properties[j].getReferenceType() != removed.getEntityType()) {
+					continue;
+				}
+				Entity[] modified = referrers[i][properties[j].getPropertyIndex()].get(removed.getEntityId());
+				if (modified.length == 0) {
+					continue;
+				}
+				writableReferrers(i)[properties[j].getPropertyIndex()].removeAll(removed.getEntityId());
+				for (int k = 0; k < modified.length; k++) {
+					Object[] values = modified[k].getValues();
+					Object[] newValues = new Object[values.length];
+					for (int m = 0; m < values.length; m++) {
+						newValues[m] = values[m];
+					}
+					newValues[properties[j].getPropertyIndex()] = null;
+					setValues(modified[k], newValues);
+					recordValues(modified[k]);
+					updateIndexes(modified[k]);
+				}
+			}
+		}
+	}
+
+	private EntityIndex[] writableIndexes(int entityTypeIndex) {
+		if (indexesShared[entityTypeIndex]) {
+			EntityIndex[] typeIndexes = indexes[entityTypeIndex];
+			EntityIndex[] copies = new EntityIndex[typeIndexes.length];
+			for (int i = 0; i < typeIndexes.length; i++) {
+				copies[i] = typeIndexes[i].copy();
+			}
+			indexes[entityTypeIndex] = copies;
+			indexesShared[entityTypeIndex] = false;
+		}
+		return indexes[entityTypeIndex];
+	}
+
+	private void updateIndexes(Entity entity) {
+		int entityTypeIndex = entity.getEntityType().getEntityTypeIndex();
+		if (indexes[entityTypeIndex].length > 0) {
+			EntityIndex[] typeIndexes = writableIndexes(entityTypeIndex);
+			for (int i = 0; i < typeIndexes.length; i++) {
+				typeIndexes[i].update(entity, entity.getValues());
+			}
+		}
+	}
+
+	private void removeFromIndexes(Entity entity) {
+		int entityTypeIndex = entity.getEntityType().getEntityTypeIndex();
+		if (indexes[entityTypeIndex].length > 0) {
+			EntityIndex[] typeIndexes = writableIndexes(entityTypeIndex);
+			for (int i = 0; i < typeIndexes.length; i++) {
+				typeIndexes[i].remove(entity);
+			}
+		}
+	}
+
+	private void setValues(Entity entity, Object[] values) {
+		entity.setValues(values, this);
+		if (isStaging()) {
+			if (stagedCount == stagedEntities.length) {
+				Entity[] grown = new Entity[Math.max(stagedCount * 2, 8)];
+				for (int i = 0; i < stagedCount; i++) {
+					grown[i] = stagedEntities[i];
+				}
+				stagedEntities = grown;
+			}
+			stagedEntities[stagedCount++] = entity;
+		}
+	}
+
+	private void recordEntity(Entity entity) {
+		if (versions != null) {
+			int entityTypeIndex = entity.getEntityType().getEntityTypeIndex();
+			versions[entityTypeIndex] = versions[entityTypeIndex].put(entity.getEntityId(), entity, edit);
+			recordValues(entity);
+		}
+	}
+
+	/**
+	 * Record the current values of an entity that has already been recorded by
+	 * {@link #recordEntity(Entity)}
+	 */
+	private void recordValues(Entity entity) {
+		if (versionValues != null) {
+			int entityTypeIndex = entity.getEntityType().getEntityTypeIndex();
+			versionValues[entityTypeIndex] = versionValues[entityTypeIndex].put(entity.getEntityId(),
+					entity.getValues(), edit);
+		}
+	}
+
+	/**
+	 * @return a copy of an array of recorded maps for a fork or snapshot to use, after which this
+	 *         store stops modifying the maps in place
+	 */
+	private PersistentIdMap[] shareVersions(PersistentIdMap[] maps) {
+		if (maps == null) {
+			return null;
+		}
+		edit = new Object();
+		PersistentIdMap[] copies = new PersistentIdMap[maps.length];
+		for (int i = 0; i < maps.length; i++) {
+			copies[i] = maps[i];
+		}
+		return copies;
 	}
 
 }
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import com.berniecode.ogre.enginelib.platformhooks.IdIndex;
+import com.berniecode.ogre.enginelib.platformhooks.InvalidGraphUpdateException;
+import com.berniecode.ogre.enginelib.platformhooks.OgreException;
+import com.berniecode.ogre.enginelib.platformhooks.ValueColumn;
+import com.berniecode.ogre.enginelib.platformhooks.ValueUtils;
+
+/**
+ * The entities of a single {@link EntityType} in a {@link ColumnarEntityStore}, stored as rows of
+ * a table with one {@link ValueColumn} per property.
+ * 
+ * <p>
+ * Rows are kept dense: removing an entity moves the last row into its place, so row numbers are
+ * only stable between modifications. Scanning a column with {@link #getRowCount()} and the typed
+ * accessors of {@link ValueColumn} reads primitive arrays directly without creating any objects.
+ * {@link Entity} handles onto rows are created on demand and then kept, so a given entity always
+ * has the same handle.
+ * 
+ * @author Bernie Sumption
+ */
+public class EntityTable {
+
+	private final ColumnarEntityStore store;
+	private final EntityType entityType;
+	private final ValueColumn[] columns;
+
+	private long[] ids;
+	private int rowCount;
+	private final IdIndex rows = new IdIndex();
+
+	// handles onto rows, allocated when the first handle is requested
+	private EntityRow[] handles;
+
+	EntityTable(ColumnarEntityStore store, EntityType entityType, boolean offHeap) {
+		this.store = store;
+		this.entityType = entityType;
+		columns = new ValueColumn[entityType.getPropertyCount()];
+		for (int i = 0; i < columns.length; i++) {
+			columns[i] = new ValueColumn(entityType.getProperty(i), offHeap);
+		}
+		ids = new long[columns.length == 0 ? 8 : columns[0].getCapacity()];
+	}
+
+	/**
+	 * @return the type of the entities in this table
+	 */
+	public EntityType getEntityType() {
+		return entityType;
+	}
+
+	/**
+	 * @return the number of entities in this table
+	 */
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	/**
+	 * @return the row holding the entity with the specified ID, or -1 if there is no such entity
+	 */
+	public int getRow(long id) {
+		return rows.get(id);
+	}
+
+	/**
+	 * @return the ID of the entity in a row
+	 */
+	public long getEntityId(int row) {
+		return ids[row];
+	}
+
+	/**
+	 * @return the column holding the values of a property
+	 * 
+	 * @throws OgreException if the property does not belong to this table's entity type
+	 */
+	public ValueColumn getColumn(Property property) {
+		if (property.getEntityType() != entityType) {
+			throw new OgreException("property " + property + " belongs to entity type " + property.getEntityType()
+					+ ", but this table holds entity type " + entityType);
+		}
+		return columns[property.getPropertyIndex()];
+	}
+
+	/**
+	 * @return an {@link Entity} handle onto a row
+	 */
+	public Entity getEntity(int row) {
+		if (handles == null) {
+			handles = new EntityRow[ids.length];
+		}
+		EntityRow handle = handles[row];
+		if (handle == null) {
+			handle = new EntityRow(this, ids[row], row);
+			handles[row] = handle;
+		}
+		return handle;
+	}
+
+	//
+	// OGRE INTERNAL API
+	//
+
+	ColumnarEntityStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Check that the values in a {@link RawPropertyValueSet} can be stored in this table
+	 * 
+	 * @throws InvalidGraphUpdateException if any value is invalid
+	 */
+	void validate(RawPropertyValueSet value) {
+		if (value.getEntityId() < Entity.MIN_ID) {
+			throw new InvalidGraphUpdateException("IDs must be positive integers between 1 and 2^52");
+		}
+		boolean isPartial = value instanceof PartialRawPropertyValueSet;
+		for (int i = 0; i < columns.length; i++) {
+			Property property = entityType.getProperty(i);
+			if (!isPartial || ((PartialRawPropertyValueSet) value).hasUpdatedValue(property)) {
+				ValueUtils.validateRawPropertyValue(property, value.getRawPropertyValue(property));
+			}
+		}
+	}
+
+	/**
+	 * Add a row. The value must already have been validated, and must not have the same ID as an
+	 * existing row.
+	 */
+	void add(RawPropertyValueSet value) {
+		int row = rowCount;
+		if (row == ids.length) {
+			long[] newIds = new long[row * 2];
+			System.arraycopy(ids, 0, newIds, 0, row);
+			ids = newIds;
+			if (handles != null) {
+				EntityRow[] newHandles = new EntityRow[newIds.length];
+				System.arraycopy(handles, 0, newHandles, 0, row);
+				handles = newHandles;
+			}
+		}
+		for (int i = 0; i < columns.length; i++) {
+			columns[i].ensureCapacity(ids.length);
+			columns[i].set(row, value.getRawPropertyValue(entityType.getProperty(i)));
+		}
+		ids[row] = value.getEntityId();
+		rows.put(value.getEntityId(), row);
+		rowCount++;
+	}
+
+	/**
+	 * Update a row with the values in a {@link RawPropertyValueSet}, which must already have been
+	 * validated. A {@link PartialRawPropertyValueSet} only updates the values that it contains.
+	 */
+	void update(int row, RawPropertyValueSet value) {
+		boolean isPartial = value instanceof PartialRawPropertyValueSet;
+		for (int i = 0; i < columns.length; i++) {
+			Property property = entityType.getProperty(i);
+			if (!isPartial || ((PartialRawPropertyValueSet) value).hasUpdatedValue(property)) {
+				columns[i].set(row, value.getRawPropertyValue(property));
+			}
+		}
+	}
+
+	/**
+	 * Remove the row holding an entity. This method has no effect if no such entity exists.
+	 */
+	void remove(long id) {
+		int row = rows.remove(id);
+		if (row == -1) {
+			return;
+		}
+		int last = rowCount - 1;
+		if (handles != null && handles[row] != null) {
+			handles[row].row = -1;
+		}
+		if (row != last) {
+			// move the last row into the hole
+			for (int i = 0; i < columns.length; i++) {
+				columns[i].move(last, row);
+			}
+			ids[row] = ids[last];
+			rows.put(ids[row], row);
+			if (handles != null) {
+				handles[row] = handles[last];
+				if (handles[row] != null) {
+					handles[row].row = row;
+				}
+			}
+		}
+		for (int i = 0; i < columns.length; i++) {
+			columns[i].clear(last);
+		}
+		if (handles != null) {
+			handles[last] = null;
+		}
+		rowCount--;
+	}
+
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import com.berniecode.ogre.enginelib.platformhooks.ValueUtils;
+
+/**
+ * An immutable view of the state of an object graph at a particular data version. Taking a
+ * snapshot takes constant time, and the snapshot is not affected by graph updates applied after it
+ * was taken, so it can be kept and read at leisure while the object graph continues to change.
+ * 
+ * <p>
+ * Entities are returned as {@link EntityValue}s, with references represented by the ID of the
+ * referenced entity. Entities of each type are returned in ascending ID order.
+ * 
+ * @author Bernie Sumption
+ */
+public class GraphSnapshot {
+
+	private final TypeDomain typeDomain;
+	private final String objectGraphId;
+	private final int dataVersion;
+	private final int dataVersionScheme;
+	// the entities of each type and their values, by ID
+	private final PersistentIdMap[] versions;
+	private final PersistentIdMap[] versionValues;
+
+	GraphSnapshot(TypeDomain typeDomain, String objectGraphId, GraphUpdate appliedUpdate, PersistentIdMap[] versions,
+			PersistentIdMap[] versionValues) {
+		this.typeDomain = typeDomain;
+		this.objectGraphId = objectGraphId;
+		this.dataVersion = appliedUpdate == null ? 0 : appliedUpdate.getDataVersion();
+		this.dataVersionScheme = appliedUpdate == null ? 0 : appliedUpdate.getDataVersionScheme();
+		this.versions = versions;
+		this.versionValues = versionValues;
+	}
+
+	/**
+	 * @return the type domain of the object graph
+	 */
+	public TypeDomain getTypeDomain() {
+		return typeDomain;
+	}
+
+	/**
+	 * @return the id of the object graph
+	 */
+	public String getObjectGraphId() {
+		return objectGraphId;
+	}
+
+	/**
+	 * @return the data version of the last graph update included in this snapshot, or 0 if no
+	 *         update was included
+	 */
+	public int getDataVersion() {
+		return dataVersion;
+	}
+
+	/**
+	 * @return the data version scheme of the last graph update included in this snapshot, or 0 if
+	 *         no update was included
+	 */
+	public int getDataVersionScheme() {
+		return dataVersionScheme;
+	}
+
+	/**
+	 * @return the total number of entities in this snapshot
+	 */
+	public int getEntityCount() {
+		int count = 0;
+		for (int i = 0; i < versions.length; i++) {
+			count += versions[i].size();
+		}
+		return count;
+	}
+
+	/**
+	 * @return the number of entities of a specific type in this snapshot
+	 */
+	public int getEntityCount(EntityType entityType) {
+		return versions[entityType.getEntityTypeIndex()].size();
+	}
+
+	/**
+	 * @return the value of a single entity specified by type and id, or null if there was no such
+	 *         entity
+	 */
+	public EntityValue getEntity(EntityType entityType, long id) {
+		Object[] values = (Object[]) versionValues[entityType.getEntityTypeIndex()].get(id);
+		if (values == null) {
+			return null;
+		}
+		return toEntityValue(entityType, id, values);
+	}
+
+	/**
+	 * @return the values of every entity of the specified type, in ascending ID order
+	 */
+	public EntityValue[] getEntitiesByType(EntityType entityType) {
+		EntityValue[] result = new EntityValue[getEntityCount(entityType)];
+		addEntities(entityType, result, 0);
+		return result;
+	}
+
+	/**
+	 * @return the values of every entity in this snapshot
+	 */
+	public EntityValue[] getEntities() {
+		EntityValue[] result = new EntityValue[getEntityCount()];
+		EntityType[] entityTypes = typeDomain.getEntityTypes();
+		int offset = 0;
+		for (int i = 0; i < entityTypes.length; i++) {
+			offset = addEntities(entityTypes[i], result, offset);
+		}
+		return result;
+	}
+
+	/**
+	 * @return a {@link GraphUpdate} that creates every entity in this snapshot, suitable for
+	 *         exporting or for initialising another client
+	 */
+	public GraphUpdate toGraphUpdate() {
+		return new GraphUpdate(typeDomain, objectGraphId, dataVersion, dataVersionScheme, getEntities(), null, null);
+	}
+
+	public String toString() {
+		return "snapshot #" + dataVersion + " of " + typeDomain.getTypeDomainId() + "/" + objectGraphId;
+	}
+
+	//
+	// PRIVATE MACHINERY
+	//
+
+	private int addEntities(EntityType entityType, EntityValue[] result, int offset) {
+		int entityTypeIndex = entityType.getEntityTypeIndex();
+		Entity[] entities = new Entity[versions[entityTypeIndex].size()];
+		Object[][] values = new Object[entities.length][];
+		versions[entityTypeIndex].getValues(entities, 0);
+		versionValues[entityTypeIndex].getValues(values, 0);
+		for (int i = 0; i < entities.length; i++) {
+			result[offset++] = toEntityValue(entityType, entities[i].getEntityId(), values[i]);
+		}
+		return offset;
+	}
+
+	/**
+	 * Convert recorded Entity values, which hold references as Entity objects, to raw values
+	 */
+	private static EntityValue toEntityValue(EntityType entityType, long id, Object[] values) {
+		Object[] raw = new Object[values.length];
+		for (int i = 0; i < values.length; i++) {
+			Object value = Entity.decodeValue(values, entityType.getProperty(i));
+			if (value != null && entityType.getProperty(i) instanceof ReferenceProperty) {
+				value = ValueUtils.idToObject(((Entity) value).getEntityId());
+			}
+			raw[i] = value;
+		}
+		return new EntityValue(entityType, id, raw);
+	}
+
+}
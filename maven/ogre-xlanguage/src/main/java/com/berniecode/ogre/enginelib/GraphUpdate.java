@@ -20,6 +20,8 @@
 
 package com.berniecode.ogre.enginelib;
 
+import com.berniecode.ogre.enginelib.platformhooks.OgreException;
+
 /**
  * Represents a change to an object graph.
  * 
@@ -102,6 +104,20 @@ public class GraphUpdate {
 		return entityDeletes;
 	}
 
+	/**
+	 * @return a single update with the same effect as applying this update followed by the next
+	 *         one in the sequence
+	 * 
+	 * @throws OgreException if the updates can't be squashed together (see
+	 *             {@link GraphUpdateSquasher#canAdd(GraphUpdate)})
+	 */
+	public GraphUpdate compose(GraphUpdate next) {
+		GraphUpdateSquasher squasher = new GraphUpdateSquasher();
+		squasher.add(this);
+		squasher.add(next);
+		return squasher.toGraphUpdate();
+	}
+
 	public String toString() {
 		return "graph update #" + dataVersion + " for " + typeDomain.getTypeDomainId() + "/" + objectGraphId;
 	}
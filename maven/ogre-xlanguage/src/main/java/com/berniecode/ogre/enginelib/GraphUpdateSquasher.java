@@ -0,0 +1,364 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import com.berniecode.ogre.enginelib.platformhooks.ArrayBuilder;
+import com.berniecode.ogre.enginelib.platformhooks.IdIndex;
+import com.berniecode.ogre.enginelib.platformhooks.OgreException;
+import com.berniecode.ogre.enginelib.platformhooks.ValueUtils;
+
+/**
+ * Merges a sequence of consecutive {@link GraphUpdate}s into a single {@link GraphUpdate} that has
+ * the same effect when applied to a {@link ClientEngine}.
+ * 
+ * <p>
+ * The squashed update holds at most one create, diff or delete for each entity touched by the
+ * sequence: repeated diffs are merged, a diff to a newly created entity is folded into its create,
+ * a delete supersedes any diffs, and an entity that is created and then deleted is left out
+ * entirely, along with any references to it. Its size is therefore bounded by the number of
+ * distinct entities touched rather than the number of updates.
+ * 
+ * <p>
+ * Some sequences can't be squashed. An entity that is deleted and then created again would have
+ * to appear as both a delete and a create, but a {@link ClientEngine} applies creates before
+ * deletes. {@link #canAdd(GraphUpdate)} returns false for an update that creates an entity that
+ * an earlier update in the sequence has touched, or that isn't the next update in the sequence,
+ * and such an update must be applied on its own or used to start a new sequence.
+ * 
+ * @author Bernie Sumption
+ */
+public class GraphUpdateSquasher {
+
+	private static final int CREATED = 1;
+	private static final int DIFFED = 2;
+	private static final int DELETED = 3;
+	private static final int CANCELLED = 4;
+
+	private GraphUpdate firstUpdate;
+	private GraphUpdate lastUpdate;
+	private int updateCount;
+
+	// for each entity type, maps entity IDs to entry indices
+	private IdIndex[] entryIndices;
+
+	// one entry per entity touched, in the order they were first touched
+	private EntityType[] entryTypes;
+	private long[] entryIds;
+	private int[] entryStates;
+	// raw property values, and for diffs which of those values have been changed
+	private Object[][] entryValues;
+	private boolean[][] entryChanged;
+	private int entryCount;
+
+	/**
+	 * Merge a sequence of updates into as few updates as possible, each of which squashes a run of
+	 * consecutive updates that can be squashed together
+	 */
+	public static GraphUpdate[] squash(GraphUpdate[] updates) {
+		ArrayBuilder result = new ArrayBuilder(GraphUpdate.class);
+		GraphUpdateSquasher squasher = new GraphUpdateSquasher();
+		for (int i = 0; i < updates.length; i++) {
+			if (!squasher.canAdd(updates[i])) {
+				if (!squasher.isEmpty()) {
+					result.add(squasher.toGraphUpdate());
+					squasher.clear();
+				}
+				if (!squasher.canAdd(updates[i])) {
+					// can't be squashed with anything - an invalid update that the client engine will reject
+					result.add(updates[i]);
+					continue;
+				}
+			}
+			squasher.add(updates[i]);
+		}
+		if (!squasher.isEmpty()) {
+			result.add(squasher.toGraphUpdate());
+		}
+		return (GraphUpdate[]) result.buildArray();
+	}
+
+	/**
+	 * @return true if no updates have been added since this squasher was created or cleared
+	 */
+	public boolean isEmpty() {
+		return updateCount == 0;
+	}
+
+	/**
+	 * @return the number of updates that have been added since this squasher was created or
+	 *         cleared
+	 */
+	public int getUpdateCount() {
+		return updateCount;
+	}
+
+	/**
+	 * @return the first update added since this squasher was created or cleared, or null if it is
+	 *         empty
+	 */
+	public GraphUpdate getFirstUpdate() {
+		return firstUpdate;
+	}
+
+	/**
+	 * @return true if an update can be squashed together with the updates that have already been
+	 *         added. It must be for the same object graph and data version scheme and have the next
+	 *         data version, and may not create an entity that an earlier update has created, updated
+	 *         or deleted, or create the same entity twice.
+	 */
+	public boolean canAdd(GraphUpdate update) {
+		if (lastUpdate != null) {
+			if (update.getTypeDomain() != lastUpdate.getTypeDomain()
+					|| !update.getObjectGraphId().equals(lastUpdate.getObjectGraphId())
+					|| update.getDataVersionScheme() != lastUpdate.getDataVersionScheme()
+					|| update.getDataVersion() != lastUpdate.getDataVersion() + 1) {
+				return false;
+			}
+		}
+		RawPropertyValueSet[] creates = update.getEntityCreates();
+		IdIndex[] created = new IdIndex[update.getTypeDomain().getEntityTypeCount()];
+		for (int i = 0; i < creates.length; i++) {
+			if (findEntry(creates[i]) != -1) {
+				return false;
+			}
+			int typeIndex = creates[i].getEntityType().getEntityTypeIndex();
+			if (created[typeIndex] == null) {
+				created[typeIndex] = new IdIndex();
+			}
+			if (created[typeIndex].contains(creates[i].getEntityId())) {
+				return false;
+			}
+			created[typeIndex].put(creates[i].getEntityId(), i);
+		}
+		return true;
+	}
+
+	/**
+	 * Squash an update together with the updates that have already been added
+	 * 
+	 * @throws OgreException if {@link #canAdd(GraphUpdate)} returns false for the update
+	 */
+	public void add(GraphUpdate update) {
+		if (!canAdd(update)) {
+			throw new OgreException("Can't squash " + update + " together with the " + updateCount
+					+ " updates ending in " + lastUpdate);
+		}
+		if (firstUpdate == null) {
+			firstUpdate = update;
+			int typeCount = update.getTypeDomain().getEntityTypeCount();
+			entryIndices = new IdIndex[typeCount];
+			for (int i = 0; i < typeCount; i++) {
+				entryIndices[i] = new IdIndex();
+			}
+			entryTypes = new EntityType[16];
+			entryIds = new long[16];
+			entryStates = new int[16];
+			entryValues = new Object[16][];
+			entryChanged = new boolean[16][];
+		}
+		lastUpdate = update;
+		updateCount++;
+
+		// in the same order as ClientEngine applies them
+		RawPropertyValueSet[] creates = update.getEntityCreates();
+		for (int i = 0; i < creates.length; i++) {
+			addCreate(creates[i]);
+		}
+		PartialRawPropertyValueSet[] diffs = update.getEntityUpdates();
+		for (int i = 0; i < diffs.length; i++) {
+			addDiff(diffs[i]);
+		}
+		EntityReference[] deletes = update.getEntityDeletes();
+		for (int i = 0; i < deletes.length; i++) {
+			addDelete(deletes[i]);
+		}
+	}
+
+	/**
+	 * @return a single update equivalent to all the updates that have been added, with the data
+	 *         version of the last of them. If only one update has been added, it is returned
+	 *         unchanged.
+	 * 
+	 * @throws OgreException if no updates have been added
+	 */
+	public GraphUpdate toGraphUpdate() {
+		if (isEmpty()) {
+			throw new OgreException("No graph updates to squash");
+		}
+		if (updateCount == 1) {
+			return firstUpdate;
+		}
+		ArrayBuilder creates = new ArrayBuilder(RawPropertyValueSet.class);
+		ArrayBuilder diffs = new ArrayBuilder(PartialRawPropertyValueSet.class);
+		ArrayBuilder deletes = new ArrayBuilder(EntityReference.class);
+		for (int i = 0; i < entryCount; i++) {
+			EntityType entityType = entryTypes[i];
+			if (entryStates[i] == CREATED) {
+				creates.add(new EntityValue(entityType, entryIds[i], withoutCancelledReferences(i)));
+			} else if (entryStates[i] == DIFFED) {
+				diffs.add(new EntityDiff(entityType, entryIds[i], withoutCancelledReferences(i), copy(entryChanged[i])));
+			} else if (entryStates[i] == DELETED) {
+				deletes.add(new EntityReferenceImpl(entityType, entryIds[i]));
+			}
+		}
+		return new GraphUpdate(lastUpdate.getTypeDomain(), lastUpdate.getObjectGraphId(), lastUpdate.getDataVersion(),
+				lastUpdate.getDataVersionScheme(), (RawPropertyValueSet[]) creates.buildArray(),
+				(PartialRawPropertyValueSet[]) diffs.buildArray(), (EntityReference[]) deletes.buildArray());
+	}
+
+	/**
+	 * Discard all updates that have been added
+	 */
+	public void clear() {
+		firstUpdate = null;
+		lastUpdate = null;
+		updateCount = 0;
+		entryIndices = null;
+		entryTypes = null;
+		entryIds = null;
+		entryStates = null;
+		entryValues = null;
+		entryChanged = null;
+		entryCount = 0;
+	}
+
+	//
+	// PRIVATE MACHINERY
+	//
+
+	private void addCreate(RawPropertyValueSet create) {
+		EntityType entityType = create.getEntityType();
+		int entry = createEntry(create, CREATED);
+		Object[] values = entryValues[entry];
+		for (int i = 0; i < values.length; i++) {
+			values[i] = create.getRawPropertyValue(entityType.getProperty(i));
+		}
+	}
+
+	private void addDiff(PartialRawPropertyValueSet diff) {
+		int entry = findEntry(diff);
+		if (entry == -1) {
+			entry = createEntry(diff, DIFFED);
+			entryChanged[entry] = new boolean[diff.getEntityType().getPropertyCount()];
+		} else if (entryStates[entry] != CREATED && entryStates[entry] != DIFFED) {
+			// the client engine will ignore diffs to deleted entities
+			return;
+		}
+		EntityType entityType = diff.getEntityType();
+		Object[] values = entryValues[entry];
+		for (int i = 0; i < values.length; i++) {
+			Property property = entityType.getProperty(i);
+			if (diff.hasUpdatedValue(property)) {
+				values[i] = diff.getRawPropertyValue(property);
+				if (entryStates[entry] == DIFFED) {
+					entryChanged[entry][i] = true;
+				}
+			}
+		}
+	}
+
+	private void addDelete(EntityReference delete) {
+		int entry = findEntry(delete);
+		if (entry == -1) {
+			entry = createEntry(delete, DELETED);
+		} else if (entryStates[entry] == CREATED) {
+			entryStates[entry] = CANCELLED;
+		} else if (entryStates[entry] == DIFFED) {
+			entryStates[entry] = DELETED;
+		}
+		entryValues[entry] = null;
+		entryChanged[entry] = null;
+	}
+
+	private int findEntry(EntityReference entity) {
+		if (entryIndices == null) {
+			return -1;
+		}
+		return entryIndices[entity.getEntityType().getEntityTypeIndex()].get(entity.getEntityId());
+	}
+
+	private int createEntry(EntityReference entity, int state) {
+		if (entryCount == entryTypes.length) {
+			int capacity = entryCount * 2;
+			EntityType[] newTypes = new EntityType[capacity];
+			long[] newIds = new long[capacity];
+			int[] newStates = new int[capacity];
+			Object[][] newValues = new Object[capacity][];
+			boolean[][] newChanged = new boolean[capacity][];
+			System.arraycopy(entryTypes, 0, newTypes, 0, entryCount);
+			System.arraycopy(entryIds, 0, newIds, 0, entryCount);
+			System.arraycopy(entryStates, 0, newStates, 0, entryCount);
+			System.arraycopy(entryValues, 0, newValues, 0, entryCount);
+			System.arraycopy(entryChanged, 0, newChanged, 0, entryCount);
+			entryTypes = newTypes;
+			entryIds = newIds;
+			entryStates = newStates;
+			entryValues = newValues;
+			entryChanged = newChanged;
+		}
+		EntityType entityType = entity.getEntityType();
+		int entry = entryCount++;
+		entryTypes[entry] = entityType;
+		entryIds[entry] = entity.getEntityId();
+		entryStates[entry] = state;
+		if (state != DELETED) {
+			entryValues[entry] = new Object[entityType.getPropertyCount()];
+		}
+		entryIndices[entityType.getEntityTypeIndex()].put(entity.getEntityId(), entry);
+		return entry;
+	}
+
+	/**
+	 * @return a copy of an entry's values in which references to entities that were created and
+	 *         then deleted are null, as the client engine would have set them when the entity was
+	 *         deleted. Since a deleted entity can't be created again within the sequence, any such
+	 *         reference was made before the deletion.
+	 */
+	private Object[] withoutCancelledReferences(int entry) {
+		EntityType entityType = entryTypes[entry];
+		Object[] values = copy(entryValues[entry]);
+		ReferenceProperty[] references = entityType.getReferenceProperties();
+		for (int i = 0; i < references.length; i++) {
+			int index = references[i].getPropertyIndex();
+			if (values[index] != null) {
+				int target = entryIndices[references[i].getReferenceType().getEntityTypeIndex()].get(ValueUtils
+						.objectToId(values[index]));
+				if (target != -1 && entryStates[target] == CANCELLED) {
+					values[index] = null;
+				}
+			}
+		}
+		return values;
+	}
+
+	private Object[] copy(Object[] values) {
+		Object[] result = new Object[values.length];
+		System.arraycopy(values, 0, result, 0, values.length);
+		return result;
+	}
+
+	private boolean[] copy(boolean[] values) {
+		boolean[] result = new boolean[values.length];
+		System.arraycopy(values, 0, result, 0, values.length);
+		return result;
+	}
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import com.berniecode.ogre.enginelib.platformhooks.OgreException;
+import com.berniecode.ogre.enginelib.platformhooks.ValueUtils;
+
+/**
+ * An index that finds the entities with a specific value for a property in constant time
+ * 
+ * <p>
+ * Values are compared in their raw form, so the entities that reference another entity are found
+ * by its ID.
+ * 
+ * @author Bernie Sumption
+ */
+public class HashIndex extends EntityIndex {
+
+	private final Property property;
+	private HashIndexTable table;
+
+	public HashIndex(Property property) {
+		this.property = property;
+		table = new HashIndexTable();
+	}
+
+	/**
+	 * @return the property that this index is keyed on
+	 */
+	public Property getProperty() {
+		return property;
+	}
+
+	public EntityType getEntityType() {
+		return property.getEntityType();
+	}
+
+	/**
+	 * @return the entities whose value for the indexed property is equal to the specified value.
+	 *         The value of a reference property may be given as an {@link Entity} or as an ID.
+	 * 
+	 * @throws OgreException if the value is not of the correct type for the property
+	 */
+	public Entity[] get(Object value) {
+		return table.get(toRawValue(value));
+	}
+
+	/**
+	 * @return the number of entities whose value for the indexed property is equal to the
+	 *         specified value
+	 * 
+	 * @throws OgreException if the value is not of the correct type for the property
+	 */
+	public int count(Object value) {
+		return table.count(toRawValue(value));
+	}
+
+	public String toString() {
+		return "hash index on " + property;
+	}
+
+	//
+	// OGRE INTERNAL API
+	//
+
+	void update(Entity entity, Object[] values) {
+		table.put(Entity.getRawValue(values, property), entity);
+	}
+
+	void remove(Entity entity) {
+		table.remove(entity.getEntityId());
+	}
+
+	EntityIndex copy() {
+		HashIndex copy = new HashIndex(property);
+		copy.table = table.copy();
+		return copy;
+	}
+
+	//
+	// PRIVATE MACHINERY
+	//
+
+	private Object toRawValue(Object value) {
+		if (value instanceof Entity) {
+			value = ValueUtils.idToObject(((Entity) value).getEntityId());
+		}
+		ValueUtils.validateRawPropertyValue(property, value);
+		return value;
+	}
+
+}
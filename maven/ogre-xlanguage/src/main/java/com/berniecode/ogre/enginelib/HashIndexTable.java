@@ -0,0 +1,157 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import com.berniecode.ogre.enginelib.platformhooks.ValueUtils;
+
+/**
+ * A hash table from property values to the {@link Entity}s that have them, used to implement
+ * equality indexes
+ * 
+ * <p>
+ * The entities with each value are kept in a dense list, and the table remembers the value and
+ * position that each entity is stored under, keyed by ID, so an entity can be moved or removed
+ * after its property values have changed. Removing an entity moves the last entity with the same
+ * value into its place. The lists and maps share structure with copies of the table, so a copy
+ * costs constant time to take and time proportional to the changes made to it afterwards, and IDs
+ * are never boxed.
+ * 
+ * @author Bernie Sumption
+ */
+class HashIndexTable {
+
+	private static final Entity[] NO_ENTITIES = new Entity[0];
+
+	// the owner token of the structures that this table may modify in place
+	private Object edit = new Object();
+
+	// a PersistentVector of the entities with each value
+	private PersistentValueMap buckets = new PersistentValueMap(edit);
+
+	// a HashIndexTableEntry for each entity, by ID
+	private PersistentIdMap entries = new PersistentIdMap(edit);
+
+	/**
+	 * @return a new table containing the same entries as this one. Subsequent changes to either
+	 *         table do not affect the other.
+	 */
+	HashIndexTable copy() {
+		HashIndexTable copy = new HashIndexTable();
+		copy.buckets = buckets;
+		copy.entries = entries;
+		edit = new Object();
+		return copy;
+	}
+
+	/**
+	 * Store an entity under a value, removing it from the value it was previously stored under
+	 */
+	void put(Object value, Entity entity) {
+		HashIndexTableEntry entry = (HashIndexTableEntry) entries.get(entity.getEntityId());
+		if (entry != null) {
+			if (ValueUtils.valuesAreEquivalent(entry.value, value)) {
+				PersistentVector bucket = (PersistentVector) buckets.get(entry.value);
+				setBucket(entry.value, bucket, bucket.set(entry.position, entity, edit));
+				return;
+			}
+			removeFromBucket(entry);
+		}
+		PersistentVector bucket = (PersistentVector) buckets.get(value);
+		PersistentVector newBucket;
+		if (bucket == null) {
+			newBucket = new PersistentVector(edit, NO_ENTITIES).add(entity, edit);
+		} else {
+			newBucket = bucket.add(entity, edit);
+		}
+		entries = entries.put(entity.getEntityId(), new HashIndexTableEntry(value, newBucket.size() - 1), edit);
+		setBucket(value, bucket, newBucket);
+	}
+
+	/**
+	 * Remove the entity with the specified ID from this table
+	 */
+	void remove(long id) {
+		HashIndexTableEntry entry = (HashIndexTableEntry) entries.get(id);
+		if (entry != null) {
+			entries = entries.remove(id, edit);
+			removeFromBucket(entry);
+		}
+	}
+
+	/**
+	 * @return the entities stored under a value
+	 */
+	Entity[] get(Object value) {
+		PersistentVector bucket = (PersistentVector) buckets.get(value);
+		if (bucket == null) {
+			return NO_ENTITIES;
+		}
+		Entity[] result = new Entity[bucket.size()];
+		bucket.getValues(result, 0);
+		return result;
+	}
+
+	/**
+	 * @return the number of entities stored under a value
+	 */
+	int count(Object value) {
+		PersistentVector bucket = (PersistentVector) buckets.get(value);
+		return bucket == null ? 0 : bucket.size();
+	}
+
+	/**
+	 * @return the number of distinct values in this table
+	 */
+	int getValueCount() {
+		return buckets.size();
+	}
+
+	//
+	// PRIVATE MACHINERY
+	//
+
+	/**
+	 * Remove an entity from the bucket it is stored in, filling the hole with the bucket's last
+	 * entity. The entity's own entry is left for the caller to replace or remove.
+	 */
+	private void removeFromBucket(HashIndexTableEntry entry) {
+		PersistentVector bucket = (PersistentVector) buckets.get(entry.value);
+		int last = bucket.size() - 1;
+		if (last == 0) {
+			buckets = buckets.remove(entry.value, edit);
+			return;
+		}
+		PersistentVector newBucket = bucket;
+		if (entry.position != last) {
+			Entity moved = (Entity) bucket.get(last);
+			newBucket = newBucket.set(entry.position, moved, edit);
+			entries = entries.put(moved.getEntityId(), new HashIndexTableEntry(entry.value, entry.position), edit);
+		}
+		setBucket(entry.value, bucket, newBucket.removeLast(edit));
+	}
+
+	private void setBucket(Object value, PersistentVector bucket, PersistentVector newBucket) {
+		if (newBucket != bucket) {
+			buckets = buckets.put(value, newBucket, edit);
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+/**
+ * A reference from one {@link Entity} to another that is stored as an ID, and resolved to an
+ * Entity the first time it is read
+ * 
+ * <p>
+ * The referenced Entity is looked up in the store that the referring Entity was added to, then in
+ * the entities staged to be added by the same graph update. If neither contains it, the reference
+ * resolves to null.
+ * 
+ * @author Bernie Sumption
+ */
+class LazyReference {
+
+	private final EntityType referenceType;
+	private final long id;
+
+	// set to null once the reference is resolved, so that the stores can be garbage collected
+	private EntityStore store;
+	private EntityStore staged;
+	private Entity entity;
+
+	LazyReference(EntityType referenceType, long id, EntityStore store, EntityStore staged) {
+		this.referenceType = referenceType;
+		this.id = id;
+		this.store = store;
+		this.staged = staged;
+	}
+
+	/**
+	 * @return the referenced Entity, or null if it does not exist
+	 */
+	synchronized Entity getEntity() {
+		if (store != null) {
+			entity = store.get(referenceType, id);
+			if (entity == null) {
+				entity = staged.get(referenceType, id);
+			}
+			store = null;
+			staged = null;
+		}
+		return entity;
+	}
+
+	public String toString() {
+		return "lazy reference to " + referenceType + "#" + id;
+	}
+
+}
@@ -21,10 +21,21 @@
 package com.berniecode.ogre.enginelib;
 
 import com.berniecode.ogre.enginelib.platformhooks.StdErrLogWriter;
+import com.berniecode.ogre.enginelib.platformhooks.StringConcatenator;
+import com.berniecode.ogre.enginelib.platformhooks.ValueUtils;
 
 /**
+ * Static logging methods used throughout OGRE, which pass messages to a {@link LogWriter}.
  * 
- * @author bernie
+ * <p>
+ * Messages logged on every graph update should not be built with string concatenation, since
+ * that builds the string even when the level is disabled. Either use a parameterised message,
+ * such as <code>OgreLog.info("applying {}", update)</code>, in which each <code>{}</code> is
+ * replaced by the string value of the next argument only if the message is logged, or pass a
+ * {@link LogMessage}. Neither allocates anything when the level is disabled, as long as the
+ * arguments are existing objects rather than boxed primitives.
+ * 
+ * @author Bernie Sumption
  */
 public class OgreLog {
 
@@ -37,9 +48,9 @@ public class OgreLog {
 	public static final int LEVEL_INFO = 3;
 	public static final int LEVEL_DEBUG = 2;
 
-	private static int currentLevel = LEVEL_INFO;
+	private static volatile int currentLevel = LEVEL_INFO;
 
-	private static LogWriter writer = new StdErrLogWriter();
+	private static volatile LogWriter writer = new StdErrLogWriter();
 
 	public static void setLevel(int newLevel) {
 		currentLevel = newLevel;
@@ -61,6 +72,78 @@ public class OgreLog {
 		doLog(LEVEL_DEBUG, "DEBUG", message);
 	}
 
+	public static void error(String pattern, Object arg) {
+		if (isEnabled(LEVEL_ERROR)) {
+			doLog(LEVEL_ERROR, "ERROR", format(pattern, 1, arg, null));
+		}
+	}
+
+	public static void error(String pattern, Object arg1, Object arg2) {
+		if (isEnabled(LEVEL_ERROR)) {
+			doLog(LEVEL_ERROR, "ERROR", format(pattern, 2, arg1, arg2));
+		}
+	}
+
+	public static void error(LogMessage message) {
+		if (isEnabled(LEVEL_ERROR)) {
+			doLog(LEVEL_ERROR, "ERROR", message.buildMessage());
+		}
+	}
+
+	public static void warn(String pattern, Object arg) {
+		if (isEnabled(LEVEL_WARN)) {
+			doLog(LEVEL_WARN, "WARN", format(pattern, 1, arg, null));
+		}
+	}
+
+	public static void warn(String pattern, Object arg1, Object arg2) {
+		if (isEnabled(LEVEL_WARN)) {
+			doLog(LEVEL_WARN, "WARN", format(pattern, 2, arg1, arg2));
+		}
+	}
+
+	public static void warn(LogMessage message) {
+		if (isEnabled(LEVEL_WARN)) {
+			doLog(LEVEL_WARN, "WARN", message.buildMessage());
+		}
+	}
+
+	public static void info(String pattern, Object arg) {
+		if (isEnabled(LEVEL_INFO)) {
+			doLog(LEVEL_INFO, "INFO", format(pattern, 1, arg, null));
+		}
+	}
+
+	public static void info(String pattern, Object arg1, Object arg2) {
+		if (isEnabled(LEVEL_INFO)) {
+			doLog(LEVEL_INFO, "INFO", format(pattern, 2, arg1, arg2));
+		}
+	}
+
+	public static void info(LogMessage message) {
+		if (isEnabled(LEVEL_INFO)) {
+			doLog(LEVEL_INFO, "INFO", message.buildMessage());
+		}
+	}
+
+	public static void debug(String pattern, Object arg) {
+		if (isEnabled(LEVEL_DEBUG)) {
+			doLog(LEVEL_DEBUG, "DEBUG", format(pattern, 1, arg, null));
+		}
+	}
+
+	public static void debug(String pattern, Object arg1, Object arg2) {
+		if (isEnabled(LEVEL_DEBUG)) {
+			doLog(LEVEL_DEBUG, "DEBUG", format(pattern, 2, arg1, arg2));
+		}
+	}
+
+	public static void debug(LogMessage message) {
+		if (isEnabled(LEVEL_DEBUG)) {
+			doLog(LEVEL_DEBUG, "DEBUG", message.buildMessage());
+		}
+	}
+
 	public static boolean isDebugEnabled() {
 		return isEnabled(LEVEL_DEBUG);
 	}
@@ -94,6 +177,25 @@ public class OgreLog {
 		}
 	}
 
+	/**
+	 * @return a parameterised message with the first <code>argCount</code> occurrences of
+	 *         <code>{}</code> replaced by the string values of the arguments. Any further
+	 *         occurrences are left as they are.
+	 */
+	static String format(String pattern, int argCount, Object arg1, Object arg2) {
+		StringConcatenator result = new StringConcatenator();
+		int start = 0;
+		for (int i = 0; i < argCount; i++) {
+			int placeholder = pattern.indexOf("{}", start);
+			if (placeholder == -1) {
+				break;
+			}
+			result.add(pattern.substring(start, placeholder)).add(ValueUtils.valueToString(i == 0 ? arg1 : arg2));
+			start = placeholder + 2;
+		}
+		return result.add(pattern.substring(start)).buildString();
+	}
+
 	private static boolean isEnabled(int level) {
 		return currentLevel <= level;
 	}
@@ -0,0 +1,291 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+/**
+ * A map from IDs to objects that can be copied in constant time, used to build the entity tables
+ * and secondary indexes that an {@link EntityStore} shares with its forks and snapshots
+ * 
+ * <p>
+ * This is a bitmap-indexed trie keyed on the bits of the ID, five bits per level, so IDs are never
+ * boxed, values are kept in ascending ID order and a trie holding IDs below 2^20 is four levels
+ * deep. Maps are usually nested inside larger structures that are shared as a whole, so a map is
+ * not copied explicitly. Instead, each modifying method is passed the owner token of the structure
+ * making the change, modifies in place only the map and nodes created with that token, copies
+ * anything else it needs to change, and returns the modified map. A structure that gives itself
+ * a new token therefore stops modifying everything it previously shared.
+ * 
+ * <p>
+ * Values must not be null.
+ * 
+ * @author Bernie Sumption
+ */
+class PersistentIdMap {
+
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+
+	private final Object edit;
+	private PersistentIdMapNode root;
+	private int height = 1;
+	private int size;
+
+	/**
+	 * Create an empty map that may be modified in place by changes made with the specified owner
+	 * token
+	 */
+	PersistentIdMap(Object edit) {
+		this.edit = edit;
+	}
+
+	/**
+	 * @return the value stored for the specified ID, or null if there is no such entry
+	 */
+	Object get(long id) {
+		if (BITS * height < 64 && (id >>> (BITS * height)) != 0) {
+			return null;
+		}
+		PersistentIdMapNode node = root;
+		for (int level = height - 1; node != null; level--) {
+			int bit = 1 << index(id, level);
+			if ((node.bitmap & bit) == 0) {
+				return null;
+			}
+			Object slot = node.slots[entryNumber(node, bit)];
+			if (level == 0) {
+				return slot;
+			}
+			node = (PersistentIdMapNode) slot;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the number of entries in this map
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Store a value for an ID, replacing any existing value for the same ID
+	 * 
+	 * @return the modified map, which is this map if it is owned by {@code edit}
+	 */
+	PersistentIdMap put(long id, Object value, Object edit) {
+		PersistentIdMap result = editable(edit);
+		while (BITS * result.height < 64 && (id >>> (BITS * result.height)) != 0) {
+			if (result.root != null) {
+				result.root = new PersistentIdMapNode(edit, 1, new Object[] { result.root });
+			}
+			result.height++;
+		}
+		result.root = result.put(result.root, result.height - 1, id, value);
+		return result;
+	}
+
+	/**
+	 * Remove the entry for an ID
+	 * 
+	 * @return the modified map, which is this map if it is owned by {@code edit} or there is no
+	 *         entry for the ID
+	 */
+	PersistentIdMap remove(long id, Object edit) {
+		if (get(id) == null) {
+			return this;
+		}
+		PersistentIdMap result = editable(edit);
+		result.root = result.remove(result.root, result.height - 1, id);
+		return result;
+	}
+
+	/**
+	 * Copy the values in this map into an array in ascending ID order, starting at position
+	 * {@code offset}
+	 * 
+	 * @return the position after the last value copied
+	 */
+	int getValues(Object[] values, int offset) {
+		return getValues(root, height - 1, values, offset);
+	}
+
+	/**
+	 * Pass each value in this map, which must all be {@link Entity}s, to a visitor in ascending ID
+	 * order. The visitor must not modify the map.
+	 * 
+	 * @return false if the visitor stopped the iteration, true otherwise
+	 */
+	boolean forEach(EntityVisitor visitor) {
+		return forEach(root, height - 1, visitor);
+	}
+
+	//
+	// TRIE MACHINERY
+	//
+
+	private PersistentIdMap editable(Object edit) {
+		if (this.edit == edit) {
+			return this;
+		}
+		PersistentIdMap copy = new PersistentIdMap(edit);
+		copy.root = root;
+		copy.height = height;
+		copy.size = size;
+		return copy;
+	}
+
+	private static int index(long id, int level) {
+		return (int) (id >>> (BITS * level)) & MASK;
+	}
+
+	private static int entryNumber(PersistentIdMapNode node, int bit) {
+		return Integer.bitCount(node.bitmap & (bit - 1));
+	}
+
+	private PersistentIdMapNode editable(PersistentIdMapNode node) {
+		if (node.edit == edit) {
+			return node;
+		}
+		Object[] slots = new Object[Integer.bitCount(node.bitmap)];
+		System.arraycopy(node.slots, 0, slots, 0, slots.length);
+		return new PersistentIdMapNode(edit, node.bitmap, slots);
+	}
+
+	private PersistentIdMapNode put(PersistentIdMapNode node, int level, long id, Object value) {
+		int bit = 1 << index(id, level);
+		if (node == null || (node.bitmap & bit) == 0) {
+			PersistentIdMapNode result = insertEntry(node, bit);
+			int position = entryNumber(result, bit);
+			if (level == 0) {
+				result.slots[position] = value;
+				size++;
+			} else {
+				result.slots[position] = put(null, level - 1, id, value);
+			}
+			return result;
+		}
+		int position = entryNumber(node, bit);
+		Object slot = node.slots[position];
+		Object newSlot = level == 0 ? value : put((PersistentIdMapNode) slot, level - 1, id, value);
+		if (newSlot == slot) {
+			return node;
+		}
+		PersistentIdMapNode result = editable(node);
+		result.slots[position] = newSlot;
+		return result;
+	}
+
+	/**
+	 * @return the modified node, or null if the node is now empty
+	 */
+	private PersistentIdMapNode remove(PersistentIdMapNode node, int level, long id) {
+		int bit = 1 << index(id, level);
+		int position = entryNumber(node, bit);
+		if (level == 0) {
+			size--;
+		} else {
+			PersistentIdMapNode child = (PersistentIdMapNode) node.slots[position];
+			PersistentIdMapNode newChild = remove(child, level - 1, id);
+			if (newChild != null) {
+				PersistentIdMapNode result = editable(node);
+				result.slots[position] = newChild;
+				return result;
+			}
+		}
+		// remove the entry from this node
+		if (node.bitmap == bit) {
+			return null;
+		}
+		int length = Integer.bitCount(node.bitmap);
+		if (node.edit == edit) {
+			System.arraycopy(node.slots, position + 1, node.slots, position, length - position - 1);
+			node.slots[length - 1] = null;
+			node.bitmap &= ~bit;
+			return node;
+		}
+		Object[] slots = new Object[length - 1];
+		System.arraycopy(node.slots, 0, slots, 0, position);
+		System.arraycopy(node.slots, position + 1, slots, position, slots.length - position);
+		return new PersistentIdMapNode(edit, node.bitmap & ~bit, slots);
+	}
+
+	/**
+	 * @return a node owned by this map with an empty entry for {@code bit}. A node that this map
+	 *         owns is modified in place, and its slots array grows by doubling so that building a
+	 *         node one entry at a time takes linear time.
+	 */
+	private PersistentIdMapNode insertEntry(PersistentIdMapNode node, int bit) {
+		if (node == null) {
+			return new PersistentIdMapNode(edit, bit, new Object[1]);
+		}
+		int length = Integer.bitCount(node.bitmap);
+		int position = entryNumber(node, bit);
+		if (node.edit == edit && length < node.slots.length) {
+			System.arraycopy(node.slots, position, node.slots, position + 1, length - position);
+			node.slots[position] = null;
+			node.bitmap |= bit;
+			return node;
+		}
+		int capacity = node.edit == edit ? Math.min(length * 2, MASK + 1) : length + 1;
+		Object[] slots = new Object[capacity];
+		System.arraycopy(node.slots, 0, slots, 0, position);
+		System.arraycopy(node.slots, position, slots, position + 1, length - position);
+		if (node.edit == edit) {
+			node.slots = slots;
+			node.bitmap |= bit;
+			return node;
+		}
+		return new PersistentIdMapNode(edit, node.bitmap | bit, slots);
+	}
+
+	private static int getValues(PersistentIdMapNode node, int level, Object[] values, int offset) {
+		if (node == null) {
+			return offset;
+		}
+		int length = Integer.bitCount(node.bitmap);
+		if (level == 0) {
+			System.arraycopy(node.slots, 0, values, offset, length);
+			return offset + length;
+		}
+		for (int i = 0; i < length; i++) {
+			offset = getValues((PersistentIdMapNode) node.slots[i], level - 1, values, offset);
+		}
+		return offset;
+	}
+
+	private static boolean forEach(PersistentIdMapNode node, int level, EntityVisitor visitor) {
+		if (node == null) {
+			return true;
+		}
+		int length = Integer.bitCount(node.bitmap);
+		for (int i = 0; i < length; i++) {
+			if (level == 0) {
+				if (!visitor.visit((Entity) node.slots[i])) {
+					return false;
+				}
+			} else if (!forEach((PersistentIdMapNode) node.slots[i], level - 1, visitor)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,327 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import com.berniecode.ogre.enginelib.platformhooks.ValueUtils;
+
+/**
+ * An ordered collection of entries sorted by value and then by ID, that can be copied in constant
+ * time, used to build the secondary indexes that an {@link EntityStore} shares with its forks.
+ * Each entry carries a payload object, such as the entity that it stands for.
+ * 
+ * <p>
+ * The entries are kept in a treap, a binary search tree balanced by pseudo-random priorities, in
+ * which each node records the size of its subtree. This allows entries to be found by value or by
+ * position in O(log n) expected time, and a run of k adjacent entries to be read in O(log n + k).
+ * Priorities are derived from the value and ID, so the tree holding a set of entries always has
+ * the same shape. Values are compared with {@link ValueUtils#compareValues(Object, Object)}, so null values
+ * sort before all other values.
+ * 
+ * <p>
+ * Like {@link PersistentIdMap}, each modifying method is passed the owner token of the structure
+ * making the change, modifies in place only the tree and nodes created with that token, and
+ * returns the modified tree. A change copies only the nodes on the path to the changed entry.
+ * 
+ * @author Bernie Sumption
+ */
+class PersistentSortedTree {
+
+	private final Object edit;
+	private PersistentSortedTreeNode root;
+
+	/**
+	 * Create an empty tree that may be modified in place by changes made with the specified owner
+	 * token
+	 */
+	PersistentSortedTree(Object edit) {
+		this.edit = edit;
+	}
+
+	/**
+	 * @return the number of entries in this tree
+	 */
+	int size() {
+		return size(root);
+	}
+
+	/**
+	 * @return the payload of the entry with an equal value and the same ID, or null if there is no
+	 *         such entry
+	 */
+	Object get(Object value, long id) {
+		PersistentSortedTreeNode node = find(value, id);
+		return node == null ? null : node.payload;
+	}
+
+	/**
+	 * Add an entry, or replace the payload of the entry with an equal value and the same ID
+	 * 
+	 * @return the modified tree, which is this tree if it is owned by {@code edit}
+	 */
+	PersistentSortedTree put(Object value, long id, Object payload, Object edit) {
+		PersistentSortedTreeNode existing = find(value, id);
+		if (existing != null && existing.payload == payload) {
+			return this;
+		}
+		PersistentSortedTree result = editable(edit);
+		result.root = result.insert(root, value, id, payload);
+		return result;
+	}
+
+	/**
+	 * Remove the entry with an equal value and the same ID, if there is one
+	 * 
+	 * @return the modified tree, which is this tree if it is owned by {@code edit}
+	 */
+	PersistentSortedTree remove(Object value, long id, Object edit) {
+		if (find(value, id) == null) {
+			return this;
+		}
+		PersistentSortedTree result = editable(edit);
+		result.root = result.delete(root, value, id);
+		return result;
+	}
+
+	/**
+	 * @return the position of the entry with an equal value and the same ID, or -1 if there is no
+	 *         such entry
+	 */
+	int getPosition(Object value, long id) {
+		int position = 0;
+		PersistentSortedTreeNode node = root;
+		while (node != null) {
+			int c = compare(value, id, node);
+			if (c == 0) {
+				return position + size(node.left);
+			}
+			if (c < 0) {
+				node = node.left;
+			} else {
+				position += size(node.left) + 1;
+				node = node.right;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the number of entries whose value is less than the specified value, or less than or
+	 *         equal to it if {@code inclusive} is true
+	 */
+	int countBelow(Object value, boolean inclusive) {
+		int count = 0;
+		PersistentSortedTreeNode node = root;
+		while (node != null) {
+			int c = ValueUtils.compareValues(node.value, value);
+			if (c < 0 || (inclusive && c == 0)) {
+				count += size(node.left) + 1;
+				node = node.right;
+			} else {
+				node = node.left;
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Copy the payloads of the entries at positions {@code from} (inclusive) to {@code to}
+	 * (exclusive) into an array, starting at position 0. Both positions must be between 0 and
+	 * {@link #size()}.
+	 */
+	void getPayloads(int from, int to, Object[] payloads) {
+		if (from < to) {
+			getPayloads(root, 0, from, to, payloads);
+		}
+	}
+
+	/**
+	 * @return the value of the first entry, which must exist
+	 */
+	Object getFirstValue() {
+		PersistentSortedTreeNode node = root;
+		while (node.left != null) {
+			node = node.left;
+		}
+		return node.value;
+	}
+
+	/**
+	 * @return the value of the last entry, which must exist
+	 */
+	Object getLastValue() {
+		PersistentSortedTreeNode node = root;
+		while (node.right != null) {
+			node = node.right;
+		}
+		return node.value;
+	}
+
+	//
+	// TREE MACHINERY
+	//
+
+	private static int priority(Object value, long id) {
+		return (int) (((id + ValueUtils.hashValue(value)) * 0x9E3779B97F4A7C15L) >>> 32);
+	}
+
+	private static int size(PersistentSortedTreeNode node) {
+		return node == null ? 0 : node.size;
+	}
+
+	private static void resize(PersistentSortedTreeNode node) {
+		node.size = size(node.left) + size(node.right) + 1;
+	}
+
+	private static int compare(Object value, long id, PersistentSortedTreeNode node) {
+		int c = ValueUtils.compareValues(value, node.value);
+		if (c != 0) {
+			return c;
+		}
+		return id < node.id ? -1 : (id == node.id ? 0 : 1);
+	}
+
+	private PersistentSortedTreeNode find(Object value, long id) {
+		PersistentSortedTreeNode node = root;
+		while (node != null) {
+			int c = compare(value, id, node);
+			if (c == 0) {
+				return node;
+			}
+			node = c < 0 ? node.left : node.right;
+		}
+		return null;
+	}
+
+	private PersistentSortedTree editable(Object edit) {
+		if (this.edit == edit) {
+			return this;
+		}
+		PersistentSortedTree copy = new PersistentSortedTree(edit);
+		copy.root = root;
+		return copy;
+	}
+
+	private PersistentSortedTreeNode editable(PersistentSortedTreeNode node) {
+		if (node.edit == edit) {
+			return node;
+		}
+		PersistentSortedTreeNode copy = new PersistentSortedTreeNode(edit, node.value, node.id, node.priority,
+				node.payload);
+		copy.size = node.size;
+		copy.left = node.left;
+		copy.right = node.right;
+		return copy;
+	}
+
+	// the nodes returned by insert, delete and merge are owned by this tree, so rotations can
+	// modify them in place
+	private PersistentSortedTreeNode insert(PersistentSortedTreeNode node, Object value, long id, Object payload) {
+		if (node == null) {
+			return new PersistentSortedTreeNode(edit, value, id, priority(value, id), payload);
+		}
+		PersistentSortedTreeNode result = editable(node);
+		int c = compare(value, id, node);
+		if (c == 0) {
+			result.payload = payload;
+		} else if (c < 0) {
+			result.left = insert(node.left, value, id, payload);
+			if (result.left.priority > result.priority) {
+				return rotateRight(result);
+			}
+		} else {
+			result.right = insert(node.right, value, id, payload);
+			if (result.right.priority > result.priority) {
+				return rotateLeft(result);
+			}
+		}
+		resize(result);
+		return result;
+	}
+
+	private PersistentSortedTreeNode delete(PersistentSortedTreeNode node, Object value, long id) {
+		int c = compare(value, id, node);
+		if (c == 0) {
+			return merge(node.left, node.right);
+		}
+		PersistentSortedTreeNode result = editable(node);
+		if (c < 0) {
+			result.left = delete(node.left, value, id);
+		} else {
+			result.right = delete(node.right, value, id);
+		}
+		resize(result);
+		return result;
+	}
+
+	// merge two trees, where every entry in the first sorts before every entry in the second
+	private PersistentSortedTreeNode merge(PersistentSortedTreeNode first, PersistentSortedTreeNode second) {
+		if (first == null || second == null) {
+			return first == null ? second : first;
+		}
+		if (first.priority > second.priority) {
+			PersistentSortedTreeNode result = editable(first);
+			result.right = merge(first.right, second);
+			resize(result);
+			return result;
+		}
+		PersistentSortedTreeNode result = editable(second);
+		result.left = merge(first, second.left);
+		resize(result);
+		return result;
+	}
+
+	private static PersistentSortedTreeNode rotateRight(PersistentSortedTreeNode node) {
+		PersistentSortedTreeNode left = node.left;
+		node.left = left.right;
+		left.right = node;
+		resize(node);
+		resize(left);
+		return left;
+	}
+
+	private static PersistentSortedTreeNode rotateLeft(PersistentSortedTreeNode node) {
+		PersistentSortedTreeNode right = node.right;
+		node.right = right.left;
+		right.left = node;
+		resize(node);
+		resize(right);
+		return right;
+	}
+
+	// copy the payloads in positions from to to - 1, visiting only the subtrees that overlap the
+	// range
+	private static void getPayloads(PersistentSortedTreeNode node, int offset, int from, int to, Object[] payloads) {
+		if (node == null) {
+			return;
+		}
+		int position = offset + size(node.left);
+		if (from < position) {
+			getPayloads(node.left, offset, from, to, payloads);
+		}
+		if (position >= from && position < to) {
+			payloads[position - from] = node.payload;
+		}
+		if (to > position + 1) {
+			getPayloads(node.right, position + 1, from, to, payloads);
+		}
+	}
+
+}
@@ -0,0 +1,171 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import com.berniecode.ogre.enginelib.platformhooks.ValueUtils;
+
+/**
+ * A map from raw property values to objects that can be copied in constant time, used to build
+ * the secondary indexes that an {@link EntityStore} shares with its forks
+ * 
+ * <p>
+ * Keys are compared with {@link ValueUtils#valuesAreEquivalent(Object, Object)}, and null is a
+ * valid key. The map is a {@link PersistentIdMap} from hash codes to chains of entries with the
+ * same hash code, and it is modified in the same way: each modifying method is passed the owner
+ * token of the structure making the change, and returns the modified map. Values must not be
+ * null.
+ * 
+ * @author Bernie Sumption
+ */
+class PersistentValueMap {
+
+	private final Object edit;
+	private PersistentIdMap chains;
+	private int size;
+
+	/**
+	 * Create an empty map that may be modified in place by changes made with the specified owner
+	 * token
+	 */
+	PersistentValueMap(Object edit) {
+		this.edit = edit;
+		chains = new PersistentIdMap(edit);
+	}
+
+	/**
+	 * @return the value stored for the specified key, or null if there is no such entry
+	 */
+	Object get(Object key) {
+		PersistentValueMapEntry entry = (PersistentValueMapEntry) chains.get(hash(key));
+		while (entry != null) {
+			if (ValueUtils.valuesAreEquivalent(entry.key, key)) {
+				return entry.value;
+			}
+			entry = entry.next;
+		}
+		return null;
+	}
+
+	/**
+	 * @return the number of entries in this map
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Store a value for a key, replacing any existing value for an equivalent key
+	 * 
+	 * @return the modified map, which is this map if it is owned by {@code edit}
+	 */
+	PersistentValueMap put(Object key, Object value, Object edit) {
+		long hash = hash(key);
+		PersistentValueMapEntry chain = (PersistentValueMapEntry) chains.get(hash);
+		PersistentValueMap result = editable(edit);
+		PersistentValueMapEntry rest = without(chain, key);
+		if (rest == chain) {
+			result.size++;
+		}
+		result.chains = result.chains.put(hash, new PersistentValueMapEntry(key, value, rest), edit);
+		return result;
+	}
+
+	/**
+	 * Remove the entry for a key
+	 * 
+	 * @return the modified map, which is this map if it is owned by {@code edit} or there is no
+	 *         entry for the key
+	 */
+	PersistentValueMap remove(Object key, Object edit) {
+		long hash = hash(key);
+		PersistentValueMapEntry chain = (PersistentValueMapEntry) chains.get(hash);
+		PersistentValueMapEntry rest = without(chain, key);
+		if (rest == chain) {
+			return this;
+		}
+		PersistentValueMap result = editable(edit);
+		result.size--;
+		result.chains = rest == null ? result.chains.remove(hash, edit) : result.chains.put(hash, rest, edit);
+		return result;
+	}
+
+	/**
+	 * Copy the keys and values in this map into a pair of arrays, in no particular order, starting
+	 * at position {@code offset}
+	 * 
+	 * @return the position after the last entry copied
+	 */
+	int getEntries(Object[] keys, Object[] values, int offset) {
+		Object[] chainArray = new Object[chains.size()];
+		chains.getValues(chainArray, 0);
+		for (int i = 0; i < chainArray.length; i++) {
+			PersistentValueMapEntry entry = (PersistentValueMapEntry) chainArray[i];
+			while (entry != null) {
+				if (keys != null) {
+					keys[offset] = entry.key;
+				}
+				if (values != null) {
+					values[offset] = entry.value;
+				}
+				offset++;
+				entry = entry.next;
+			}
+		}
+		return offset;
+	}
+
+	//
+	// PRIVATE MACHINERY
+	//
+
+	private PersistentValueMap editable(Object edit) {
+		if (this.edit == edit) {
+			return this;
+		}
+		PersistentValueMap copy = new PersistentValueMap(edit);
+		copy.chains = chains;
+		copy.size = size;
+		return copy;
+	}
+
+	private static long hash(Object key) {
+		return ValueUtils.hashValue(key) & 0xFFFFFFFFL;
+	}
+
+	/**
+	 * @return a chain with the same entries as {@code chain} except for the entry for
+	 *         {@code key}, which is {@code chain} itself if it has no entry for the key
+	 */
+	private static PersistentValueMapEntry without(PersistentValueMapEntry chain, Object key) {
+		if (chain == null) {
+			return null;
+		}
+		if (ValueUtils.valuesAreEquivalent(chain.key, key)) {
+			return chain.next;
+		}
+		PersistentValueMapEntry rest = without(chain.next, key);
+		if (rest == chain.next) {
+			return chain;
+		}
+		return new PersistentValueMapEntry(chain.key, chain.value, rest);
+	}
+
+}
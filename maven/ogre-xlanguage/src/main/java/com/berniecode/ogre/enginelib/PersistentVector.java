@@ -0,0 +1,240 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import com.berniecode.ogre.enginelib.platformhooks.ArrayBuilder;
+
+/**
+ * A list of objects that can be copied in constant time, used to build the secondary indexes that
+ * an {@link EntityStore} shares with its forks
+ * 
+ * <p>
+ * The list is a trie keyed on the bits of each object's position, five bits per level. Positions
+ * are dense, so every node except the last on each level is full, and reading out a run of
+ * objects copies whole arrays rather than visiting one node per object. Objects can be replaced
+ * anywhere, but only added and removed at the end, so a set of objects can be kept by moving the
+ * last object into the hole left by a removed one.
+ * 
+ * <p>
+ * Like {@link PersistentIdMap}, each modifying method is passed the owner token of the structure
+ * making the change, modifies in place only the list and nodes created with that token, and
+ * returns the modified list.
+ * 
+ * <p>
+ * The bottom level nodes store objects in arrays of the same type as a template array passed to
+ * the constructor, so that reading them out into an array of that type is an unchecked copy.
+ * 
+ * @author Bernie Sumption
+ */
+class PersistentVector {
+
+	private static final int BITS = 5;
+	private static final int WIDTH = 1 << BITS;
+	private static final int MASK = WIDTH - 1;
+
+	private final Object edit;
+	private final Object[] template;
+
+	// null if the list is empty. The trie has enough levels to hold the objects at positions
+	// 0 to WIDTH^height - 1
+	private PersistentVectorNode root;
+	private int height = 1;
+	private int size;
+
+	/**
+	 * Create an empty list that may be modified in place by changes made with the specified owner
+	 * token, and stores objects in arrays of the same type as {@code template}
+	 */
+	PersistentVector(Object edit, Object[] template) {
+		this.edit = edit;
+		this.template = template;
+	}
+
+	/**
+	 * @return the object at a position, which must be less than {@link #size()}
+	 */
+	Object get(int position) {
+		PersistentVectorNode node = root;
+		for (int level = height - 1; level > 0; level--) {
+			node = (PersistentVectorNode) node.slots[(position >>> (BITS * level)) & MASK];
+		}
+		return node.slots[position & MASK];
+	}
+
+	/**
+	 * @return the number of objects in this list
+	 */
+	int size() {
+		return size;
+	}
+
+	/**
+	 * Replace the object at a position, which must be less than {@link #size()}
+	 * 
+	 * @return the modified list, which is this list if it is owned by {@code edit}
+	 */
+	PersistentVector set(int position, Object value, Object edit) {
+		if (get(position) == value) {
+			return this;
+		}
+		PersistentVector result = editable(edit);
+		result.root = result.set(result.root, height - 1, position, value);
+		return result;
+	}
+
+	/**
+	 * Add an object to the end of this list
+	 * 
+	 * @return the modified list, which is this list if it is owned by {@code edit}
+	 */
+	PersistentVector add(Object value, Object edit) {
+		PersistentVector result = editable(edit);
+		if (result.root != null && size == capacity(height)) {
+			result.root = new PersistentVectorNode(edit, new Object[] { result.root, null });
+			result.height++;
+		}
+		result.root = result.set(result.root, result.height - 1, size, value);
+		result.size++;
+		return result;
+	}
+
+	/**
+	 * Remove the last object from this list, which must not be empty
+	 * 
+	 * @return the modified list, which is this list if it is owned by {@code edit}
+	 */
+	PersistentVector removeLast(Object edit) {
+		PersistentVector result = editable(edit);
+		result.size--;
+		result.root = result.removeLast(result.root, result.height - 1, result.size);
+		if (result.height > 1 && result.size <= capacity(result.height - 1)) {
+			result.root = (PersistentVectorNode) result.root.slots[0];
+			result.height--;
+		}
+		return result;
+	}
+
+	/**
+	 * Copy the objects in this list into an array in position order, starting at position
+	 * {@code offset}
+	 * 
+	 * @return the position after the last object copied
+	 */
+	int getValues(Object[] values, int offset) {
+		if (root != null) {
+			getValues(root, height - 1, size, values, offset);
+		}
+		return offset + size;
+	}
+
+	//
+	// TRIE MACHINERY
+	//
+
+	private static int capacity(int height) {
+		return 1 << (BITS * height);
+	}
+
+	private PersistentVector editable(Object edit) {
+		if (this.edit == edit) {
+			return this;
+		}
+		PersistentVector copy = new PersistentVector(edit, template);
+		copy.root = root;
+		copy.height = height;
+		copy.size = size;
+		return copy;
+	}
+
+	/**
+	 * @return a node owned by this list with a slot for {@code index}. A node that this list owns
+	 *         grows by doubling, so that building a node one entry at a time takes linear time.
+	 */
+	private PersistentVectorNode editable(PersistentVectorNode node, int level, int index) {
+		if (node == null) {
+			return new PersistentVectorNode(edit, newSlots(level, index + 1));
+		}
+		if (node.edit == edit && index < node.slots.length) {
+			return node;
+		}
+		int length = Math.max(node.slots.length, index + 1);
+		if (node.edit == edit) {
+			length = Math.min(Math.max(length, node.slots.length * 2), WIDTH);
+		}
+		Object[] slots = newSlots(level, length);
+		System.arraycopy(node.slots, 0, slots, 0, Math.min(node.slots.length, length));
+		if (node.edit == edit) {
+			node.slots = slots;
+			return node;
+		}
+		return new PersistentVectorNode(edit, slots);
+	}
+
+	private Object[] newSlots(int level, int length) {
+		return level == 0 ? ArrayBuilder.newArray(template, length) : new Object[length];
+	}
+
+	private PersistentVectorNode set(PersistentVectorNode node, int level, int position, Object value) {
+		int index = (position >>> (BITS * level)) & MASK;
+		PersistentVectorNode result = editable(node, level, index);
+		if (level == 0) {
+			result.slots[index] = value;
+		} else {
+			PersistentVectorNode child = (PersistentVectorNode) result.slots[index];
+			result.slots[index] = set(child, level - 1, position, value);
+		}
+		return result;
+	}
+
+	/**
+	 * Remove the object at {@code position}, which is the last one under this node
+	 * 
+	 * @return the modified node, or null if the node is now empty
+	 */
+	private PersistentVectorNode removeLast(PersistentVectorNode node, int level, int position) {
+		int index = (position >>> (BITS * level)) & MASK;
+		Object newSlot = null;
+		if (level > 0) {
+			newSlot = removeLast((PersistentVectorNode) node.slots[index], level - 1, position);
+		}
+		if (index == 0 && newSlot == null) {
+			return null;
+		}
+		PersistentVectorNode result = editable(node, level, index);
+		result.slots[index] = newSlot;
+		return result;
+	}
+
+	private static void getValues(PersistentVectorNode node, int level, int count, Object[] values, int offset) {
+		if (level == 0) {
+			System.arraycopy(node.slots, 0, values, offset, count);
+			return;
+		}
+		int childCapacity = capacity(level);
+		for (int i = 0; count > 0; i++) {
+			int childCount = Math.min(count, childCapacity);
+			getValues((PersistentVectorNode) node.slots[i], level - 1, childCount, values, offset);
+			offset += childCount;
+			count -= childCount;
+		}
+	}
+
+}
@@ -21,6 +21,7 @@
 package com.berniecode.ogre.enginelib;
 
 import com.berniecode.ogre.enginelib.platformhooks.OgreException;
+import com.berniecode.ogre.enginelib.platformhooks.ValueValidator;
 
 /**
  * An individual property on an entity type. {@link Property} is to {@link EntityType} as
@@ -50,6 +51,7 @@ public class Property {
 
 	private EntityType entityType;
 	private int propertyIndex;
+	private ValueValidator validator;
 
 	public Property(String name, int typeCode, boolean nullable) {
 		if (typeCode < 0 || typeCode >= TYPECODE_NAMES.length) {
@@ -101,6 +103,17 @@ public class Property {
 		return entityType;
 	}
 
+	/**
+	 * @return a validator for values of this property, built when its type domain is built
+	 */
+	public ValueValidator getValidator() {
+		if (validator == null) {
+			// the property has not been added to a type domain
+			validator = ValueValidator.create(this);
+		}
+		return validator;
+	}
+
 	public static String getNameForTypecode(int typeCode) {
 		return TYPECODE_NAMES[typeCode];
 	}
@@ -111,6 +124,7 @@ public class Property {
 	void initialise(EntityType entityType, int propertyIndex) {
 		this.entityType = entityType;
 		this.propertyIndex = propertyIndex;
+		validator = ValueValidator.create(this);
 	}
 
 }
@@ -0,0 +1,56 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+/**
+ * Holds the version of an {@link EntityStore} that readers currently see, for a
+ * {@link ClientEngine} that applies each graph update to a fork of its store and then publishes
+ * the fork
+ * 
+ * <p>
+ * A fork shares its {@link Entity} objects with the published store, so it stages the new
+ * property values of the entities that it modifies rather than replacing them, and readers only
+ * see the staged values once the fork is the published store. Publishing a store is therefore the
+ * single instant at which every change made by a graph update becomes visible.
+ * 
+ * @author Bernie Sumption
+ */
+class PublishedStore {
+
+	private volatile EntityStore store;
+
+	/**
+	 * @return the published store
+	 */
+	EntityStore get() {
+		return store;
+	}
+
+	/**
+	 * Make a store the published store. The store and its forks will stage changes to existing
+	 * entities until they are published.
+	 */
+	void publish(EntityStore store) {
+		store.setPublisher(this);
+		this.store = store;
+	}
+
+}
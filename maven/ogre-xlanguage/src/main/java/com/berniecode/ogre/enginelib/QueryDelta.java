@@ -0,0 +1,85 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+/**
+ * The changes to the set of entities matched by a {@link ContinuousQuery} caused by a single graph
+ * update
+ * 
+ * @author Bernie Sumption
+ */
+public class QueryDelta {
+
+	private final GraphUpdate graphUpdate;
+	private final Entity[] added;
+	private final Entity[] removed;
+	private final Entity[] changed;
+
+	public QueryDelta(GraphUpdate graphUpdate, Entity[] added, Entity[] removed, Entity[] changed) {
+		this.graphUpdate = graphUpdate;
+		this.added = added;
+		this.removed = removed;
+		this.changed = changed;
+	}
+
+	/**
+	 * @return the graph update that caused these changes, or null if this delta holds the
+	 *         entities that matched when the query was created
+	 */
+	public GraphUpdate getGraphUpdate() {
+		return graphUpdate;
+	}
+
+	/**
+	 * @return the entities that match the query and did not match before
+	 */
+	public Entity[] getAdded() {
+		return added;
+	}
+
+	/**
+	 * @return the entities that matched the query before and either no longer match or have been
+	 *         deleted
+	 */
+	public Entity[] getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * @return the entities that matched the query before and still match, but have been changed
+	 */
+	public Entity[] getChanged() {
+		return changed;
+	}
+
+	/**
+	 * @return true if no entities were added, removed or changed
+	 */
+	public boolean isEmpty() {
+		return added.length == 0 && removed.length == 0 && changed.length == 0;
+	}
+
+	public String toString() {
+		return "query delta with " + added.length + " added, " + removed.length + " removed and " + changed.length
+				+ " changed entities";
+	}
+
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+/**
+ * The reverse index of a single {@link ReferenceProperty}: a table from the ID of each referenced
+ * {@link Entity} to the entities that reference it through the property
+ * 
+ * <p>
+ * The referrers of each target are kept in a {@link PersistentIdMap} keyed by the referrer's ID,
+ * so adding or removing a referrer is idempotent. The caller is responsible for passing the
+ * target that a referrer is being removed from, which the {@link EntityStore} containing the
+ * referrer knows from its old property values. Most entities are referenced at most once through
+ * any given property, so a target with a single referrer stores it directly rather than in a map.
+ * The maps share structure with copies of the table, so an {@link EntityStore} can give each of
+ * its forks a copy in constant time.
+ * 
+ * @author Bernie Sumption
+ */
+class ReferrerTable {
+
+	private static final Entity[] NO_ENTITIES = new Entity[0];
+
+	// the owner token of the structures that this table may modify in place
+	private Object edit = new Object();
+
+	// the referrer of each target, or a PersistentIdMap of them if there is more than one, by
+	// target ID
+	private PersistentIdMap buckets = new PersistentIdMap(edit);
+
+	/**
+	 * @return a new table containing the same entries as this one. Subsequent changes to either
+	 *         table do not affect the other.
+	 */
+	ReferrerTable copy() {
+		ReferrerTable copy = new ReferrerTable();
+		copy.buckets = buckets;
+		edit = new Object();
+		return copy;
+	}
+
+	/**
+	 * Record that an entity references the target with the specified ID. This method has no
+	 * effect if the reference is already recorded.
+	 */
+	void add(long target, Entity referrer) {
+		Object bucket = buckets.get(target);
+		if (bucket == null || bucket == referrer) {
+			buckets = buckets.put(target, referrer, edit);
+			return;
+		}
+		PersistentIdMap referrers;
+		if (bucket instanceof Entity) {
+			Entity single = (Entity) bucket;
+			referrers = new PersistentIdMap(edit).put(single.getEntityId(), single, edit);
+		} else {
+			referrers = (PersistentIdMap) bucket;
+		}
+		setBucket(target, bucket, referrers.put(referrer.getEntityId(), referrer, edit));
+	}
+
+	/**
+	 * Remove the record that the entity with ID {@code referrer} references the target with the
+	 * specified ID. This method has no effect if there is no such record.
+	 */
+	void remove(long target, long referrer) {
+		Object bucket = buckets.get(target);
+		if (bucket instanceof Entity) {
+			if (((Entity) bucket).getEntityId() == referrer) {
+				buckets = buckets.remove(target, edit);
+			}
+		} else if (bucket != null) {
+			PersistentIdMap referrers = ((PersistentIdMap) bucket).remove(referrer, edit);
+			if (referrers.size() == 0) {
+				buckets = buckets.remove(target, edit);
+			} else {
+				setBucket(target, bucket, referrers);
+			}
+		}
+	}
+
+	/**
+	 * Remove every record of a reference to the target with the specified ID
+	 */
+	void removeAll(long target) {
+		buckets = buckets.remove(target, edit);
+	}
+
+	/**
+	 * @return the entities that reference the target with the specified ID, in ascending ID order
+	 */
+	Entity[] get(long target) {
+		Object bucket = buckets.get(target);
+		if (bucket == null) {
+			return NO_ENTITIES;
+		}
+		if (bucket instanceof Entity) {
+			return new Entity[] { (Entity) bucket };
+		}
+		PersistentIdMap referrers = (PersistentIdMap) bucket;
+		Entity[] result = new Entity[referrers.size()];
+		referrers.getValues(result, 0);
+		return result;
+	}
+
+	//
+	// PRIVATE MACHINERY
+	//
+
+	private void setBucket(long target, Object bucket, PersistentIdMap referrers) {
+		if (referrers != bucket) {
+			buckets = buckets.put(target, referrers, edit);
+		}
+	}
+
+}
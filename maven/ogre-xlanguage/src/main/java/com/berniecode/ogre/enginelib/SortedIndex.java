@@ -0,0 +1,178 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import com.berniecode.ogre.enginelib.platformhooks.OgreException;
+import com.berniecode.ogre.enginelib.platformhooks.ValueUtils;
+
+/**
+ * An index that keeps the entities of a type sorted by the value of a numeric or string property,
+ * and then by ID
+ * 
+ * <p>
+ * Range, top-K and rank queries take O(log n + k) time, where k is the number of entities
+ * returned. Entities with a null value sort before all other entities. Strings are compared by
+ * their UTF-16 code units, and floating point values as by {@code Double.compare}.
+ * 
+ * @author Bernie Sumption
+ */
+public class SortedIndex extends EntityIndex {
+
+	private final Property property;
+	private SortedIndexTable table;
+
+	/**
+	 * @throws OgreException if the property is not a numeric or string property
+	 */
+	public SortedIndex(Property property) {
+		switch (property.getTypeCode()) {
+		case Property.TYPECODE_INT32:
+		case Property.TYPECODE_INT64:
+		case Property.TYPECODE_FLOAT:
+		case Property.TYPECODE_DOUBLE:
+		case Property.TYPECODE_STRING:
+			break;
+		default:
+			throw new OgreException("Can't create a sorted index on " + property
+					+ ": only numeric and string properties can be sorted");
+		}
+		this.property = property;
+		table = new SortedIndexTable();
+	}
+
+	/**
+	 * @return the property that this index is sorted by
+	 */
+	public Property getProperty() {
+		return property;
+	}
+
+	public EntityType getEntityType() {
+		return property.getEntityType();
+	}
+
+	/**
+	 * @return the number of entities in this index
+	 */
+	public int size() {
+		return table.size();
+	}
+
+	/**
+	 * @return the entities whose value for the indexed property is between {@code min} and
+	 *         {@code max} inclusive, in ascending order. A null bound leaves that end of the range
+	 *         open.
+	 * 
+	 * @throws OgreException if a bound is not of the correct type for the property
+	 */
+	public Entity[] getRange(Object min, Object max) {
+		return table.getRange(lowerPosition(min), upperPosition(max));
+	}
+
+	/**
+	 * @return the number of entities that would be returned by {@link #getRange(Object, Object)}
+	 */
+	public int countRange(Object min, Object max) {
+		return Math.max(upperPosition(max) - lowerPosition(min), 0);
+	}
+
+	/**
+	 * @return up to {@code count} entities with the lowest values, in ascending order
+	 */
+	public Entity[] getFirst(int count) {
+		return table.getRange(0, count);
+	}
+
+	/**
+	 * @return up to {@code count} entities with the highest values, in descending order
+	 */
+	public Entity[] getLast(int count) {
+		int size = table.size();
+		Entity[] ascending = table.getRange(size - count, size);
+		Entity[] result = new Entity[ascending.length];
+		for (int i = 0; i < ascending.length; i++) {
+			result[i] = ascending[ascending.length - 1 - i];
+		}
+		return result;
+	}
+
+	/**
+	 * @return the entities at positions {@code from} (inclusive) to {@code to} (exclusive) in
+	 *         ascending order
+	 */
+	public Entity[] getByRank(int from, int to) {
+		return table.getRange(from, to);
+	}
+
+	/**
+	 * @return the position of an entity in ascending order, starting at 0, or -1 if the entity is
+	 *         not in this index
+	 */
+	public int getRank(Entity entity) {
+		if (entity.getEntityType() != getEntityType()) {
+			return -1;
+		}
+		return table.getPosition(entity.getEntityId());
+	}
+
+	public String toString() {
+		return "sorted index on " + property;
+	}
+
+	//
+	// OGRE INTERNAL API
+	//
+
+	void update(Entity entity, Object[] values) {
+		table.put(Entity.getRawValue(values, property), entity);
+	}
+
+	void remove(Entity entity) {
+		table.remove(entity.getEntityId());
+	}
+
+	EntityIndex copy() {
+		SortedIndex copy = new SortedIndex(property);
+		copy.table = table.copy();
+		return copy;
+	}
+
+	//
+	// PRIVATE MACHINERY
+	//
+
+	private int lowerPosition(Object min) {
+		if (min == null) {
+			return 0;
+		}
+		ValueUtils.validateRawPropertyValue(property, min);
+		return table.countBelow(min, false);
+	}
+
+	private int upperPosition(Object max) {
+		if (max == null) {
+			return table.size();
+		}
+		ValueUtils.validateRawPropertyValue(property, max);
+		return table.countBelow(max, true);
+	}
+
+}
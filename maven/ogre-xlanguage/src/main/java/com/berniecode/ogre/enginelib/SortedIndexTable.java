@@ -0,0 +1,132 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import com.berniecode.ogre.enginelib.platformhooks.ValueUtils;
+
+/**
+ * An ordered collection of {@link Entity}s sorted by a property value and then by ID, used to
+ * implement sorted indexes
+ * 
+ * <p>
+ * The entries are kept in a {@link PersistentSortedTree}, so entries can be found by value or by
+ * position in O(log n) expected time, a run of k adjacent entries can be read in O(log n + k), and
+ * the table can be copied in constant time. Null values sort before all other values.
+ * 
+ * @author Bernie Sumption
+ */
+class SortedIndexTable {
+
+	private static final Entity[] NO_ENTITIES = new Entity[0];
+
+	// stands in for null in the map of stored values, which can't hold null
+	private static final Object NULL_VALUE = new Object();
+
+	// the owner token of the structures that this table may modify in place
+	private Object edit = new Object();
+
+	// the entities in this table, sorted by value and then by ID
+	private PersistentSortedTree tree = new PersistentSortedTree(edit);
+
+	// the value that each entity is stored under, by ID
+	private PersistentIdMap values = new PersistentIdMap(edit);
+
+	/**
+	 * @return a new table containing the same entries as this one. Subsequent changes to either
+	 *         table do not affect the other.
+	 */
+	SortedIndexTable copy() {
+		SortedIndexTable copy = new SortedIndexTable();
+		copy.tree = tree;
+		copy.values = values;
+		edit = new Object();
+		return copy;
+	}
+
+	/**
+	 * Store an entity under a value, removing it from the value it was previously stored under
+	 */
+	void put(Object value, Entity entity) {
+		long id = entity.getEntityId();
+		Object oldValue = values.get(id);
+		if (oldValue != null) {
+			oldValue = oldValue == NULL_VALUE ? null : oldValue;
+			if (ValueUtils.compareValues(oldValue, value) != 0) {
+				tree = tree.remove(oldValue, id, edit);
+			}
+		}
+		tree = tree.put(value, id, entity, edit);
+		values = values.put(id, value == null ? NULL_VALUE : value, edit);
+	}
+
+	/**
+	 * Remove the entity with the specified ID from this table
+	 */
+	void remove(long id) {
+		Object value = values.get(id);
+		if (value != null) {
+			tree = tree.remove(value == NULL_VALUE ? null : value, id, edit);
+			values = values.remove(id, edit);
+		}
+	}
+
+	/**
+	 * @return the number of entities in this table
+	 */
+	int size() {
+		return tree.size();
+	}
+
+	/**
+	 * @return the position of the entity with the specified ID, or -1 if it is not in this table
+	 */
+	int getPosition(long id) {
+		Object value = values.get(id);
+		if (value == null) {
+			return -1;
+		}
+		return tree.getPosition(value == NULL_VALUE ? null : value, id);
+	}
+
+	/**
+	 * @return the number of entities whose value is less than the specified value, or less than or
+	 *         equal to it if {@code inclusive} is true
+	 */
+	int countBelow(Object value, boolean inclusive) {
+		return tree.countBelow(value, inclusive);
+	}
+
+	/**
+	 * @return the entities at positions {@code from} (inclusive) to {@code to} (exclusive), in
+	 *         order
+	 */
+	Entity[] getRange(int from, int to) {
+		from = Math.max(from, 0);
+		to = Math.min(to, size());
+		if (to <= from) {
+			return NO_ENTITIES;
+		}
+		Entity[] result = new Entity[to - from];
+		tree.getPayloads(from, to, result);
+		return result;
+	}
+
+}
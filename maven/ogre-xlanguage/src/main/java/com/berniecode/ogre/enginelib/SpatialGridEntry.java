@@ -0,0 +1,54 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+/**
+ * The position of an {@link Entity} in a {@link SpatialGridTable}, and where it is stored in the
+ * table
+ * 
+ * @author Bernie Sumption
+ */
+class SpatialGridEntry {
+
+	final Entity entity;
+	final double x;
+	final double y;
+
+	// the key of the cell containing the entity, and the entity's position within the cell
+	final long cell;
+	final int slot;
+
+	SpatialGridEntry(Entity entity, double x, double y, long cell, int slot) {
+		this.entity = entity;
+		this.x = x;
+		this.y = y;
+		this.cell = cell;
+		this.slot = slot;
+	}
+
+	/**
+	 * @return an entry for the same entity at a different position within its cell
+	 */
+	SpatialGridEntry withSlot(int slot) {
+		return new SpatialGridEntry(entity, x, y, cell, slot);
+	}
+
+}
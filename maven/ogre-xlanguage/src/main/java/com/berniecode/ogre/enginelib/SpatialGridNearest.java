@@ -0,0 +1,108 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+/**
+ * The closest entries to a point found so far by a nearest neighbour query on a
+ * {@link SpatialGridTable}, kept in order of distance and then by ID
+ * 
+ * @author Bernie Sumption
+ */
+class SpatialGridNearest {
+
+	private final double x;
+	private final double y;
+	private final SpatialGridEntry[] found;
+	private final double[] distances;
+	private int size;
+
+	SpatialGridNearest(double x, double y, int count) {
+		this.x = x;
+		this.y = y;
+		found = new SpatialGridEntry[count];
+		distances = new double[count];
+	}
+
+	boolean isFull() {
+		return size == found.length;
+	}
+
+	/**
+	 * @return the squared distance of the furthest entry found so far
+	 */
+	double worstDistance() {
+		return distances[size - 1];
+	}
+
+	/**
+	 * Offer every entry in a cell of a {@link SpatialGridTable}
+	 */
+	void offerAll(PersistentVector cell) {
+		for (int i = 0; i < cell.size(); i++) {
+			offer((SpatialGridEntry) cell.get(i));
+		}
+	}
+
+	void offer(SpatialGridEntry entry) {
+		double dx = entry.x - x;
+		double dy = entry.y - y;
+		double distance = dx * dx + dy * dy;
+		int position = size;
+		while (position > 0 && closer(distance, entry, distances[position - 1], found[position - 1])) {
+			position--;
+		}
+		if (position == found.length) {
+			return;
+		}
+		int last = Math.min(size, found.length - 1);
+		System.arraycopy(found, position, found, position + 1, last - position);
+		System.arraycopy(distances, position, distances, position + 1, last - position);
+		found[position] = entry;
+		distances[position] = distance;
+		if (size < found.length) {
+			size++;
+		}
+	}
+
+	/**
+	 * @return the entities found, nearest first
+	 */
+	Entity[] getEntities() {
+		Entity[] result = new Entity[size];
+		for (int i = 0; i < size; i++) {
+			result[i] = found[i].entity;
+		}
+		return result;
+	}
+
+	//
+	// PRIVATE MACHINERY
+	//
+
+	private static boolean closer(double distance, SpatialGridEntry entry, double otherDistance,
+			SpatialGridEntry other) {
+		if (distance != otherDistance) {
+			return distance < otherDistance;
+		}
+		return entry.entity.getEntityId() < other.entity.getEntityId();
+	}
+
+}
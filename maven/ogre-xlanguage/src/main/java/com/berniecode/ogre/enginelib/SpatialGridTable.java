@@ -0,0 +1,296 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+/**
+ * A uniform grid of square cells containing {@link Entity}s positioned by a pair of coordinates,
+ * used to implement spatial indexes
+ * 
+ * <p>
+ * Only occupied cells are stored, in a {@link PersistentIdMap} keyed by cell position, so the
+ * table can be copied in constant time. A rectangle query visits only the cells that overlap the
+ * rectangle, and a nearest neighbour query visits rings of cells around the query point until no
+ * closer entity can remain, so neither scans the whole table unless the query covers most of it.
+ * 
+ * @author Bernie Sumption
+ */
+class SpatialGridTable {
+
+	private static final Entity[] NO_ENTITIES = new Entity[0];
+	private static final SpatialGridEntry[] NO_ENTRIES = new SpatialGridEntry[0];
+
+	private final double cellSize;
+
+	// the owner token of the structures that this table may modify in place
+	private Object edit = new Object();
+
+	// a PersistentVector of the SpatialGridEntrys in each occupied cell, by cell key
+	private PersistentIdMap cells = new PersistentIdMap(edit);
+
+	// the SpatialGridEntry for each entity, by ID
+	private PersistentIdMap entries = new PersistentIdMap(edit);
+
+	// bounds of the cells that have been occupied, which may be larger than the occupied area
+	private int minCellX = Integer.MAX_VALUE;
+	private int minCellY = Integer.MAX_VALUE;
+	private int maxCellX = Integer.MIN_VALUE;
+	private int maxCellY = Integer.MIN_VALUE;
+
+	SpatialGridTable(double cellSize) {
+		this.cellSize = cellSize;
+	}
+
+	/**
+	 * @return a new table containing the same entries as this one. Subsequent changes to either
+	 *         table do not affect the other.
+	 */
+	SpatialGridTable copy() {
+		SpatialGridTable copy = new SpatialGridTable(cellSize);
+		copy.cells = cells;
+		copy.entries = entries;
+		copy.minCellX = minCellX;
+		copy.minCellY = minCellY;
+		copy.maxCellX = maxCellX;
+		copy.maxCellY = maxCellY;
+		edit = new Object();
+		return copy;
+	}
+
+	/**
+	 * Store an entity at a position, moving it if it is already in this table. If either
+	 * coordinate is null or not a number, the entity is removed instead.
+	 * 
+	 * @param x an {@link Integer}, {@link Long}, {@link Float} or {@link Double}
+	 * @param y an {@link Integer}, {@link Long}, {@link Float} or {@link Double}
+	 */
+	void put(Entity entity, Object x, Object y) {
+		remove(entity.getEntityId());
+		if (x == null || y == null) {
+			return;
+		}
+		double xValue = ((Number) x).doubleValue();
+		double yValue = ((Number) y).doubleValue();
+		if (Double.isNaN(xValue) || Double.isNaN(yValue)) {
+			return;
+		}
+		int cx = cellIndex(xValue);
+		int cy = cellIndex(yValue);
+		long key = cellKey(cx, cy);
+		PersistentVector cell = (PersistentVector) cells.get(key);
+		if (cell == null) {
+			cell = new PersistentVector(edit, NO_ENTRIES);
+		}
+		SpatialGridEntry entry = new SpatialGridEntry(entity, xValue, yValue, key, cell.size());
+		entries = entries.put(entity.getEntityId(), entry, edit);
+		cells = cells.put(key, cell.add(entry, edit), edit);
+		minCellX = Math.min(minCellX, cx);
+		minCellY = Math.min(minCellY, cy);
+		maxCellX = Math.max(maxCellX, cx);
+		maxCellY = Math.max(maxCellY, cy);
+	}
+
+	/**
+	 * Remove the entity with the specified ID from this table
+	 */
+	void remove(long id) {
+		SpatialGridEntry entry = (SpatialGridEntry) entries.get(id);
+		if (entry == null) {
+			return;
+		}
+		entries = entries.remove(id, edit);
+		PersistentVector cell = (PersistentVector) cells.get(entry.cell);
+		int last = cell.size() - 1;
+		if (last == 0) {
+			cells = cells.remove(entry.cell, edit);
+			return;
+		}
+		// fill the hole in the cell with its last entry
+		PersistentVector newCell = cell;
+		if (entry.slot != last) {
+			SpatialGridEntry moved = ((SpatialGridEntry) cell.get(last)).withSlot(entry.slot);
+			newCell = newCell.set(entry.slot, moved, edit);
+			entries = entries.put(moved.entity.getEntityId(), moved, edit);
+		}
+		newCell = newCell.removeLast(edit);
+		if (newCell != cell) {
+			cells = cells.put(entry.cell, newCell, edit);
+		}
+	}
+
+	/**
+	 * @return the number of entities in this table
+	 */
+	int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @return the entities whose position is within a rectangle, including its edges
+	 */
+	Entity[] getInRectangle(double minX, double minY, double maxX, double maxY) {
+		if (minX > maxX || minY > maxY) {
+			return NO_ENTITIES;
+		}
+		int fromX = Math.max(cellIndex(minX), minCellX);
+		int fromY = Math.max(cellIndex(minY), minCellY);
+		int toX = Math.min(cellIndex(maxX), maxCellX);
+		int toY = Math.min(cellIndex(maxY), maxCellY);
+		if (fromX > toX || fromY > toY) {
+			return NO_ENTITIES;
+		}
+		Object[] overlapping;
+		int cellCount = 0;
+		if (((double) toX - fromX + 1) * ((double) toY - fromY + 1) > cells.size()) {
+			// the rectangle covers more cells than are occupied, so check every occupied cell
+			overlapping = getOccupiedCells();
+			cellCount = overlapping.length;
+		} else {
+			overlapping = new Object[(toX - fromX + 1) * (toY - fromY + 1)];
+			for (long cx = fromX; cx <= toX; cx++) {
+				for (long cy = fromY; cy <= toY; cy++) {
+					Object cell = cells.get(cellKey((int) cx, (int) cy));
+					if (cell != null) {
+						overlapping[cellCount++] = cell;
+					}
+				}
+			}
+		}
+		int capacity = 0;
+		for (int i = 0; i < cellCount; i++) {
+			capacity += ((PersistentVector) overlapping[i]).size();
+		}
+		Entity[] found = new Entity[capacity];
+		int count = 0;
+		for (int i = 0; i < cellCount; i++) {
+			count = addInRectangle((PersistentVector) overlapping[i], minX, minY, maxX, maxY, found, count);
+		}
+		if (count == capacity) {
+			return found;
+		}
+		Entity[] result = new Entity[count];
+		System.arraycopy(found, 0, result, 0, count);
+		return result;
+	}
+
+	/**
+	 * @return up to {@code count} entities closest to a point, nearest first. Entities at the same
+	 *         distance are ordered by ID.
+	 */
+	Entity[] getNearest(double x, double y, int count) {
+		count = Math.min(count, entries.size());
+		if (count <= 0) {
+			return NO_ENTITIES;
+		}
+		SpatialGridNearest nearest = new SpatialGridNearest(x, y, count);
+		int centreX = cellIndex(x);
+		int centreY = cellIndex(y);
+		int maxRing = Math.max(Math.max(distance(centreX, minCellX), distance(centreX, maxCellX)), Math.max(distance(
+				centreY, minCellY), distance(centreY, maxCellY)));
+		for (int ring = 0; ring <= maxRing; ring++) {
+			// every entity outside the rings visited so far is at least this far from the point
+			double reach = (ring - 1) * cellSize;
+			if (ring > 0 && nearest.isFull() && nearest.worstDistance() < reach * reach) {
+				break;
+			}
+			if (8L * ring > cells.size()) {
+				// the ring has more cells than are occupied, so check the remaining occupied cells
+				Object[] occupied = getOccupiedCells();
+				for (int i = 0; i < occupied.length; i++) {
+					PersistentVector cell = (PersistentVector) occupied[i];
+					long key = ((SpatialGridEntry) cell.get(0)).cell;
+					int cellDistance = Math.max(distance(centreX, (int) (key >> 32)), distance(centreY, (int) key));
+					if (cellDistance >= ring) {
+						nearest.offerAll(cell);
+					}
+				}
+				break;
+			}
+			visitRing(centreX, centreY, ring, nearest);
+		}
+		return nearest.getEntities();
+	}
+
+	//
+	// PRIVATE MACHINERY
+	//
+
+	private Object[] getOccupiedCells() {
+		Object[] occupied = new Object[cells.size()];
+		cells.getValues(occupied, 0);
+		return occupied;
+	}
+
+	private void visitRing(long centreX, long centreY, int ring, SpatialGridNearest nearest) {
+		if (ring == 0) {
+			visitCell(centreX, centreY, nearest);
+			return;
+		}
+		for (int i = -ring; i <= ring; i++) {
+			visitCell(centreX + i, centreY - ring, nearest);
+			visitCell(centreX + i, centreY + ring, nearest);
+		}
+		for (int i = -ring + 1; i < ring; i++) {
+			visitCell(centreX - ring, centreY + i, nearest);
+			visitCell(centreX + ring, centreY + i, nearest);
+		}
+	}
+
+	private void visitCell(long cx, long cy, SpatialGridNearest nearest) {
+		if (cx < minCellX || cx > maxCellX || cy < minCellY || cy > maxCellY) {
+			return;
+		}
+		PersistentVector cell = (PersistentVector) cells.get(cellKey((int) cx, (int) cy));
+		if (cell != null) {
+			nearest.offerAll(cell);
+		}
+	}
+
+	/**
+	 * Copy the entities in a cell that are within a rectangle into an array, starting at position
+	 * {@code offset}
+	 * 
+	 * @return the position after the last entity copied
+	 */
+	private static int addInRectangle(PersistentVector cell, double minX, double minY, double maxX, double maxY,
+			Entity[] found, int offset) {
+		for (int i = 0; i < cell.size(); i++) {
+			SpatialGridEntry entry = (SpatialGridEntry) cell.get(i);
+			if (entry.x >= minX && entry.x <= maxX && entry.y >= minY && entry.y <= maxY) {
+				found[offset++] = entry.entity;
+			}
+		}
+		return offset;
+	}
+
+	private int cellIndex(double coordinate) {
+		// casting saturates at the limits of int, so distant points share the outermost cells
+		return (int) Math.floor(coordinate / cellSize);
+	}
+
+	private static long cellKey(int cx, int cy) {
+		return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+	}
+
+	private static int distance(int a, int b) {
+		return (int) Math.min(Math.abs((long) a - b), Integer.MAX_VALUE);
+	}
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+import com.berniecode.ogre.enginelib.platformhooks.OgreException;
+
+/**
+ * An index that finds entities by their position in two dimensions, given by a pair of numeric
+ * properties
+ * 
+ * <p>
+ * Entities are placed in a uniform grid of square cells, so rectangle and nearest neighbour
+ * queries only examine the cells around the area of interest. The cell size should be chosen so
+ * that a typical query covers a handful of cells. Entities with a null coordinate are not indexed.
+ * 
+ * @author Bernie Sumption
+ */
+public class SpatialIndex extends EntityIndex {
+
+	private final Property xProperty;
+	private final Property yProperty;
+	private final double cellSize;
+	private SpatialGridTable table;
+
+	/**
+	 * @throws OgreException if the properties are not numeric properties of the same entity type,
+	 *             or if the cell size is not positive
+	 */
+	public SpatialIndex(Property xProperty, Property yProperty, double cellSize) {
+		requireNumeric(xProperty);
+		requireNumeric(yProperty);
+		if (xProperty.getEntityType() != yProperty.getEntityType()) {
+			throw new OgreException("Can't create a spatial index on " + xProperty + " and " + yProperty
+					+ ": the properties belong to different entity types");
+		}
+		if (!(cellSize > 0)) {
+			throw new OgreException("Can't create a spatial index with a cell size of " + cellSize);
+		}
+		this.xProperty = xProperty;
+		this.yProperty = yProperty;
+		this.cellSize = cellSize;
+		table = new SpatialGridTable(cellSize);
+	}
+
+	/**
+	 * @return the property that provides the x coordinate of each entity
+	 */
+	public Property getXProperty() {
+		return xProperty;
+	}
+
+	/**
+	 * @return the property that provides the y coordinate of each entity
+	 */
+	public Property getYProperty() {
+		return yProperty;
+	}
+
+	/**
+	 * @return the width and height of each cell in the grid
+	 */
+	public double getCellSize() {
+		return cellSize;
+	}
+
+	public EntityType getEntityType() {
+		return xProperty.getEntityType();
+	}
+
+	/**
+	 * @return the number of entities in this index
+	 */
+	public int size() {
+		return table.size();
+	}
+
+	/**
+	 * @return the entities positioned within a rectangle, including its edges, in no particular
+	 *         order
+	 */
+	public Entity[] getInRectangle(double minX, double minY, double maxX, double maxY) {
+		return table.getInRectangle(minX, minY, maxX, maxY);
+	}
+
+	/**
+	 * @return up to {@code count} entities closest to a point, nearest first
+	 */
+	public Entity[] getNearest(double x, double y, int count) {
+		return table.getNearest(x, y, count);
+	}
+
+	public String toString() {
+		return "spatial index on " + xProperty + " and " + yProperty;
+	}
+
+	//
+	// OGRE INTERNAL API
+	//
+
+	void update(Entity entity, Object[] values) {
+		table.put(entity, Entity.getRawValue(values, xProperty), Entity.getRawValue(values, yProperty));
+	}
+
+	void remove(Entity entity) {
+		table.remove(entity.getEntityId());
+	}
+
+	EntityIndex copy() {
+		SpatialIndex copy = new SpatialIndex(xProperty, yProperty, cellSize);
+		copy.table = table.copy();
+		return copy;
+	}
+
+	//
+	// PRIVATE MACHINERY
+	//
+
+	private static void requireNumeric(Property property) {
+		switch (property.getTypeCode()) {
+		case Property.TYPECODE_INT32:
+		case Property.TYPECODE_INT64:
+		case Property.TYPECODE_FLOAT:
+		case Property.TYPECODE_DOUBLE:
+			return;
+		default:
+			throw new OgreException("Can't create a spatial index on " + property
+					+ ": only numeric properties can be used as coordinates");
+		}
+	}
+
+}
@@ -0,0 +1,42 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib;
+
+/**
+ * A {@link RecoverableTransportAdapter} that can also fetch every graph update published since a
+ * known data version, allowing a client restored from a {@link GraphCache} to catch up without
+ * reloading the whole object graph
+ * 
+ * @author Bernie Sumption
+ */
+public interface WarmStartTransportAdapter extends RecoverableTransportAdapter {
+
+	/**
+	 * Load the graph updates published after the one with data version <code>dataVersion</code>,
+	 * in order
+	 * 
+	 * @return the updates, which will be empty if <code>dataVersion</code> is the latest, or null if
+	 *         the server no longer has all of them or the object graph is no longer using the
+	 *         specified data version scheme
+	 */
+	GraphUpdate[] loadGraphUpdatesSince(TypeDomain typeDomain, String objectGraphId, int dataVersionScheme,
+			int dataVersion);
+}
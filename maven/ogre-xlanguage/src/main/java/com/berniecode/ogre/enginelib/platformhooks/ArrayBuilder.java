@@ -54,6 +54,13 @@ public class ArrayBuilder {
 		}
 	}
 
+	/**
+	 * Make an empty array with the same component type as {@code template}
+	 */
+	public static Object[] newArray(Object[] template, int length) {
+		return (Object[]) Array.newInstance(template.getClass().getComponentType(), length);
+	}
+
 	/**
 	 * Make an array containing all the items added to this builder
 	 */
@@ -0,0 +1,201 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib.platformhooks;
+
+import com.berniecode.ogre.enginelib.LogWriter;
+import com.berniecode.ogre.enginelib.OgreLog;
+
+/**
+ * A {@link LogWriter} that hands messages to another LogWriter on a background thread, so that
+ * threads logging messages never wait for slow output such as the standard error stream.
+ * 
+ * <p>
+ * Messages are queued in a fixed size ring buffer, so queueing a message allocates nothing. If
+ * messages are logged faster than the delegate can write them and the buffer fills up, further
+ * messages are discarded rather than blocking the logging thread, and the number discarded is
+ * reported as a warning once there is room again. Call {@link #flush()} to wait for queued
+ * messages to be written, and {@link #close()} to write them and stop the background thread.
+ * 
+ * @author Bernie Sumption
+ */
+public class AsyncLogWriter implements LogWriter {
+
+	public static final int DEFAULT_CAPACITY = 8192;
+
+	private final LogWriter delegate;
+	private final Object lock = new Object();
+
+	// ring buffer of queued messages. The oldest is at position head, and there are count of them.
+	private final int[] levels;
+	private final String[] levelDescriptions;
+	private final String[] messages;
+	private int head;
+	private int count;
+
+	// messages discarded since the last report
+	private int dropped;
+	// messages taken from the buffer but not yet written
+	private int writing;
+	private boolean closed;
+
+	private final Thread thread;
+
+	/**
+	 * Create a writer with a buffer of {@link #DEFAULT_CAPACITY} messages
+	 */
+	public AsyncLogWriter(LogWriter delegate) {
+		this(delegate, DEFAULT_CAPACITY);
+	}
+
+	/**
+	 * Create a writer with a buffer of the specified number of messages
+	 */
+	public AsyncLogWriter(LogWriter delegate, int capacity) {
+		if (capacity < 1) {
+			throw new OgreException("capacity must be at least 1");
+		}
+		this.delegate = delegate;
+		levels = new int[capacity];
+		levelDescriptions = new String[capacity];
+		messages = new String[capacity];
+		thread = new Thread("AsyncLogWriter") {
+			@Override
+			public void run() {
+				writeMessages();
+			}
+		};
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public void acceptMessage(int level, String levelDescription, String message) {
+		synchronized (lock) {
+			if (closed || count == messages.length) {
+				dropped++;
+				return;
+			}
+			int tail = (head + count) % messages.length;
+			levels[tail] = level;
+			levelDescriptions[tail] = levelDescription;
+			messages[tail] = message;
+			count++;
+			if (count == 1) {
+				lock.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * @return the number of messages waiting to be written
+	 */
+	public int getQueuedMessageCount() {
+		synchronized (lock) {
+			return count;
+		}
+	}
+
+	/**
+	 * Wait until every message queued so far has been passed to the delegate
+	 */
+	public void flush() throws InterruptedException {
+		synchronized (lock) {
+			while ((count > 0 || writing > 0) && thread.isAlive()) {
+				lock.wait(100);
+			}
+		}
+	}
+
+	/**
+	 * Write any queued messages and stop the background thread. Messages logged after this is
+	 * called are discarded.
+	 */
+	public void close() throws InterruptedException {
+		synchronized (lock) {
+			closed = true;
+			lock.notifyAll();
+		}
+		thread.join();
+	}
+
+	//
+	// PRIVATE MACHINERY
+	//
+
+	private void writeMessages() {
+		int[] batchLevels = new int[levels.length];
+		String[] batchDescriptions = new String[levels.length];
+		String[] batchMessages = new String[levels.length];
+		while (true) {
+			int batchSize;
+			int droppedInBatch;
+			synchronized (lock) {
+				while (count == 0 && !closed) {
+					try {
+						lock.wait();
+					} catch (InterruptedException e) {
+						return;
+					}
+				}
+				if (count == 0) {
+					// closed, and everything has been written
+					lock.notifyAll();
+					return;
+				}
+				// take every queued message at once, so that loggers are only blocked for a copy
+				batchSize = count;
+				for (int i = 0; i < batchSize; i++) {
+					int position = (head + i) % messages.length;
+					batchLevels[i] = levels[position];
+					batchDescriptions[i] = levelDescriptions[position];
+					batchMessages[i] = messages[position];
+					levelDescriptions[position] = null;
+					messages[position] = null;
+				}
+				head = (head + batchSize) % messages.length;
+				count = 0;
+				writing = batchSize;
+				droppedInBatch = dropped;
+				dropped = 0;
+			}
+			for (int i = 0; i < batchSize; i++) {
+				try {
+					delegate.acceptMessage(batchLevels[i], batchDescriptions[i], batchMessages[i]);
+				} catch (RuntimeException e) {
+					// a failing delegate must not stop the writer thread
+				}
+				batchDescriptions[i] = null;
+				batchMessages[i] = null;
+			}
+			if (droppedInBatch > 0) {
+				try {
+					delegate.acceptMessage(OgreLog.LEVEL_WARN, "WARN", "AsyncLogWriter: discarded " + droppedInBatch
+							+ " log messages because the buffer was full");
+				} catch (RuntimeException e) {
+				}
+			}
+			synchronized (lock) {
+				writing = 0;
+				lock.notifyAll();
+			}
+		}
+	}
+
+}
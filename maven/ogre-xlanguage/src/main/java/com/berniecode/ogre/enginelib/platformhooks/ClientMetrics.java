@@ -0,0 +1,367 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib.platformhooks;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.berniecode.ogre.enginelib.ClientEngine;
+import com.berniecode.ogre.enginelib.GraphUpdate;
+
+/**
+ * A registry of metrics describing how a client replicates an object graph: how many graph updates
+ * are applied and how long they take, how many entities they change, how much data is received and
+ * how long it takes to decode, and how far the client has fallen behind the server.
+ * 
+ * <p>
+ * A single registry is usually shared between a {@link ClientEngine} and its transport adapter, by
+ * passing it to both of their setMetrics() methods. The engine records graph updates as they are
+ * applied and the transport records messages as they are received and decoded. Metrics can be
+ * read through the getter methods of this class, or pushed to a monitoring system by passing a
+ * {@link MetricsSink} to {@link #report(MetricsSink)}. Recording and reading metrics are
+ * thread-safe.
+ * 
+ * <p>
+ * The data version lag is the difference between the highest data version that has been received
+ * and the data version of the last update applied, so a client whose lag keeps growing is falling
+ * behind the server.
+ * 
+ * @author Bernie Sumption
+ */
+public final class ClientMetrics {
+
+	private static final long NANOS_PER_SECOND = 1000000000L;
+
+	private final AtomicLong updatesApplied = new AtomicLong();
+	private final AtomicLong entitiesCreated = new AtomicLong();
+	private final AtomicLong entitiesUpdated = new AtomicLong();
+	private final AtomicLong entitiesDeleted = new AtomicLong();
+	private volatile int lastEntitiesCreated;
+	private volatile int lastEntitiesUpdated;
+	private volatile int lastEntitiesDeleted;
+	private final LatencyHistogram applyLatency = new LatencyHistogram();
+
+	private final AtomicLong messagesReceived = new AtomicLong();
+	private final AtomicLong bytesReceived = new AtomicLong();
+	private final LatencyHistogram decodeLatency = new LatencyHistogram();
+
+	private final AtomicLong versionGaps = new AtomicLong();
+	private final AtomicLong missingVersions = new AtomicLong();
+	private final AtomicLong objectGraphReloads = new AtomicLong();
+
+	// data versions, guarded by versionLock
+	private final Object versionLock = new Object();
+	private boolean hasReceived;
+	private int receivedScheme;
+	private int receivedVersion;
+	private boolean hasApplied;
+	private int appliedScheme;
+	private int appliedVersion;
+
+	// the rate of applied updates is measured over windows of at least one second, guarded by rateLock
+	private final Object rateLock = new Object();
+	private long windowStart = now();
+	private long windowCount;
+	private double lastRate;
+
+	/**
+	 * @return the current value of the clock used to time operations, in nanoseconds. Pass this
+	 *         to the record methods that take a start time.
+	 */
+	public static long now() {
+		return System.nanoTime();
+	}
+
+	//
+	// RECORDING
+	//
+
+	/**
+	 * Record that a graph update has been applied. An update that is the result of squashing
+	 * together several updates in catch-up mode counts as one.
+	 * 
+	 * @param startNanos the value of {@link #now()} when the engine started applying the update
+	 * @param created the number of entities created by the update
+	 * @param updated the number of entities updated by the update
+	 * @param deleted the number of entities deleted by the update
+	 */
+	public void recordUpdateApplied(GraphUpdate update, long startNanos, int created, int updated, int deleted) {
+		long end = now();
+		applyLatency.record(end - startNanos);
+		updatesApplied.incrementAndGet();
+		entitiesCreated.addAndGet(created);
+		entitiesUpdated.addAndGet(updated);
+		entitiesDeleted.addAndGet(deleted);
+		lastEntitiesCreated = created;
+		lastEntitiesUpdated = updated;
+		lastEntitiesDeleted = deleted;
+		synchronized (versionLock) {
+			hasApplied = true;
+			appliedScheme = update.getDataVersionScheme();
+			appliedVersion = update.getDataVersion();
+		}
+		synchronized (rateLock) {
+			long elapsed = end - windowStart;
+			if (elapsed >= NANOS_PER_SECOND) {
+				lastRate = windowCount * (double) NANOS_PER_SECOND / elapsed;
+				windowStart = end;
+				windowCount = 0;
+			}
+			windowCount++;
+		}
+	}
+
+	/**
+	 * Record that a graph update has been received, but not necessarily applied yet
+	 */
+	public void recordUpdateReceived(GraphUpdate update) {
+		int scheme = update.getDataVersionScheme();
+		int version = update.getDataVersion();
+		synchronized (versionLock) {
+			if (!hasReceived || scheme != receivedScheme || version > receivedVersion) {
+				hasReceived = true;
+				receivedScheme = scheme;
+				receivedVersion = version;
+			}
+		}
+	}
+
+	/**
+	 * Record that a serialised message has been received
+	 */
+	public void recordMessageReceived(int bytes) {
+		messagesReceived.incrementAndGet();
+		bytesReceived.addAndGet(bytes);
+	}
+
+	/**
+	 * Record that a serialised graph update has been decoded
+	 * 
+	 * @param startNanos the value of {@link #now()} when decoding started
+	 */
+	public void recordDecode(long startNanos) {
+		decodeLatency.record(now() - startNanos);
+	}
+
+	/**
+	 * Record a gap in the sequence of data versions received
+	 * 
+	 * @param missing the number of data versions missing from the sequence
+	 */
+	public void recordVersionGap(int missing) {
+		versionGaps.incrementAndGet();
+		missingVersions.addAndGet(missing);
+	}
+
+	/**
+	 * Record that the object graph has been reloaded from the server, because missing updates could
+	 * not be recovered or the data version scheme changed
+	 */
+	public void recordObjectGraphReload() {
+		objectGraphReloads.incrementAndGet();
+	}
+
+	//
+	// READING
+	//
+
+	/**
+	 * @return the number of graph updates applied
+	 */
+	public long getUpdatesApplied() {
+		return updatesApplied.get();
+	}
+
+	/**
+	 * @return the rate at which graph updates were applied over the last period of at least one
+	 *         second
+	 */
+	public double getUpdatesPerSecond() {
+		synchronized (rateLock) {
+			long elapsed = now() - windowStart;
+			if (elapsed >= NANOS_PER_SECOND) {
+				return windowCount * (double) NANOS_PER_SECOND / elapsed;
+			}
+			return lastRate;
+		}
+	}
+
+	/**
+	 * @return the time taken to apply graph updates
+	 */
+	public LatencyHistogram getApplyLatency() {
+		return applyLatency;
+	}
+
+	/**
+	 * @return the total number of entities created by applied graph updates
+	 */
+	public long getEntitiesCreated() {
+		return entitiesCreated.get();
+	}
+
+	/**
+	 * @return the total number of entities updated by applied graph updates
+	 */
+	public long getEntitiesUpdated() {
+		return entitiesUpdated.get();
+	}
+
+	/**
+	 * @return the total number of entities deleted by applied graph updates
+	 */
+	public long getEntitiesDeleted() {
+		return entitiesDeleted.get();
+	}
+
+	/**
+	 * @return the number of entities created by the last graph update applied
+	 */
+	public int getLastEntitiesCreated() {
+		return lastEntitiesCreated;
+	}
+
+	/**
+	 * @return the number of entities updated by the last graph update applied
+	 */
+	public int getLastEntitiesUpdated() {
+		return lastEntitiesUpdated;
+	}
+
+	/**
+	 * @return the number of entities deleted by the last graph update applied
+	 */
+	public int getLastEntitiesDeleted() {
+		return lastEntitiesDeleted;
+	}
+
+	/**
+	 * @return the number of serialised messages received
+	 */
+	public long getMessagesReceived() {
+		return messagesReceived.get();
+	}
+
+	/**
+	 * @return the total size of the serialised messages received, in bytes
+	 */
+	public long getBytesReceived() {
+		return bytesReceived.get();
+	}
+
+	/**
+	 * @return the time taken to decode serialised graph updates
+	 */
+	public LatencyHistogram getDecodeLatency() {
+		return decodeLatency;
+	}
+
+	/**
+	 * @return the number of gaps detected in the sequence of data versions received
+	 */
+	public long getVersionGaps() {
+		return versionGaps.get();
+	}
+
+	/**
+	 * @return the total number of data versions missing from the gaps detected
+	 */
+	public long getMissingVersions() {
+		return missingVersions.get();
+	}
+
+	/**
+	 * @return the number of times the object graph has been reloaded from the server
+	 */
+	public long getObjectGraphReloads() {
+		return objectGraphReloads.get();
+	}
+
+	/**
+	 * @return the data version of the last graph update applied, or -1 if none has been applied
+	 */
+	public int getAppliedDataVersion() {
+		synchronized (versionLock) {
+			return hasApplied ? appliedVersion : -1;
+		}
+	}
+
+	/**
+	 * @return the highest data version received, or -1 if no graph update has been received
+	 */
+	public int getReceivedDataVersion() {
+		synchronized (versionLock) {
+			return hasReceived ? receivedVersion : -1;
+		}
+	}
+
+	/**
+	 * @return the number of data versions that have been received but not yet applied. This is 0
+	 *         if the last update received has a different data version scheme to the last update
+	 *         applied, since versions from different schemes can't be compared.
+	 */
+	public int getDataVersionLag() {
+		synchronized (versionLock) {
+			if (!hasReceived || !hasApplied || receivedScheme != appliedScheme) {
+				return 0;
+			}
+			return Math.max(0, receivedVersion - appliedVersion);
+		}
+	}
+
+	/**
+	 * Pass the current value of every metric to a {@link MetricsSink}. Latency histograms are
+	 * reported as their count, mean, maximum and 50th, 99th and 99.9th percentiles in microseconds.
+	 */
+	public void report(MetricsSink sink) {
+		sink.acceptMetric("updates.applied", getUpdatesApplied());
+		sink.acceptMetric("updates.perSecond", getUpdatesPerSecond());
+		reportLatency(sink, "updates.applyMicros", applyLatency);
+		sink.acceptMetric("entities.created", getEntitiesCreated());
+		sink.acceptMetric("entities.updated", getEntitiesUpdated());
+		sink.acceptMetric("entities.deleted", getEntitiesDeleted());
+		sink.acceptMetric("entities.lastCreated", getLastEntitiesCreated());
+		sink.acceptMetric("entities.lastUpdated", getLastEntitiesUpdated());
+		sink.acceptMetric("entities.lastDeleted", getLastEntitiesDeleted());
+		sink.acceptMetric("messages.received", getMessagesReceived());
+		sink.acceptMetric("messages.bytesReceived", getBytesReceived());
+		reportLatency(sink, "messages.decodeMicros", decodeLatency);
+		sink.acceptMetric("versions.gaps", getVersionGaps());
+		sink.acceptMetric("versions.missing", getMissingVersions());
+		sink.acceptMetric("versions.reloads", getObjectGraphReloads());
+		sink.acceptMetric("versions.applied", getAppliedDataVersion());
+		sink.acceptMetric("versions.received", getReceivedDataVersion());
+		sink.acceptMetric("versions.lag", getDataVersionLag());
+	}
+
+	//
+	// PRIVATE MACHINERY
+	//
+
+	private void reportLatency(MetricsSink sink, String name, LatencyHistogram histogram) {
+		sink.acceptMetric(name + ".count", histogram.getCount());
+		sink.acceptMetric(name + ".mean", histogram.getMeanMicros());
+		sink.acceptMetric(name + ".max", histogram.getMaxMicros());
+		sink.acceptMetric(name + ".p50", histogram.getPercentileMicros(50));
+		sink.acceptMetric(name + ".p99", histogram.getPercentileMicros(99));
+		sink.acceptMetric(name + ".p999", histogram.getPercentileMicros(99.9));
+	}
+
+}
@@ -20,32 +20,71 @@
 
 package com.berniecode.ogre.enginelib.platformhooks;
 
-import java.util.HashMap;
-import java.util.Map;
-
 import com.berniecode.ogre.enginelib.Entity;
+import com.berniecode.ogre.enginelib.EntityVisitor;
 
 /**
  * A collection of {@link Entity}s of a single entity type, indexed by ID for quick access
  * 
+ * <p>
+ * The entities are kept in a dense array, and an {@link IdIndex} maps each ID to the position of
+ * its entity in that array. Deletes move the last entity into the hole left by the deleted one.
+ * 
  * @author Bernie Sumption
  */
 public class EntityMap {
 
-	private Map entities = new HashMap();
+	private static final int MIN_CAPACITY = 8;
+
+	// dense array of the entities in this map, in positions 0 to size - 1
+	private Entity[] entities;
+	private int size;
+
+	private IdIndex positions;
+
+	public EntityMap() {
+		entities = new Entity[MIN_CAPACITY];
+		positions = new IdIndex();
+	}
+
+	/**
+	 * @return a new map containing the same entities as this one. Subsequent changes to either map
+	 *         do not affect the other.
+	 */
+	public EntityMap copy() {
+		EntityMap copy = new EntityMap();
+		copy.entities = new Entity[entities.length];
+		System.arraycopy(entities, 0, copy.entities, 0, size);
+		copy.size = size;
+		copy.positions = positions.copy();
+		return copy;
+	}
 
 	/**
 	 * Check if this map contains an entity of the specified ID
 	 */
 	public boolean contains(long id) {
-		return entities.containsKey(Long.valueOf(id));
+		return positions.contains(id);
 	}
 
 	/**
-	 * Store an entity in this map
+	 * Store an entity in this map, replacing any existing entity with the same ID
 	 */
 	public void put(Entity entity) {
-		entities.put(Long.valueOf(entity.getEntityId()), entity);
+		long id = entity.getEntityId();
+		int position = positions.get(id);
+		if (position != -1) {
+			entities[position] = entity;
+			return;
+		}
+		if (size == entities.length) {
+			Entity[] newEntities = new Entity[size * 2];
+			System.arraycopy(entities, 0, newEntities, 0, size);
+			entities = newEntities;
+		}
+		entities[size] = entity;
+		positions.put(id, size);
+		size++;
 	}
 
 	/**
@@ -53,7 +92,24 @@ public class EntityMap {
 	 *         and is safe to modify.
 	 */
 	public Entity[] getEntities() {
-		return (Entity[]) entities.values().toArray(new Entity[0]);
+		Entity[] result = new Entity[size];
+		System.arraycopy(entities, 0, result, 0, size);
+		return result;
+	}
+
+	/**
+	 * Pass each {@link Entity} in this map to a visitor, without copying the map. The visitor must
+	 * not modify the map.
+	 * 
+	 * @return false if the visitor stopped the iteration, true otherwise
+	 */
+	public boolean forEach(EntityVisitor visitor) {
+		for (int i = 0; i < size; i++) {
+			if (!visitor.visit(entities[i])) {
+				return false;
+			}
+		}
+		return true;
 	}
 
 	/**
@@ -61,14 +117,34 @@ public class EntityMap {
 	 *         this map
 	 */
 	public Entity get(long id) {
-		return (Entity) entities.get(Long.valueOf(id));
+		int position = positions.get(id);
+		return position == -1 ? null : entities[position];
 	}
 
 	/**
 	 * Remove an entity form this map
 	 */
 	public void remove(long id) {
-		entities.remove(Long.valueOf(id));
+		int position = positions.remove(id);
+		if (position == -1) {
+			return;
+		}
+		// fill the hole in the dense array with the last entity
+		int last = size - 1;
+		if (position != last) {
+			Entity moved = entities[last];
+			entities[position] = moved;
+			positions.put(moved.getEntityId(), position);
+		}
+		entities[last] = null;
+		size--;
+	}
+
+	/**
+	 * @return the number of {@link Entity}s in this map
+	 */
+	public int size() {
+		return size;
 	}
 
 }
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib.platformhooks;
+
+/**
+ * An index from entity IDs to non-negative integers, typically positions in an array
+ * 
+ * <p>
+ * This is an open addressing hash table keyed on primitive longs, so lookups don't box IDs.
+ * Deletes shift the colliding entries back, so the table never contains tombstones.
+ * 
+ * @author Bernie Sumption
+ */
+public class IdIndex {
+
+	private static final int MIN_CAPACITY = 16;
+
+	// the hash table. Slot i occupies table[2i] and table[2i + 1] so that a probe touches a single
+	// cache line. table[2i + 1] is the value stored for the id in table[2i] plus one, or 0 if the
+	// slot is empty
+	private long[] table;
+	private int mask;
+	private int shift;
+	private int size;
+
+	public IdIndex() {
+		allocateTable(MIN_CAPACITY);
+	}
+
+	/**
+	 * @return a new index containing the same entries as this one. Subsequent changes to either
+	 *         index do not affect the other.
+	 */
+	public IdIndex copy() {
+		IdIndex copy = new IdIndex();
+		copy.table = new long[table.length];
+		System.arraycopy(table, 0, copy.table, 0, table.length);
+		copy.mask = mask;
+		copy.shift = shift;
+		copy.size = size;
+		return copy;
+	}
+
+	/**
+	 * Check if this index contains an entry for the specified ID
+	 */
+	public boolean contains(long id) {
+		return table[findSlot(id) * 2 + 1] != 0;
+	}
+
+	/**
+	 * @return the value stored for the specified ID, or -1 if there is no such entry
+	 */
+	public int get(long id) {
+		return (int) table[findSlot(id) * 2 + 1] - 1;
+	}
+
+	/**
+	 * Store a value for an ID, replacing any existing value for the same ID
+	 */
+	public void put(long id, int value) {
+		int slot = findSlot(id);
+		if (table[slot * 2 + 1] == 0) {
+			table[slot * 2] = id;
+			size++;
+		}
+		table[slot * 2 + 1] = value + 1;
+		if (size * 2 > mask + 1) {
+			long[] oldTable = table;
+			allocateTable((mask + 1) * 2);
+			for (int i = 1; i < oldTable.length; i += 2) {
+				if (oldTable[i] != 0) {
+					insert(oldTable[i - 1], oldTable[i]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Remove the entry for an ID
+	 * 
+	 * @return the value that was stored for the ID, or -1 if there was no such entry
+	 */
+	public int remove(long id) {
+		int slot = findSlot(id);
+		int value = (int) table[slot * 2 + 1] - 1;
+		if (value != -1) {
+			deleteSlot(slot);
+			size--;
+		}
+		return value;
+	}
+
+	/**
+	 * @return the number of entries in this index
+	 */
+	public int size() {
+		return size;
+	}
+
+	//
+	// HASH TABLE MACHINERY
+	//
+
+	private void allocateTable(int capacity) {
+		table = new long[capacity * 2];
+		mask = capacity - 1;
+		shift = 64 - Integer.numberOfTrailingZeros(capacity);
+	}
+
+	/**
+	 * Fibonacci hashing. IDs are usually allocated sequentially, and without scrambling they would
+	 * form one long cluster of occupied slots that misses and deletes would have to scan to the end.
+	 */
+	private int homeSlot(long id) {
+		return (int) ((id * 0x9E3779B97F4A7C15L) >>> shift);
+	}
+
+	/**
+	 * @return the slot containing the specified id, or the empty slot where it should be inserted
+	 */
+	private int findSlot(long id) {
+		int slot = homeSlot(id);
+		while (table[slot * 2 + 1] != 0 && table[slot * 2] != id) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private void insert(long id, long storedValue) {
+		int slot = homeSlot(id);
+		while (table[slot * 2 + 1] != 0) {
+			slot = (slot + 1) & mask;
+		}
+		table[slot * 2] = id;
+		table[slot * 2 + 1] = storedValue;
+	}
+
+	/**
+	 * Empty a slot, then shift back any entries in the same probe sequence that would become
+	 * unreachable, so that lookups can keep stopping at the first empty slot
+	 */
+	private void deleteSlot(int hole) {
+		int slot = hole;
+		while (true) {
+			slot = (slot + 1) & mask;
+			if (table[slot * 2 + 1] == 0) {
+				break;
+			}
+			int home = homeSlot(table[slot * 2]);
+			// the entry can move back to the hole unless its home slot lies cyclically in (hole, slot]
+			boolean homeBetween = hole <= slot ? (hole < home && home <= slot) : (hole < home || home <= slot);
+			if (!homeBetween) {
+				table[hole * 2] = table[slot * 2];
+				table[hole * 2 + 1] = table[slot * 2 + 1];
+				hole = slot;
+			}
+		}
+		table[hole * 2 + 1] = 0;
+	}
+
+}
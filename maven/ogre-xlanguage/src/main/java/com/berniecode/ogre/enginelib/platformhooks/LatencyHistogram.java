@@ -0,0 +1,128 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib.platformhooks;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of durations, used by {@link ClientMetrics} to record how long operations take.
+ * 
+ * <p>
+ * Durations are counted in buckets whose bounds are powers of two microseconds, so recording a
+ * duration is a few atomic increments and the histogram takes a fixed, small amount of memory no
+ * matter how many durations it records. The percentiles it reports are accurate to within a factor
+ * of two, which is enough to tell whether an operation takes microseconds, milliseconds or seconds.
+ * Durations can be recorded and read concurrently.
+ * 
+ * @author Bernie Sumption
+ */
+public final class LatencyHistogram {
+
+	// bucket 0 holds durations under 1us, bucket i holds durations from 2^(i-1) to 2^i - 1 us
+	private static final int BUCKET_COUNT = 40;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong totalNanos = new AtomicLong();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * Record a duration in nanoseconds
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		long micros = nanos / 1000;
+		int bucket = Math.min(64 - Long.numberOfLeadingZeros(micros), BUCKET_COUNT - 1);
+		buckets.incrementAndGet(bucket);
+		count.incrementAndGet();
+		totalNanos.addAndGet(nanos);
+		long max;
+		while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+		}
+	}
+
+	/**
+	 * @return the number of durations recorded
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the mean of the recorded durations in microseconds, or 0 if there are none
+	 */
+	public double getMeanMicros() {
+		long n = count.get();
+		return n == 0 ? 0 : totalNanos.get() / 1000.0 / n;
+	}
+
+	/**
+	 * @return the longest recorded duration in microseconds
+	 */
+	public double getMaxMicros() {
+		return maxNanos.get() / 1000.0;
+	}
+
+	/**
+	 * @param percentile a number between 0 and 100
+	 * @return the upper bound in microseconds of the bucket holding the duration at a percentile, or
+	 *         0 if there are no durations
+	 */
+	public long getPercentileMicros(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new OgreException("percentile must be between 0 and 100, not " + percentile);
+		}
+		long[] snapshot = new long[BUCKET_COUNT];
+		long total = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			snapshot[i] = buckets.get(i);
+			total += snapshot[i];
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += snapshot[i];
+			if (seen >= rank) {
+				return (1L << i) - 1;
+			}
+		}
+		return (1L << (BUCKET_COUNT - 1)) - 1;
+	}
+
+	/**
+	 * Discard all recorded durations
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		totalNanos.set(0);
+		maxNanos.set(0);
+	}
+
+}
@@ -0,0 +1,487 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib.platformhooks;
+
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import com.berniecode.ogre.enginelib.Property;
+
+/**
+ * A column of values for a single property, one value per row
+ * 
+ * <p>
+ * Integer and floating point values are stored in arrays of the corresponding primitive type, so
+ * they are not boxed, and references are stored as an array of IDs. Other values are stored as
+ * objects. Nulls in primitive columns are recorded in a separate bit set, which is only allocated
+ * for nullable properties.
+ * 
+ * <p>
+ * An off-heap column instead stores each row in a fixed width slot of a direct {@link ByteBuffer}.
+ * Strings and byte arrays are copied into a second direct buffer, the arena, and their slot holds
+ * their position in the arena. Values overwritten in the arena are reclaimed by compacting it when
+ * it fills up. Strings and byte arrays are therefore copied onto the heap each time they are read.
+ * Each buffer is limited to 2GB.
+ * 
+ * @author Bernie Sumption
+ */
+public class ValueColumn {
+
+	private static final int MIN_CAPACITY = 8;
+	private static final int MIN_ARENA_CAPACITY = 1024;
+
+	private final int typeCode;
+	private final boolean nullable;
+	private final boolean offHeap;
+
+	// exactly one of these arrays is used, depending on the type code
+	private int[] ints;
+	private long[] longs;
+	private float[] floats;
+	private double[] doubles;
+	private Object[] objects;
+
+	// used instead of the arrays in off-heap columns. The slot of a string or byte array holds its
+	// offset in the arena in the high 32 bits and its length plus one in the low 32 bits, or 0 for
+	// null.
+	private ByteBuffer data;
+	private int width;
+	private ByteBuffer arena;
+	private int arenaUsed;
+	private int arenaGarbage;
+
+	// bit i is set if row i is null, for nullable primitive columns only
+	private long[] nulls;
+
+	private int capacity;
+
+	public ValueColumn(Property property) {
+		this(property, false);
+	}
+
+	/**
+	 * @param offHeap whether to store the values of this column in direct buffers outside the Java
+	 *            heap
+	 */
+	public ValueColumn(Property property, boolean offHeap) {
+		typeCode = property.getTypeCode();
+		nullable = property.isNullable() && isPrimitive();
+		this.offHeap = offHeap;
+		width = typeCode == Property.TYPECODE_INT32 || typeCode == Property.TYPECODE_FLOAT ? 4 : 8;
+		allocate(MIN_CAPACITY);
+		if (offHeap && !isPrimitive() && typeCode != Property.TYPECODE_REFERENCE) {
+			arena = allocateDirect(MIN_ARENA_CAPACITY);
+		}
+	}
+
+	/**
+	 * @return true if the values of this column are stored outside the Java heap
+	 */
+	public boolean isOffHeap() {
+		return offHeap;
+	}
+
+	/**
+	 * @return the number of rows that this column can hold without growing
+	 */
+	public int getCapacity() {
+		return capacity;
+	}
+
+	/**
+	 * Grow this column if necessary so that it can hold at least the specified number of rows
+	 */
+	public void ensureCapacity(int rows) {
+		if (rows > capacity) {
+			int newCapacity = capacity * 2;
+			if (newCapacity < rows) {
+				newCapacity = rows;
+			}
+			allocate(newCapacity);
+		}
+	}
+
+	/**
+	 * @return the value in a row, boxed in the same way as raw property values. Reference values
+	 *         are returned as boxed IDs.
+	 */
+	public Object get(int row) {
+		if (nullable && isNull(row)) {
+			return null;
+		}
+		switch (typeCode) {
+		case Property.TYPECODE_INT32:
+			return Integer.valueOf(getInt(row));
+		case Property.TYPECODE_INT64:
+			return Long.valueOf(getLong(row));
+		case Property.TYPECODE_FLOAT:
+			return Float.valueOf(getFloat(row));
+		case Property.TYPECODE_DOUBLE:
+			return Double.valueOf(getDouble(row));
+		case Property.TYPECODE_REFERENCE:
+			long id = getLong(row);
+			return id == 0 ? null : ValueUtils.idToObject(id);
+		default:
+			return getObject(row);
+		}
+	}
+
+	/**
+	 * Set the value of a row from a raw property value. Reference values must be boxed IDs.
+	 */
+	public void set(int row, Object value) {
+		if (nullable) {
+			setNull(row, value == null);
+		}
+		switch (typeCode) {
+		case Property.TYPECODE_INT32:
+			putInt(row, value == null ? 0 : ((Integer) value).intValue());
+			break;
+		case Property.TYPECODE_INT64:
+			putLong(row, value == null ? 0 : ((Long) value).longValue());
+			break;
+		case Property.TYPECODE_FLOAT:
+			putFloat(row, value == null ? 0 : ((Float) value).floatValue());
+			break;
+		case Property.TYPECODE_DOUBLE:
+			putDouble(row, value == null ? 0 : ((Double) value).doubleValue());
+			break;
+		case Property.TYPECODE_REFERENCE:
+			putLong(row, value == null ? 0 : ValueUtils.objectToId(value));
+			break;
+		default:
+			putObject(row, value);
+		}
+	}
+
+	/**
+	 * @return true if a row holds a null value
+	 */
+	public boolean isNull(int row) {
+		if (nullable) {
+			return (nulls[row >> 6] & (1L << row)) != 0;
+		}
+		if (typeCode == Property.TYPECODE_REFERENCE) {
+			return getLong(row) == 0;
+		}
+		if (offHeap) {
+			return arena != null && data.getLong(row * 8) == 0;
+		}
+		return objects != null && objects[row] == null;
+	}
+
+	/**
+	 * @return the value in a row of an int32 column
+	 */
+	public int getInt(int row) {
+		return offHeap ? data.getInt(row * 4) : ints[row];
+	}
+
+	/**
+	 * @return the value in a row of an int64 column, or the ID in a row of a reference column (0
+	 *         for null)
+	 */
+	public long getLong(int row) {
+		return offHeap ? data.getLong(row * 8) : longs[row];
+	}
+
+	/**
+	 * @return the value in a row of a float column
+	 */
+	public float getFloat(int row) {
+		return offHeap ? data.getFloat(row * 4) : floats[row];
+	}
+
+	/**
+	 * @return the value in a row of a double column
+	 */
+	public double getDouble(int row) {
+		return offHeap ? data.getDouble(row * 8) : doubles[row];
+	}
+
+	/**
+	 * Copy the value of one row to another. The row copied from must then be cleared or
+	 * overwritten.
+	 */
+	public void move(int from, int to) {
+		if (nullable) {
+			setNull(to, isNull(from));
+		}
+		switch (typeCode) {
+		case Property.TYPECODE_INT32:
+			putInt(to, getInt(from));
+			break;
+		case Property.TYPECODE_INT64:
+		case Property.TYPECODE_REFERENCE:
+			putLong(to, getLong(from));
+			break;
+		case Property.TYPECODE_FLOAT:
+			putFloat(to, getFloat(from));
+			break;
+		case Property.TYPECODE_DOUBLE:
+			putDouble(to, getDouble(from));
+			break;
+		default:
+			if (offHeap) {
+				// the arena space moves with the value, rather than being shared by both rows
+				releaseArenaSpace(to);
+				data.putLong(to * 8, data.getLong(from * 8));
+				data.putLong(from * 8, 0);
+			} else {
+				objects[to] = objects[from];
+			}
+		}
+	}
+
+	/**
+	 * Release any object held by a row
+	 */
+	public void clear(int row) {
+		if (objects != null) {
+			objects[row] = null;
+		}
+		if (arena != null) {
+			releaseArenaSpace(row);
+			data.putLong(row * 8, 0);
+		}
+	}
+
+	//
+	// PRIVATE MACHINERY
+	//
+
+	private boolean isPrimitive() {
+		return typeCode == Property.TYPECODE_INT32 || typeCode == Property.TYPECODE_INT64
+				|| typeCode == Property.TYPECODE_FLOAT || typeCode == Property.TYPECODE_DOUBLE;
+	}
+
+	private void setNull(int row, boolean isNull) {
+		if (isNull) {
+			nulls[row >> 6] |= 1L << row;
+		} else {
+			nulls[row >> 6] &= ~(1L << row);
+		}
+	}
+
+	private void putInt(int row, int value) {
+		if (offHeap) {
+			data.putInt(row * 4, value);
+		} else {
+			ints[row] = value;
+		}
+	}
+
+	private void putLong(int row, long value) {
+		if (offHeap) {
+			data.putLong(row * 8, value);
+		} else {
+			longs[row] = value;
+		}
+	}
+
+	private void putFloat(int row, float value) {
+		if (offHeap) {
+			data.putFloat(row * 4, value);
+		} else {
+			floats[row] = value;
+		}
+	}
+
+	private void putDouble(int row, double value) {
+		if (offHeap) {
+			data.putDouble(row * 8, value);
+		} else {
+			doubles[row] = value;
+		}
+	}
+
+	private Object getObject(int row) {
+		if (!offHeap) {
+			return objects[row];
+		}
+		long slot = data.getLong(row * 8);
+		if (slot == 0) {
+			return null;
+		}
+		byte[] bytes = new byte[(int) slot - 1];
+		ByteBuffer source = arena.duplicate();
+		source.position((int) (slot >>> 32));
+		source.get(bytes);
+		if (typeCode == Property.TYPECODE_STRING) {
+			try {
+				return new String(bytes, "UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new OgreException("UTF-8 is not supported", e);
+			}
+		}
+		return bytes;
+	}
+
+	private void putObject(int row, Object value) {
+		if (!offHeap) {
+			objects[row] = value;
+			return;
+		}
+		releaseArenaSpace(row);
+		if (value == null) {
+			data.putLong(row * 8, 0);
+			return;
+		}
+		byte[] bytes;
+		if (typeCode == Property.TYPECODE_STRING) {
+			try {
+				bytes = ((String) value).getBytes("UTF-8");
+			} catch (UnsupportedEncodingException e) {
+				throw new OgreException("UTF-8 is not supported", e);
+			}
+		} else {
+			bytes = (byte[]) value;
+		}
+		// clear the slot first, so that compacting the arena does not copy the old value
+		data.putLong(row * 8, 0);
+		reserveArenaSpace(bytes.length);
+		ByteBuffer target = arena.duplicate();
+		target.position(arenaUsed);
+		target.put(bytes);
+		data.putLong(row * 8, ((long) arenaUsed << 32) | (bytes.length + 1L));
+		arenaUsed += bytes.length;
+	}
+
+	private void releaseArenaSpace(int row) {
+		long slot = data.getLong(row * 8);
+		if (slot != 0) {
+			arenaGarbage += (int) slot - 1;
+		}
+	}
+
+	/**
+	 * Make sure there is room for a value of the specified length at the end of the arena,
+	 * compacting it into a new buffer, twice as large if it is more than half full of live values,
+	 * if there is not
+	 */
+	private void reserveArenaSpace(int length) {
+		if ((long) arenaUsed + length <= arena.capacity()) {
+			return;
+		}
+		long live = arenaUsed - arenaGarbage;
+		long newCapacity = arena.capacity();
+		if (live + length > newCapacity / 2) {
+			newCapacity = Math.max(newCapacity * 2, live + length);
+			if (newCapacity > Integer.MAX_VALUE) {
+				if (live + length > Integer.MAX_VALUE) {
+					throw new OgreException("An off-heap column can't hold more than 2GB of strings or bytes");
+				}
+				newCapacity = Integer.MAX_VALUE;
+			}
+		}
+		ByteBuffer newArena = allocateDirect((int) newCapacity);
+		int used = 0;
+		for (int row = 0; row < capacity; row++) {
+			long slot = data.getLong(row * 8);
+			if (slot != 0) {
+				int offset = (int) (slot >>> 32);
+				int valueLength = (int) slot - 1;
+				ByteBuffer source = arena.duplicate();
+				source.limit(offset + valueLength);
+				source.position(offset);
+				newArena.position(used);
+				newArena.put(source);
+				data.putLong(row * 8, ((long) used << 32) | (valueLength + 1L));
+				used += valueLength;
+			}
+		}
+		arena = newArena;
+		arenaUsed = used;
+		arenaGarbage = 0;
+	}
+
+	private void allocate(int newCapacity) {
+		if (offHeap) {
+			if ((long) newCapacity * width > Integer.MAX_VALUE) {
+				throw new OgreException("An off-heap column can't hold more than " + Integer.MAX_VALUE / width
+						+ " rows");
+			}
+			ByteBuffer newData = allocateDirect(newCapacity * width);
+			if (data != null) {
+				ByteBuffer old = data.duplicate();
+				old.clear();
+				newData.put(old);
+			}
+			data = newData;
+		} else {
+			allocateArrays(newCapacity);
+		}
+		if (nullable) {
+			long[] newNulls = new long[(newCapacity + 63) >> 6];
+			if (nulls != null) {
+				System.arraycopy(nulls, 0, newNulls, 0, nulls.length);
+			}
+			nulls = newNulls;
+		}
+		capacity = newCapacity;
+	}
+
+	private void allocateArrays(int newCapacity) {
+		switch (typeCode) {
+		case Property.TYPECODE_INT32:
+			int[] newInts = new int[newCapacity];
+			if (ints != null) {
+				System.arraycopy(ints, 0, newInts, 0, capacity);
+			}
+			ints = newInts;
+			break;
+		case Property.TYPECODE_INT64:
+		case Property.TYPECODE_REFERENCE:
+			long[] newLongs = new long[newCapacity];
+			if (longs != null) {
+				System.arraycopy(longs, 0, newLongs, 0, capacity);
+			}
+			longs = newLongs;
+			break;
+		case Property.TYPECODE_FLOAT:
+			float[] newFloats = new float[newCapacity];
+			if (floats != null) {
+				System.arraycopy(floats, 0, newFloats, 0, capacity);
+			}
+			floats = newFloats;
+			break;
+		case Property.TYPECODE_DOUBLE:
+			double[] newDoubles = new double[newCapacity];
+			if (doubles != null) {
+				System.arraycopy(doubles, 0, newDoubles, 0, capacity);
+			}
+			doubles = newDoubles;
+			break;
+		default:
+			Object[] newObjects = new Object[newCapacity];
+			if (objects != null) {
+				System.arraycopy(objects, 0, newObjects, 0, capacity);
+			}
+			objects = newObjects;
+		}
+	}
+
+	private static ByteBuffer allocateDirect(int bytes) {
+		return ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+	}
+
+}
@@ -22,9 +22,7 @@ package com.berniecode.ogre.enginelib.platformhooks;
 
 import java.util.Arrays;
 
-import com.berniecode.ogre.enginelib.Entity;
 import com.berniecode.ogre.enginelib.Property;
-import com.berniecode.ogre.enginelib.ReferenceProperty;
 
 /**
  * Cross-language operations for working with values
@@ -62,6 +60,35 @@ public class ValueUtils {
 		return value1.equals(value2);
 	}
 
+	/**
+	 * @return a hash code for a value, such that values that are equivalent according to
+	 *         {@link #valuesAreEquivalent(Object, Object)} have the same hash code
+	 */
+	public static int hashValue(Object value) {
+		if (value == null) {
+			return 0;
+		}
+		if (value instanceof byte[]) {
+			return Arrays.hashCode((byte[]) value);
+		}
+		return value.hashCode();
+	}
+
+	/**
+	 * Compare two values of the same numeric or string property, with null sorting before all other
+	 * values
+	 * 
+	 * @return a negative number, zero or a positive number if the first value is less than, equal to
+	 *         or greater than the second
+	 */
+	@SuppressWarnings("unchecked")
+	public static int compareValues(Object value1, Object value2) {
+		if (value1 == null || value2 == null) {
+			return value1 == null ? (value2 == null ? 0 : -1) : 1;
+		}
+		return ((Comparable<Object>) value1).compareTo(value2);
+	}
+
 	/**
 	 * Unbox an object created with {@link #idToObject(long)}
 	 */
@@ -82,51 +109,18 @@ public class ValueUtils {
 	 * @throws OgreException if the value is not of the correct type
 	 */
 	public static void validatePropertyValue(Property property, Object object) {
-		if (object == null) {
-			if (!property.isNullable()) {
-				throw new InvalidGraphUpdateException("Invalid value for " + property
-						+ ": null values are not permitted");
-			}
-			return;
-		}
-		Class requiredClass;
-		switch (property.getTypeCode()) {
-		case Property.TYPECODE_INT32:
-			requiredClass = Integer.class;
-			break;
-		case Property.TYPECODE_INT64:
-			requiredClass = Long.class;
-			break;
-		case Property.TYPECODE_FLOAT:
-			requiredClass = Float.class;
-			break;
-		case Property.TYPECODE_DOUBLE:
-			requiredClass = Double.class;
-			break;
-		case Property.TYPECODE_STRING:
-			requiredClass = String.class;
-			break;
-		case Property.TYPECODE_BYTES:
-			requiredClass = byte[].class;
-			break;
-		case Property.TYPECODE_REFERENCE:
-			requiredClass = Entity.class;
-			break;
-		default:
-			throw new InvalidGraphUpdateException(property + " has invalid invalid typeCode: " + property.getTypeCode());
-		}
-		if (!requiredClass.isInstance(object)) {
-			throw new InvalidGraphUpdateException("Invalid value for " + property + ": expected " + requiredClass
-					+ ", found " + object.getClass());
-		}
-		if (property.getTypeCode() == Property.TYPECODE_REFERENCE) {
-			Entity entity = (Entity) object;
-			if (entity.getEntityType() != ((ReferenceProperty) property).getReferenceType()) {
-				throw new InvalidGraphUpdateException("Invalid value for " + property + ": expected entity of type "
-						+ entity.getEntityType() + ", found entity of type "
-						+ ((ReferenceProperty) property).getReferenceType());
-			}
-		}
+		property.getValidator().validate(object);
+	}
+
+	/**
+	 * Check whether an arbitrary value is a suitable runtime type for a specific property, where
+	 * references are represented by IDs boxed with {@link #idToObject(long)} rather than by
+	 * entities.
+	 * 
+	 * @throws OgreException if the value is not of the correct type
+	 */
+	public static void validateRawPropertyValue(Property property, Object object) {
+		property.getValidator().validateRaw(object);
 	}
 
 	/**
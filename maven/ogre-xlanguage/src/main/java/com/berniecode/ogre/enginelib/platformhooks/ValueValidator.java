@@ -0,0 +1,145 @@
+/*
+ * Copyright 2011 Bernie Sumption. All rights reserved.
+ * 
+ * Redistribution and use in source and binary forms, with or without modification, are permitted
+ * provided that the following conditions are met:
+ * 
+ * Redistributions of source code must retain the above copyright notice, this list of conditions
+ * and the following disclaimer. Redistributions in binary form must reproduce the above copyright
+ * notice, this list of conditions and the following disclaimer in the documentation and/or other
+ * materials provided with the distribution. THIS SOFTWARE IS PROVIDED ``AS
+ * IS'' AND ANY EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED WARRANTIES
+ * OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE DISCLAIMED. IN NO EVENT SHALL THE
+ * FREEBSD PROJECT OR CONTRIBUTORS BE LIABLE FOR ANY DIRECT, INDIRECT, INCIDENTAL, SPECIAL,
+ * EXEMPLARY, OR CONSEQUENTIAL DAMAGES (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE
+ * GOODS OR SERVICES; LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND ON
+ * ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT (INCLUDING NEGLIGENCE OR
+ * OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY
+ * OF SUCH DAMAGE.
+ */
+
+package com.berniecode.ogre.enginelib.platformhooks;
+
+import com.berniecode.ogre.enginelib.Entity;
+import com.berniecode.ogre.enginelib.EntityType;
+import com.berniecode.ogre.enginelib.Property;
+import com.berniecode.ogre.enginelib.ReferenceProperty;
+
+/**
+ * Checks that values are a suitable runtime type for a single {@link Property}.
+ * 
+ * <p>
+ * A validator is built once for each property when its type domain is built, so that checking a
+ * value needs only a null check and a comparison of the value's class with the class the property
+ * requires, rather than a switch over the property's typecode and a reflective
+ * {@link Class#isInstance(Object)} call. The classes used for every typecode except references are
+ * final, so the comparison is exact.
+ * 
+ * @author Bernie Sumption
+ */
+public final class ValueValidator {
+
+	private final Property property;
+	private final boolean nullable;
+	private final Class<?> requiredClass;
+	private final Class<?> requiredRawClass;
+	// the entity type that values of a reference property must have, or null for other properties
+	private final EntityType referenceType;
+
+	private ValueValidator(Property property, Class<?> requiredClass, Class<?> requiredRawClass,
+			EntityType referenceType) {
+		this.property = property;
+		this.nullable = property.isNullable();
+		this.requiredClass = requiredClass;
+		this.requiredRawClass = requiredRawClass;
+		this.referenceType = referenceType;
+	}
+
+	/**
+	 * @return a validator for a property. Reference properties must already have been linked to
+	 *         their reference type.
+	 */
+	public static ValueValidator create(Property property) {
+		Class<?> requiredClass;
+		switch (property.getTypeCode()) {
+		case Property.TYPECODE_INT32:
+			requiredClass = Integer.class;
+			break;
+		case Property.TYPECODE_INT64:
+			requiredClass = Long.class;
+			break;
+		case Property.TYPECODE_FLOAT:
+			requiredClass = Float.class;
+			break;
+		case Property.TYPECODE_DOUBLE:
+			requiredClass = Double.class;
+			break;
+		case Property.TYPECODE_STRING:
+			requiredClass = String.class;
+			break;
+		case Property.TYPECODE_BYTES:
+			requiredClass = byte[].class;
+			break;
+		case Property.TYPECODE_REFERENCE:
+			return new ValueValidator(property, Entity.class, Long.class, ((ReferenceProperty) property)
+					.getReferenceType());
+		default:
+			throw new InvalidGraphUpdateException(property + " has invalid invalid typeCode: " + property.getTypeCode());
+		}
+		return new ValueValidator(property, requiredClass, requiredClass, null);
+	}
+
+	/**
+	 * Check whether a value is a suitable runtime type for this validator's property
+	 * 
+	 * @throws InvalidGraphUpdateException if the value is not of the correct type
+	 */
+	public void validate(Object value) {
+		if (value == null) {
+			checkNullable();
+		} else if (value.getClass() != requiredClass) {
+			// Entity is the only required class that can be subclassed
+			if (referenceType == null || !(value instanceof Entity)) {
+				throw invalidValue(requiredClass, value);
+			}
+		}
+		if (referenceType != null && value != null) {
+			EntityType entityType = ((Entity) value).getEntityType();
+			if (entityType != referenceType) {
+				throw new InvalidGraphUpdateException("Invalid value for " + property + ": expected entity of type "
+						+ referenceType + ", found entity of type " + entityType);
+			}
+		}
+	}
+
+	/**
+	 * Check whether a value is a suitable runtime type for this validator's property, where
+	 * references are represented by IDs boxed with {@link ValueUtils#idToObject(long)} rather than
+	 * by entities.
+	 * 
+	 * @throws InvalidGraphUpdateException if the value is not of the correct type
+	 */
+	public void validateRaw(Object value) {
+		if (value == null) {
+			checkNullable();
+		} else if (value.getClass() != requiredRawClass) {
+			throw invalidValue(requiredRawClass, value);
+		}
+	}
+
+	//
+	// PRIVATE MACHINERY
+	//
+
+	private void checkNullable() {
+		if (!nullable) {
+			throw new InvalidGraphUpdateException("Invalid value for " + property + ": null values are not permitted");
+		}
+	}
+
+	private InvalidGraphUpdateException invalidValue(Class<?> expected, Object value) {
+		return new InvalidGraphUpdateException("Invalid value for " + property + ": expected " + expected
+				+ ", found " + value.getClass());
+	}
+
+}